@@ -25,6 +25,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
 import org.jetbrains.kotlin.psi.JetFile;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.kotlin.name.FqName;
@@ -40,6 +41,7 @@ public class ClassFileFactory implements OutputFileCollection {
     private final ClassBuilderFactory builderFactory;
     private final Map<FqName, PackageCodegen> package2codegen = new HashMap<FqName, PackageCodegen>();
     private final Map<String, ClassBuilderAndSourceFileList> generators = new LinkedHashMap<String, ClassBuilderAndSourceFileList>();
+    private final ThreadLocal<BufferedOutput> currentBuffer = new ThreadLocal<BufferedOutput>();
 
     private boolean isDone = false;
 
@@ -65,10 +67,43 @@ public class ClassFileFactory implements OutputFileCollection {
         List<File> ioSourceFiles = toIoFilesIgnoringNonPhysical(sourceFiles);
         state.getProgress().reportOutput(ioSourceFiles, new File(outputFilePath));
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(outputFilePath, new ClassBuilderAndSourceFileList(answer, ioSourceFiles));
+        BufferedOutput buffer = currentBuffer.get();
+        (buffer != null ? buffer.generators : generators).put(outputFilePath, new ClassBuilderAndSourceFileList(answer, ioSourceFiles));
         return answer;
     }
 
+    /**
+     * Runs the task so that classes created and diagnostics reported by it on the current thread are not added to the output immediately,
+     * but are collected to the returned buffer instead. The buffer should be passed to {@link #commitBuffered} afterwards.
+     */
+    @NotNull
+    BufferedOutput generateBuffered(@NotNull Runnable task) {
+        BufferedOutput previous = currentBuffer.get();
+        BufferedOutput buffer = new BufferedOutput();
+        currentBuffer.set(buffer);
+        try {
+            state.getDiagnostics().collectReported(task, buffer.diagnostics);
+        }
+        finally {
+            if (previous != null) {
+                currentBuffer.set(previous);
+            }
+            else {
+                currentBuffer.remove();
+            }
+        }
+        return buffer;
+    }
+
+    void commitBuffered(@NotNull BufferedOutput buffer) {
+        assert currentBuffer.get() == null : "Buffered output should be committed outside of buffered generation";
+        generators.putAll(buffer.generators);
+        for (String relativePath : buffer.removedOutputs) {
+            generators.remove(relativePath);
+        }
+        state.getDiagnostics().reportCollected(buffer.diagnostics);
+    }
+
     void done() {
         if (!isDone) {
             isDone = true;
@@ -93,6 +128,10 @@ public class ClassFileFactory implements OutputFileCollection {
     @Override
     @Nullable
     public OutputFile get(@NotNull String relativePath) {
+        BufferedOutput buffer = currentBuffer.get();
+        if (buffer != null && buffer.generators.containsKey(relativePath)) {
+            return new OutputClassFile(relativePath, buffer.generators.get(relativePath));
+        }
         return generators.containsKey(relativePath) ? new OutputClassFile(relativePath) : null;
     }
 
@@ -137,9 +176,19 @@ public class ClassFileFactory implements OutputFileCollection {
 
     private class OutputClassFile implements OutputFile {
         private final String relativeClassFilePath;
+        private final ClassBuilderAndSourceFileList bufferedGenerator;
 
         public OutputClassFile(String relativeClassFilePath) {
+            this(relativeClassFilePath, null);
+        }
+
+        public OutputClassFile(String relativeClassFilePath, @Nullable ClassBuilderAndSourceFileList bufferedGenerator) {
             this.relativeClassFilePath = relativeClassFilePath;
+            this.bufferedGenerator = bufferedGenerator;
+        }
+
+        private ClassBuilderAndSourceFileList getGenerator() {
+            return bufferedGenerator != null ? bufferedGenerator : generators.get(relativeClassFilePath);
         }
 
         @NotNull
@@ -151,7 +200,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @NotNull
         @Override
         public List<File> getSourceFiles() {
-            ClassBuilderAndSourceFileList pair = generators.get(relativeClassFilePath);
+            ClassBuilderAndSourceFileList pair = getGenerator();
             if (pair == null) {
                 throw new IllegalStateException("No record for binary file " + relativeClassFilePath);
             }
@@ -162,13 +211,13 @@ public class ClassFileFactory implements OutputFileCollection {
         @NotNull
         @Override
         public byte[] asByteArray() {
-            return builderFactory.asBytes(generators.get(relativeClassFilePath).classBuilder);
+            return builderFactory.asBytes(getGenerator().classBuilder);
         }
 
         @NotNull
         @Override
         public String asText() {
-            return builderFactory.asText(generators.get(relativeClassFilePath).classBuilder);
+            return builderFactory.asText(getGenerator().classBuilder);
         }
 
         @NotNull
@@ -188,9 +237,23 @@ public class ClassFileFactory implements OutputFileCollection {
         }
     }
 
+    static final class BufferedOutput {
+        private final Map<String, ClassBuilderAndSourceFileList> generators = new LinkedHashMap<String, ClassBuilderAndSourceFileList>();
+        private final Set<String> removedOutputs = new LinkedHashSet<String>();
+        private final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+    }
+
     public void removeInlinedClasses(Set<String> classNamesToRemove) {
+        BufferedOutput buffer = currentBuffer.get();
         for (String classInternalName : classNamesToRemove) {
-            generators.remove(classInternalName + ".class");
+            String relativePath = classInternalName + ".class";
+            if (buffer == null) {
+                generators.remove(relativePath);
+            }
+            else if (buffer.generators.remove(relativePath) == null) {
+                // Class was generated outside of this buffer, it will be removed when the buffer is committed
+                buffer.removedOutputs.add(relativePath);
+            }
         }
     }
 
@@ -530,15 +530,54 @@ public class ExpressionCodegen extends JetVisitor<StackValue, StackValue> implem
         if (binaryCall != null) {
             ResolvedCall<?> resolvedCall = getResolvedCall(binaryCall.op, bindingContext);
             if (resolvedCall != null) {
-                if (RangeCodegenUtil.isOptimizableRangeTo(resolvedCall.getResultingDescriptor())) {
+                CallableDescriptor descriptor = resolvedCall.getResultingDescriptor();
+                if (RangeCodegenUtil.isOptimizableRangeTo(descriptor)) {
                     generateForLoop(new ForInRangeLiteralLoopGenerator(forExpression, binaryCall));
                     return StackValue.none();
                 }
+
+                // "a downTo b"
+                if (RangeCodegenUtil.isOptimizableDownTo(descriptor)) {
+                    generateForLoop(new ForInProgressionLiteralLoopGenerator(forExpression, binaryCall, true, null, null));
+                    return StackValue.none();
+                }
+
+                // "a..b step c" or "a downTo b step c"
+                if (RangeCodegenUtil.isOptimizableStep(descriptor)) {
+                    RangeCodegenUtil.BinaryCall progressionCall = RangeCodegenUtil.getBinaryCall(binaryCall.left);
+                    ResolvedCall<?> progressionResolvedCall = progressionCall != null ? getResolvedCall(progressionCall.op, bindingContext) : null;
+                    if (progressionResolvedCall != null) {
+                        CallableDescriptor progressionDescriptor = progressionResolvedCall.getResultingDescriptor();
+                        boolean isRangeTo = RangeCodegenUtil.isOptimizableRangeTo(progressionDescriptor);
+                        if (isRangeTo || RangeCodegenUtil.isOptimizableDownTo(progressionDescriptor)) {
+                            Type stepType = asmType(descriptor.getValueParameters().get(0).getType());
+                            generateForLoop(new ForInProgressionLiteralLoopGenerator(
+                                    forExpression, progressionCall, !isRangeTo, binaryCall.right, stepType
+                            ));
+                            return StackValue.none();
+                        }
+                    }
+                }
             }
         }
 
         JetExpression loopRange = forExpression.getLoopRange();
         assert loopRange != null;
+
+        // "a.indices"
+        JetExpression deparenthesizedLoopRange = JetPsiUtil.deparenthesize(loopRange);
+        if (deparenthesizedLoopRange instanceof JetDotQualifiedExpression) {
+            JetDotQualifiedExpression qualifiedExpression = (JetDotQualifiedExpression) deparenthesizedLoopRange;
+            ResolvedCall<?> resolvedCall = getResolvedCall(qualifiedExpression.getSelectorExpression(), bindingContext);
+            if (resolvedCall != null && RangeCodegenUtil.isOptimizableIndices(resolvedCall.getResultingDescriptor())) {
+                ReceiverParameterDescriptor indicesReceiver = resolvedCall.getResultingDescriptor().getExtensionReceiverParameter();
+                assert indicesReceiver != null : "Extension receiver expected: " + resolvedCall.getResultingDescriptor();
+                generateForLoop(new ForInIndicesLoopGenerator(forExpression, qualifiedExpression.getReceiverExpression(),
+                                                              indicesReceiver.getType()));
+                return StackValue.none();
+            }
+        }
+
         JetType loopRangeType = bindingContext.getType(loopRange);
         assert loopRangeType != null;
         Type asmLoopRangeType = asmType(loopRangeType);
@@ -1031,6 +1070,204 @@ public class ExpressionCodegen extends JetVisitor<StackValue, StackValue> implem
         }
     }
 
+    private class ForInIndicesLoopGenerator extends AbstractForInRangeLoopGenerator {
+        private final JetExpression receiver;
+        private final JetType indicesReceiverType;
+
+        private ForInIndicesLoopGenerator(
+                @NotNull JetForExpression forExpression,
+                @NotNull JetExpression receiver,
+                @NotNull JetType indicesReceiverType
+        ) {
+            super(forExpression);
+            this.receiver = receiver;
+            this.indicesReceiverType = indicesReceiverType;
+        }
+
+        @Override
+        protected void storeRangeStartAndEnd() {
+            v.iconst(0);
+            v.store(loopParameterVar, Type.INT_TYPE);
+
+            JetType receiverType = bindingContext.getType(receiver);
+            boolean isSubtype = receiverType != null && JetTypeChecker.DEFAULT.isSubtypeOf(receiverType, indicesReceiverType);
+            Type asmReceiverType = asmType(isSubtype ? receiverType : indicesReceiverType);
+            gen(receiver, asmReceiverType);
+
+            if (asmReceiverType.getSort() == Type.ARRAY) {
+                v.arraylength();
+            }
+            else if (asmReceiverType.equals(JAVA_STRING_TYPE)) {
+                v.invokevirtual(JAVA_STRING_TYPE.getInternalName(), "length", "()I", false);
+            }
+            else {
+                v.invokeinterface("java/util/Collection", "size", "()I");
+            }
+            v.iconst(1);
+            v.sub(Type.INT_TYPE);
+            v.store(endVar, Type.INT_TYPE);
+        }
+    }
+
+    private class ForInProgressionLiteralLoopGenerator extends AbstractForInProgressionOrRangeLoopGenerator {
+        private final RangeCodegenUtil.BinaryCall progressionCall;
+        private final boolean isDecreasing;
+        // Positive step of the progression, or null if it steps by one
+        private final JetExpression step;
+        private final Type stepType;
+
+        private int incrementVar;
+        private int finalVar;
+
+        private ForInProgressionLiteralLoopGenerator(
+                @NotNull JetForExpression forExpression,
+                @NotNull RangeCodegenUtil.BinaryCall progressionCall,
+                boolean isDecreasing,
+                @Nullable JetExpression step,
+                @Nullable Type stepType
+        ) {
+            super(forExpression);
+            assert isIntegerProgression : "Only integer progressions are expected: " + asmElementType;
+            this.progressionCall = progressionCall;
+            this.isDecreasing = isDecreasing;
+            this.step = step;
+            this.stepType = stepType;
+        }
+
+        @Override
+        protected int getFinalVar() {
+            return finalVar;
+        }
+
+        @Override
+        public void beforeLoop() {
+            super.beforeLoop();
+
+            gen(progressionCall.left, asmElementType);
+            v.store(loopParameterVar, asmElementType);
+
+            gen(progressionCall.right, asmElementType);
+            v.store(endVar, asmElementType);
+
+            if (step == null) {
+                finalVar = endVar;
+                return;
+            }
+
+            assert stepType != null : "Step type expected for " + step.getText();
+            incrementVar = createLoopTempVariable(stepType);
+            gen(step, stepType);
+            v.store(incrementVar, stepType);
+
+            checkStepIsPositive();
+
+            if (isDecreasing) {
+                v.load(incrementVar, stepType);
+                v.neg(stepType);
+                v.store(incrementVar, stepType);
+            }
+
+            storeFinalVar();
+        }
+
+        private void checkStepIsPositive() {
+            Label positiveStep = new Label();
+            v.load(incrementVar, stepType);
+            if (stepType.getSort() == Type.LONG) {
+                v.lconst(0L);
+                v.lcmp();
+            }
+            v.ifgt(positiveStep);
+
+            String exception = "java/lang/IllegalArgumentException";
+            v.anew(Type.getObjectType(exception));
+            v.dup();
+            genStringBuilderConstructor(v);
+            v.aconst("Step must be positive, was: ");
+            genInvokeAppendMethod(v, JAVA_STRING_TYPE);
+            v.load(incrementVar, stepType);
+            genInvokeAppendMethod(v, stepType);
+            v.invokevirtual("java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+            v.invokespecial(exception, "<init>", "(Ljava/lang/String;)V", false);
+            v.athrow();
+
+            v.mark(positiveStep);
+        }
+
+        private void storeFinalVar() {
+            v.load(loopParameterVar, asmElementType);
+            v.load(endVar, asmElementType);
+            v.load(incrementVar, stepType);
+
+            Type methodParamType = asmElementType.getSort() == Type.LONG ? Type.LONG_TYPE : Type.INT_TYPE;
+            v.invokestatic("kotlin/internal/InternalPackage", "getProgressionFinalElement",
+                           Type.getMethodDescriptor(methodParamType, methodParamType, methodParamType, methodParamType), false);
+
+            finalVar = createLoopTempVariable(asmElementType);
+            v.store(finalVar, asmElementType);
+        }
+
+        @Override
+        public void checkPreCondition(@NotNull Label loopExit) {
+        }
+
+        @Override
+        public void checkEmptyLoop(@NotNull Label loopExit) {
+            // The direction is known at compile time, so unlike in ForInProgressionExpressionLoopGenerator there's no check of the sign
+            v.load(loopParameterVar, asmElementType);
+            v.load(endVar, asmElementType);
+            if (asmElementType.getSort() == Type.LONG) {
+                v.lcmp();
+                if (isDecreasing) {
+                    v.iflt(loopExit);
+                }
+                else {
+                    v.ifgt(loopExit);
+                }
+            }
+            else {
+                if (isDecreasing) {
+                    v.ificmplt(loopExit);
+                }
+                else {
+                    v.ificmpgt(loopExit);
+                }
+            }
+        }
+
+        @Override
+        protected void assignToLoopParameter() {
+        }
+
+        @Override
+        protected void increment(@NotNull Label loopExit) {
+            checkPostCondition(loopExit);
+
+            if (step == null) {
+                int delta = isDecreasing ? -1 : 1;
+                if (asmElementType == Type.INT_TYPE) {
+                    v.iinc(loopParameterVar, delta);
+                }
+                else {
+                    v.load(loopParameterVar, asmElementType);
+                    genIncrement(asmElementType, delta, v);
+                    v.store(loopParameterVar, asmElementType);
+                }
+                return;
+            }
+
+            v.load(loopParameterVar, asmElementType);
+            v.load(incrementVar, asmElementType);
+            v.add(asmElementType);
+
+            if (asmElementType == Type.BYTE_TYPE || asmElementType == Type.SHORT_TYPE || asmElementType == Type.CHAR_TYPE) {
+                StackValue.coerce(Type.INT_TYPE, asmElementType, v);
+            }
+
+            v.store(loopParameterVar, asmElementType);
+        }
+    }
+
     private class ForInRangeInstanceLoopGenerator extends AbstractForInRangeLoopGenerator {
         private ForInRangeInstanceLoopGenerator(@NotNull JetForExpression forExpression) {
             super(forExpression);
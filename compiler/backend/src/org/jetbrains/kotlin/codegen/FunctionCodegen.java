@@ -47,6 +47,7 @@ import org.jetbrains.kotlin.resolve.calls.callResolverUtil.CallResolverUtilPacka
 import org.jetbrains.kotlin.resolve.constants.ArrayValue;
 import org.jetbrains.kotlin.resolve.constants.ConstantValue;
 import org.jetbrains.kotlin.resolve.constants.KClassValue;
+import org.jetbrains.kotlin.resolve.inline.InlineUtil;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.DiagnosticsPackage;
 import org.jetbrains.kotlin.resolve.jvm.diagnostics.JvmDeclarationOrigin;
 import org.jetbrains.kotlin.resolve.jvm.jvmSignature.JvmMethodParameterKind;
@@ -198,7 +199,12 @@ public class FunctionCodegen {
         }
 
         if (!isNative) {
-            generateMethodBody(mv, functionDescriptor, methodContext, jvmSignature, strategy, memberCodegen);
+            if (state.isAbiOnly() && !isInlineOrInsideInline(methodContext)) {
+                generateAbiStubBody(mv);
+            }
+            else {
+                generateMethodBody(mv, functionDescriptor, methodContext, jvmSignature, strategy, memberCodegen);
+            }
         }
         else if (staticInCompanionObject) {
             // native platformStatic foo() in companion object should delegate to the static native function moved to the outer class
@@ -215,6 +221,19 @@ public class FunctionCodegen {
         methodContext.recordSyntheticAccessorIfNeeded(functionDescriptor, bindingContext);
     }
 
+    // Bodies of inline functions and of lambdas and objects declared in them are needed to inline calls in dependent modules
+    private static boolean isInlineOrInsideInline(@NotNull CodegenContext<?> context) {
+        for (CodegenContext<?> current = context; current != null; current = current.getParentContext()) {
+            if (InlineUtil.isInline(current.getContextDescriptor())) return true;
+        }
+        return false;
+    }
+
+    private static void generateAbiStubBody(@NotNull MethodVisitor mv) {
+        mv.visitCode();
+        genThrow(new InstructionAdapter(mv), "java/lang/UnsupportedOperationException", "Method body is not generated in ABI classes");
+    }
+
     private void generateParameterAnnotations(
             @NotNull FunctionDescriptor functionDescriptor,
             @NotNull MethodVisitor mv,
@@ -610,6 +629,10 @@ public class FunctionCodegen {
                 generatePackageDelegateMethodBody(mv, defaultMethod, (PackageFacadeContext) this.owner);
                 endVisit(mv, "default method delegation", getSourceFromDescriptor(functionDescriptor));
             }
+            else if (state.isAbiOnly() && !isInlineOrInsideInline(owner)) {
+                generateAbiStubBody(mv);
+                endVisit(mv, "default method", getSourceFromDescriptor(functionDescriptor));
+            }
             else {
                 mv.visitCode();
                 generateDefaultImplBody(owner, functionDescriptor, mv, loadStrategy, function, memberCodegen);
@@ -27,9 +27,12 @@ import org.jetbrains.kotlin.psi.JetScript;
 import org.jetbrains.kotlin.resolve.ScriptNameUtil;
 import org.jetbrains.org.objectweb.asm.Type;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.*;
 
 import static org.jetbrains.kotlin.codegen.binding.CodegenBinding.registerClassNameForScript;
 
@@ -54,6 +57,19 @@ public class KotlinCodegenFacade {
     public static void compileCorrectFiles(
             @NotNull GenerationState state,
             @NotNull CompilationErrorHandler errorHandler
+    ) {
+        compileCorrectFiles(state, errorHandler, 1);
+    }
+
+    /**
+     * @param codegenThreads number of threads to generate packages on. With more than one thread packages are generated concurrently,
+     *                       classes of each package are buffered and then added to the output in the same order as in sequential mode,
+     *                       so the resulting set of class files does not depend on the value of this parameter
+     */
+    public static void compileCorrectFiles(
+            @NotNull GenerationState state,
+            @NotNull CompilationErrorHandler errorHandler,
+            int codegenThreads
     ) {
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
 
@@ -68,9 +84,15 @@ public class KotlinCodegenFacade {
         }
 
         Set<FqName> packagesWithObsoleteParts = new HashSet<FqName>(state.getPackagesWithObsoleteParts());
-        for (FqName fqName : Sets.union(packagesWithObsoleteParts, packageFqNameToFiles.keySet())) {
-            ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
-            generatePackage(state, fqName, packageFqNameToFiles.get(fqName), errorHandler);
+        List<FqName> packages = new ArrayList<FqName>(Sets.union(packagesWithObsoleteParts, packageFqNameToFiles.keySet()));
+        if (codegenThreads > 1 && packages.size() > 1) {
+            generatePackagesInParallel(state, packages, packageFqNameToFiles, errorHandler, codegenThreads);
+        }
+        else {
+            for (FqName fqName : packages) {
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
+                generatePackage(state, fqName, packageFqNameToFiles.get(fqName), errorHandler);
+            }
         }
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
@@ -87,5 +109,64 @@ public class KotlinCodegenFacade {
         codegen.generate(errorHandler);
     }
 
+    private static void generatePackagesInParallel(
+            @NotNull GenerationState state,
+            @NotNull List<FqName> packages,
+            @NotNull MultiMap<FqName, JetFile> packageFqNameToFiles,
+            @NotNull final CompilationErrorHandler errorHandler,
+            int codegenThreads
+    ) {
+        final ClassFileFactory factory = state.getFactory();
+
+        // Package codegens are created here in the order of sequential generation, only their bodies are generated concurrently
+        List<PackageCodegen> codegens = new ArrayList<PackageCodegen>(packages.size());
+        for (FqName fqName : packages) {
+            codegens.add(factory.forPackage(fqName, packageFqNameToFiles.get(fqName)));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(codegenThreads, packages.size()));
+        try {
+            List<Future<ClassFileFactory.BufferedOutput>> results = new ArrayList<Future<ClassFileFactory.BufferedOutput>>(codegens.size());
+            for (final PackageCodegen codegen : codegens) {
+                results.add(executor.submit(new Callable<ClassFileFactory.BufferedOutput>() {
+                    @Override
+                    public ClassFileFactory.BufferedOutput call() {
+                        ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
+                        return factory.generateBuffered(new Runnable() {
+                            @Override
+                            public void run() {
+                                codegen.generate(errorHandler);
+                            }
+                        });
+                    }
+                }));
+            }
+
+            for (Future<ClassFileFactory.BufferedOutput> result : results) {
+                factory.commitBuffered(getResult(result));
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private static <T> T getResult(@NotNull Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Code generation was interrupted", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
     private KotlinCodegenFacade() {}
 }
@@ -57,6 +57,7 @@ import org.jetbrains.kotlin.serialization.deserialization.descriptors.Deserializ
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedPropertyDescriptor;
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedSimpleFunctionDescriptor;
 import org.jetbrains.kotlin.serialization.jvm.BitEncoding;
+import org.jetbrains.kotlin.util.ProfilingTrace;
 import org.jetbrains.org.objectweb.asm.AnnotationVisitor;
 import org.jetbrains.org.objectweb.asm.MethodVisitor;
 import org.jetbrains.org.objectweb.asm.Type;
@@ -207,12 +208,23 @@ public class PackageCodegen {
     }
 
     public void generate(@NotNull CompilationErrorHandler errorHandler) {
+        ProfilingTrace.Span packageSpan = ProfilingTrace.begin("generate package", packageClassType.getClassName());
+        try {
+            doGenerate(errorHandler);
+        }
+        finally {
+            ProfilingTrace.end(packageSpan);
+        }
+    }
+
+    private void doGenerate(@NotNull CompilationErrorHandler errorHandler) {
         List<JvmSerializationBindings> bindings = new ArrayList<JvmSerializationBindings>(files.size() + 1);
 
         Map<CallableMemberDescriptor, Runnable> generateCallableMemberTasks = new HashMap<CallableMemberDescriptor, Runnable>();
 
         for (JetFile file : files) {
             ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
+            ProfilingTrace.Span fileSpan = ProfilingTrace.begin("generate file", file.getName());
             try {
                 ClassBuilder builder = generate(file, generateCallableMemberTasks);
                 if (builder != null) {
@@ -231,6 +243,9 @@ public class PackageCodegen {
                     e.printStackTrace();
                 }
             }
+            finally {
+                ProfilingTrace.end(fileSpan);
+            }
         }
 
         generateDelegationsToPreviouslyCompiled(generateCallableMemberTasks);
@@ -67,7 +67,8 @@ public class PackagePartCodegen extends MemberCodegen<JetFile> {
             }
         }
 
-        if (state.getClassBuilderMode() == ClassBuilderMode.FULL) {
+        // Initializers of top level properties are not part of the ABI
+        if (state.getClassBuilderMode() == ClassBuilderMode.FULL && !state.isAbiOnly()) {
             generateInitializers(new Function0<ExpressionCodegen>() {
                 @Override
                 public ExpressionCodegen invoke() {
@@ -19,9 +19,12 @@ package org.jetbrains.kotlin.codegen;
 import com.google.common.collect.ImmutableMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns;
 import org.jetbrains.kotlin.builtins.PrimitiveType;
 import org.jetbrains.kotlin.descriptors.CallableDescriptor;
 import org.jetbrains.kotlin.descriptors.ClassifierDescriptor;
+import org.jetbrains.kotlin.descriptors.PackageFragmentDescriptor;
+import org.jetbrains.kotlin.descriptors.ReceiverParameterDescriptor;
 import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.name.FqNameUnsafe;
 import org.jetbrains.kotlin.name.Name;
@@ -38,6 +41,11 @@ public class RangeCodegenUtil {
     private static final ImmutableMap<FqName, PrimitiveType> RANGE_TO_ELEMENT_TYPE;
     private static final ImmutableMap<FqName, PrimitiveType> PROGRESSION_TO_ELEMENT_TYPE;
 
+    private static final FqName DOWN_TO_FQ_NAME = BUILT_INS_PACKAGE_FQ_NAME.child(Name.identifier("downTo"));
+    private static final FqName STEP_FQ_NAME = BUILT_INS_PACKAGE_FQ_NAME.child(Name.identifier("step"));
+    private static final FqName INDICES_FQ_NAME = BUILT_INS_PACKAGE_FQ_NAME.child(Name.identifier("indices"));
+    private static final FqNameUnsafe COLLECTION_FQ_NAME = BUILT_INS_PACKAGE_FQ_NAME.child(Name.identifier("Collection")).toUnsafe();
+
     static {
         ImmutableMap.Builder<FqName, PrimitiveType> rangeBuilder = ImmutableMap.builder();
         ImmutableMap.Builder<FqName, PrimitiveType> progressionBuilder = ImmutableMap.builder();
@@ -67,10 +75,15 @@ public class RangeCodegenUtil {
         // Other binary operations will succeed too, but will be filtered out later (by examining a resolvedCall)
         JetExpression rangeExpression = forExpression.getLoopRange();
         assert rangeExpression != null;
-        JetExpression loopRange = JetPsiUtil.deparenthesize(rangeExpression);
-        if (loopRange instanceof JetQualifiedExpression) {
+        return getBinaryCall(rangeExpression);
+    }
+
+    @Nullable
+    public static BinaryCall getBinaryCall(@Nullable JetExpression expression) {
+        JetExpression deparenthesized = JetPsiUtil.deparenthesize(expression);
+        if (deparenthesized instanceof JetQualifiedExpression) {
             // a.rangeTo(b)
-            JetQualifiedExpression qualifiedExpression = (JetQualifiedExpression) loopRange;
+            JetQualifiedExpression qualifiedExpression = (JetQualifiedExpression) deparenthesized;
             JetExpression selector = qualifiedExpression.getSelectorExpression();
             if (selector instanceof JetCallExpression) {
                 JetCallExpression callExpression = (JetCallExpression) selector;
@@ -81,10 +94,10 @@ public class RangeCodegenUtil {
                 }
             }
         }
-        else if (loopRange instanceof JetBinaryExpression) {
+        else if (deparenthesized instanceof JetBinaryExpression) {
             // a rangeTo b
             // a .. b
-            JetBinaryExpression binaryExpression = (JetBinaryExpression) loopRange;
+            JetBinaryExpression binaryExpression = (JetBinaryExpression) deparenthesized;
             return new BinaryCall(binaryExpression.getLeft(), binaryExpression.getOperationReference(), binaryExpression.getRight());
 
         }
@@ -132,6 +145,50 @@ public class RangeCodegenUtil {
         return false;
     }
 
+    public static boolean isOptimizableDownTo(@NotNull CallableDescriptor downTo) {
+        return isBuiltInsPackageMember(downTo, DOWN_TO_FQ_NAME) && isIntegerProgression(downTo.getReturnType());
+    }
+
+    // "step" applied to an integer range or progression, a non-positive step is an error
+    public static boolean isOptimizableStep(@NotNull CallableDescriptor step) {
+        if (!isBuiltInsPackageMember(step, STEP_FQ_NAME) || step.getValueParameters().size() != 1) return false;
+
+        ReceiverParameterDescriptor receiver = step.getExtensionReceiverParameter();
+        return receiver != null && isIntegerProgression(receiver.getType());
+    }
+
+    // "indices" of an array, a collection or a string, always a range from 0 to the size - 1
+    public static boolean isOptimizableIndices(@NotNull CallableDescriptor indices) {
+        if (!isBuiltInsPackageMember(indices, INDICES_FQ_NAME)) return false;
+
+        ReceiverParameterDescriptor receiver = indices.getExtensionReceiverParameter();
+        if (receiver == null) return false;
+
+        JetType receiverType = receiver.getType();
+        if (receiverType.isMarkedNullable()) return false;
+        if (KotlinBuiltIns.isArray(receiverType) || KotlinBuiltIns.isPrimitiveArray(receiverType) || KotlinBuiltIns.isString(receiverType)) {
+            return true;
+        }
+        ClassifierDescriptor classifier = receiverType.getConstructor().getDeclarationDescriptor();
+        return classifier != null && COLLECTION_FQ_NAME.equals(DescriptorUtils.getFqName(classifier));
+    }
+
+    private static boolean isBuiltInsPackageMember(@NotNull CallableDescriptor descriptor, @NotNull FqName fqName) {
+        return descriptor.getContainingDeclaration() instanceof PackageFragmentDescriptor &&
+               fqName.toUnsafe().equals(DescriptorUtils.getFqName(descriptor));
+    }
+
+    private static boolean isIntegerProgression(@Nullable JetType type) {
+        if (type == null || type.isMarkedNullable()) return false;
+
+        PrimitiveType elementType = getPrimitiveRangeOrProgressionElementType(type, PROGRESSION_TO_ELEMENT_TYPE);
+        if (elementType == null) {
+            elementType = getPrimitiveRangeOrProgressionElementType(type, RANGE_TO_ELEMENT_TYPE);
+        }
+        return elementType != null && elementType != PrimitiveType.BOOLEAN &&
+               elementType != PrimitiveType.FLOAT && elementType != PrimitiveType.DOUBLE;
+    }
+
     public static class BinaryCall {
         public final JetExpression left;
         public final JetExpression op;
@@ -1111,7 +1111,7 @@ public abstract class StackValue {
                 if (primitiveType == null) throw new UnsupportedOperationException();
 
                 String typeName = primitiveType.getTypeName().getIdentifier();
-                return Type.getObjectType(REF_TYPE_PREFIX + typeName + "Ref");
+                return Type.getObjectType(REF_TYPE_PREFIX + "NonVolatile" + typeName + "Ref");
         }
     }
 
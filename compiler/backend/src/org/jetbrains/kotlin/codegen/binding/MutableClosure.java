@@ -28,16 +28,21 @@ import java.util.*;
 
 import static org.jetbrains.kotlin.codegen.JvmCodegenUtil.getDirectMember;
 
+/**
+ * Closures are completed lazily during generation. With parallel code generation a closure of a lambda or an object in a same-module
+ * inline function can be completed by several threads at once, since each package inlining the function generates its body again.
+ * So the mutators are synchronized, and the collections are copied on write, which is rare, so that they can be read without locking.
+ */
 public final class MutableClosure implements CalculatedClosure {
     private final ClassDescriptor enclosingClass;
     private final CallableDescriptor enclosingFunWithReceiverDescriptor;
 
-    private boolean captureThis;
-    private boolean captureReceiver;
+    private volatile boolean captureThis;
+    private volatile boolean captureReceiver;
 
-    private Map<DeclarationDescriptor, EnclosedValueDescriptor> captureVariables;
-    private Map<DeclarationDescriptor, Integer> parameterOffsetInConstructor;
-    private List<Pair<String, Type>> recordedFields;
+    private volatile Map<DeclarationDescriptor, EnclosedValueDescriptor> captureVariables;
+    private volatile Map<DeclarationDescriptor, Integer> parameterOffsetInConstructor;
+    private volatile List<Pair<String, Type>> recordedFields;
 
     MutableClosure(@NotNull ClassDescriptor classDescriptor, @Nullable ClassDescriptor enclosingClass) {
         this.enclosingClass = enclosingClass;
@@ -91,38 +96,53 @@ public final class MutableClosure implements CalculatedClosure {
     @NotNull
     @Override
     public Map<DeclarationDescriptor, EnclosedValueDescriptor> getCaptureVariables() {
-        return captureVariables != null ? captureVariables : Collections.<DeclarationDescriptor, EnclosedValueDescriptor>emptyMap();
+        Map<DeclarationDescriptor, EnclosedValueDescriptor> variables = captureVariables;
+        return variables != null ? variables : Collections.<DeclarationDescriptor, EnclosedValueDescriptor>emptyMap();
     }
 
     @NotNull
     @Override
     public List<Pair<String, Type>> getRecordedFields() {
-        return recordedFields != null ? recordedFields : Collections.<Pair<String, Type>>emptyList();
-    }
-
-    public void recordField(String name, Type type) {
-        if (recordedFields == null) {
-            recordedFields = new LinkedList<Pair<String, Type>>();
-        }
-        recordedFields.add(new Pair<String, Type>(name, type));
+        List<Pair<String, Type>> fields = recordedFields;
+        return fields != null ? fields : Collections.<Pair<String, Type>>emptyList();
     }
 
-    public void captureVariable(EnclosedValueDescriptor value) {
-        if (captureVariables == null) {
-            captureVariables = new LinkedHashMap<DeclarationDescriptor, EnclosedValueDescriptor>();
-        }
-        captureVariables.put(value.getDescriptor(), value);
+    /**
+     * Captures the variable into the given field, unless the variable is already captured by this closure
+     * @return the descriptor of the captured variable, which is the given one only if it was not captured before
+     */
+    @NotNull
+    public synchronized EnclosedValueDescriptor captureVariableInField(
+            @NotNull String fieldName,
+            @NotNull Type type,
+            @NotNull EnclosedValueDescriptor value
+    ) {
+        EnclosedValueDescriptor captured = getCaptureVariables().get(value.getDescriptor());
+        if (captured != null) return captured;
+
+        List<Pair<String, Type>> newRecordedFields = new ArrayList<Pair<String, Type>>(getRecordedFields());
+        newRecordedFields.add(new Pair<String, Type>(fieldName, type));
+        recordedFields = newRecordedFields;
+
+        Map<DeclarationDescriptor, EnclosedValueDescriptor> newCaptureVariables =
+                new LinkedHashMap<DeclarationDescriptor, EnclosedValueDescriptor>(getCaptureVariables());
+        newCaptureVariables.put(value.getDescriptor(), value);
+        captureVariables = newCaptureVariables;
+
+        return value;
     }
 
-    public void setCapturedParameterOffsetInConstructor(DeclarationDescriptor descriptor, int offset) {
-        if (parameterOffsetInConstructor == null) {
-            parameterOffsetInConstructor = new LinkedHashMap<DeclarationDescriptor, Integer>();
-        }
-        parameterOffsetInConstructor.put(descriptor, offset);
+    public synchronized void setCapturedParameterOffsetInConstructor(DeclarationDescriptor descriptor, int offset) {
+        Map<DeclarationDescriptor, Integer> newOffsets = parameterOffsetInConstructor != null
+                                                         ? new LinkedHashMap<DeclarationDescriptor, Integer>(parameterOffsetInConstructor)
+                                                         : new LinkedHashMap<DeclarationDescriptor, Integer>();
+        newOffsets.put(descriptor, offset);
+        parameterOffsetInConstructor = newOffsets;
     }
 
     public int getCapturedParameterOffsetInConstructor(DeclarationDescriptor descriptor) {
-        Integer result = parameterOffsetInConstructor != null ? parameterOffsetInConstructor.get(descriptor) : null;
+        Map<DeclarationDescriptor, Integer> offsets = parameterOffsetInConstructor;
+        Integer result = offsets != null ? offsets.get(descriptor) : null;
         return result != null ? result.intValue() : -1;
     }
 
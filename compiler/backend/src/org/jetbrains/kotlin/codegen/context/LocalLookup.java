@@ -74,10 +74,7 @@ public interface LocalLookup {
                     enclosedValueDescriptor = new EnclosedValueDescriptor(fieldName, d, innerValue, type);
                 }
 
-                closure.recordField(fieldName, type);
-                closure.captureVariable(enclosedValueDescriptor);
-
-                return innerValue;
+                return closure.captureVariableInField(fieldName, type, enclosedValueDescriptor).getInnerValue();
             }
         },
 
@@ -114,10 +111,8 @@ public interface LocalLookup {
                 StackValue.StackValueWithSimpleReceiver innerValue = StackValue.field(localType, classType, fieldName, false,
                                                                                       StackValue.LOCAL_0, vd);
 
-                closure.recordField(fieldName, localType);
-                closure.captureVariable(new EnclosedValueDescriptor(fieldName, d, innerValue, localType));
-
-                return innerValue;
+                return closure.captureVariableInField(fieldName, localType, new EnclosedValueDescriptor(fieldName, d, innerValue, localType))
+                        .getInnerValue();
             }
         },
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.inline;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.containers.ContainerUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.name.ClassId;
+import org.jetbrains.kotlin.util.PerformanceCounter;
+import org.jetbrains.org.objectweb.asm.tree.MethodNode;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Bodies of compiled inline functions read during one compilation, so that a class file is parsed once for every inline function
+ * and not for every call of it. The cached nodes are softly reachable and never given out: every call gets its own copy,
+ * because the inliner transforms the node it gets. Copying a node changes its labels, so copies of one node are made one at a time.
+ */
+public class InlineMethodNodeCache {
+    private static final PerformanceCounter cacheHits = PerformanceCounter.Companion.create("Inline method node cache hits");
+    private static final PerformanceCounter cacheMisses = PerformanceCounter.Companion.create("Inline method node cache misses");
+
+    private final Map<Key, SMAPAndMethodNode> nodes = ContainerUtil.createConcurrentSoftValueMap();
+
+    @Nullable
+    public SMAPAndMethodNode getMethodNode(
+            @NotNull VirtualFile file,
+            @NotNull String methodName,
+            @NotNull String methodDescriptor,
+            @NotNull ClassId classId
+    ) throws ClassNotFoundException, IOException {
+        Key key = new Key(file, methodName, methodDescriptor, classId);
+        SMAPAndMethodNode cached = nodes.get(key);
+        if (cached != null) {
+            cacheHits.increment();
+        }
+        else {
+            cacheMisses.increment();
+            cached = InlineCodegenUtil.getMethodNode(file.contentsToByteArray(), methodName, methodDescriptor, classId);
+            if (cached == null) return null;
+            nodes.put(key, cached);
+        }
+        return new SMAPAndMethodNode(copy(cached.getNode()), cached.getClassSMAP());
+    }
+
+    @NotNull
+    private static MethodNode copy(@NotNull MethodNode node) {
+        MethodNode copy = new MethodNode(InlineCodegenUtil.API, node.access, node.name, node.desc, node.signature,
+                                         node.exceptions.toArray(new String[node.exceptions.size()]));
+        synchronized (node) {
+            // Otherwise labels of the copy are the label nodes of the cached node
+            node.instructions.resetLabels();
+            node.accept(copy);
+        }
+        return copy;
+    }
+
+    private static class Key {
+        private final VirtualFile file;
+        private final String methodName;
+        private final String methodDescriptor;
+        private final ClassId classId;
+
+        Key(@NotNull VirtualFile file, @NotNull String methodName, @NotNull String methodDescriptor, @NotNull ClassId classId) {
+            this.file = file;
+            this.methodName = methodName;
+            this.methodDescriptor = methodDescriptor;
+            this.classId = classId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return file.equals(other.file) &&
+                   methodName.equals(other.methodName) &&
+                   methodDescriptor.equals(other.methodDescriptor) &&
+                   classId.equals(other.classId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = file.hashCode();
+            result = 31 * result + methodName.hashCode();
+            result = 31 * result + methodDescriptor.hashCode();
+            result = 31 * result + classId.hashCode();
+            return result;
+        }
+    }
+}
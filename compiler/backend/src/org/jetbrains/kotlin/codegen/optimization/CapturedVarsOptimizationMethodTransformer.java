@@ -0,0 +1,401 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.codegen.StackValue;
+import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer;
+import org.jetbrains.org.objectweb.asm.Opcodes;
+import org.jetbrains.org.objectweb.asm.Type;
+import org.jetbrains.org.objectweb.asm.tree.*;
+import org.jetbrains.org.objectweb.asm.tree.analysis.Frame;
+import org.jetbrains.org.objectweb.asm.tree.analysis.SourceInterpreter;
+import org.jetbrains.org.objectweb.asm.tree.analysis.SourceValue;
+
+import java.util.*;
+
+import static org.jetbrains.kotlin.resolve.jvm.AsmTypes.OBJECT_TYPE;
+
+/**
+ * Replaces shared variables (kotlin.jvm.internal.Ref.NonVolatile*Ref objects) that never escape the method with plain local variables.
+ * A shared variable doesn't escape if it is kept in a single local variable and every load of it is only used as a receiver
+ * of its element field, which is the case for variables captured only by inlined lambdas.
+ */
+public class CapturedVarsOptimizationMethodTransformer extends MethodTransformer {
+    private static final String ELEMENT_FIELD = "element";
+    private static final int UNDER_DUPLICATE = -1;
+
+    // Ref class internal name -> type of its element field
+    private static final Map<String, Type> REF_ELEMENT_TYPES = new HashMap<String, Type>();
+
+    static {
+        Type[] elementTypes = new Type[] {
+                Type.BOOLEAN_TYPE, Type.CHAR_TYPE, Type.BYTE_TYPE, Type.SHORT_TYPE,
+                Type.INT_TYPE, Type.FLOAT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, OBJECT_TYPE
+        };
+        for (Type type : elementTypes) {
+            REF_ELEMENT_TYPES.put(StackValue.sharedTypeForType(type).getInternalName(), StackValue.refType(type));
+        }
+    }
+
+    @Override
+    public void transform(@NotNull String internalClassName, @NotNull MethodNode methodNode) {
+        Collection<SharedLocal> candidates = findSharedLocals(methodNode);
+        if (candidates.isEmpty()) return;
+
+        UsesRecordingInterpreter interpreter = new UsesRecordingInterpreter();
+        Frame<SourceValue>[] frames = analyze(internalClassName, methodNode, interpreter);
+        recordStackManipulations(interpreter, methodNode, frames);
+
+        List<SharedLocal> toRewrite = new ArrayList<SharedLocal>();
+        for (SharedLocal candidate : candidates) {
+            if (candidate.collectAccesses(methodNode.instructions, frames, interpreter)) {
+                toRewrite.add(candidate);
+            }
+        }
+
+        for (SharedLocal sharedLocal : toRewrite) {
+            sharedLocal.rewrite(methodNode);
+        }
+    }
+
+    // Local variables that only hold freshly allocated Refs of one type
+    @NotNull
+    private static Collection<SharedLocal> findSharedLocals(@NotNull MethodNode methodNode) {
+        int firstLocal = Type.getArgumentsAndReturnSizes(methodNode.desc) >> 2;
+        if ((methodNode.access & Opcodes.ACC_STATIC) != 0) firstLocal--;
+
+        Map<Integer, SharedLocal> sharedLocals = new HashMap<Integer, SharedLocal>();
+        Set<Integer> rejected = new HashSet<Integer>();
+
+        for (AbstractInsnNode insn : methodNode.instructions.toArray()) {
+            int index;
+            if (insn instanceof VarInsnNode) {
+                index = ((VarInsnNode) insn).var;
+            }
+            else if (insn instanceof IincInsnNode) {
+                index = ((IincInsnNode) insn).var;
+            }
+            else {
+                continue;
+            }
+            if (index < firstLocal || rejected.contains(index)) continue;
+
+            SharedLocal sharedLocal = sharedLocals.get(index);
+            if (insn.getOpcode() == Opcodes.ALOAD) {
+                if (sharedLocal == null) {
+                    sharedLocal = new SharedLocal(index);
+                    sharedLocals.put(index, sharedLocal);
+                }
+                sharedLocal.loads.add((VarInsnNode) insn);
+                continue;
+            }
+
+            TypeInsnNode allocation = insn.getOpcode() == Opcodes.ASTORE ? getRefAllocation(insn) : null;
+            if (allocation == null || (sharedLocal != null && sharedLocal.refType != null && !sharedLocal.refType.equals(allocation.desc))) {
+                rejected.add(index);
+                sharedLocals.remove(index);
+                continue;
+            }
+
+            if (sharedLocal == null) {
+                sharedLocal = new SharedLocal(index);
+                sharedLocals.put(index, sharedLocal);
+            }
+            sharedLocal.refType = allocation.desc;
+            sharedLocal.allocations.add(allocation);
+        }
+
+        List<SharedLocal> result = new ArrayList<SharedLocal>();
+        for (SharedLocal sharedLocal : sharedLocals.values()) {
+            if (sharedLocal.refType != null) {
+                result.add(sharedLocal);
+            }
+        }
+        return result;
+    }
+
+    // Returns NEW of the Ref if the value stored by the given instruction is allocated by NEW, DUP, INVOKESPECIAL <init> right before it
+    @Nullable
+    private static TypeInsnNode getRefAllocation(@NotNull AbstractInsnNode store) {
+        AbstractInsnNode init = store.getPrevious();
+        if (init == null || init.getOpcode() != Opcodes.INVOKESPECIAL) return null;
+        MethodInsnNode initCall = (MethodInsnNode) init;
+        if (!"<init>".equals(initCall.name) || !"()V".equals(initCall.desc) || !REF_ELEMENT_TYPES.containsKey(initCall.owner)) {
+            return null;
+        }
+
+        AbstractInsnNode dup = init.getPrevious();
+        if (dup == null || dup.getOpcode() != Opcodes.DUP) return null;
+
+        AbstractInsnNode allocation = dup.getPrevious();
+        if (allocation == null || allocation.getOpcode() != Opcodes.NEW || !((TypeInsnNode) allocation).desc.equals(initCall.owner)) {
+            return null;
+        }
+        return (TypeInsnNode) allocation;
+    }
+
+    // Stack manipulation instructions don't report the values they move or remove to the interpreter.
+    // The deepest value touched by DUP_X1 or DUP2_X1 is reported as UNDER_DUPLICATE: a Ref there doesn't escape,
+    // as it only stays under the duplicated value, which is the case for postfix increments of shared variables.
+    private static void recordStackManipulations(
+            @NotNull UsesRecordingInterpreter interpreter,
+            @NotNull MethodNode node,
+            @NotNull Frame<SourceValue>[] frames
+    ) {
+        for (int i = 0; i < node.instructions.size(); i++) {
+            AbstractInsnNode insn = node.instructions.get(i);
+            int words = getTouchedStackWords(insn.getOpcode());
+            if (words == 0 || frames[i] == null) continue;
+
+            Frame<SourceValue> frame = frames[i];
+            int stackIndex = frame.getStackSize() - 1;
+            int operand = 0;
+            while (words > 0 && stackIndex >= 0) {
+                SourceValue value = frame.getStack(stackIndex--);
+                words -= value.getSize();
+                boolean isUnderDuplicate = words <= 0 && (insn.getOpcode() == Opcodes.DUP_X1 || insn.getOpcode() == Opcodes.DUP2_X1);
+                interpreter.recordUse(insn, isUnderDuplicate ? UNDER_DUPLICATE : operand, value);
+                operand++;
+            }
+        }
+    }
+
+    private static int getTouchedStackWords(int opcode) {
+        switch (opcode) {
+            case Opcodes.POP:
+                return 1;
+            case Opcodes.POP2:
+            case Opcodes.DUP2:
+            case Opcodes.DUP_X1:
+            case Opcodes.SWAP:
+                return 2;
+            case Opcodes.DUP_X2:
+            case Opcodes.DUP2_X1:
+                return 3;
+            case Opcodes.DUP2_X2:
+                return 4;
+            default:
+                return 0;
+        }
+    }
+
+    private static class SharedLocal {
+        private final int index;
+        private String refType;
+
+        private final List<TypeInsnNode> allocations = new ArrayList<TypeInsnNode>();
+        private final List<VarInsnNode> loads = new ArrayList<VarInsnNode>();
+
+        // Loads of the local and DUPs of them
+        private final Set<AbstractInsnNode> refValues = new HashSet<AbstractInsnNode>();
+        private final Set<FieldInsnNode> elementAccesses = new LinkedHashSet<FieldInsnNode>();
+        // DUP_X1 and DUP2_X1 that duplicate an element over the Ref
+        private final Set<AbstractInsnNode> duplicatesOverRef = new HashSet<AbstractInsnNode>();
+
+        private SharedLocal(int index) {
+            this.index = index;
+        }
+
+        // Returns false if the Ref escapes
+        private boolean collectAccesses(
+                @NotNull InsnList instructions,
+                @NotNull Frame<SourceValue>[] frames,
+                @NotNull UsesRecordingInterpreter interpreter
+        ) {
+            for (VarInsnNode load : loads) {
+                // Unreachable loads have no recorded uses, leave them to the dead code elimination
+                if (frames[instructions.indexOf(load)] == null) return false;
+            }
+
+            List<Use> uses = new ArrayList<Use>();
+            Deque<AbstractInsnNode> queue = new ArrayDeque<AbstractInsnNode>(loads);
+            refValues.addAll(loads);
+            while (!queue.isEmpty()) {
+                for (Use use : interpreter.getUses(queue.poll())) {
+                    uses.add(use);
+
+                    AbstractInsnNode consumer = use.insn;
+                    int opcode = consumer.getOpcode();
+                    if (opcode == Opcodes.DUP) {
+                        if (refValues.add(consumer)) queue.add(consumer);
+                    }
+                    else if ((opcode == Opcodes.GETFIELD || opcode == Opcodes.PUTFIELD) && use.operand == 0 && isElementAccess(consumer)) {
+                        elementAccesses.add((FieldInsnNode) consumer);
+                    }
+                    else if ((opcode == Opcodes.DUP_X1 || opcode == Opcodes.DUP2_X1) && use.operand == UNDER_DUPLICATE) {
+                        duplicatesOverRef.add(consumer);
+                    }
+                    else {
+                        return false;
+                    }
+                }
+            }
+
+            // A value that may come both from this local and from somewhere else can't be replaced
+            for (Use use : uses) {
+                if (!refValues.containsAll(use.value.insns)) return false;
+            }
+            return true;
+        }
+
+        private boolean isElementAccess(@NotNull AbstractInsnNode insn) {
+            FieldInsnNode field = (FieldInsnNode) insn;
+            return field.owner.equals(refType) && field.name.equals(ELEMENT_FIELD);
+        }
+
+        private void rewrite(@NotNull MethodNode methodNode) {
+            InsnList instructions = methodNode.instructions;
+            Type elementType = REF_ELEMENT_TYPES.get(refType);
+
+            // The local variable is used only for the Ref, so it is reused for the element unless the element takes two slots
+            int newIndex = index;
+            if (elementType.getSize() > 1) {
+                newIndex = methodNode.maxLocals;
+                methodNode.maxLocals += elementType.getSize();
+            }
+
+            for (TypeInsnNode allocation : allocations) {
+                AbstractInsnNode dup = allocation.getNext();
+                AbstractInsnNode init = dup.getNext();
+                AbstractInsnNode store = init.getNext();
+
+                // A new Ref holds the default value of its element
+                instructions.insertBefore(allocation, new InsnNode(getDefaultValueOpcode(elementType)));
+                instructions.insertBefore(allocation, new VarInsnNode(elementType.getOpcode(Opcodes.ISTORE), newIndex));
+                instructions.remove(allocation);
+                instructions.remove(dup);
+                instructions.remove(init);
+                instructions.remove(store);
+            }
+
+            for (AbstractInsnNode refValue : refValues) {
+                instructions.remove(refValue);
+            }
+
+            for (AbstractInsnNode duplicate : duplicatesOverRef) {
+                instructions.set(duplicate, new InsnNode(duplicate.getOpcode() == Opcodes.DUP_X1 ? Opcodes.DUP : Opcodes.DUP2));
+            }
+
+            for (FieldInsnNode access : elementAccesses) {
+                int opcode = access.getOpcode() == Opcodes.GETFIELD ? Opcodes.ILOAD : Opcodes.ISTORE;
+                instructions.set(access, new VarInsnNode(elementType.getOpcode(opcode), newIndex));
+            }
+
+            String refDescriptor = Type.getObjectType(refType).getDescriptor();
+            for (LocalVariableNode localVariable : methodNode.localVariables) {
+                if (localVariable.index == index && localVariable.desc.equals(refDescriptor)) {
+                    localVariable.index = newIndex;
+                    localVariable.desc = elementType.getDescriptor();
+                    localVariable.signature = null;
+                }
+            }
+        }
+
+        private static int getDefaultValueOpcode(@NotNull Type type) {
+            switch (type.getSort()) {
+                case Type.LONG:
+                    return Opcodes.LCONST_0;
+                case Type.FLOAT:
+                    return Opcodes.FCONST_0;
+                case Type.DOUBLE:
+                    return Opcodes.DCONST_0;
+                case Type.OBJECT:
+                    return Opcodes.ACONST_NULL;
+                default:
+                    return Opcodes.ICONST_0;
+            }
+        }
+    }
+
+    private static class Use {
+        private final AbstractInsnNode insn;
+        private final int operand;
+        private final SourceValue value;
+
+        private Use(@NotNull AbstractInsnNode insn, int operand, @NotNull SourceValue value) {
+            this.insn = insn;
+            this.operand = operand;
+            this.value = value;
+        }
+    }
+
+    // Remembers which instructions consume values produced by each instruction
+    private static class UsesRecordingInterpreter extends SourceInterpreter {
+        private final Map<AbstractInsnNode, List<Use>> uses = new HashMap<AbstractInsnNode, List<Use>>();
+
+        private void recordUse(@NotNull AbstractInsnNode insn, int operand, @NotNull SourceValue value) {
+            Use use = new Use(insn, operand, value);
+            for (AbstractInsnNode source : value.insns) {
+                List<Use> sourceUses = uses.get(source);
+                if (sourceUses == null) {
+                    sourceUses = new ArrayList<Use>(1);
+                    uses.put(source, sourceUses);
+                }
+                sourceUses.add(use);
+            }
+        }
+
+        @NotNull
+        private List<Use> getUses(@NotNull AbstractInsnNode source) {
+            List<Use> sourceUses = uses.get(source);
+            return sourceUses != null ? sourceUses : Collections.<Use>emptyList();
+        }
+
+        @Override
+        public SourceValue copyOperation(AbstractInsnNode insn, SourceValue value) {
+            recordUse(insn, 0, value);
+            return super.copyOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue unaryOperation(AbstractInsnNode insn, SourceValue value) {
+            recordUse(insn, 0, value);
+            return super.unaryOperation(insn, value);
+        }
+
+        @Override
+        public SourceValue binaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2) {
+            recordUse(insn, 0, value1);
+            recordUse(insn, 1, value2);
+            return super.binaryOperation(insn, value1, value2);
+        }
+
+        @Override
+        public SourceValue ternaryOperation(AbstractInsnNode insn, SourceValue value1, SourceValue value2, SourceValue value3) {
+            recordUse(insn, 0, value1);
+            recordUse(insn, 1, value2);
+            recordUse(insn, 2, value3);
+            return super.ternaryOperation(insn, value1, value2, value3);
+        }
+
+        @Override
+        public SourceValue naryOperation(AbstractInsnNode insn, List<? extends SourceValue> values) {
+            for (int i = 0; i < values.size(); i++) {
+                recordUse(insn, i, values.get(i));
+            }
+            return super.naryOperation(insn, values);
+        }
+
+        @Override
+        public void returnOperation(AbstractInsnNode insn, SourceValue value, SourceValue expected) {
+            recordUse(insn, 0, value);
+            super.returnOperation(insn, value, expected);
+        }
+    }
+}
@@ -37,9 +37,14 @@ import java.util.List;
 public class OptimizationMethodVisitor extends MethodVisitor {
     private static final int MEMORY_LIMIT_BY_METHOD_MB = 50;
 
-    private static final MethodTransformer[] OPTIMIZATION_TRANSFORMERS = new MethodTransformer[] {
+    // These transformers compute frames for every instruction, so they are not run on methods that are too big
+    private static final MethodTransformer[] FRAME_BASED_TRANSFORMERS = new MethodTransformer[] {
+            new CapturedVarsOptimizationMethodTransformer(),
             new RedundantNullCheckMethodTransformer(),
-            new RedundantBoxingMethodTransformer(),
+            new RedundantBoxingMethodTransformer()
+    };
+
+    private static final MethodTransformer[] CONTROL_FLOW_TRANSFORMERS = new MethodTransformer[] {
             new DeadCodeEliminationMethodTransformer(),
             new RedundantGotoMethodTransformer()
     };
@@ -76,8 +81,13 @@ public class OptimizationMethodVisitor extends MethodVisitor {
 
         if (shouldBeTransformed(methodNode)) {
             MandatoryMethodTransformer.INSTANCE$.transform("fake", methodNode);
-            if (canBeOptimized(methodNode) && !disableOptimization) {
-                for (MethodTransformer transformer : OPTIMIZATION_TRANSFORMERS) {
+            if (!disableOptimization) {
+                if (canBeOptimized(methodNode)) {
+                    for (MethodTransformer transformer : FRAME_BASED_TRANSFORMERS) {
+                        transformer.transform("fake", methodNode);
+                    }
+                }
+                for (MethodTransformer transformer : CONTROL_FLOW_TRANSFORMERS) {
                     transformer.transform("fake", methodNode);
                 }
             }
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization.common
+
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.*
+import java.util.ArrayList
+
+/**
+ * Instructions for which an [org.jetbrains.org.objectweb.asm.tree.analysis.Analyzer] would compute a frame,
+ * found by traversing the control flow graph of the method without interpreting the instructions.
+ * An exception handler is reachable if any instruction in the range of its try/catch block is reachable.
+ */
+public fun MethodNode.findReachableInstructions(): BooleanArray {
+    val insnList = instructions
+    val reachable = BooleanArray(insnList.size())
+    if (insnList.size() == 0) return reachable
+
+    val handlers = arrayOfNulls<MutableList<LabelNode>>(insnList.size())
+    for (tcb in tryCatchBlocks) {
+        for (index in insnList.indexOf(tcb.start)..insnList.indexOf(tcb.end) - 1) {
+            val list = handlers[index] ?: ArrayList<LabelNode>(1)
+            list.add(tcb.handler)
+            handlers[index] = list
+        }
+    }
+
+    val queue = IntArray(insnList.size())
+    var top = 0
+
+    fun visit(index: Int) {
+        if (index < reachable.size() && !reachable[index]) {
+            reachable[index] = true
+            queue[top++] = index
+        }
+    }
+
+    visit(0)
+    while (top > 0) {
+        val index = queue[--top]
+        val insn = insnList[index]
+
+        when (insn) {
+            is JumpInsnNode -> {
+                if (insn.getOpcode() != Opcodes.GOTO) visit(index + 1)
+                visit(insnList.indexOf(insn.label))
+            }
+            is TableSwitchInsnNode -> {
+                visit(insnList.indexOf(insn.dflt))
+                insn.labels.forEach { visit(insnList.indexOf(it)) }
+            }
+            is LookupSwitchInsnNode -> {
+                visit(insnList.indexOf(insn.dflt))
+                insn.labels.forEach { visit(insnList.indexOf(it)) }
+            }
+            else -> {
+                if (!insn.isTerminating()) visit(index + 1)
+            }
+        }
+
+        handlers[index]?.forEach { visit(insnList.indexOf(it)) }
+    }
+
+    return reachable
+}
+
+private fun AbstractInsnNode.isTerminating(): Boolean =
+        when (getOpcode()) {
+            Opcodes.ATHROW, Opcodes.RET, in Opcodes.IRETURN..Opcodes.RETURN -> true
+            else -> false
+        }
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen.state;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.diagnostics.DiagnosticSink;
+
+import java.util.List;
+
+/**
+ * Diagnostic sink of the backend. Diagnostics reported by a task run with {@link #collectReported} on the current thread
+ * are not passed to the delegate, but are collected to a list instead, so that packages generated concurrently
+ * can report their diagnostics later on the main thread, in the same order as in sequential mode.
+ */
+public class BufferingDiagnosticSink implements DiagnosticSink {
+    private final DiagnosticSink delegate;
+    private final ThreadLocal<List<Diagnostic>> currentBuffer = new ThreadLocal<List<Diagnostic>>();
+
+    public BufferingDiagnosticSink(@NotNull DiagnosticSink delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void report(@NotNull Diagnostic diagnostic) {
+        List<Diagnostic> buffer = currentBuffer.get();
+        if (buffer != null) {
+            buffer.add(diagnostic);
+        }
+        else {
+            delegate.report(diagnostic);
+        }
+    }
+
+    public void collectReported(@NotNull Runnable task, @NotNull List<Diagnostic> buffer) {
+        List<Diagnostic> previous = currentBuffer.get();
+        currentBuffer.set(buffer);
+        try {
+            task.run();
+        }
+        finally {
+            if (previous != null) {
+                currentBuffer.set(previous);
+            }
+            else {
+                currentBuffer.remove();
+            }
+        }
+    }
+
+    public void reportCollected(@NotNull List<Diagnostic> diagnostics) {
+        assert currentBuffer.get() == null : "Collected diagnostics should be reported outside of buffered generation";
+        for (Diagnostic diagnostic : diagnostics) {
+            delegate.report(diagnostic);
+        }
+    }
+}
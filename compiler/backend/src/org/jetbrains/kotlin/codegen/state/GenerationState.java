@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.builtins.ReflectionTypes;
 import org.jetbrains.kotlin.codegen.*;
 import org.jetbrains.kotlin.codegen.binding.CodegenBinding;
 import org.jetbrains.kotlin.codegen.extensions.ClassBuilderInterceptorExtension;
+import org.jetbrains.kotlin.codegen.inline.InlineMethodNodeCache;
 import org.jetbrains.kotlin.codegen.intrinsics.IntrinsicMethods;
 import org.jetbrains.kotlin.codegen.optimization.OptimizationClassBuilderFactory;
 import org.jetbrains.kotlin.codegen.when.MappingsClassesForWhenByEnum;
@@ -83,6 +84,7 @@ public class GenerationState {
     private final IntrinsicMethods intrinsics;
     private final SamWrapperClasses samWrapperClasses = new SamWrapperClasses(this);
     private final InlineCycleReporter inlineCycleReporter;
+    private final InlineMethodNodeCache inlineMethodNodeCache = new InlineMethodNodeCache();
     private final MappingsClassesForWhenByEnum mappingsClassesForWhenByEnum = new MappingsClassesForWhenByEnum(this);
     private final BindingTrace bindingTrace;
     private final JetTypeMapper typeMapper;
@@ -90,11 +92,12 @@ public class GenerationState {
     private final boolean disableParamAssertions;
     private final GenerateClassFilter generateClassFilter;
     private final boolean disableInline;
+    private final boolean abiOnly;
     private List<ScriptDescriptor> earlierScriptsForReplInterpreter;
     private final ReflectionTypes reflectionTypes;
     private final JvmRuntimeTypes runtimeTypes;
     private final ModuleDescriptor module;
-    private final DiagnosticSink diagnostics;
+    private final BufferingDiagnosticSink diagnostics;
     private final Collection<FqName> packagesWithObsoleteParts;
     private final ClassBuilderFactory interceptedBuilderFactory;
 
@@ -112,7 +115,7 @@ public class GenerationState {
             @NotNull List<JetFile> files
     ) {
         this(project, builderFactory, Progress.DEAF, module, bindingContext, files, true, true, GenerateClassFilter.GENERATE_ALL,
-             false, false, null, null, DiagnosticSink.DO_NOTHING, null);
+             false, false, false, null, null, DiagnosticSink.DO_NOTHING, null);
     }
 
     public GenerationState(
@@ -127,6 +130,7 @@ public class GenerationState {
             GenerateClassFilter generateClassFilter,
             boolean disableInline,
             boolean disableOptimization,
+            boolean abiOnly,
             @Nullable Collection<FqName> packagesWithObsoleteParts,
             @Nullable String moduleId,
             @NotNull DiagnosticSink diagnostics,
@@ -140,6 +144,7 @@ public class GenerationState {
         this.packagesWithObsoleteParts = packagesWithObsoleteParts == null ? Collections.<FqName>emptySet() : packagesWithObsoleteParts;
         this.classBuilderMode = builderFactory.getClassBuilderMode();
         this.disableInline = disableInline;
+        this.abiOnly = abiOnly;
 
         this.bindingTrace = new DelegatingBindingTrace(bindingContext, "trace in GenerationState");
         this.bindingContext = bindingTrace.getBindingContext();
@@ -151,19 +156,20 @@ public class GenerationState {
 
         builderFactory = new OptimizationClassBuilderFactory(builderFactory, disableOptimization);
 
+        this.diagnostics = new BufferingDiagnosticSink(diagnostics);
+
         ClassBuilderFactory interceptedBuilderFactory = new BuilderFactoryForDuplicateSignatureDiagnostics(
-                builderFactory, this.bindingContext, diagnostics);
+                builderFactory, this.bindingContext, this.diagnostics);
 
         Collection<ClassBuilderInterceptorExtension> interceptExtensions =
                 ClassBuilderInterceptorExtension.Companion.getInstances(project);
 
         for (ClassBuilderInterceptorExtension extension : interceptExtensions) {
-            interceptedBuilderFactory = extension.interceptClassBuilderFactory(interceptedBuilderFactory, bindingContext, diagnostics);
+            interceptedBuilderFactory = extension.interceptClassBuilderFactory(interceptedBuilderFactory, bindingContext, this.diagnostics);
         }
 
         this.interceptedBuilderFactory = interceptedBuilderFactory;
 
-        this.diagnostics = diagnostics;
         this.classFileFactory = new ClassFileFactory(this, interceptedBuilderFactory);
 
         this.disableCallAssertions = disableCallAssertions;
@@ -173,7 +179,7 @@ public class GenerationState {
         this.reflectionTypes = new ReflectionTypes(module);
         this.runtimeTypes = new JvmRuntimeTypes();
 
-        this.inlineCycleReporter = new InlineCycleReporter(diagnostics);
+        this.inlineCycleReporter = new InlineCycleReporter(this.diagnostics);
     }
 
     @NotNull
@@ -231,6 +237,11 @@ public class GenerationState {
         return inlineCycleReporter;
     }
 
+    @NotNull
+    public InlineMethodNodeCache getInlineMethodNodeCache() {
+        return inlineMethodNodeCache;
+    }
+
     @NotNull
     public MappingsClassesForWhenByEnum getMappingsClassesForWhenByEnum() {
         return mappingsClassesForWhenByEnum;
@@ -260,7 +271,7 @@ public class GenerationState {
     }
 
     @NotNull
-    public DiagnosticSink getDiagnostics() {
+    public BufferingDiagnosticSink getDiagnostics() {
         return diagnostics;
     }
 
@@ -268,6 +279,11 @@ public class GenerationState {
         return !disableInline;
     }
 
+    // Only declarations, metadata and bodies of inline functions are generated, which is enough to compile dependent modules
+    public boolean isAbiOnly() {
+        return abiOnly;
+    }
+
     public void beforeCompile() {
         markUsed();
 
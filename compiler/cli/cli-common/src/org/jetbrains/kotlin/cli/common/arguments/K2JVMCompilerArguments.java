@@ -66,9 +66,33 @@ public class K2JVMCompilerArguments extends CommonCompilerArguments {
     @Argument(value = "Xno-optimize", description = "Disable optimizations")
     public boolean noOptimize;
 
+    @Argument(value = "Xabi-only", description = "Generate only declarations and bodies of inline functions, enough to compile dependent modules against")
+    public boolean abiOnly;
+
     @Argument(value = "Xreport-perf", description = "Report detailed performance statistics")
     public boolean reportPerf;
 
+    @Argument(value = "Xparallel-codegen", description = "Generate bytecode for different packages in parallel")
+    public boolean parallelCodegen;
+
+    @Argument(value = "Xparallel-body-resolve", description = "Resolve and analyze control flow of function and property bodies in parallel")
+    public boolean parallelBodyResolve;
+
+    @Argument(value = "Xuncompressed-jar", description = "Store entries of the destination jar without compression")
+    public boolean uncompressedJar;
+
+    @Argument(value = "Xclasspath-index", description = "Save packages of classpath jars to the given file to reuse them in next compilations")
+    @ValueDescription("<path>")
+    public String classpathIndex;
+
+    @Argument(value = "Xclass-header-cache", description = "Save headers of Kotlin classes from classpath jars to the given directory to reuse them in next compilations")
+    @ValueDescription("<dir>")
+    public String classHeaderCache;
+
+    @Argument(value = "Xprofile-trace", description = "Write the timeline of compilation phases to the given file in the Chrome trace event format")
+    @ValueDescription("<path>")
+    public String profileTrace;
+
     @Override
     @NotNull
     public String executableScriptFileName() {
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.common.daemon;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wire format of the local compile daemon. A client connects to the port written to the run file of the daemon,
+ * sends the secret from the same run file, then one request (working directory, name of the compiler class and its arguments)
+ * and reads one response (exit code and the XML output of the compiler), then the connection is closed.
+ * <p/>
+ * The run file is readable by its owner only, so only the user who started the daemon can run compilations with it.
+ */
+public class CompileDaemonProtocol {
+    public static final String DAEMON_CLASS_NAME = "org.jetbrains.kotlin.cli.jvm.daemon.CompileDaemon";
+
+    private static final int MAGIC = 0x4B444D4E; // "KDMN"
+    private static final int VERSION = 2;
+    private static final int SECRET_LENGTH = 32;
+
+    private CompileDaemonProtocol() {
+    }
+
+    public static class Address {
+        public final int port;
+        public final String secret;
+
+        public Address(int port, @NotNull String secret) {
+            this.port = port;
+            this.secret = secret;
+        }
+    }
+
+    public static class Request {
+        public final String workingDirectory;
+        public final String compilerClassName;
+        public final String[] arguments;
+
+        public Request(@NotNull String workingDirectory, @NotNull String compilerClassName, @NotNull String[] arguments) {
+            this.workingDirectory = workingDirectory;
+            this.compilerClassName = compilerClassName;
+            this.arguments = arguments;
+        }
+    }
+
+    public static class Response {
+        public final String exitCode;
+        public final byte[] output;
+
+        public Response(@NotNull String exitCode, @NotNull byte[] output) {
+            this.exitCode = exitCode;
+            this.output = output;
+        }
+    }
+
+    /**
+     * A daemon serves compilations with the compiler jar it was started from, and resolves relative paths in the arguments
+     * against the working directory it was started in, so every version of the compiler has its own run file for each working directory.
+     * Run files are kept in a directory accessible to the current user only
+     */
+    @NotNull
+    public static File getRunFile(@NotNull File compilerJar, @NotNull File workingDirectory) {
+        String stamp = compilerJar.getAbsolutePath() + File.pathSeparator + compilerJar.lastModified() + File.pathSeparator +
+                       compilerJar.length() + File.pathSeparator + workingDirectory.getAbsolutePath();
+        return new File(getRunFileDirectory(), "daemon-" + Integer.toHexString(stamp.hashCode()) + ".run");
+    }
+
+    /**
+     * The daemon outlives the build which started it, so its output goes to this file next to the run file
+     */
+    @NotNull
+    public static File getLogFile(@NotNull File runFile) {
+        String name = runFile.getName();
+        if (name.endsWith(".run")) {
+            name = name.substring(0, name.length() - ".run".length());
+        }
+        return new File(runFile.getParentFile(), name + ".log");
+    }
+
+    @NotNull
+    private static File getRunFileDirectory() {
+        File directory = new File(System.getProperty("user.home"), ".kotlin" + File.separator + "daemon");
+        if (!directory.isDirectory()) {
+            directory.mkdirs();
+        }
+        restrictToOwner(directory);
+        return directory;
+    }
+
+    @NotNull
+    public static String generateSecret() {
+        byte[] bytes = new byte[SECRET_LENGTH / 2];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder result = new StringBuilder(SECRET_LENGTH);
+        for (byte b : bytes) {
+            result.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * The run file is written under a temporary name with permissions restricted before the contents are written, then renamed,
+     * so that clients never see a partially written file and other users never see the secret
+     */
+    public static void writeRunFile(@NotNull File runFile, @NotNull Address address) throws IOException {
+        File tempFile = new File(runFile.getPath() + ".tmp");
+        tempFile.delete();
+        if (!tempFile.createNewFile()) {
+            throw new IOException("Can't create " + tempFile);
+        }
+        restrictToOwner(tempFile);
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8");
+        try {
+            writer.write(address.port + "\n" + address.secret + "\n");
+        }
+        finally {
+            writer.close();
+        }
+        runFile.delete();
+        if (!tempFile.renameTo(runFile)) {
+            tempFile.delete();
+            throw new IOException("Can't rename " + tempFile + " to " + runFile);
+        }
+    }
+
+    /**
+     * @return address written to the run file, or null if there's no complete run file
+     */
+    @Nullable
+    public static Address readRunFile(@NotNull File runFile) {
+        if (!runFile.isFile()) return null;
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(runFile), "UTF-8"));
+            try {
+                String port = reader.readLine();
+                String secret = reader.readLine();
+                if (port == null || secret == null || secret.length() != SECRET_LENGTH) return null;
+                return new Address(Integer.parseInt(port.trim()), secret);
+            }
+            finally {
+                reader.close();
+            }
+        }
+        catch (IOException e) {
+            return null;
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // java.nio.file.attribute is not available in Java 6: revoke the permissions from everybody, then grant them to the owner
+    private static void restrictToOwner(@NotNull File file) {
+        file.setReadable(false, false);
+        file.setReadable(true, true);
+        file.setWritable(false, false);
+        file.setWritable(true, true);
+        if (file.isDirectory()) {
+            file.setExecutable(false, false);
+            file.setExecutable(true, true);
+        }
+    }
+
+    public static void writeRequest(@NotNull DataOutputStream output, @NotNull String secret, @NotNull Request request) throws IOException {
+        output.write(secret.getBytes("US-ASCII"));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        writeString(output, request.workingDirectory);
+        writeString(output, request.compilerClassName);
+        output.writeInt(request.arguments.length);
+        for (String argument : request.arguments) {
+            writeString(output, argument);
+        }
+        output.flush();
+    }
+
+    /**
+     * The secret is checked before anything else is read from the connection
+     */
+    @NotNull
+    public static Request readRequest(@NotNull DataInputStream input, @NotNull String secret) throws IOException {
+        byte[] actualSecret = new byte[SECRET_LENGTH];
+        input.readFully(actualSecret);
+        if (!MessageDigest.isEqual(actualSecret, secret.getBytes("US-ASCII"))) {
+            throw new IOException("Compile daemon request is not authenticated");
+        }
+        if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+            throw new IOException("Unsupported compile daemon request");
+        }
+        String workingDirectory = readString(input);
+        String compilerClassName = readString(input);
+        int count = input.readInt();
+        List<String> arguments = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            arguments.add(readString(input));
+        }
+        return new Request(workingDirectory, compilerClassName, arguments.toArray(new String[count]));
+    }
+
+    public static void writeResponse(@NotNull DataOutputStream output, @NotNull Response response) throws IOException {
+        writeString(output, response.exitCode);
+        output.writeInt(response.output.length);
+        output.write(response.output);
+        output.flush();
+    }
+
+    @NotNull
+    public static Response readResponse(@NotNull DataInputStream input) throws IOException {
+        String exitCode = readString(input);
+        byte[] output = new byte[input.readInt()];
+        input.readFully(output);
+        return new Response(exitCode, output);
+    }
+
+    // DataOutput.writeUTF is limited to 64K, which is not enough for long classpaths
+    private static void writeString(@NotNull DataOutputStream output, @NotNull String s) throws IOException {
+        byte[] bytes = s.getBytes("UTF-8");
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+}
@@ -38,10 +38,12 @@ import org.jetbrains.kotlin.compiler.plugin.cliPluginUsageString
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.config.IncrementalCompilation
 import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.config.addKotlinSourceRoot
 import org.jetbrains.kotlin.load.kotlin.incremental.cache.IncrementalCacheProvider
 import org.jetbrains.kotlin.resolve.AnalyzerScriptParameter
 import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.ProfilingTrace
 import org.jetbrains.kotlin.utils.KotlinPaths
 import org.jetbrains.kotlin.utils.KotlinPathsFromHomeDir
 import org.jetbrains.kotlin.utils.PathUtil
@@ -61,7 +63,7 @@ public open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             PathUtil.getKotlinPathsForCompiler()
 
         messageSeverityCollector.report(CompilerMessageSeverity.LOGGING, "Using Kotlin home directory " + paths.getHomePath(), CompilerMessageLocation.NO_LOCATION)
-        PerformanceCounter.setTimeCounterEnabled(arguments.reportPerf);
+        PerformanceCounter.setTimeCounterEnabled(arguments.reportPerf || arguments.profileTrace != null);
 
         val configuration = CompilerConfiguration()
         configuration.put(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, messageSeverityCollector)
@@ -69,6 +71,11 @@ public open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
         if (IncrementalCompilation.ENABLED) {
             val incrementalCacheProvider = services.get(javaClass<IncrementalCacheProvider>())
             configuration.put(JVMConfigurationKeys.INCREMENTAL_CACHE_PROVIDER, incrementalCacheProvider)
+
+            val lookupTracker = services.get(javaClass<LookupTracker>())
+            if (lookupTracker != null) {
+                configuration.put(JVMConfigurationKeys.LOOKUP_TRACKER, lookupTracker)
+            }
         }
 
         val locator = services.get(javaClass<CompilerJarLocator>())
@@ -137,6 +144,9 @@ public open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
         putAdvancedOptions(configuration, arguments)
 
         messageSeverityCollector.report(CompilerMessageSeverity.LOGGING, "Configuring the compilation environment", CompilerMessageLocation.NO_LOCATION)
+        if (arguments.profileTrace != null) {
+            ProfilingTrace.start()
+        }
         try {
             configureEnvironment(configuration, arguments)
 
@@ -201,6 +211,12 @@ public open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             messageSeverityCollector.report(CompilerMessageSeverity.EXCEPTION, OutputMessageUtil.renderException(e), MessageUtil.psiElementToMessageLocation(e.getElement()))
             return INTERNAL_ERROR
         }
+        finally {
+            // the trace of a failed compilation is written too, it's often the one worth looking at
+            if (arguments.profileTrace != null) {
+                ProfilingTrace.stopAndWrite(File(arguments.profileTrace))
+            }
+        }
 
     }
 
@@ -264,6 +280,16 @@ public open class K2JVMCompiler : CLICompiler<K2JVMCompilerArguments>() {
             configuration.put(JVMConfigurationKeys.DISABLE_PARAM_ASSERTIONS, arguments.noParamAssertions)
             configuration.put(JVMConfigurationKeys.DISABLE_INLINE, arguments.noInline)
             configuration.put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
+            configuration.put(JVMConfigurationKeys.ABI_ONLY, arguments.abiOnly)
+            configuration.put(JVMConfigurationKeys.PARALLEL_CODEGEN, arguments.parallelCodegen)
+            configuration.put(JVMConfigurationKeys.PARALLEL_BODY_RESOLVE, arguments.parallelBodyResolve)
+            configuration.put(JVMConfigurationKeys.UNCOMPRESSED_JAR, arguments.uncompressedJar)
+            if (arguments.classpathIndex != null) {
+                configuration.put(JVMConfigurationKeys.CLASSPATH_INDEX_SNAPSHOT, File(arguments.classpathIndex))
+            }
+            if (arguments.classHeaderCache != null) {
+                configuration.put(JVMConfigurationKeys.CLASS_HEADER_CACHE, File(arguments.classHeaderCache))
+            }
         }
 
         private fun getClasspath(paths: KotlinPaths, arguments: K2JVMCompilerArguments): List<File> {
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler;
+
+import com.intellij.openapi.util.io.FileUtilRt;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.*;
+
+/**
+ * Writes a jar file entry by entry. Unlike {@link java.util.jar.JarOutputStream}, it can copy entries of another jar as they are,
+ * without inflating and deflating them again.
+ * ZIP64 is only used for the number of entries, entries and offsets are expected to be smaller than 4 Gb.
+ */
+class JarWriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int END_SIZE = 22;
+
+    private static final int FLAG_ENCRYPTED = 1;
+    private static final int FLAG_UTF8 = 1 << 11;
+
+    private static final long MAX_UNSIGNED_INT = 0xFFFFFFFFL;
+
+    private static class Entry {
+        final byte[] name;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long offset;
+
+        Entry(byte[] name, int method, long crc, long compressedSize, long size, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+        }
+    }
+
+    private final FileOutputStream output;
+    private final BufferedOutputStream buffered;
+    private final boolean compress;
+    private final int dosTime;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private final Set<String> names = new HashSet<String>();
+    private long position = 0;
+
+    JarWriter(@NotNull FileOutputStream output, boolean compress) {
+        this.output = output;
+        this.buffered = new BufferedOutputStream(output);
+        this.compress = compress;
+        this.dosTime = toDosTime(System.currentTimeMillis());
+    }
+
+    public void writeManifest(@NotNull Manifest manifest) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        manifest.write(bytes);
+        writeEntry(JarFile.MANIFEST_NAME, bytes.toByteArray());
+    }
+
+    public void writeEntry(@NotNull String name, @NotNull byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        byte[] content = data;
+        int method = ZipEntry.STORED;
+        if (compress) {
+            content = deflate(data);
+            method = ZipEntry.DEFLATED;
+        }
+
+        Entry entry = new Entry(checkName(name), method, crc.getValue(), content.length, data.length, position);
+        writeLocalHeader(entry);
+        write(content);
+        entries.add(entry);
+    }
+
+    // Copies class files of the given jar. Compressed data of each entry is transferred to the output as is
+    public void copyClassFiles(@NotNull File jar) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(jar, "r");
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer centralDirectory = readCentralDirectory(channel, jar);
+
+            while (centralDirectory.hasRemaining()) {
+                if (centralDirectory.getInt() != CENTRAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid central directory in " + jar);
+                }
+                centralDirectory.position(centralDirectory.position() + 4);
+                int flags = centralDirectory.getShort() & 0xFFFF;
+                int method = centralDirectory.getShort() & 0xFFFF;
+                centralDirectory.position(centralDirectory.position() + 4);
+                long crc = centralDirectory.getInt() & MAX_UNSIGNED_INT;
+                long compressedSize = centralDirectory.getInt() & MAX_UNSIGNED_INT;
+                long size = centralDirectory.getInt() & MAX_UNSIGNED_INT;
+                int nameLength = centralDirectory.getShort() & 0xFFFF;
+                int extraLength = centralDirectory.getShort() & 0xFFFF;
+                int commentLength = centralDirectory.getShort() & 0xFFFF;
+                centralDirectory.position(centralDirectory.position() + 8);
+                long localHeaderOffset = centralDirectory.getInt() & MAX_UNSIGNED_INT;
+                byte[] name = new byte[nameLength];
+                centralDirectory.get(name);
+                centralDirectory.position(centralDirectory.position() + extraLength + commentLength);
+
+                String entryName = new String(name, "UTF-8");
+                if (!FileUtilRt.extensionEquals(entryName, "class")) continue;
+
+                if ((flags & FLAG_ENCRYPTED) != 0 || compressedSize == MAX_UNSIGNED_INT || size == MAX_UNSIGNED_INT) {
+                    throw new ZipException("Unsupported entry " + entryName + " in " + jar);
+                }
+
+                ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                readFully(channel, localHeader, localHeaderOffset);
+                if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new ZipException("Invalid local header of " + entryName + " in " + jar);
+                }
+                long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE + (localHeader.getShort(26) & 0xFFFF) + (localHeader.getShort(28) & 0xFFFF);
+
+                Entry entry = new Entry(checkName(entryName), method, crc, compressedSize, size, position);
+                writeLocalHeader(entry);
+                transfer(channel, dataOffset, compressedSize);
+                entries.add(entry);
+            }
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    public void finish() throws IOException {
+        long centralDirectoryOffset = position;
+        for (Entry entry : entries) {
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(20);
+            writeShort(20);
+            writeShort(FLAG_UTF8);
+            writeShort(entry.method);
+            writeInt(dosTime);
+            writeInt((int) entry.crc);
+            writeInt((int) entry.compressedSize);
+            writeInt((int) entry.size);
+            writeShort(entry.name.length);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeShort(0);
+            writeInt(0);
+            writeInt((int) entry.offset);
+            write(entry.name);
+        }
+        long centralDirectorySize = position - centralDirectoryOffset;
+
+        boolean zip64 = entries.size() >= 0xFFFF;
+        if (zip64) {
+            long zip64EndOffset = position;
+            writeInt(ZIP64_END_SIGNATURE);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(entries.size());
+            writeLong(entries.size());
+            writeLong(centralDirectorySize);
+            writeLong(centralDirectoryOffset);
+
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+
+        writeInt(END_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(zip64 ? 0xFFFF : entries.size());
+        writeShort(zip64 ? 0xFFFF : entries.size());
+        writeInt((int) centralDirectorySize);
+        writeInt((int) centralDirectoryOffset);
+        writeShort(0);
+
+        buffered.flush();
+        deflater.end();
+    }
+
+    @NotNull
+    private byte[] checkName(@NotNull String name) throws IOException {
+        if (!names.add(name)) {
+            throw new ZipException("duplicate entry: " + name);
+        }
+        return name.getBytes("UTF-8");
+    }
+
+    private void writeLocalHeader(@NotNull Entry entry) throws IOException {
+        if (position > MAX_UNSIGNED_INT) {
+            throw new ZipException("Jar file is too large");
+        }
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(20);
+        // sizes are known in advance, so unlike in the copied jar there is never a data descriptor after the data
+        writeShort(FLAG_UTF8);
+        writeShort(entry.method);
+        writeInt(dosTime);
+        writeInt((int) entry.crc);
+        writeInt((int) entry.compressedSize);
+        writeInt((int) entry.size);
+        writeShort(entry.name.length);
+        writeShort(0);
+        write(entry.name);
+    }
+
+    @NotNull
+    private byte[] deflate(@NotNull byte[] data) {
+        deflater.reset();
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream result = new ByteArrayOutputStream(data.length / 2 + 16);
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(buffer);
+            result.write(buffer, 0, count);
+        }
+        return result.toByteArray();
+    }
+
+    private void transfer(@NotNull FileChannel from, long offset, long count) throws IOException {
+        // everything written so far must reach the file before the channel appends to it
+        buffered.flush();
+        FileChannel to = output.getChannel();
+        long transferred = 0;
+        while (transferred < count) {
+            long n = from.transferTo(offset + transferred, count - transferred, to);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of file at " + (offset + transferred));
+            }
+            transferred += n;
+        }
+        position += count;
+    }
+
+    @NotNull
+    private static ByteBuffer readCentralDirectory(@NotNull FileChannel channel, @NotNull File jar) throws IOException {
+        // the end record is followed by a comment of at most 64 Kb
+        long fileSize = channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + 0xFFFF);
+        ByteBuffer tail = ByteBuffer.allocate(tailSize).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, tail, fileSize - tailSize);
+
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) != END_SIGNATURE) continue;
+
+            long size = tail.getInt(i + 12) & MAX_UNSIGNED_INT;
+            long offset = tail.getInt(i + 16) & MAX_UNSIGNED_INT;
+            if (size == MAX_UNSIGNED_INT || offset == MAX_UNSIGNED_INT) break;
+
+            ByteBuffer result = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, result, offset);
+            result.flip();
+            return result;
+        }
+        throw new ZipException("Unsupported or broken jar file " + jar);
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long offset) throws IOException {
+        long position = offset;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of file at " + position);
+            }
+            position += n;
+        }
+    }
+
+    private static int toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (year - 1980) << 25 |
+               (calendar.get(Calendar.MONTH) + 1) << 21 |
+               calendar.get(Calendar.DAY_OF_MONTH) << 16 |
+               calendar.get(Calendar.HOUR_OF_DAY) << 11 |
+               calendar.get(Calendar.MINUTE) << 5 |
+               calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void write(@NotNull byte[] bytes) throws IOException {
+        buffered.write(bytes);
+        position += bytes.length;
+    }
+
+    private void writeShort(int value) throws IOException {
+        buffered.write(value & 0xFF);
+        buffered.write((value >>> 8) & 0xFF);
+        position += 2;
+    }
+
+    private void writeInt(int value) throws IOException {
+        writeShort(value & 0xFFFF);
+        writeShort((value >>> 16) & 0xFFFF);
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt((int) value);
+        writeInt((int) (value >>> 32));
+    }
+}
@@ -17,10 +17,16 @@
 package org.jetbrains.kotlin.cli.jvm.compiler
 
 import com.intellij.openapi.vfs.VirtualFile
+import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderCache
+import org.jetbrains.kotlin.load.kotlin.KotlinJvmBinaryClass
 import org.jetbrains.kotlin.load.kotlin.VirtualFileKotlinClassFinder
 import org.jetbrains.kotlin.name.ClassId
 
-public class JvmCliVirtualFileFinder(private val index: JvmDependenciesIndex) : VirtualFileKotlinClassFinder() {
+public class JvmCliVirtualFileFinder(
+        private val index: JvmDependenciesIndex,
+        private val headerCache: KotlinClassHeaderCache?
+) : VirtualFileKotlinClassFinder() {
 
     override fun findVirtualFileWithHeader(classId: ClassId): VirtualFile? {
         val classFileName = classId.getRelativeClassName().asString().replace('.', '$')
@@ -30,4 +36,9 @@ public class JvmCliVirtualFileFinder(private val index: JvmDependenciesIndex) :
             }
         }
     }
+
+    override fun getKotlinBinaryClass(file: VirtualFile): KotlinJvmBinaryClass? {
+        if (headerCache == null) return KotlinBinaryClassCache.getKotlinBinaryClass(file)
+        return headerCache.getKotlinBinaryClass(file) { KotlinBinaryClassCache.getKotlinBinaryClass(file) }
+    }
 }
@@ -16,13 +16,20 @@
 
 package org.jetbrains.kotlin.cli.jvm.compiler
 
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileVisitor
 import com.intellij.util.containers.IntArrayList
+import com.intellij.util.io.URLUtil
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
+import java.io.File
 import java.util.ArrayList
 import java.util.EnumSet
-import java.util.HashMap
+import java.util.HashSet
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicReferenceArray
 import kotlin.properties.Delegates
 
 public data class JavaRoot(public val file: VirtualFile, public val type: JavaRoot.RootType) {
@@ -38,43 +45,63 @@ public data class JavaRoot(public val file: VirtualFile, public val type: JavaRo
 }
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
+// can be used from several threads: each package has its own cache guarded by its own lock, so threads looking for classes
+// in different packages don't contend
+// if snapshot is given, package names contained in jar roots are taken from it, so that jars which can't contain a package are not opened
+public class JvmDependenciesIndex(_roots: List<JavaRoot>, private val snapshot: JvmDependenciesIndexSnapshot? = null) {
 
     //these fields are computed based on _roots passed to constructor which are filled in later
-    private val roots: List<JavaRoot> by Delegates.lazy { _roots.toList() }
+    private val roots: List<JavaRoot> by Delegates.blockingLazy { _roots.toList() }
 
     private val maxIndex: Int
         get() = roots.size()
 
     // each "Cache" object corresponds to a package
     private class Cache {
-        private val innerPackageCaches = HashMap<String, Cache>()
+        private val innerPackageCaches = ConcurrentHashMap<String, Cache>()
 
-        fun get(name: String) = innerPackageCaches.getOrPut(name) { Cache() }
+        fun get(name: String): Cache {
+            val cache = innerPackageCaches[name]
+            if (cache != null) return cache
+            return innerPackageCaches.putIfAbsent(name, Cache()) ?: innerPackageCaches[name]!!
+        }
 
         // indices of roots that are known to contain this package
         // if this list contains [1, 3, 5] then roots with indices 1, 3 and 5 are known to contain this package, 2 and 4 are known not to (no information about roots 6 or higher)
         // if this list contains maxIndex that means that all roots containing this package are known
-        val rootIndices = IntArrayList()
+        private val rootIndices = IntArrayList()
+
+        fun getRootIndices(): IntArray = synchronized(this) { rootIndices.toArray() }
+
+        // roots are always traversed in the order of indices, so an index which is not greater than the last one
+        // has already been added by another thread
+        fun addRootIndex(index: Int) {
+            synchronized(this) {
+                if (rootIndices.isEmpty() || rootIndices.get(rootIndices.size() - 1) < index) {
+                    rootIndices.add(index)
+                }
+            }
+        }
     }
 
     // root "Cache" object corresponds to DefaultPackage which exists in every root
-    private val rootCache: Cache by Delegates.lazy {
+    private val rootCache: Cache by Delegates.blockingLazy {
         with(Cache()) {
             roots.indices.forEach {
-                rootIndices.add(it)
+                addRootIndex(it)
             }
-            rootIndices.add(maxIndex)
-            rootIndices.trimToSize()
+            addRootIndex(maxIndex)
             this
         }
     }
 
-    // holds the request and the result last time we searched for class
+    // holds the request and the result last time this thread searched for class
     // helps improve several scenarios, LazyJavaResolverContext.findClassInJava being the most important
-    private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
+    private val lastClassSearch = ThreadLocal<Pair<FindClassRequest, SearchResult>>()
+
+    // package names contained in jar roots, null for roots which are not jars or haven't been looked into yet
+    private val packagesInJars: AtomicReferenceArray<Set<String>> by Delegates.blockingLazy { AtomicReferenceArray<Set<String>>(maxIndex) }
 
 
     // findClassGivenDirectory MUST check whether the class with this classId exists in given package
@@ -110,10 +137,11 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         fun doSearch() = doSearch(request, handler)
 
         // make a decision based on information saved from last class search
-        if (request !is FindClassRequest || lastClassSearch == null) {
+        val lastSearch = lastClassSearch.get()
+        if (request !is FindClassRequest || lastSearch == null) {
             return doSearch()
         }
-        val (cachedRequest, cachedResult) = lastClassSearch!!
+        val (cachedRequest, cachedResult) = lastSearch
         if (cachedRequest.classId != request.classId) {
             return doSearch()
         }
@@ -143,14 +171,14 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
 
         fun <T : Any> found(packageDirectory: VirtualFile, root: JavaRoot, result: T): T {
             if (findClassRequest != null) {
-                lastClassSearch = Pair(findClassRequest, SearchResult.Found(packageDirectory, root))
+                lastClassSearch.set(Pair(findClassRequest, SearchResult.Found(packageDirectory, root)))
             }
             return result
         }
 
         fun <T : Any> notFound(): T? {
             if (findClassRequest != null) {
-                lastClassSearch = Pair(findClassRequest, SearchResult.NotFound)
+                lastClassSearch.set(Pair(findClassRequest, SearchResult.NotFound))
             }
             return null
         }
@@ -173,9 +201,8 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         var processedRootsUpTo = -1
         // traverse caches starting from last, which contains most specific information
         for (cacheIndex in caches.indices.reversed()) {
-            val cache = caches[cacheIndex]
-            for (i in cache.rootIndices.indices) {
-                val rootIndex = cache.rootIndices[i]
+            val rootIndices = caches[cacheIndex].getRootIndices()
+            for (rootIndex in rootIndices) {
                 if (rootIndex <= processedRootsUpTo) continue // roots with those indices have been processed by now
 
                 val directoryInRoot = travelPath(rootIndex, packagesPath, cacheIndex, caches) ?: continue
@@ -185,7 +212,7 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
                     return found(directoryInRoot, root, result)
                 }
             }
-            processedRootsUpTo = cache.rootIndices.lastOrNull() ?: processedRootsUpTo
+            processedRootsUpTo = rootIndices.lastOrNull() ?: processedRootsUpTo
         }
         return notFound()
     }
@@ -196,8 +223,17 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         if (rootIndex >= maxIndex) {
             for (i in (fillCachesAfter + 1)..cachesPath.size() - 1) {
                 // we all know roots that contain this package by now
-                cachesPath[i].rootIndices.add(maxIndex)
-                cachesPath[i].rootIndices.trimToSize()
+                cachesPath[i].addRootIndex(maxIndex)
+            }
+            return null
+        }
+
+        val packagesInRoot = getPackagesInJar(rootIndex)
+        if (packagesInRoot != null && packagesPath.joinToString(".") !in packagesInRoot) {
+            // this root doesn't contain the package, caches are filled only for the parent packages which it does contain
+            for (cacheIndex in (fillCachesAfter + 1)..packagesPath.size()) {
+                if (packagesPath.subList(0, cacheIndex).joinToString(".") !in packagesInRoot) break
+                cachesPath[cacheIndex].addRootIndex(rootIndex)
             }
             return null
         }
@@ -209,12 +245,43 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
             val correspondingCacheIndex = pathIndex + 1
             if (correspondingCacheIndex > fillCachesAfter) {
                 // subPackageName exists in this root
-                cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
             }
         }
         return currentFile
     }
 
+    private fun getPackagesInJar(rootIndex: Int): Set<String>? {
+        if (snapshot == null) return null
+
+        val packages = packagesInJars.get(rootIndex)
+        if (packages != null) return packages
+
+        val root = roots[rootIndex].file
+        if (root.getFileSystem().getProtocol() != StandardFileSystems.JAR_PROTOCOL) return null
+
+        val jar = File(root.getPath().substringBefore(URLUtil.JAR_SEPARATOR))
+        val computed = snapshot.getPackages(jar) ?: collectPackages(root).let {
+            snapshot.putPackages(jar, it)
+            it
+        }
+        packagesInJars.set(rootIndex, computed)
+        return computed
+    }
+
+    // names of all directories in the root, the root itself being the default package
+    private fun collectPackages(root: VirtualFile): Set<String> {
+        val result = HashSet<String>()
+        VfsUtilCore.visitChildrenRecursively(root, object : VirtualFileVisitor<Any>() {
+            override fun visitFile(file: VirtualFile): Boolean {
+                if (!file.isDirectory()) return false
+                result.add(VfsUtilCore.getRelativePath(file, root, '.')!!)
+                return true
+            }
+        })
+        return result
+    }
+
     private fun cachesPath(path: List<String>): List<Cache> {
         val caches = ArrayList<Cache>()
         caches.add(rootCache)
@@ -247,6 +314,3 @@ public class JvmDependenciesIndex(_roots: List<JavaRoot>) {
         object NotFound : SearchResult
     }
 }
-
-private fun IntArrayList.lastOrNull() = if (isEmpty()) null else get(size() - 1)
-private val IntArrayList.indices: IntRange get() = 0..size()-1
\ No newline at end of file
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.openapi.util.io.FileUtil
+import java.io.*
+import java.util.HashSet
+import java.util.concurrent.ConcurrentHashMap
+
+// package names contained in classpath jars, saved between compilations
+// entries are keyed by the path of a jar and are only used if its size and modification time haven't changed since they were saved
+public class JvmDependenciesIndexSnapshot private constructor(private val file: File, private val jars: ConcurrentHashMap<String, JarPackages>) {
+    private class JarPackages(val length: Long, val lastModified: Long, val packages: Set<String>)
+
+    private volatile var modified = false
+
+    public fun getPackages(jar: File): Set<String>? {
+        val entry = jars[jar.getPath()] ?: return null
+        return if (entry.length == jar.length() && entry.lastModified == jar.lastModified()) entry.packages else null
+    }
+
+    public fun putPackages(jar: File, packages: Set<String>) {
+        jars[jar.getPath()] = JarPackages(jar.length(), jar.lastModified(), packages)
+        modified = true
+    }
+
+    public fun save() {
+        if (!modified) return
+
+        // written to a temporary file first, so that a concurrent compilation never reads a partially written snapshot
+        FileUtil.createParentDirs(file)
+        val tempFile = File(file.getPath() + ".tmp")
+        try {
+            write(tempFile)
+            FileUtil.rename(tempFile, file)
+            modified = false
+        }
+        catch (e: IOException) {
+            // snapshot is only an optimization, the next compilation will rebuild it
+            FileUtil.delete(tempFile)
+        }
+    }
+
+    private fun write(tempFile: File) {
+        DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { output ->
+            output.writeInt(VERSION)
+            val existingJars = jars.filterKeys { File(it).exists() }
+            output.writeInt(existingJars.size())
+            for ((path, entry) in existingJars) {
+                output.writeUTF(path)
+                output.writeLong(entry.length)
+                output.writeLong(entry.lastModified)
+                output.writeInt(entry.packages.size())
+                for (packageName in entry.packages) {
+                    output.writeUTF(packageName)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private val VERSION = 1
+
+        // a missing or broken snapshot is the same as an empty one, it's rewritten on save
+        public fun load(file: File): JvmDependenciesIndexSnapshot {
+            val jars = ConcurrentHashMap<String, JarPackages>()
+            if (file.exists()) {
+                try {
+                    DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                        if (input.readInt() == VERSION) {
+                            repeat(input.readInt()) {
+                                val path = input.readUTF()
+                                val length = input.readLong()
+                                val lastModified = input.readLong()
+                                val packages = HashSet<String>()
+                                repeat(input.readInt()) {
+                                    packages.add(input.readUTF())
+                                }
+                                jars[path] = JarPackages(length, lastModified, packages)
+                            }
+                        }
+                    }
+                }
+                catch (e: IOException) {
+                    jars.clear()
+                }
+            }
+            return JvmDependenciesIndexSnapshot(file, jars)
+        }
+    }
+}
@@ -75,6 +75,7 @@ import org.jetbrains.kotlin.extensions.ExternalDeclarationsProvider
 import org.jetbrains.kotlin.idea.JetFileType
 import org.jetbrains.kotlin.load.kotlin.JvmVirtualFileFinderFactory
 import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderCache
 import org.jetbrains.kotlin.parsing.JetParserDefinition
 import org.jetbrains.kotlin.parsing.JetScriptDefinitionProvider
 import org.jetbrains.kotlin.psi.JetFile
@@ -83,10 +84,12 @@ import org.jetbrains.kotlin.resolve.jvm.KotlinJavaPsiFacade
 import org.jetbrains.kotlin.resolve.jvm.extensions.AnalysisCompletedHandlerExtension
 import org.jetbrains.kotlin.resolve.lazy.declarations.CliDeclarationProviderFactoryService
 import org.jetbrains.kotlin.resolve.lazy.declarations.DeclarationProviderFactoryService
+import org.jetbrains.kotlin.util.ProfilingTrace
 import org.jetbrains.kotlin.utils.PathUtil
 import java.io.File
 import java.util.ArrayList
 import java.util.Comparator
+import java.util.HashMap
 import kotlin.platform.platformStatic
 import kotlin.properties.Delegates
 
@@ -122,16 +125,26 @@ public class KotlinCoreEnvironment private constructor(
 
         fillClasspath(configuration)
         val fileManager = ServiceManager.getService(project, javaClass<CoreJavaFileManager>())
-        val index = JvmDependenciesIndex(javaRoots)
+        val indexSnapshot = configuration.get(JVMConfigurationKeys.CLASSPATH_INDEX_SNAPSHOT)?.let { JvmDependenciesIndexSnapshot.load(it) }
+        if (indexSnapshot != null) {
+            Disposer.register(parentDisposable, object : Disposable {
+                override fun dispose() {
+                    indexSnapshot.save()
+                }
+            })
+        }
+        val index = JvmDependenciesIndex(javaRoots, indexSnapshot)
         (fileManager as KotlinCliJavaFileManagerImpl).initIndex(index)
 
         for (path in configuration.getList(JVMConfigurationKeys.ANNOTATIONS_PATH_KEY)) {
             addExternalAnnotationsRoot(path)
         }
-        sourceFiles.addAll(CompileEnvironmentUtil.getJetFiles(project, getSourceRootsCheckingForDuplicates(), {
-            message ->
-            report(ERROR, message)
-        }))
+        ProfilingTrace.phase("load sources") {
+            sourceFiles.addAll(CompileEnvironmentUtil.getJetFiles(project, getSourceRootsCheckingForDuplicates(), {
+                message ->
+                report(ERROR, message)
+            }))
+        }
         sourceFiles.sortBy(object : Comparator<JetFile> {
             override fun compare(o1: JetFile, o2: JetFile): Int {
                 return o1.getVirtualFile().getPath().compareTo(o2.getVirtualFile().getPath(), ignoreCase = true)
@@ -140,7 +153,15 @@ public class KotlinCoreEnvironment private constructor(
 
         JetScriptDefinitionProvider.getInstance(project).addScriptDefinitions(configuration.getList(CommonConfigurationKeys.SCRIPT_DEFINITIONS_KEY))
 
-        project.registerService(javaClass<JvmVirtualFileFinderFactory>(), JvmCliVirtualFileFinderFactory(index))
+        val headerCache = configuration.get(JVMConfigurationKeys.CLASS_HEADER_CACHE)?.let { KotlinClassHeaderCache(it) }
+        if (headerCache != null) {
+            Disposer.register(parentDisposable, object : Disposable {
+                override fun dispose() {
+                    headerCache.save()
+                }
+            })
+        }
+        project.registerService(javaClass<JvmVirtualFileFinderFactory>(), JvmCliVirtualFileFinderFactory(index, headerCache))
 
         ExternalDeclarationsProvider.registerExtensionPoint(project)
         ExpressionCodegenExtension.registerExtensionPoint(project)
@@ -216,6 +237,7 @@ public class KotlinCoreEnvironment private constructor(
 
     private fun findJarRoot(root: JvmClasspathRoot): VirtualFile? {
         val path = root.file
+        rememberJarStamp(path)
         val jarFile = applicationEnvironment.getJarFileSystem().findFileByPath("${path}!/")
         if (jarFile == null) {
             report(WARNING, "Classpath entry points to a file that is not a JAR archive: $path")
@@ -249,6 +271,10 @@ public class KotlinCoreEnvironment private constructor(
         private val APPLICATION_LOCK = Object()
         private var ourApplicationEnvironment: JavaCoreApplicationEnvironment? = null
         private var ourProjectCount = 0
+        // the compile daemon keeps the application environment between compilations
+        private var ourKeepApplicationEnvironment = false
+        // jar file system of a kept environment caches contents of jars, so it's recreated when one of them is changed
+        private val ourJarStamps = HashMap<File, String>()
 
         platformStatic public fun createForProduction(
                 parentDisposable: Disposable, configuration: CompilerConfiguration, configFilePaths: List<String>
@@ -258,7 +284,7 @@ public class KotlinCoreEnvironment private constructor(
             Disposer.register(parentDisposable, object : Disposable {
                 override fun dispose() {
                     synchronized (APPLICATION_LOCK) {
-                        if (--ourProjectCount <= 0) {
+                        if (--ourProjectCount <= 0 && !ourKeepApplicationEnvironment) {
                             disposeApplicationEnvironment()
                         }
                     }
@@ -281,11 +307,15 @@ public class KotlinCoreEnvironment private constructor(
 
         private fun getOrCreateApplicationEnvironmentForProduction(configuration: CompilerConfiguration, configFilePaths: List<String>): JavaCoreApplicationEnvironment {
             synchronized (APPLICATION_LOCK) {
-                if (ourApplicationEnvironment != null) return ourApplicationEnvironment!!
+                if (ourApplicationEnvironment != null) {
+                    if (ourProjectCount > 0 || !isAnyJarChanged()) return ourApplicationEnvironment!!
+                    disposeApplicationEnvironment()
+                }
 
                 val parentDisposable = Disposer.newDisposable()
                 ourApplicationEnvironment = createApplicationEnvironment(parentDisposable, configuration, configFilePaths)
                 ourProjectCount = 0
+                ourJarStamps.clear()
                 Disposer.register(parentDisposable, object : Disposable {
                     override fun dispose() {
                         synchronized (APPLICATION_LOCK) {
@@ -297,6 +327,24 @@ public class KotlinCoreEnvironment private constructor(
             }
         }
 
+        public fun keepApplicationEnvironment() {
+            synchronized (APPLICATION_LOCK) {
+                ourKeepApplicationEnvironment = true
+            }
+        }
+
+        private fun rememberJarStamp(jar: File) {
+            synchronized (APPLICATION_LOCK) {
+                if (ourKeepApplicationEnvironment && jar !in ourJarStamps) {
+                    ourJarStamps[jar] = getJarStamp(jar)
+                }
+            }
+        }
+
+        private fun isAnyJarChanged(): Boolean = ourJarStamps.any { getJarStamp(it.getKey()) != it.getValue() }
+
+        private fun getJarStamp(jar: File): String = "${jar.lastModified()}:${jar.length()}"
+
         public fun disposeApplicationEnvironment() {
             synchronized (APPLICATION_LOCK) {
                 if (ourApplicationEnvironment == null) return
@@ -46,6 +46,7 @@ import org.jetbrains.kotlin.context.ModuleContext;
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus;
 import org.jetbrains.kotlin.idea.MainFunctionDetector;
 import org.jetbrains.kotlin.load.kotlin.PackageClassUtils;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.load.kotlin.incremental.cache.IncrementalCache;
 import org.jetbrains.kotlin.load.kotlin.incremental.cache.IncrementalCacheProvider;
 import org.jetbrains.kotlin.name.FqName;
@@ -55,10 +56,13 @@ import org.jetbrains.kotlin.psi.JetFile;
 import org.jetbrains.kotlin.resolve.AnalyzerScriptParameter;
 import org.jetbrains.kotlin.resolve.BindingTrace;
 import org.jetbrains.kotlin.resolve.BindingTraceContext;
+import org.jetbrains.kotlin.resolve.BodyResolveSettings;
+import org.jetbrains.kotlin.resolve.ParallelBodyResolveSettings;
 import org.jetbrains.kotlin.resolve.ScriptNameUtil;
 import org.jetbrains.kotlin.resolve.jvm.JvmClassName;
 import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
 import org.jetbrains.kotlin.util.PerformanceCounter;
+import org.jetbrains.kotlin.util.ProfilingTrace;
 import org.jetbrains.kotlin.utils.KotlinPaths;
 
 import java.io.File;
@@ -105,12 +109,19 @@ public class KotlinToJVMBytecodeCompiler {
             boolean jarRuntime,
             @Nullable FqName mainClass
     ) {
-        if (jarPath != null) {
-            CompileEnvironmentUtil.writeToJar(jarPath, jarRuntime, mainClass, outputFiles);
+        ProfilingTrace.Span span = ProfilingTrace.begin("write output", jarPath != null ? jarPath.getPath() : null);
+        try {
+            if (jarPath != null) {
+                boolean compress = !configuration.get(JVMConfigurationKeys.UNCOMPRESSED_JAR, false);
+                CompileEnvironmentUtil.writeToJar(jarPath, jarRuntime, mainClass, outputFiles, compress);
+            }
+            else {
+                MessageCollector messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE);
+                OutputUtilsPackage.writeAll(outputFiles, outputDir == null ? new File(".") : outputDir, messageCollector);
+            }
         }
-        else {
-            MessageCollector messageCollector = configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE);
-            OutputUtilsPackage.writeAll(outputFiles, outputDir == null ? new File(".") : outputDir, messageCollector);
+        finally {
+            ProfilingTrace.end(span);
         }
     }
 
@@ -316,24 +327,36 @@ public class KotlinToJVMBytecodeCompiler {
 
         long analysisStart = PerformanceCounter.Companion.currentTime();
         AnalyzerWithCompilerReport analyzerWithCompilerReport = new AnalyzerWithCompilerReport(collector);
-        analyzerWithCompilerReport.analyzeAndReport(
-                environment.getSourceFiles(), new Function0<AnalysisResult>() {
-                    @NotNull
-                    @Override
-                    public AnalysisResult invoke() {
-                        BindingTrace sharedTrace = new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace();
-                        ModuleContext moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.getProject());
-
-                        return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
-                                moduleContext,
-                                environment.getSourceFiles(),
-                                sharedTrace,
-                                environment.getConfiguration().get(JVMConfigurationKeys.MODULE_IDS),
-                                environment.getConfiguration().get(JVMConfigurationKeys.INCREMENTAL_CACHE_PROVIDER)
-                        );
+        ProfilingTrace.Span span = ProfilingTrace.begin("analyze", targetDescription);
+        try {
+            analyzerWithCompilerReport.analyzeAndReport(
+                    environment.getSourceFiles(), new Function0<AnalysisResult>() {
+                        @NotNull
+                        @Override
+                        public AnalysisResult invoke() {
+                            BindingTrace sharedTrace = new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace();
+                            ModuleContext moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.getProject());
+                            BodyResolveSettings bodyResolveSettings =
+                                    environment.getConfiguration().get(JVMConfigurationKeys.PARALLEL_BODY_RESOLVE, false)
+                                    ? new ParallelBodyResolveSettings(Runtime.getRuntime().availableProcessors())
+                                    : new BodyResolveSettings();
+
+                            return TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                                    moduleContext,
+                                    environment.getSourceFiles(),
+                                    sharedTrace,
+                                    environment.getConfiguration().get(JVMConfigurationKeys.MODULE_IDS),
+                                    environment.getConfiguration().get(JVMConfigurationKeys.INCREMENTAL_CACHE_PROVIDER),
+                                    bodyResolveSettings,
+                                    environment.getConfiguration().get(JVMConfigurationKeys.LOOKUP_TRACKER, LookupTracker.DO_NOTHING)
+                            );
+                        }
                     }
-                }
-        );
+            );
+        }
+        finally {
+            ProfilingTrace.end(span);
+        }
         long analysisNanos = PerformanceCounter.Companion.currentTime() - analysisStart;
         String message = "ANALYZE: " + environment.getSourceFiles().size() + " files (" +
                          environment.getSourceLinesOfCode() + " lines) " +
@@ -388,6 +411,7 @@ public class KotlinToJVMBytecodeCompiler {
                 GenerationState.GenerateClassFilter.GENERATE_ALL,
                 configuration.get(JVMConfigurationKeys.DISABLE_INLINE, false),
                 configuration.get(JVMConfigurationKeys.DISABLE_OPTIMIZATION, false),
+                configuration.get(JVMConfigurationKeys.ABI_ONLY, false),
                 packagesWithObsoleteParts,
                 moduleId,
                 diagnosticHolder,
@@ -396,9 +420,16 @@ public class KotlinToJVMBytecodeCompiler {
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled();
 
         long generationStart = PerformanceCounter.Companion.currentTime();
-
-        KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION);
-
+        ProfilingTrace.Span span = ProfilingTrace.begin("generate", moduleId);
+        try {
+            int codegenThreads = configuration.get(JVMConfigurationKeys.PARALLEL_CODEGEN, false)
+                                 ? Runtime.getRuntime().availableProcessors()
+                                 : 1;
+            KotlinCodegenFacade.compileCorrectFiles(generationState, CompilationErrorHandler.THROW_EXCEPTION, codegenThreads);
+        }
+        finally {
+            ProfilingTrace.end(span);
+        }
         long generationNanos = PerformanceCounter.Companion.currentTime() - generationStart;
         String desc = moduleId != null ? "module " + moduleId + " " : "";
         String message = "GENERATE: " + sourceFiles.size() + " files (" +
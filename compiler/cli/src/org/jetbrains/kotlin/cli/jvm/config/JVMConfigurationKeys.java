@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.cli.jvm.config;
 
 import org.jetbrains.kotlin.cli.jvm.compiler.CompilerJarLocator;
 import org.jetbrains.kotlin.config.CompilerConfigurationKey;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.load.kotlin.incremental.cache.IncrementalCacheProvider;
 import org.jetbrains.kotlin.resolve.AnalyzerScriptParameter;
 
@@ -41,10 +42,26 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("disable inline");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<Boolean> ABI_ONLY =
+            CompilerConfigurationKey.create("generate ABI classes only");
+    public static final CompilerConfigurationKey<Boolean> PARALLEL_CODEGEN =
+            CompilerConfigurationKey.create("parallel codegen");
+    public static final CompilerConfigurationKey<Boolean> PARALLEL_BODY_RESOLVE =
+            CompilerConfigurationKey.create("parallel body resolve");
+    public static final CompilerConfigurationKey<Boolean> UNCOMPRESSED_JAR =
+            CompilerConfigurationKey.create("uncompressed jar");
+
+    public static final CompilerConfigurationKey<File> CLASSPATH_INDEX_SNAPSHOT =
+            CompilerConfigurationKey.create("classpath index snapshot");
+    public static final CompilerConfigurationKey<File> CLASS_HEADER_CACHE =
+            CompilerConfigurationKey.create("class header cache");
 
     public static final CompilerConfigurationKey<IncrementalCacheProvider> INCREMENTAL_CACHE_PROVIDER =
             CompilerConfigurationKey.create("incremental cache provider");
 
+    public static final CompilerConfigurationKey<LookupTracker> LOOKUP_TRACKER =
+            CompilerConfigurationKey.create("lookup tracker");
+
     public static final CompilerConfigurationKey<CompilerJarLocator> COMPILER_JAR_LOCATOR =
             CompilerConfigurationKey.create("Compiler jar locator");
 
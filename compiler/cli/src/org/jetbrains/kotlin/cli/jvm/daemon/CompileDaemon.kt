@@ -0,0 +1,147 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.daemon
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.cli.common.daemon.CompileDaemonProtocol
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.Services
+import java.io.*
+import java.net.InetAddress
+import java.net.ServerSocket
+import java.net.Socket
+import java.net.SocketException
+import java.net.SocketTimeoutException
+import kotlin.platform.platformStatic
+
+// Long-lived local compiler process: the application environment (registered services, file types, jar file system with
+// the contents of already opened jars) and built-ins are reused by all compilations it serves.
+// Compilations are run one at a time; the daemon exits when no compilation is requested during the idle timeout.
+// Only clients that have read the secret from the run file (readable by the owner only) and run in the same working directory
+// as the daemon are served, so relative paths in the arguments mean the same for the client and the compiler.
+public class CompileDaemon(
+        private val runFile: File,
+        idleTimeoutMillis: Int = CompileDaemon.DEFAULT_IDLE_TIMEOUT_MILLIS,
+        private val requestTimeoutMillis: Int = CompileDaemon.DEFAULT_REQUEST_TIMEOUT_MILLIS
+) {
+    // only local clients can connect
+    private val serverSocket = ServerSocket(0, BACKLOG, InetAddress.getByName(null))
+    private val secret = CompileDaemonProtocol.generateSecret()
+    private val workingDirectory = File(System.getProperty("user.dir")).getCanonicalFile()
+    volatile private var stopped = false
+
+    init {
+        serverSocket.setSoTimeout(idleTimeoutMillis)
+    }
+
+    public val port: Int
+        get() = serverSocket.getLocalPort()
+
+    public fun serve() {
+        writeRunFile()
+        try {
+            while (!stopped) {
+                val socket = try {
+                    serverSocket.accept()
+                }
+                catch (e: SocketTimeoutException) {
+                    break
+                }
+                catch (e: SocketException) {
+                    if (stopped) break
+                    throw e
+                }
+                try {
+                    // a client which doesn't send its request must not block the daemon
+                    socket.setSoTimeout(requestTimeoutMillis)
+                    handle(socket)
+                }
+                finally {
+                    socket.close()
+                }
+            }
+        }
+        finally {
+            serverSocket.close()
+            // another daemon might have replaced the run file
+            if (CompileDaemonProtocol.readRunFile(runFile)?.secret == secret) {
+                FileUtil.delete(runFile)
+            }
+        }
+    }
+
+    public fun stop() {
+        stopped = true
+        serverSocket.close()
+    }
+
+    private fun handle(socket: Socket) {
+        try {
+            val input = DataInputStream(BufferedInputStream(socket.getInputStream()))
+            val output = DataOutputStream(BufferedOutputStream(socket.getOutputStream()))
+            val request = CompileDaemonProtocol.readRequest(input, secret)
+            // the connection is closed without response for requests the daemon can't run, so the client compiles in-process
+            if (request.compilerClassName != javaClass<K2JVMCompiler>().getName()) return
+            if (File(request.workingDirectory).getCanonicalFile() != workingDirectory) return
+
+            CompileDaemonProtocol.writeResponse(output, compile(request.arguments))
+        }
+        catch (e: IOException) {
+            // the client is gone, has not sent the secret or has not sent the request in time
+        }
+    }
+
+    private fun compile(arguments: Array<String>): CompileDaemonProtocol.Response {
+        val bytes = ByteArrayOutputStream()
+        val out = PrintStream(bytes)
+        K2JVMCompiler.resetInitStartTime()
+        val exitCode = K2JVMCompiler().execAndOutputXml(out, Services.EMPTY, *arguments)
+        out.flush()
+        return CompileDaemonProtocol.Response(exitCode.toString(), bytes.toByteArray())
+    }
+
+    private fun writeRunFile() {
+        CompileDaemonProtocol.writeRunFile(runFile, CompileDaemonProtocol.Address(port, secret))
+    }
+
+    companion object {
+        public val DEFAULT_IDLE_TIMEOUT_MILLIS: Int = 2 * 60 * 60 * 1000
+        public val DEFAULT_REQUEST_TIMEOUT_MILLIS: Int = 10 * 1000
+        private val BACKLOG = 16
+
+        // Usage: CompileDaemon <run file>
+        platformStatic public fun main(args: Array<String>) {
+            if (args.size() != 1) {
+                System.err.println("Usage: CompileDaemon <run file>")
+                System.exit(1)
+            }
+            val runFile = File(args[0])
+            redirectOutput(CompileDaemonProtocol.getLogFile(runFile))
+            KotlinCoreEnvironment.keepApplicationEnvironment()
+            CompileDaemon(runFile).serve()
+            System.exit(0)
+        }
+
+        // the client doesn't read the output of the daemon, which outlives the build
+        private fun redirectOutput(logFile: File) {
+            val log = PrintStream(FileOutputStream(logFile, true), true)
+            System.setOut(log)
+            System.setErr(log)
+        }
+    }
+}
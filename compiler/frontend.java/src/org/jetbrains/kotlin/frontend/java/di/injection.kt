@@ -22,6 +22,7 @@ import org.jetbrains.kotlin.container.*
 import org.jetbrains.kotlin.context.LazyResolveToken
 import org.jetbrains.kotlin.context.ModuleContext
 import org.jetbrains.kotlin.frontend.di.configureModule
+import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.load.java.JavaClassFinderImpl
 import org.jetbrains.kotlin.load.java.JavaFlexibleTypeCapabilitiesProvider
 import org.jetbrains.kotlin.load.java.components.*
@@ -34,6 +35,7 @@ import org.jetbrains.kotlin.load.kotlin.JvmVirtualFileFinderFactory
 import org.jetbrains.kotlin.load.kotlin.KotlinJvmCheckerProvider
 import org.jetbrains.kotlin.resolve.BindingTrace
 import org.jetbrains.kotlin.resolve.BodyResolveCache
+import org.jetbrains.kotlin.resolve.BodyResolveSettings
 import org.jetbrains.kotlin.resolve.LazyTopDownAnalyzer
 import org.jetbrains.kotlin.resolve.LazyTopDownAnalyzerForTopLevel
 import org.jetbrains.kotlin.resolve.jvm.JavaClassFinderPostConstruct
@@ -92,13 +94,16 @@ public fun createContainerForLazyResolveWithJava(
 public fun createContainerForTopDownAnalyzerForJvm(
         moduleContext: ModuleContext, bindingTrace: BindingTrace,
         declarationProviderFactory: DeclarationProviderFactory,
-        moduleContentScope: GlobalSearchScope
+        moduleContentScope: GlobalSearchScope,
+        bodyResolveSettings: BodyResolveSettings = BodyResolveSettings(),
+        lookupTracker: LookupTracker = LookupTracker.DO_NOTHING
 ): ContainerForTopDownAnalyzerForJvm = createContainer("TopDownAnalyzerForJvm") {
-    configureModule(moduleContext, KotlinJvmCheckerProvider(moduleContext.module), bindingTrace)
+    configureModule(moduleContext, KotlinJvmCheckerProvider(moduleContext.module), bindingTrace, lookupTracker)
     configureJavaTopDownAnalysis(moduleContentScope, moduleContext.project)
 
     useInstance(declarationProviderFactory)
     useInstance(BodyResolveCache.ThrowException)
+    useInstance(bodyResolveSettings)
 
     useImpl<SingleModuleClassResolver>()
     useImpl<FileScopeProviderImpl>()
@@ -115,6 +120,7 @@ private fun StorageComponentContainer.javaAnalysisInit() {
 
 public class ContainerForTopDownAnalyzerForJvm(container: StorageComponentContainer) {
     val lazyTopDownAnalyzerForTopLevel: LazyTopDownAnalyzerForTopLevel by container
+    val resolveSession: ResolveSession by container
     val javaDescriptorResolver: JavaDescriptorResolver by container
     val deserializationComponentsForJava: DeserializationComponentsForJava by container
 }
\ No newline at end of file
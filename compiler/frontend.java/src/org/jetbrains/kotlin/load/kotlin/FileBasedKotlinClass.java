@@ -28,6 +28,9 @@ import org.jetbrains.kotlin.name.FqName;
 import org.jetbrains.kotlin.name.Name;
 import org.jetbrains.org.objectweb.asm.*;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 import static org.jetbrains.org.objectweb.asm.ClassReader.*;
@@ -72,6 +75,44 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
         public OuterAndInnerName get(@NotNull String name) {
             return map == null ? null : map.get(name);
         }
+
+        public void write(@NotNull DataOutput output) throws IOException {
+            if (map == null) {
+                output.writeInt(0);
+                return;
+            }
+            output.writeInt(map.size());
+            for (Map.Entry<String, OuterAndInnerName> entry : map.entrySet()) {
+                output.writeUTF(entry.getKey());
+                writeNullableString(output, entry.getValue().outerInternalName);
+                writeNullableString(output, entry.getValue().innerSimpleName);
+            }
+        }
+
+        @NotNull
+        public static InnerClassesInfo read(@NotNull DataInput input) throws IOException {
+            InnerClassesInfo result = new InnerClassesInfo();
+            int size = input.readInt();
+            for (int i = 0; i < size; i++) {
+                String name = input.readUTF();
+                String outerName = readNullableString(input);
+                String innerName = readNullableString(input);
+                result.add(name, outerName, innerName);
+            }
+            return result;
+        }
+
+        private static void writeNullableString(@NotNull DataOutput output, @Nullable String value) throws IOException {
+            output.writeBoolean(value != null);
+            if (value != null) {
+                output.writeUTF(value);
+            }
+        }
+
+        @Nullable
+        private static String readNullableString(@NotNull DataInput input) throws IOException {
+            return input.readBoolean() ? input.readUTF() : null;
+        }
     }
 
     @NotNull
@@ -130,6 +171,11 @@ public abstract class FileBasedKotlinClass implements KotlinJvmBinaryClass {
         return classHeader;
     }
 
+    @NotNull
+    /*package*/ InnerClassesInfo getInnerClasses() {
+        return innerClasses;
+    }
+
     @Override
     public void loadClassAnnotations(@NotNull final AnnotationVisitor annotationVisitor) {
         new ClassReader(getFileContents()).accept(new ClassVisitor(ASM5) {
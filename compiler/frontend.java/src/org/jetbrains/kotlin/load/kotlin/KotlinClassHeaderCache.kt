@@ -0,0 +1,229 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.load.kotlin
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.load.java.JvmAnnotationNames.KotlinClass
+import org.jetbrains.kotlin.load.java.JvmAnnotationNames.KotlinSyntheticClass
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import java.io.*
+import java.util.Collections
+import java.util.concurrent.ConcurrentHashMap
+import java.util.zip.CRC32
+
+// Headers of classes from library jars, saved between compilations so that class files don't have to be read and parsed again.
+// Each jar has its own file in the cache directory. Entries of a jar are only used if the checksum of its contents hasn't changed,
+// size and modification time of the jar are checked first to avoid computing the checksum when the jar wasn't touched
+public class KotlinClassHeaderCache(private val directory: File) {
+    private class CachedClass(val classId: ClassId, val header: KotlinClassHeader, val innerClasses: FileBasedKotlinClass.InnerClassesInfo)
+
+    private class JarHeaders(val length: Long, val lastModified: Long, val checksum: Long) {
+        val kotlinClasses = ConcurrentHashMap<String, CachedClass>()
+        // class files without a Kotlin header, e.g. Java classes of the same jar
+        val otherClasses: MutableSet<String> = Collections.newSetFromMap(ConcurrentHashMap<String, Boolean>())
+        volatile var modified = false
+    }
+
+    private val jars = ConcurrentHashMap<String, JarHeaders>()
+
+    public fun getKotlinBinaryClass(file: VirtualFile, readClass: () -> KotlinJvmBinaryClass?): KotlinJvmBinaryClass? {
+        if (file.getFileSystem().getProtocol() != StandardFileSystems.JAR_PROTOCOL) return readClass()
+
+        val jarPath = file.getPath().substringBefore(URLUtil.JAR_SEPARATOR)
+        val relativePath = file.getPath().substringAfter(URLUtil.JAR_SEPARATOR)
+        val headers = getJarHeaders(jarPath) ?: return readClass()
+
+        val cached = headers.kotlinClasses[relativePath]
+        if (cached != null) {
+            return VirtualFileKotlinClass.createWithHeader(file, cached.classId, cached.header, cached.innerClasses)
+        }
+        if (relativePath in headers.otherClasses) return null
+
+        val kotlinClass = readClass()
+        if (kotlinClass is FileBasedKotlinClass) {
+            headers.kotlinClasses[relativePath] = CachedClass(kotlinClass.getClassId(), kotlinClass.getClassHeader(), kotlinClass.getInnerClasses())
+        }
+        else {
+            headers.otherClasses.add(relativePath)
+        }
+        headers.modified = true
+        return kotlinClass
+    }
+
+    private fun getJarHeaders(jarPath: String): JarHeaders? {
+        jars[jarPath]?.let { return it }
+
+        synchronized(this) {
+            jars[jarPath]?.let { return it }
+
+            val jar = File(jarPath)
+            if (!jar.isFile()) return null
+            try {
+                val headers = load(jar) ?: JarHeaders(jar.length(), jar.lastModified(), computeChecksum(jar))
+                jars[jarPath] = headers
+                return headers
+            }
+            catch (e: IOException) {
+                return null
+            }
+        }
+    }
+
+    public fun save() {
+        for ((jarPath, headers) in jars) {
+            if (!headers.modified) continue
+
+            // written to a temporary file first, so that a concurrent compilation never reads a partially written file
+            val jar = File(jarPath)
+            val file = getCacheFile(jar)
+            FileUtil.createParentDirs(file)
+            val tempFile = File(file.getPath() + ".tmp")
+            try {
+                write(tempFile, jar, headers)
+                FileUtil.rename(tempFile, file)
+                headers.modified = false
+            }
+            catch (e: IOException) {
+                // cache is only an optimization, the next compilation will read the class files again
+                FileUtil.delete(tempFile)
+            }
+        }
+    }
+
+    private fun write(tempFile: File, jar: File, headers: JarHeaders) {
+        DataOutputStream(BufferedOutputStream(FileOutputStream(tempFile))).use { output ->
+            output.writeInt(VERSION)
+            output.writeUTF(jar.getPath())
+            output.writeLong(headers.length)
+            output.writeLong(headers.lastModified)
+            output.writeLong(headers.checksum)
+
+            val kotlinClasses = headers.kotlinClasses.entrySet().toList()
+            output.writeInt(kotlinClasses.size())
+            for ((relativePath, cached) in kotlinClasses) {
+                output.writeUTF(relativePath)
+                writeClassId(output, cached.classId)
+                writeHeader(output, cached.header)
+                cached.innerClasses.write(output)
+            }
+
+            val otherClasses = headers.otherClasses.toList()
+            output.writeInt(otherClasses.size())
+            for (relativePath in otherClasses) {
+                output.writeUTF(relativePath)
+            }
+        }
+    }
+
+    // null if there is no cache for the jar or the jar has been changed since it was written
+    private fun load(jar: File): JarHeaders? {
+        val file = getCacheFile(jar)
+        if (!file.exists()) return null
+
+        try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != VERSION || input.readUTF() != jar.getPath()) return null
+
+                val length = input.readLong()
+                val lastModified = input.readLong()
+                val checksum = input.readLong()
+
+                val touched = lastModified != jar.lastModified()
+                if (length != jar.length() || (touched && checksum != computeChecksum(jar))) return null
+
+                val headers = JarHeaders(length, jar.lastModified(), checksum)
+                // the jar was touched but its contents are the same, the new modification time is saved
+                headers.modified = touched
+
+                repeat(input.readInt()) {
+                    val relativePath = input.readUTF()
+                    val classId = readClassId(input)
+                    val header = readHeader(input)
+                    val innerClasses = FileBasedKotlinClass.InnerClassesInfo.read(input)
+                    headers.kotlinClasses[relativePath] = CachedClass(classId, header, innerClasses)
+                }
+                repeat(input.readInt()) {
+                    headers.otherClasses.add(input.readUTF())
+                }
+                return headers
+            }
+        }
+        catch (e: IOException) {
+            // a broken cache file is the same as a missing one, it's rewritten on save
+            return null
+        }
+        catch (e: IllegalArgumentException) {
+            // unknown enum constant: the file was written by a different compiler version
+            return null
+        }
+    }
+
+    private fun getCacheFile(jar: File): File =
+            File(directory, jar.getName() + "-" + Integer.toHexString(FileUtil.toSystemIndependentName(jar.getPath()).hashCode()) + ".tab")
+
+    companion object {
+        private val VERSION = 1
+
+        private fun computeChecksum(jar: File): Long {
+            val crc = CRC32()
+            BufferedInputStream(FileInputStream(jar)).use { input ->
+                val buffer = ByteArray(64 * 1024)
+                while (true) {
+                    val count = input.read(buffer)
+                    if (count < 0) break
+                    crc.update(buffer, 0, count)
+                }
+            }
+            return crc.getValue()
+        }
+
+        private fun writeClassId(output: DataOutput, classId: ClassId) {
+            output.writeUTF(classId.getPackageFqName().asString())
+            output.writeUTF(classId.getRelativeClassName().asString())
+            output.writeBoolean(classId.isLocal())
+        }
+
+        private fun readClassId(input: DataInput): ClassId =
+                ClassId(FqName(input.readUTF()), FqName(input.readUTF()), input.readBoolean())
+
+        private fun writeHeader(output: DataOutput, header: KotlinClassHeader) {
+            output.writeUTF(header.kind.name())
+            output.writeInt(header.version)
+            val annotationData = header.annotationData
+            output.writeInt(annotationData?.size() ?: -1)
+            // each string is a constant of the class file, so it fits into the limit of writeUTF
+            annotationData?.forEach { output.writeUTF(it) }
+            output.writeUTF(header.classKind?.name() ?: "")
+            output.writeUTF(header.syntheticClassKind?.name() ?: "")
+        }
+
+        private fun readHeader(input: DataInput): KotlinClassHeader {
+            val kind = KotlinClassHeader.Kind.valueOf(input.readUTF())
+            val version = input.readInt()
+            val annotationDataSize = input.readInt()
+            val annotationData = if (annotationDataSize < 0) null else Array(annotationDataSize) { input.readUTF() }
+            val classKind = input.readUTF().let { if (it.isEmpty()) null else KotlinClass.Kind.valueOf(it) }
+            val syntheticClassKind = input.readUTF().let { if (it.isEmpty()) null else KotlinSyntheticClass.Kind.valueOf(it) }
+            return KotlinClassHeader(kind, version, annotationData, classKind, syntheticClassKind)
+        }
+    }
+}
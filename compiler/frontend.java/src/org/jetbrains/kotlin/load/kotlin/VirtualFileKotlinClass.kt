@@ -77,6 +77,14 @@ public class VirtualFileKotlinClass private constructor(
             }
         }
 
+        // header was read from this file before and saved in KotlinClassHeaderCache
+        fun createWithHeader(
+                file: VirtualFile,
+                className: ClassId,
+                classHeader: KotlinClassHeader,
+                innerClasses: FileBasedKotlinClass.InnerClassesInfo
+        ): VirtualFileKotlinClass = VirtualFileKotlinClass(file, className, classHeader, innerClasses)
+
         private fun renderFileReadingErrorMessage(file: VirtualFile): String =
                 "Could not read file: ${file.getPath()}; size in bytes: ${file.getLength()}; file type: ${file.getFileType().getName()}"
     }
@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.load.kotlin
 
+import com.intellij.openapi.vfs.VirtualFile
 import org.jetbrains.kotlin.load.java.structure.JavaClass
 import org.jetbrains.kotlin.load.java.structure.impl.JavaClassImpl
 import org.jetbrains.kotlin.name.ClassId
@@ -24,7 +25,7 @@ import org.jetbrains.kotlin.utils.sure
 public abstract class VirtualFileKotlinClassFinder : JvmVirtualFileFinder {
     override fun findKotlinClass(classId: ClassId): KotlinJvmBinaryClass? {
         val file = findVirtualFileWithHeader(classId) ?: return null
-        return KotlinBinaryClassCache.getKotlinBinaryClass(file)
+        return getKotlinBinaryClass(file)
     }
 
     override fun findKotlinClass(javaClass: JavaClass): KotlinJvmBinaryClass? {
@@ -35,9 +36,11 @@ public abstract class VirtualFileKotlinClassFinder : JvmVirtualFileFinder {
             file = file.getParent()!!.findChild(classFileName(javaClass) + ".class").sure { "Virtual file not found for $javaClass" }
         }
 
-        return KotlinBinaryClassCache.getKotlinBinaryClass(file)
+        return getKotlinBinaryClass(file)
     }
 
+    protected open fun getKotlinBinaryClass(file: VirtualFile): KotlinJvmBinaryClass? = KotlinBinaryClassCache.getKotlinBinaryClass(file)
+
     private fun classFileName(jClass: JavaClass): String {
         val outerClass = jClass.getOuterClass()
         if (outerClass == null) {
@@ -61,107 +61,201 @@ public fun <D> Pseudocode.collectData(
         updateEdge: (Instruction, Instruction, D) -> D,
         initialDataValue: D
 ): Map<Instruction, Edges<D>> {
-    val edgesMap = LinkedHashMap<Instruction, Edges<D>>()
-    initializeEdgesMap(edgesMap, initialDataValue)
-    edgesMap.put(getStartInstruction(traversalOrder), Edges(initialDataValue, initialDataValue))
-
-    val changed = BooleanArray(1)
-    changed[0] = true
-    while (changed[0]) {
-        changed[0] = false
-        collectDataFromSubgraph(
-                traversalOrder, mergeDataWithLocalDeclarations, edgesMap,
-                mergeEdges, updateEdge, Collections.emptyList<Instruction>(), changed, false)
-    }
-    return edgesMap
+    return DataFlowGraph(this, traversalOrder, mergeDataWithLocalDeclarations).solve(mergeEdges, updateEdge, initialDataValue)
 }
 
-private fun <D> Pseudocode.initializeEdgesMap(
-        edgesMap: MutableMap<Instruction, Edges<D>>,
-        initialDataValue: D
+/**
+ * Instructions of a pseudocode and of its local declarations numbered densely,
+ * with the numbers of the instructions the data of each instruction depends on.
+ *
+ * The data is computed with a worklist: an instruction is recomputed only after the data it depends on has changed,
+ * instructions are taken in the reverse postorder of the dependencies, so that most of them are computed once per loop iteration.
+ */
+private class DataFlowGraph(
+        root: Pseudocode,
+        private val traversalOrder: TraversalOrder,
+        private val mergeDataWithLocalDeclarations: Boolean
 ) {
-    val instructions = getInstructions()
-    val initialEdge = Edges(initialDataValue, initialDataValue)
-    for (instruction in instructions) {
-        edgesMap.put(instruction, initialEdge)
-        if (instruction is LocalFunctionDeclarationInstruction) {
-            instruction.body.initializeEdgesMap(edgesMap, initialDataValue)
+    private val instructions = ArrayList<Instruction>()
+    private val numbers = HashMap<Instruction, Int>()
+
+    // Numbers of the instructions whose outgoing data is merged into the incoming data of an instruction,
+    // the last instruction of the body for local declarations merging data with their bodies, null for the start instruction
+    private val sources: Array<IntArray?>
+    private val takesDataFromBody = BitSet()
+
+    init {
+        numberInstructions(root)
+        sources = arrayOfNulls<IntArray>(instructions.size())
+        collectSources(root, Collections.emptyList<Instruction>(), false)
+    }
+
+    private fun numberInstructions(pseudocode: Pseudocode) {
+        for (instruction in pseudocode.getInstructions(traversalOrder)) {
+            if (instruction is LocalFunctionDeclarationInstruction) {
+                numberInstructions(instruction.body)
+            }
+            if (!numbers.containsKey(instruction)) {
+                numbers[instruction] = instructions.size()
+                instructions.add(instruction)
+            }
         }
     }
-}
 
-private fun <D> Pseudocode.collectDataFromSubgraph(
-        traversalOrder: TraversalOrder,
-        mergeDataWithLocalDeclarations: Boolean,
-        edgesMap: MutableMap<Instruction, Edges<D>>,
-        mergeEdges: (Instruction, Collection<D>) -> Edges<D>,
-        updateEdge: (Instruction, Instruction, D) -> D,
-        previousSubGraphInstructions: Collection<Instruction>,
-        changed: BooleanArray,
-        isLocal: Boolean
-) {
-    val instructions = getInstructions(traversalOrder)
-    val startInstruction = getStartInstruction(traversalOrder)
+    private fun collectSources(pseudocode: Pseudocode, previousSubGraphInstructions: Collection<Instruction>, isLocal: Boolean) {
+        val startInstruction = pseudocode.getStartInstruction(traversalOrder)
 
-    for (instruction in instructions) {
-        val isStart = instruction.isStartInstruction(traversalOrder)
-        if (!isLocal && isStart)
-            continue
-
-        fun getPreviousIncludingSubGraphInstructions(): Collection<Instruction> {
-            val previous = instruction.getPreviousInstructions(traversalOrder)
-            if (instruction != startInstruction || previousSubGraphInstructions.isEmpty()) {
-                return previous
+        for (instruction in pseudocode.getInstructions(traversalOrder)) {
+            val number = numbers[instruction]!!
+            if (!isLocal && instruction.isStartInstruction(traversalOrder)) continue
+
+            var previousInstructions = instruction.getPreviousInstructions(traversalOrder)
+            if (instruction == startInstruction && !previousSubGraphInstructions.isEmpty()) {
+                previousInstructions = previousInstructions + previousSubGraphInstructions
             }
-            val result = ArrayList(previous)
-            result.addAll(previousSubGraphInstructions)
-            return result
-        }
-        val previousInstructions = getPreviousIncludingSubGraphInstructions()
-
-        fun updateEdgeDataForInstruction(
-                previousValue: Edges<D>?,
-                newValue: Edges<D>?
-        ) {
-            if (previousValue != newValue && newValue != null) {
-                changed[0] = true
-                edgesMap.put(instruction, newValue)
+
+            if (instruction is LocalFunctionDeclarationInstruction) {
+                val subroutinePseudocode = instruction.body
+                val previous = if (mergeDataWithLocalDeclarations) previousInstructions else Collections.emptyList()
+                collectSources(subroutinePseudocode, previous, true)
+                if (mergeDataWithLocalDeclarations) {
+                    sources[number] = toNumbers(listOf(subroutinePseudocode.getLastInstruction(traversalOrder)))
+                    takesDataFromBody.set(number)
+                    continue
+                }
             }
+            sources[number] = toNumbers(previousInstructions)
         }
+    }
 
-        if (instruction is LocalFunctionDeclarationInstruction) {
-            val subroutinePseudocode = instruction.body
-            val previous = if (mergeDataWithLocalDeclarations) previousInstructions else Collections.emptyList()
-            subroutinePseudocode.collectDataFromSubgraph(
-                    traversalOrder, mergeDataWithLocalDeclarations,
-                    edgesMap, mergeEdges, updateEdge, previous, changed, true)
-            if (mergeDataWithLocalDeclarations) {
-                val lastInstruction = subroutinePseudocode.getLastInstruction(traversalOrder)
-                val previousValue = edgesMap.get(instruction)
-                val newValue = edgesMap.get(lastInstruction)
-                val updatedValue =
-                        if (newValue == null)
-                            null
-                        else
-                            Edges(updateEdge(lastInstruction, instruction, newValue.incoming),
-                                  updateEdge(lastInstruction, instruction, newValue.outgoing))
-                updateEdgeDataForInstruction(previousValue, updatedValue)
-                continue
+    private fun toNumbers(instructions: Collection<Instruction>): IntArray {
+        val result = IntArray(instructions.size())
+        var size = 0
+        for (instruction in instructions) {
+            val number = numbers[instruction] ?: continue
+            result[size++] = number
+        }
+        return if (size == result.size()) result else Arrays.copyOf(result, size)
+    }
+
+    fun <D> solve(
+            mergeEdges: (Instruction, Collection<D>) -> Edges<D>,
+            updateEdge: (Instruction, Instruction, D) -> D,
+            initialDataValue: D
+    ): Map<Instruction, Edges<D>> {
+        val count = instructions.size()
+        val initialEdges = Edges(initialDataValue, initialDataValue)
+        val data = ArrayList<Edges<D>>(count)
+        for (i in 0..count - 1) {
+            data.add(initialEdges)
+        }
+
+        // dependents[dependentStarts[i] until dependentStarts[i + 1]] are the instructions whose data depends on the instruction i
+        val dependentStarts = IntArray(count + 1)
+        for (instructionSources in sources) {
+            instructionSources?.forEach { dependentStarts[it + 1]++ }
+        }
+        for (i in 0..count - 1) {
+            dependentStarts[i + 1] += dependentStarts[i]
+        }
+        val dependents = IntArray(dependentStarts[count])
+        val filled = IntArray(count)
+        for (i in 0..count - 1) {
+            sources[i]?.forEach { dependents[dependentStarts[it] + filled[it]++] = i }
+        }
+
+        val order = reversePostorder(dependentStarts, dependents)
+        val rank = IntArray(count)
+        for (i in 0..count - 1) {
+            rank[order[i]] = i
+        }
+
+        val pending = BitSet(count)
+        pending.set(0, count)
+        while (true) {
+            val next = pending.nextSetBit(0)
+            if (next < 0) break
+            pending.clear(next)
+
+            val number = order[next]
+            val newValue = computeData(number, data, mergeEdges, updateEdge) ?: continue
+            if (newValue != data[number]) {
+                data[number] = newValue
+                for (i in dependentStarts[number]..dependentStarts[number + 1] - 1) {
+                    pending.set(rank[dependents[i]])
+                }
             }
         }
-        val previousDataValue = edgesMap.get(instruction)
 
-        val incomingEdgesData = HashSet<D>()
+        val result = HashMap<Instruction, Edges<D>>(count * 2)
+        for (i in 0..count - 1) {
+            result[instructions[i]] = data[i]
+        }
+        return result
+    }
+
+    private fun <D> computeData(
+            number: Int,
+            data: List<Edges<D>>,
+            mergeEdges: (Instruction, Collection<D>) -> Edges<D>,
+            updateEdge: (Instruction, Instruction, D) -> D
+    ): Edges<D>? {
+        val instructionSources = sources[number] ?: return null
+        val instruction = instructions[number]
+
+        if (takesDataFromBody[number]) {
+            if (instructionSources.isEmpty()) return null
+            val lastInstruction = instructions[instructionSources[0]]
+            val bodyData = data[instructionSources[0]]
+            return Edges(updateEdge(lastInstruction, instruction, bodyData.incoming),
+                         updateEdge(lastInstruction, instruction, bodyData.outgoing))
+        }
+
+        val incomingEdgesData = ArrayList<D>(instructionSources.size())
+        for (source in instructionSources) {
+            incomingEdgesData.add(updateEdge(instructions[source], instruction, data[source].outgoing))
+        }
+        return mergeEdges(instruction, incomingEdgesData)
+    }
+
+    // Depth-first search over the dependencies starting from the instructions in their order
+    private fun reversePostorder(dependentStarts: IntArray, dependents: IntArray): IntArray {
+        val count = instructions.size()
+        val visited = BooleanArray(count)
+        val nextDependent = IntArray(count)
+        val stack = IntArray(count)
+        val postorder = IntArray(count)
+        var visitedCount = 0
 
-        for (previousInstruction in previousInstructions) {
-            val previousData = edgesMap.get(previousInstruction)
-            if (previousData != null) {
-                incomingEdgesData.add(updateEdge(
-                        previousInstruction, instruction, previousData.outgoing))
+        for (root in 0..count - 1) {
+            if (visited[root]) continue
+            visited[root] = true
+            nextDependent[root] = dependentStarts[root]
+            var stackSize = 0
+            stack[stackSize++] = root
+
+            while (stackSize > 0) {
+                val number = stack[stackSize - 1]
+                if (nextDependent[number] < dependentStarts[number + 1]) {
+                    val dependent = dependents[nextDependent[number]++]
+                    if (!visited[dependent]) {
+                        visited[dependent] = true
+                        nextDependent[dependent] = dependentStarts[dependent]
+                        stack[stackSize++] = dependent
+                    }
+                }
+                else {
+                    stackSize--
+                    postorder[visitedCount++] = number
+                }
             }
         }
-        val mergedData = mergeEdges(instruction, incomingEdgesData)
-        updateEdgeDataForInstruction(previousDataValue, mergedData)
+
+        val result = IntArray(count)
+        for (i in 0..count - 1) {
+            result[i] = postorder[count - 1 - i]
+        }
+        return result
     }
 }
 
@@ -27,7 +27,6 @@ import org.jetbrains.kotlin.cfg.pseudocodeTraverser.traverse
 import org.jetbrains.kotlin.descriptors.VariableDescriptor
 import org.jetbrains.kotlin.resolve.BindingContext
 import java.util.ArrayList
-import java.util.Collections
 import java.util.HashMap
 
 public class PseudocodeVariableDataCollector(
@@ -36,19 +35,24 @@ public class PseudocodeVariableDataCollector(
 ) {
     val lexicalScopeVariableInfo = computeLexicalScopeVariableInfo(pseudocode)
 
+    private val variableIndex = VariableStates.Index()
+
     suppress("UNCHECKED_CAST")
     public fun <D> collectData(
             traversalOrder: TraversalOrder,
             mergeDataWithLocalDeclarations: Boolean,
-            instructionDataMergeStrategy: InstructionDataMergeStrategy<D>
+            encoding: VariableStates.Encoding<D>,
+            instructionDataTransfer: InstructionDataTransfer<D>
     ): MutableMap<Instruction, Edges<MutableMap<VariableDescriptor, D>>> {
-        val result = pseudocode.collectData(
+        val emptyData = VariableStates.empty(variableIndex, encoding)
+        val result = pseudocode.collectData<VariableStates<D>>(
                 traversalOrder, mergeDataWithLocalDeclarations,
-                //see KT-4605
-                instructionDataMergeStrategy as
-                    (Instruction, Collection<Map<VariableDescriptor, D>>) -> Edges<Map<VariableDescriptor, D>>,
+                { instruction, incomingEdgesData ->
+                    val enterInstructionData = emptyData.merge(incomingEdgesData)
+                    Edges(enterInstructionData, instructionDataTransfer.invoke(instruction, enterInstructionData))
+                },
                 { from, to, data -> filterOutVariablesOutOfScope(from, to, data)},
-                Collections.emptyMap<VariableDescriptor, D>())
+                emptyData)
         //see KT-4605
         return result as MutableMap<Instruction, Edges<MutableMap<VariableDescriptor, D>>>
     }
@@ -56,15 +60,15 @@ public class PseudocodeVariableDataCollector(
     private fun <D> filterOutVariablesOutOfScope(
             from: Instruction,
             to: Instruction,
-            data: Map<VariableDescriptor, D>
-    ): Map<VariableDescriptor, D> {
+            data: VariableStates<D>
+    ): VariableStates<D> {
         // If an edge goes from deeper lexical scope to a less deep one, this means that it points outside of the deeper scope.
         val toDepth = to.lexicalScope.depth
         if (toDepth >= from.lexicalScope.depth) return data
 
         // Variables declared in an inner (deeper) scope can't be accessed from an outer scope.
         // Thus they can be filtered out upon leaving the inner scope.
-        return data.filterKeys { variable ->
+        return data.retainAll { variable ->
             val lexicalScope = lexicalScopeVariableInfo.declaredIn[variable]
             // '-1' for variables declared outside this pseudocode
             val depth = lexicalScope?.depth ?: -1
@@ -97,8 +101,8 @@ public class PseudocodeVariableDataCollector(
 }
 
 //todo may be a type alias
-trait InstructionDataMergeStrategy<D> :
-  (Instruction, Collection<MutableMap<VariableDescriptor, D>>) -> Edges<MutableMap<VariableDescriptor, D>>
+// Computes states of variables after an instruction from their states before it, merged from all incoming edges
+trait InstructionDataTransfer<D> : (Instruction, VariableStates<D>) -> VariableStates<D>
 
 public trait LexicalScopeVariableInfo {
     val declaredIn : Map<VariableDescriptor, LexicalScope>
@@ -35,7 +35,6 @@ import org.jetbrains.kotlin.psi.JetDeclaration;
 import org.jetbrains.kotlin.psi.JetProperty;
 import org.jetbrains.kotlin.resolve.BindingContext;
 
-import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
@@ -126,20 +125,16 @@ public class PseudocodeVariablesData {
         final LexicalScopeVariableInfo lexicalScopeVariableInfo = pseudocodeVariableDataCollector.getLexicalScopeVariableInfo();
 
         return pseudocodeVariableDataCollector.collectData(
-                FORWARD, /*mergeDataWithLocalDeclarations=*/ false,
-                new InstructionDataMergeStrategy<VariableInitState>() {
+                FORWARD, /*mergeDataWithLocalDeclarations=*/ false, VariableInitState.ENCODING,
+                new InstructionDataTransfer<VariableInitState>() {
                     @NotNull
                     @Override
-                    public Edges<Map<VariableDescriptor, VariableInitState>> invoke(
+                    public VariableStates<VariableInitState> invoke(
                             @NotNull Instruction instruction,
-                            @NotNull Collection<? extends Map<VariableDescriptor, VariableInitState>> incomingEdgesData
+                            @NotNull VariableStates<VariableInitState> enterInstructionData
                     ) {
-
-                        Map<VariableDescriptor, VariableInitState> enterInstructionData =
-                                mergeIncomingEdgesDataForInitializers(incomingEdgesData);
-                        Map<VariableDescriptor, VariableInitState> exitInstructionData = addVariableInitStateFromCurrentInstructionIfAny(
+                        return addVariableInitStateFromCurrentInstructionIfAny(
                                 instruction, enterInstructionData, lexicalScopeVariableInfo);
-                        return new Edges<Map<VariableDescriptor, VariableInitState>>(enterInstructionData, exitInstructionData);
                     }
                 }
         );
@@ -159,38 +154,9 @@ public class PseudocodeVariablesData {
     }
 
     @NotNull
-    private static Map<VariableDescriptor, VariableInitState> mergeIncomingEdgesDataForInitializers(
-            @NotNull Collection<? extends Map<VariableDescriptor, VariableInitState>> incomingEdgesData
-    ) {
-        Set<VariableDescriptor> variablesInScope = Sets.newHashSet();
-        for (Map<VariableDescriptor, VariableInitState> edgeData : incomingEdgesData) {
-            variablesInScope.addAll(edgeData.keySet());
-        }
-
-        Map<VariableDescriptor, VariableInitState> enterInstructionData = Maps.newHashMap();
-        for (VariableDescriptor variable : variablesInScope) {
-            boolean isInitialized = true;
-            boolean isDeclared = true;
-            for (Map<VariableDescriptor, VariableInitState> edgeData : incomingEdgesData) {
-                VariableInitState initState = edgeData.get(variable);
-                if (initState != null) {
-                    if (!initState.isInitialized) {
-                        isInitialized = false;
-                    }
-                    if (!initState.isDeclared) {
-                        isDeclared = false;
-                    }
-                }
-            }
-            enterInstructionData.put(variable, VariableInitState.create(isInitialized, isDeclared));
-        }
-        return enterInstructionData;
-    }
-
-    @NotNull
-    private Map<VariableDescriptor, VariableInitState> addVariableInitStateFromCurrentInstructionIfAny(
+    private VariableStates<VariableInitState> addVariableInitStateFromCurrentInstructionIfAny(
             @NotNull Instruction instruction,
-            @NotNull Map<VariableDescriptor, VariableInitState> enterInstructionData,
+            @NotNull VariableStates<VariableInitState> enterInstructionData,
             @NotNull LexicalScopeVariableInfo lexicalScopeVariableInfo
     ) {
         if (!(instruction instanceof WriteValueInstruction) && !(instruction instanceof VariableDeclarationInstruction)) {
@@ -200,7 +166,6 @@ public class PseudocodeVariablesData {
         if (variable == null) {
             return enterInstructionData;
         }
-        Map<VariableDescriptor, VariableInitState> exitInstructionData = Maps.newHashMap(enterInstructionData);
         if (instruction instanceof WriteValueInstruction) {
             // if writing to already initialized object
             if (!PseudocodeUtil.isThisOrNoDispatchReceiver((WriteValueInstruction) instruction, bindingContext)) {
@@ -210,7 +175,7 @@ public class PseudocodeVariablesData {
             VariableInitState enterInitState = enterInstructionData.get(variable);
             VariableInitState initializationAtThisElement =
                     VariableInitState.create(((WriteValueInstruction) instruction).getElement() instanceof JetProperty, enterInitState);
-            exitInstructionData.put(variable, initializationAtThisElement);
+            return enterInstructionData.with(variable, initializationAtThisElement);
         }
         else { // instruction instanceof VariableDeclarationInstruction
             VariableInitState enterInitState = enterInstructionData.get(variable);
@@ -220,10 +185,10 @@ public class PseudocodeVariablesData {
             if (enterInitState == null || !enterInitState.isInitialized || !enterInitState.isDeclared) {
                 boolean isInitialized = enterInitState != null && enterInitState.isInitialized;
                 VariableInitState variableDeclarationInfo = VariableInitState.create(isInitialized, true);
-                exitInstructionData.put(variable, variableDeclarationInfo);
+                return enterInstructionData.with(variable, variableDeclarationInfo);
             }
+            return enterInstructionData;
         }
-        return exitInstructionData;
     }
 
 // variable use
@@ -231,49 +196,37 @@ public class PseudocodeVariablesData {
     @NotNull
     public Map<Instruction, Edges<Map<VariableDescriptor, VariableUseState>>> getVariableUseStatusData() {
         return pseudocodeVariableDataCollector.collectData(
-                BACKWARD, /*mergeDataWithLocalDeclarations=*/ true,
-                new InstructionDataMergeStrategy<VariableUseState>() {
+                BACKWARD, /*mergeDataWithLocalDeclarations=*/ true, VariableUseState.ENCODING,
+                new InstructionDataTransfer<VariableUseState>() {
                     @NotNull
                     @Override
-                    public Edges<Map<VariableDescriptor, VariableUseState>> invoke(
+                    public VariableStates<VariableUseState> invoke(
                             @NotNull Instruction instruction,
-                            @NotNull Collection<? extends Map<VariableDescriptor, VariableUseState>> incomingEdgesData
+                            @NotNull VariableStates<VariableUseState> enterResult
                     ) {
-
-                        Map<VariableDescriptor, VariableUseState> enterResult = Maps.newHashMap();
-                        for (Map<VariableDescriptor, VariableUseState> edgeData : incomingEdgesData) {
-                            for (Map.Entry<VariableDescriptor, VariableUseState> entry : edgeData.entrySet()) {
-                                VariableDescriptor variableDescriptor = entry.getKey();
-                                VariableUseState variableUseState = entry.getValue();
-                                enterResult.put(variableDescriptor, variableUseState.merge(enterResult.get(variableDescriptor)));
-                            }
+                        if (!(instruction instanceof ReadValueInstruction) && !(instruction instanceof WriteValueInstruction)) {
+                            return enterResult;
                         }
                         VariableDescriptor variableDescriptor = PseudocodeUtil.extractVariableDescriptorIfAny(
                                 instruction, true, bindingContext);
-                        if (variableDescriptor == null ||
-                            (!(instruction instanceof ReadValueInstruction) && !(instruction instanceof WriteValueInstruction))) {
-                            return new Edges<Map<VariableDescriptor, VariableUseState>>(enterResult, enterResult);
+                        if (variableDescriptor == null) {
+                            return enterResult;
                         }
-                        Map<VariableDescriptor, VariableUseState> exitResult = Maps.newHashMap(enterResult);
                         if (instruction instanceof ReadValueInstruction) {
-                            exitResult.put(variableDescriptor, VariableUseState.READ);
+                            return enterResult.with(variableDescriptor, VariableUseState.READ);
+                        }
+                        //instruction instanceof WriteValueInstruction
+                        VariableUseState variableUseState = enterResult.get(variableDescriptor);
+                        if (variableUseState == null) {
+                            variableUseState = VariableUseState.UNUSED;
                         }
-                        else { //instruction instanceof WriteValueInstruction
-                            VariableUseState variableUseState = enterResult.get(variableDescriptor);
-                            if (variableUseState == null) {
-                                variableUseState = VariableUseState.UNUSED;
-                            }
-                            switch (variableUseState) {
-                                case UNUSED:
-                                case ONLY_WRITTEN_NEVER_READ:
-                                    exitResult.put(variableDescriptor, VariableUseState.ONLY_WRITTEN_NEVER_READ);
-                                    break;
-                                case WRITTEN_AFTER_READ:
-                                case READ:
-                                    exitResult.put(variableDescriptor, VariableUseState.WRITTEN_AFTER_READ);
-                            }
+                        switch (variableUseState) {
+                            case UNUSED:
+                            case ONLY_WRITTEN_NEVER_READ:
+                                return enterResult.with(variableDescriptor, VariableUseState.ONLY_WRITTEN_NEVER_READ);
+                            default:
+                                return enterResult.with(variableDescriptor, VariableUseState.WRITTEN_AFTER_READ);
                         }
-                        return new Edges<Map<VariableDescriptor, VariableUseState>>(enterResult, exitResult);
                     }
                 }
         );
@@ -288,6 +241,25 @@ public class PseudocodeVariablesData {
             this.isDeclared = isDeclared;
         }
 
+        // Merged state of a variable is initialized or declared only if it is so on all edges
+        private static final VariableStates.Encoding<VariableInitState> ENCODING = new VariableStates.Encoding<VariableInitState>() {
+            @Override
+            public int getBitCount() {
+                return 2;
+            }
+
+            @Override
+            public int encode(@NotNull VariableInitState state) {
+                return (state.isInitialized ? 0 : 1) | (state.isDeclared ? 0 : 2);
+            }
+
+            @NotNull
+            @Override
+            public VariableInitState decode(int bits) {
+                return create((bits & 1) == 0, (bits & 2) == 0);
+            }
+        };
+
         private static final VariableInitState VS_TT = new VariableInitState(true, true);
         private static final VariableInitState VS_TF = new VariableInitState(true, false);
         private static final VariableInitState VS_FT = new VariableInitState(false, true);
@@ -324,17 +296,36 @@ public class PseudocodeVariablesData {
         ONLY_WRITTEN_NEVER_READ(1),
         UNUSED(0);
 
+        // State of the highest priority of all edges is merged: a state sets as many lowest bits as its priority
+        private static final VariableStates.Encoding<VariableUseState> ENCODING = new VariableStates.Encoding<VariableUseState>() {
+            @Override
+            public int getBitCount() {
+                return 3;
+            }
+
+            @Override
+            public int encode(@NotNull VariableUseState state) {
+                return (1 << state.priority) - 1;
+            }
+
+            @NotNull
+            @Override
+            public VariableUseState decode(int bits) {
+                switch (Integer.bitCount(bits)) {
+                    case 0: return UNUSED;
+                    case 1: return ONLY_WRITTEN_NEVER_READ;
+                    case 2: return WRITTEN_AFTER_READ;
+                    default: return READ;
+                }
+            }
+        };
+
         private final int priority;
 
         VariableUseState(int priority) {
             this.priority = priority;
         }
 
-        private VariableUseState merge(@Nullable VariableUseState variableUseState) {
-            if (variableUseState == null || priority > variableUseState.priority) return this;
-            return variableUseState;
-        }
-
         public static boolean isUsed(@Nullable VariableUseState variableUseState) {
             return variableUseState != null && variableUseState != UNUSED;
         }
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cfg;
+
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.descriptors.VariableDescriptor;
+
+import java.util.*;
+
+/**
+ * Immutable states of variables at some point of a pseudocode, kept in bit vectors over dense numbers of the variables.
+ *
+ * The first bit vector marks variables that have a state, the others hold the bits of the encoded states.
+ * States are encoded so that merging the data of several edges is a bitwise or of the vectors, see {@link Encoding}.
+ */
+public final class VariableStates<D> extends AbstractMap<VariableDescriptor, D> {
+    public interface Encoding<D> {
+        // Number of bits of an encoded state
+        int getBitCount();
+
+        // A merged state is decoded from the bitwise or of the encoded states of all edges
+        int encode(@NotNull D state);
+
+        @NotNull
+        D decode(int bits);
+    }
+
+    // Dense numbers of variables shared by all states of a pseudocode
+    public static final class Index {
+        private final Map<VariableDescriptor, Integer> numbers = new HashMap<VariableDescriptor, Integer>();
+        private final List<VariableDescriptor> variables = new ArrayList<VariableDescriptor>();
+
+        private int getOrCreateNumber(@NotNull VariableDescriptor variable) {
+            Integer number = numbers.get(variable);
+            if (number != null) return number;
+
+            numbers.put(variable, variables.size());
+            variables.add(variable);
+            return variables.size() - 1;
+        }
+
+        private int findNumber(@Nullable Object variable) {
+            Integer number = numbers.get(variable);
+            return number != null ? number : -1;
+        }
+    }
+
+    @NotNull
+    public static <D> VariableStates<D> empty(@NotNull Index index, @NotNull Encoding<D> encoding) {
+        return new VariableStates<D>(index, encoding, 0, new long[0]);
+    }
+
+    private final Index index;
+    private final Encoding<D> encoding;
+    // words per vector
+    private final int words;
+    // vector i occupies words [i * words, (i + 1) * words)
+    private final long[] bits;
+
+    private VariableStates(@NotNull Index index, @NotNull Encoding<D> encoding, int words, @NotNull long[] bits) {
+        this.index = index;
+        this.encoding = encoding;
+        this.words = words;
+        this.bits = bits;
+    }
+
+    private int getVectorCount() {
+        return encoding.getBitCount() + 1;
+    }
+
+    private boolean isSet(int vector, int number) {
+        return (bits[vector * words + (number >>> 6)] & (1L << number)) != 0;
+    }
+
+    private boolean isPresent(int number) {
+        return number >= 0 && (number >>> 6) < words && isSet(0, number);
+    }
+
+    @NotNull
+    private D decode(int number) {
+        int state = 0;
+        for (int i = 1; i < getVectorCount(); i++) {
+            if (isSet(i, number)) state |= 1 << (i - 1);
+        }
+        return encoding.decode(state);
+    }
+
+    @Nullable
+    @Override
+    public D get(Object key) {
+        int number = index.findNumber(key);
+        return isPresent(number) ? decode(number) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return isPresent(index.findNumber(key));
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < words; i++) {
+            size += Long.bitCount(bits[i]);
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (int i = 0; i < words; i++) {
+            if (bits[i] != 0) return false;
+        }
+        return true;
+    }
+
+    @NotNull
+    private long[] copyBits(int newWords) {
+        if (newWords == words) return bits.clone();
+
+        long[] result = new long[getVectorCount() * newWords];
+        for (int i = 0; i < getVectorCount(); i++) {
+            System.arraycopy(bits, i * words, result, i * newWords, words);
+        }
+        return result;
+    }
+
+    @NotNull
+    public VariableStates<D> with(@NotNull VariableDescriptor variable, @NotNull D state) {
+        int number = index.getOrCreateNumber(variable);
+        int newWords = Math.max(words, (number >>> 6) + 1);
+        long[] newBits = copyBits(newWords);
+
+        int word = number >>> 6;
+        long mask = 1L << number;
+        int encoded = (encoding.encode(state) << 1) | 1;
+        for (int i = 0; i < getVectorCount(); i++) {
+            if ((encoded & (1 << i)) != 0) {
+                newBits[i * newWords + word] |= mask;
+            }
+            else {
+                newBits[i * newWords + word] &= ~mask;
+            }
+        }
+        return new VariableStates<D>(index, encoding, newWords, newBits);
+    }
+
+    // Bitwise or of this and other states, the result is one of the states if the others add nothing to it
+    @NotNull
+    public VariableStates<D> merge(@NotNull Collection<? extends VariableStates<D>> others) {
+        VariableStates<D> widest = this;
+        for (VariableStates<D> other : others) {
+            if (other.words > widest.words) widest = other;
+        }
+
+        long[] result = null;
+        for (VariableStates<D> states : others) {
+            if (states == widest) continue;
+            result = orInto(result, widest, states);
+        }
+        if (widest != this) {
+            result = orInto(result, widest, this);
+        }
+        return result == null ? widest : new VariableStates<D>(index, encoding, widest.words, result);
+    }
+
+    @Nullable
+    private static <D> long[] orInto(@Nullable long[] result, @NotNull VariableStates<D> widest, @NotNull VariableStates<D> states) {
+        for (int i = 0; i < widest.getVectorCount(); i++) {
+            for (int j = 0; j < states.words; j++) {
+                long word = states.bits[i * states.words + j];
+                int position = i * widest.words + j;
+                long current = result != null ? result[position] : widest.bits[position];
+                if ((current | word) != current) {
+                    if (result == null) result = widest.bits.clone();
+                    result[position] = current | word;
+                }
+            }
+        }
+        return result;
+    }
+
+    // Returns this states if all variables satisfy the predicate
+    @NotNull
+    public VariableStates<D> retainAll(@NotNull Function1<? super VariableDescriptor, Boolean> predicate) {
+        long[] result = null;
+        for (int number = 0; number < words * 64; number++) {
+            if (!isSet(0, number) || predicate.invoke(index.variables.get(number))) continue;
+
+            if (result == null) result = bits.clone();
+            for (int i = 0; i < getVectorCount(); i++) {
+                result[i * words + (number >>> 6)] &= ~(1L << number);
+            }
+        }
+        return result == null ? this : new VariableStates<D>(index, encoding, words, result);
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<VariableDescriptor, D>> entrySet() {
+        return new AbstractSet<Entry<VariableDescriptor, D>>() {
+            @NotNull
+            @Override
+            public Iterator<Entry<VariableDescriptor, D>> iterator() {
+                List<Entry<VariableDescriptor, D>> entries = new ArrayList<Entry<VariableDescriptor, D>>();
+                for (int number = 0; number < words * 64; number++) {
+                    if (isSet(0, number)) {
+                        entries.add(new SimpleImmutableEntry<VariableDescriptor, D>(index.variables.get(number), decode(number)));
+                    }
+                }
+                return Collections.unmodifiableList(entries).iterator();
+            }
+
+            @Override
+            public int size() {
+                return VariableStates.this.size();
+            }
+        };
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof VariableStates)) return super.equals(o);
+
+        VariableStates<?> other = (VariableStates<?>) o;
+        if (index != other.index || encoding != other.encoding) return super.equals(o);
+
+        for (int i = 0; i < getVectorCount(); i++) {
+            for (int j = 0; j < Math.max(words, other.words); j++) {
+                long word = j < words ? bits[i * words + j] : 0;
+                long otherWord = j < other.words ? other.bits[i * other.words + j] : 0;
+                if (word != otherWord) return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+}
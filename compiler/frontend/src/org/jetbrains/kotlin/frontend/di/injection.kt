@@ -21,6 +21,7 @@ import org.jetbrains.kotlin.container.*
 import org.jetbrains.kotlin.context.LazyResolveToken
 import org.jetbrains.kotlin.context.ModuleContext
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.resolve.*
 import org.jetbrains.kotlin.resolve.calls.CallResolver
 import org.jetbrains.kotlin.resolve.lazy.FileScopeProvider
@@ -32,7 +33,8 @@ import org.jetbrains.kotlin.types.DynamicTypesSettings
 import org.jetbrains.kotlin.types.expressions.*
 
 public fun StorageComponentContainer.configureModule(
-        moduleContext: ModuleContext, additionalCheckerProvider: AdditionalCheckerProvider
+        moduleContext: ModuleContext, additionalCheckerProvider: AdditionalCheckerProvider,
+        lookupTracker: LookupTracker = LookupTracker.DO_NOTHING
 ) {
     useInstance(moduleContext)
     useInstance(moduleContext.module)
@@ -42,12 +44,14 @@ public fun StorageComponentContainer.configureModule(
     useInstance(moduleContext.platformToKotlinClassMap)
     useInstance(additionalCheckerProvider)
     useInstance(additionalCheckerProvider.symbolUsageValidator)
+    useInstance(lookupTracker)
 }
 
 public fun StorageComponentContainer.configureModule(
-        moduleContext: ModuleContext, additionalCheckerProvider: AdditionalCheckerProvider, trace: BindingTrace
+        moduleContext: ModuleContext, additionalCheckerProvider: AdditionalCheckerProvider, trace: BindingTrace,
+        lookupTracker: LookupTracker = LookupTracker.DO_NOTHING
 ) {
-    configureModule(moduleContext, additionalCheckerProvider)
+    configureModule(moduleContext, additionalCheckerProvider, lookupTracker)
     useInstance(trace)
 }
 
@@ -84,9 +88,10 @@ public fun createContainerForLazyLocalClassifierAnalyzer(
         bindingTrace: BindingTrace,
         additionalCheckerProvider: AdditionalCheckerProvider,
         dynamicTypesSettings: DynamicTypesSettings,
-        localClassDescriptorHolder: LocalClassDescriptorHolder
+        localClassDescriptorHolder: LocalClassDescriptorHolder,
+        lookupTracker: LookupTracker
 ): StorageComponentContainer = createContainer("LocalClassifierAnalyzer") {
-    configureModule(moduleContext, additionalCheckerProvider, bindingTrace)
+    configureModule(moduleContext, additionalCheckerProvider, bindingTrace, lookupTracker)
 
     useInstance(dynamicTypesSettings)
     useInstance(localClassDescriptorHolder)
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.descriptors.PackageFragmentDescriptor
+import org.jetbrains.kotlin.descriptors.PackageViewDescriptor
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.JetElement
+import org.jetbrains.kotlin.resolve.DescriptorUtils
+import org.jetbrains.kotlin.types.JetType
+import org.jetbrains.kotlin.types.TypeUtils
+
+// Lookup of a name in the scope of a package or a non-local class.
+// Lookups in lexical scopes of local declarations aren't recorded: they can't see declarations from other files
+public fun LookupTracker.record(from: JetElement, scopeContainer: DeclarationDescriptor, name: Name) {
+    if (!requiresTracking) return
+
+    val scopeFqName = getScopeFqName(scopeContainer) ?: return
+    val path = getLookupContainingFilePath(from) ?: return
+    record(path, scopeFqName.asString(), name.asString())
+}
+
+// Lookup of a member of a type: a member may be declared in any of its supertypes
+public fun LookupTracker.recordInType(from: JetElement, type: JetType, name: Name) {
+    if (!requiresTracking) return
+
+    val path = getLookupContainingFilePath(from) ?: return
+    for (supertype in TypeUtils.getAllSupertypes(type) + type) {
+        val classDescriptor = supertype.getConstructor().getDeclarationDescriptor() as? ClassDescriptor ?: continue
+        val scopeFqName = getScopeFqName(classDescriptor) ?: continue
+        record(path, scopeFqName.asString(), name.asString())
+    }
+}
+
+// Lookup of a top-level declaration or an extension, which may come from the package of the file or from a package imported with '*'.
+// Explicitly imported declarations are recorded when the import directive is resolved
+public fun LookupTracker.recordInFileScope(from: JetElement, name: Name) {
+    if (!requiresTracking) return
+
+    val path = getLookupContainingFilePath(from) ?: return
+    val file = from.getContainingJetFile()
+    record(path, file.getPackageFqName().asString(), name.asString())
+    for (importDirective in file.getImportDirectives()) {
+        val importPath = importDirective.getImportPath() ?: continue
+        if (importPath.isAllUnder()) {
+            record(path, importPath.fqnPart().asString(), name.asString())
+        }
+    }
+}
+
+private fun getLookupContainingFilePath(from: JetElement): String? = from.getContainingJetFile().getVirtualFile()?.getPath()
+
+private fun getScopeFqName(descriptor: DeclarationDescriptor): FqName? =
+        when (descriptor) {
+            is PackageViewDescriptor -> descriptor.fqName
+            is PackageFragmentDescriptor -> descriptor.fqName
+            is ClassDescriptor -> if (DescriptorUtils.isLocal(descriptor)) null else DescriptorUtils.getFqNameSafe(descriptor)
+            else -> null
+        }
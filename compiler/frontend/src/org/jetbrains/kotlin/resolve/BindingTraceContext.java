@@ -36,6 +36,9 @@ public class BindingTraceContext implements BindingTrace {
     /* package */ final static boolean TRACK_REWRITES = false;
     /* package */ final static boolean TRACK_WITH_STACK_TRACES = true;
 
+    // Facts are stored in a table per slice instead of a holder per key, see ColumnarSlicedMap
+    private final static boolean COLUMNAR_STORAGE = Boolean.getBoolean("kotlin.binding.trace.columnar");
+
     private final MutableSlicedMap map;
     private final MutableDiagnosticsWithSuppression mutableDiagnostics;
 
@@ -79,7 +82,8 @@ public class BindingTraceContext implements BindingTrace {
 
     public BindingTraceContext() {
         //noinspection ConstantConditions
-        this(TRACK_REWRITES ? new TrackingSlicedMap(TRACK_WITH_STACK_TRACES) : SlicedMapImpl.create());
+        this(TRACK_REWRITES ? new TrackingSlicedMap(TRACK_WITH_STACK_TRACES) :
+             COLUMNAR_STORAGE ? ColumnarSlicedMap.create() : SlicedMapImpl.create());
     }
 
 
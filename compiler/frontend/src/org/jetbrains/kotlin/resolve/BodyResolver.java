@@ -36,12 +36,14 @@ import org.jetbrains.kotlin.resolve.calls.util.CallMaker;
 import org.jetbrains.kotlin.resolve.lazy.ForceResolveUtil;
 import org.jetbrains.kotlin.resolve.scopes.*;
 import org.jetbrains.kotlin.resolve.scopes.receivers.ReceiverValue;
+import org.jetbrains.kotlin.storage.StorageManager;
 import org.jetbrains.kotlin.types.*;
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingContext;
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingServices;
 import org.jetbrains.kotlin.types.expressions.ValueParameterResolver;
 import org.jetbrains.kotlin.types.expressions.typeInfoFactory.TypeInfoFactoryPackage;
 import org.jetbrains.kotlin.util.Box;
+import org.jetbrains.kotlin.util.ProfilingTrace;
 import org.jetbrains.kotlin.util.ReenteringLazyValueComputationException;
 import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
 
@@ -66,6 +68,8 @@ public class BodyResolver {
     private AdditionalCheckerProvider additionalCheckerProvider;
     private ValueParameterResolver valueParameterResolver;
     private BodyResolveCache bodyResolveCache;
+    private StorageManager storageManager;
+    private BodyResolveSettings bodyResolveSettings;
 
     //<editor-fold desc="Injector Setters">
     @Inject
@@ -127,6 +131,16 @@ public class BodyResolver {
     public void setBodyResolveCache(BodyResolveCache bodyResolveCache) {
         this.bodyResolveCache = bodyResolveCache;
     }
+
+    @Inject
+    public void setStorageManager(@NotNull StorageManager storageManager) {
+        this.storageManager = storageManager;
+    }
+
+    @Inject
+    public void setBodyResolveSettings(@NotNull BodyResolveSettings bodyResolveSettings) {
+        this.bodyResolveSettings = bodyResolveSettings;
+    }
     //</editor-fold>
 
     private void resolveBehaviorDeclarationBodies(@NotNull BodiesResolveContext c) {
@@ -258,9 +272,29 @@ public class BodyResolver {
     }
 
     public void resolveBodies(@NotNull BodiesResolveContext c) {
-        resolveBehaviorDeclarationBodies(c);
-        controlFlowAnalyzer.process(c);
-        declarationsChecker.process(c);
+        ProfilingTrace.Span span = ProfilingTrace.begin("resolve declaration bodies", null);
+        try {
+            resolveBehaviorDeclarationBodies(c);
+        }
+        finally {
+            ProfilingTrace.end(span);
+        }
+
+        span = ProfilingTrace.begin("control flow analysis", null);
+        try {
+            controlFlowAnalyzer.process(c);
+        }
+        finally {
+            ProfilingTrace.end(span);
+        }
+
+        span = ProfilingTrace.begin("declaration checks", null);
+        try {
+            declarationsChecker.process(c);
+        }
+        finally {
+            ProfilingTrace.end(span);
+        }
         functionAnalyzerExtension.process(c);
     }
 
@@ -587,7 +621,8 @@ public class BodyResolver {
             @NotNull BodiesResolveContext c,
             @Nullable JetScope parentScope,
             @NotNull JetProperty property,
-            @NotNull PropertyDescriptor propertyDescriptor
+            @NotNull PropertyDescriptor propertyDescriptor,
+            @NotNull BindingTrace trace
     ) {
         computeDeferredType(propertyDescriptor.getReturnType());
 
@@ -597,48 +632,67 @@ public class BodyResolver {
             parentScope = propertyScope;
         }
         if (initializer != null) {
-            resolvePropertyInitializer(c.getOuterDataFlowInfo(), property, propertyDescriptor, initializer, propertyScope);
+            resolvePropertyInitializer(c.getOuterDataFlowInfo(), property, propertyDescriptor, initializer, propertyScope, trace);
         }
 
         JetExpression delegateExpression = property.getDelegateExpression();
         if (delegateExpression != null) {
             assert initializer == null : "Initializer should be null for delegated property : " + property.getText();
-            resolvePropertyDelegate(c.getOuterDataFlowInfo(), property, propertyDescriptor, delegateExpression, parentScope, propertyScope);
+            resolvePropertyDelegate(c.getOuterDataFlowInfo(), property, propertyDescriptor, delegateExpression, parentScope, propertyScope,
+                                    trace);
         }
 
-        resolvePropertyAccessors(c, property, propertyDescriptor);
+        resolvePropertyAccessors(c, property, propertyDescriptor, trace);
     }
 
-    private void resolvePropertyDeclarationBodies(@NotNull BodiesResolveContext c) {
+    private void resolvePropertyDeclarationBodies(@NotNull final BodiesResolveContext c) {
+        List<BodyResolveTask> tasks = new ArrayList<BodyResolveTask>(c.getProperties().size());
 
         // Member properties
         Set<JetProperty> processed = Sets.newHashSet();
         for (Map.Entry<JetClassOrObject, ClassDescriptorWithResolutionScopes> entry : c.getDeclaredClasses().entrySet()) {
             if (!(entry.getKey() instanceof JetClass)) continue;
             JetClass jetClass = (JetClass) entry.getKey();
-            ClassDescriptorWithResolutionScopes classDescriptor = entry.getValue();
+            final ClassDescriptorWithResolutionScopes classDescriptor = entry.getValue();
 
-            for (JetProperty property : jetClass.getProperties()) {
-                PropertyDescriptor propertyDescriptor = c.getProperties().get(property);
+            for (final JetProperty property : jetClass.getProperties()) {
+                final PropertyDescriptor propertyDescriptor = c.getProperties().get(property);
                 assert propertyDescriptor != null;
 
-                resolveProperty(c, classDescriptor.getScopeForMemberDeclarationResolution(), property, propertyDescriptor);
+                tasks.add(new BodyResolveTask(property, propertyDescriptor) {
+                    @Override
+                    public void resolve(@NotNull BindingTrace trace) {
+                        resolveProperty(c, classDescriptor.getScopeForMemberDeclarationResolution(), property, propertyDescriptor, trace);
+                    }
+                });
                 processed.add(property);
             }
         }
 
         // Top-level properties & properties of objects
         for (Map.Entry<JetProperty, PropertyDescriptor> entry : c.getProperties().entrySet()) {
-            JetProperty property = entry.getKey();
+            final JetProperty property = entry.getKey();
             if (processed.contains(property)) continue;
 
-            PropertyDescriptor propertyDescriptor = entry.getValue();
+            final PropertyDescriptor propertyDescriptor = entry.getValue();
 
-            resolveProperty(c, null, property, propertyDescriptor);
+            tasks.add(new BodyResolveTask(property, propertyDescriptor) {
+                @Override
+                public void resolve(@NotNull BindingTrace trace) {
+                    resolveProperty(c, null, property, propertyDescriptor, trace);
+                }
+            });
         }
+
+        runBodyResolveTasks(c, tasks);
     }
 
-    private JetScope makeScopeForPropertyAccessor(@NotNull BodiesResolveContext c, @NotNull JetPropertyAccessor accessor, @NotNull PropertyDescriptor descriptor) {
+    private static JetScope makeScopeForPropertyAccessor(
+            @NotNull BodiesResolveContext c,
+            @NotNull JetPropertyAccessor accessor,
+            @NotNull PropertyDescriptor descriptor,
+            @NotNull BindingTrace trace
+    ) {
         JetScope accessorDeclaringScope = c.getDeclaringScope(accessor);
         assert accessorDeclaringScope != null : "Scope for accessor " + accessor.getText() + " should exists";
         return JetScopeUtils.makeScopeForPropertyAccessor(descriptor, accessorDeclaringScope, trace);
@@ -649,12 +703,21 @@ public class BodyResolver {
             @NotNull JetProperty property,
             @NotNull PropertyDescriptor propertyDescriptor
     ) {
-        ObservableBindingTrace fieldAccessTrackingTrace = createFieldTrackingTrace(propertyDescriptor);
+        resolvePropertyAccessors(c, property, propertyDescriptor, trace);
+    }
+
+    private void resolvePropertyAccessors(
+            @NotNull BodiesResolveContext c,
+            @NotNull JetProperty property,
+            @NotNull PropertyDescriptor propertyDescriptor,
+            @NotNull BindingTrace trace
+    ) {
+        ObservableBindingTrace fieldAccessTrackingTrace = createFieldTrackingTrace(propertyDescriptor, trace);
 
         JetPropertyAccessor getter = property.getGetter();
         PropertyGetterDescriptor getterDescriptor = propertyDescriptor.getGetter();
         if (getter != null && getterDescriptor != null) {
-            JetScope accessorScope = makeScopeForPropertyAccessor(c, getter, propertyDescriptor);
+            JetScope accessorScope = makeScopeForPropertyAccessor(c, getter, propertyDescriptor, trace);
             ForceResolveUtil.forceResolveAllContents(getterDescriptor.getAnnotations());
             resolveFunctionBody(c.getOuterDataFlowInfo(), fieldAccessTrackingTrace, getter, getterDescriptor, accessorScope);
         }
@@ -662,13 +725,16 @@ public class BodyResolver {
         JetPropertyAccessor setter = property.getSetter();
         PropertySetterDescriptor setterDescriptor = propertyDescriptor.getSetter();
         if (setter != null && setterDescriptor != null) {
-            JetScope accessorScope = makeScopeForPropertyAccessor(c, setter, propertyDescriptor);
+            JetScope accessorScope = makeScopeForPropertyAccessor(c, setter, propertyDescriptor, trace);
             ForceResolveUtil.forceResolveAllContents(setterDescriptor.getAnnotations());
             resolveFunctionBody(c.getOuterDataFlowInfo(), fieldAccessTrackingTrace, setter, setterDescriptor, accessorScope);
         }
     }
 
-    private ObservableBindingTrace createFieldTrackingTrace(final PropertyDescriptor propertyDescriptor) {
+    private static ObservableBindingTrace createFieldTrackingTrace(
+            @NotNull final PropertyDescriptor propertyDescriptor,
+            @NotNull final BindingTrace trace
+    ) {
         return new ObservableBindingTrace(trace).addHandler(BindingContext.REFERENCE_TARGET, new ObservableBindingTrace.RecordHandler<JetReferenceExpression, DeclarationDescriptor>() {
             @Override
             public void handleRecord(WritableSlice<JetReferenceExpression, DeclarationDescriptor> slice, JetReferenceExpression expression, DeclarationDescriptor descriptor) {
@@ -692,6 +758,19 @@ public class BodyResolver {
             @NotNull JetExpression delegateExpression,
             @NotNull JetScope parentScopeForAccessor,
             @NotNull JetScope propertyScope
+    ) {
+        resolvePropertyDelegate(outerDataFlowInfo, jetProperty, propertyDescriptor, delegateExpression, parentScopeForAccessor, propertyScope,
+                                trace);
+    }
+
+    private void resolvePropertyDelegate(
+            @NotNull DataFlowInfo outerDataFlowInfo,
+            @NotNull JetProperty jetProperty,
+            @NotNull PropertyDescriptor propertyDescriptor,
+            @NotNull JetExpression delegateExpression,
+            @NotNull JetScope parentScopeForAccessor,
+            @NotNull JetScope propertyScope,
+            @NotNull BindingTrace trace
     ) {
         JetPropertyAccessor getter = jetProperty.getGetter();
         if (getter != null && getter.hasBody()) {
@@ -730,6 +809,17 @@ public class BodyResolver {
             @NotNull PropertyDescriptor propertyDescriptor,
             @NotNull JetExpression initializer,
             @NotNull JetScope scope
+    ) {
+        resolvePropertyInitializer(outerDataFlowInfo, property, propertyDescriptor, initializer, scope, trace);
+    }
+
+    private void resolvePropertyInitializer(
+            @NotNull DataFlowInfo outerDataFlowInfo,
+            @NotNull JetProperty property,
+            @NotNull PropertyDescriptor propertyDescriptor,
+            @NotNull JetExpression initializer,
+            @NotNull JetScope scope,
+            @NotNull BindingTrace trace
     ) {
         JetScope propertyDeclarationInnerScope = JetScopeUtils.getPropertyDeclarationInnerScopeForInitializer(
                 propertyDescriptor, scope, propertyDescriptor.getTypeParameters(), NO_RECEIVER_PARAMETER, trace);
@@ -747,23 +837,68 @@ public class BodyResolver {
         return scope;
     }
 
-    private void resolveFunctionBodies(@NotNull BodiesResolveContext c) {
+    private void resolveFunctionBodies(@NotNull final BodiesResolveContext c) {
+        List<BodyResolveTask> tasks = new ArrayList<BodyResolveTask>(c.getFunctions().size());
         for (Map.Entry<JetNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
-            JetNamedFunction declaration = entry.getKey();
+            final JetNamedFunction declaration = entry.getKey();
+            final SimpleFunctionDescriptor descriptor = entry.getValue();
 
-            JetScope scope = c.getDeclaringScope(declaration);
+            final JetScope scope = c.getDeclaringScope(declaration);
             assert scope != null : "Scope is null: " + PsiUtilPackage.getElementTextWithContext(declaration);
 
-            if (!c.getTopDownAnalysisMode().getIsLocalDeclarations() && !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
-                expressionTypingServices.getStatementFilter() != StatementFilter.NONE) {
-                bodyResolveCache.resolveFunctionBody(declaration).addOwnDataTo(trace, true);
+            tasks.add(new BodyResolveTask(declaration, descriptor) {
+                @Override
+                public void resolve(@NotNull BindingTrace trace) {
+                    if (!c.getTopDownAnalysisMode().getIsLocalDeclarations() &&
+                        !(bodyResolveCache instanceof BodyResolveCache.ThrowException) &&
+                        expressionTypingServices.getStatementFilter() != StatementFilter.NONE) {
+                        bodyResolveCache.resolveFunctionBody(declaration).addOwnDataTo(trace, true);
+                    }
+                    else {
+                        resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, descriptor, scope);
+                    }
+                }
+            });
+        }
+
+        runBodyResolveTasks(c, tasks);
+    }
+
+    private abstract static class BodyResolveTask extends DeclarationTasks.Task {
+        private final JetDeclaration declaration;
+        private final CallableDescriptor descriptor;
+
+        protected BodyResolveTask(@NotNull JetDeclaration declaration, @NotNull CallableDescriptor descriptor) {
+            super(declaration);
+            this.declaration = declaration;
+            this.descriptor = descriptor;
+        }
+
+        public abstract void resolve(@NotNull BindingTrace trace);
+
+        @Override
+        public void run(@NotNull BindingTrace trace) {
+            ProfilingTrace.Span span = ProfilingTrace.begin("resolve body", declaration.getContainingFile().getName());
+            try {
+                resolve(trace);
             }
-            else {
-                resolveFunctionBody(c.getOuterDataFlowInfo(), trace, declaration, entry.getValue(), scope);
+            finally {
+                ProfilingTrace.end(span);
             }
         }
     }
 
+    private void runBodyResolveTasks(@NotNull BodiesResolveContext c, @NotNull List<BodyResolveTask> tasks) {
+        // Types inferred from bodies are computed lazily and recorded into the main trace. They are computed here in the order
+        // of declarations, so that the main trace doesn't depend on the order in which parallel tasks happen to need them
+        for (BodyResolveTask task : tasks) {
+            computeDeferredType(task.descriptor.getReturnType());
+        }
+
+        int threadCount = c.getTopDownAnalysisMode().getIsLocalDeclarations() ? 1 : bodyResolveSettings.getThreadCount();
+        DeclarationTasks.run(tasks, threadCount, trace, storageManager, "Body resolve of declaration");
+    }
+
     public void resolveFunctionBody(
             @NotNull DataFlowInfo outerDataFlowInfo,
             @NotNull BindingTrace trace,
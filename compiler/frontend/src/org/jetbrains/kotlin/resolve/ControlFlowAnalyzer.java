@@ -24,53 +24,125 @@ import org.jetbrains.kotlin.descriptors.PropertyAccessorDescriptor;
 import org.jetbrains.kotlin.descriptors.PropertyDescriptor;
 import org.jetbrains.kotlin.descriptors.SimpleFunctionDescriptor;
 import org.jetbrains.kotlin.psi.*;
+import org.jetbrains.kotlin.storage.StorageManager;
 import org.jetbrains.kotlin.types.JetType;
+import org.jetbrains.kotlin.util.ProfilingTrace;
 
 import javax.inject.Inject;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import static org.jetbrains.kotlin.types.TypeUtils.NO_EXPECTED_TYPE;
 
 public class ControlFlowAnalyzer {
     private BindingTrace trace;
+    private StorageManager storageManager;
+    private BodyResolveSettings bodyResolveSettings;
 
     @Inject
     public void setTrace(BindingTrace trace) {
         this.trace = trace;
     }
 
-    public void process(@NotNull BodiesResolveContext c) {
-        for (JetFile file : c.getFiles()) {
-            checkDeclarationContainer(c, file);
+    @Inject
+    public void setStorageManager(@NotNull StorageManager storageManager) {
+        this.storageManager = storageManager;
+    }
+
+    @Inject
+    public void setBodyResolveSettings(@NotNull BodyResolveSettings bodyResolveSettings) {
+        this.bodyResolveSettings = bodyResolveSettings;
+    }
+
+    public void process(@NotNull final BodiesResolveContext c) {
+        // Each declaration is analyzed on its own, so the analysis runs in parallel under the same settings as body resolution
+        List<ControlFlowTask> tasks = new ArrayList<ControlFlowTask>();
+        for (final JetFile file : c.getFiles()) {
+            tasks.add(new ControlFlowTask(file) {
+                @Override
+                public void analyze(@NotNull BindingTrace trace) {
+                    checkDeclarationContainer(c, file, trace);
+                }
+            });
         }
-        for (JetClassOrObject aClass : c.getDeclaredClasses().keySet()) {
-            checkDeclarationContainer(c, aClass);
+        for (final JetClassOrObject aClass : c.getDeclaredClasses().keySet()) {
+            tasks.add(new ControlFlowTask(aClass) {
+                @Override
+                public void analyze(@NotNull BindingTrace trace) {
+                    checkDeclarationContainer(c, aClass, trace);
+                }
+            });
         }
-        for (JetSecondaryConstructor constructor : c.getSecondaryConstructors().keySet()) {
-            checkSecondaryConstructor(constructor);
+        for (final JetSecondaryConstructor constructor : c.getSecondaryConstructors().keySet()) {
+            tasks.add(new ControlFlowTask(constructor) {
+                @Override
+                public void analyze(@NotNull BindingTrace trace) {
+                    checkSecondaryConstructor(constructor, trace);
+                }
+            });
         }
         for (Map.Entry<JetNamedFunction, SimpleFunctionDescriptor> entry : c.getFunctions().entrySet()) {
-            JetNamedFunction function = entry.getKey();
-            SimpleFunctionDescriptor functionDescriptor = entry.getValue();
-            JetType expectedReturnType = !function.hasBlockBody() && !function.hasDeclaredReturnType()
-                                               ? NO_EXPECTED_TYPE
-                                               : functionDescriptor.getReturnType();
-            checkFunction(c, function, expectedReturnType);
+            final JetNamedFunction function = entry.getKey();
+            final SimpleFunctionDescriptor functionDescriptor = entry.getValue();
+            tasks.add(new ControlFlowTask(function) {
+                @Override
+                public void analyze(@NotNull BindingTrace trace) {
+                    JetType expectedReturnType = !function.hasBlockBody() && !function.hasDeclaredReturnType()
+                                                 ? NO_EXPECTED_TYPE
+                                                 : functionDescriptor.getReturnType();
+                    checkFunction(c, function, expectedReturnType, trace);
+                }
+            });
         }
         for (Map.Entry<JetProperty, PropertyDescriptor> entry : c.getProperties().entrySet()) {
-            JetProperty property = entry.getKey();
-            PropertyDescriptor propertyDescriptor = entry.getValue();
-            checkProperty(c, property, propertyDescriptor);
+            final JetProperty property = entry.getKey();
+            final PropertyDescriptor propertyDescriptor = entry.getValue();
+            tasks.add(new ControlFlowTask(property) {
+                @Override
+                public void analyze(@NotNull BindingTrace trace) {
+                    checkProperty(c, property, propertyDescriptor, trace);
+                }
+            });
+        }
+
+        int threadCount = c.getTopDownAnalysisMode().getIsLocalDeclarations() ? 1 : bodyResolveSettings.getThreadCount();
+        DeclarationTasks.run(tasks, threadCount, trace, storageManager, "Control flow analysis of declaration");
+    }
+
+    private abstract static class ControlFlowTask extends DeclarationTasks.Task {
+        private final JetElement element;
+
+        protected ControlFlowTask(@NotNull JetElement element) {
+            super(element);
+            this.element = element;
+        }
+
+        public abstract void analyze(@NotNull BindingTrace trace);
+
+        @Override
+        public void run(@NotNull BindingTrace trace) {
+            ProfilingTrace.Span span = ProfilingTrace.begin("analyze control flow", element.getContainingFile().getName());
+            try {
+                analyze(trace);
+            }
+            finally {
+                ProfilingTrace.end(span);
+            }
         }
     }
 
-    private void checkSecondaryConstructor(@NotNull JetSecondaryConstructor constructor) {
+    private static void checkSecondaryConstructor(@NotNull JetSecondaryConstructor constructor, @NotNull BindingTrace trace) {
         JetFlowInformationProvider flowInformationProvider = new JetFlowInformationProvider(constructor, trace);
         flowInformationProvider.checkDeclaration();
         flowInformationProvider.checkFunction(KotlinBuiltIns.getInstance().getUnitType());
     }
 
-    private void checkDeclarationContainer(@NotNull BodiesResolveContext c, JetDeclarationContainer declarationContainer) {
+    private static void checkDeclarationContainer(
+            @NotNull BodiesResolveContext c,
+            JetDeclarationContainer declarationContainer,
+            @NotNull BindingTrace trace
+    ) {
         // A pseudocode of class/object initialization corresponds to a class/object
         // or initialization of properties corresponds to a package declared in a file
         JetFlowInformationProvider flowInformationProvider = new JetFlowInformationProvider((JetElement) declarationContainer, trace);
@@ -81,18 +153,28 @@ public class ControlFlowAnalyzer {
         flowInformationProvider.checkDeclaration();
     }
 
-    private void checkProperty(@NotNull BodiesResolveContext c, JetProperty property, PropertyDescriptor propertyDescriptor) {
+    private static void checkProperty(
+            @NotNull BodiesResolveContext c,
+            JetProperty property,
+            PropertyDescriptor propertyDescriptor,
+            @NotNull BindingTrace trace
+    ) {
         for (JetPropertyAccessor accessor : property.getAccessors()) {
             PropertyAccessorDescriptor accessorDescriptor = accessor.isGetter()
                                                             ? propertyDescriptor.getGetter()
                                                             : propertyDescriptor.getSetter();
             assert accessorDescriptor != null : "no property accessor descriptor " + accessor.getText();
             JetType returnType = accessorDescriptor.getReturnType();
-            checkFunction(c, accessor, returnType);
+            checkFunction(c, accessor, returnType, trace);
         }
     }
 
-    private void checkFunction(@NotNull BodiesResolveContext c, @NotNull JetDeclarationWithBody function, @Nullable JetType expectedReturnType) {
+    private static void checkFunction(
+            @NotNull BodiesResolveContext c,
+            @NotNull JetDeclarationWithBody function,
+            @Nullable JetType expectedReturnType,
+            @NotNull BindingTrace trace
+    ) {
         if (!function.hasBody()) return;
         JetFlowInformationProvider flowInformationProvider = new JetFlowInformationProvider(function, trace);
         if (c.getTopDownAnalysisMode().getIsLocalDeclarations()) {
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.psi.JetElement;
+import org.jetbrains.kotlin.storage.LockBasedLazyResolveStorageManager;
+import org.jetbrains.kotlin.storage.StorageManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Independent pieces of analysis of declarations, run either sequentially or on a fixed thread pool.
+ * In the latter case each task records into its own trace, and the traces are merged into the main trace in the order of the tasks,
+ * so the result is the same as in the sequential mode as long as tasks don't read what other tasks record.
+ */
+/* package */ class DeclarationTasks {
+    public abstract static class Task {
+        private final JetElement element;
+
+        protected Task(@NotNull JetElement element) {
+            this.element = element;
+        }
+
+        public abstract void run(@NotNull BindingTrace trace);
+    }
+
+    public static void run(
+            @NotNull List<? extends Task> tasks,
+            int threadCount,
+            @NotNull BindingTrace trace,
+            @NotNull StorageManager storageManager,
+            @NotNull String traceDebugName
+    ) {
+        threadCount = Math.min(threadCount, tasks.size());
+        if (threadCount <= 1) {
+            for (Task task : tasks) {
+                task.run(trace);
+            }
+            return;
+        }
+
+        // Lazy resolution performed by the workers writes into the main trace under the storage manager lock,
+        // so the main trace is read under the same lock
+        BindingContext parentContext = new LockBasedLazyResolveStorageManager(storageManager).createSafeTrace(trace).getBindingContext();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<DelegatingBindingTrace> traces = new ArrayList<DelegatingBindingTrace>(tasks.size());
+            List<Future<?>> futures = new ArrayList<Future<?>>(tasks.size());
+            for (final Task task : tasks) {
+                final DelegatingBindingTrace taskTrace = new DelegatingBindingTrace(parentContext, traceDebugName, task.element);
+                traces.add(taskTrace);
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        task.run(taskTrace);
+                    }
+                }));
+            }
+
+            // Running tasks write into the main trace when they resolve something lazily, so nothing is merged into it
+            // until all tasks are finished
+            for (Future<?> future : futures) {
+                waitFor(future);
+            }
+
+            // Merging in the order of declarations makes the resulting trace the same as in the sequential mode
+            for (DelegatingBindingTrace taskTrace : traces) {
+                taskTrace.addOwnDataTo(trace);
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void waitFor(@NotNull Future<?> future) {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Analysis of declarations was interrupted", e);
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -31,10 +31,24 @@ import org.jetbrains.kotlin.resolve.calls.smartcasts.DataFlowInfo
 import org.jetbrains.kotlin.resolve.lazy.*
 import org.jetbrains.kotlin.resolve.lazy.descriptors.LazyClassDescriptor
 import org.jetbrains.kotlin.resolve.varianceChecker.VarianceChecker
+import org.jetbrains.kotlin.types.SubstitutionCache
+import org.jetbrains.kotlin.types.TypeInterner
+import org.jetbrains.kotlin.types.checker.SubtypingCache
+import org.jetbrains.kotlin.util.PerformanceCounter
+import org.jetbrains.kotlin.util.ProfilingTrace
 import java.util.ArrayList
 import javax.inject.Inject
 
 public class LazyTopDownAnalyzer {
+    companion object {
+        private val subtypingCacheHits = PerformanceCounter.create("Subtyping cache hits")
+        private val subtypingCacheMisses = PerformanceCounter.create("Subtyping cache misses")
+        private val substitutionCacheHits = PerformanceCounter.create("Substitution cache hits")
+        private val substitutionCacheMisses = PerformanceCounter.create("Substitution cache misses")
+        private val typeInterningHits = PerformanceCounter.create("Type interning hits")
+        private val typeInterningMisses = PerformanceCounter.create("Type interning misses")
+    }
+
     private var trace: BindingTrace? = null
     private var declarationResolver: DeclarationResolver? = null
     private var overrideResolver: OverrideResolver? = null
@@ -103,8 +117,46 @@ public class LazyTopDownAnalyzer {
     }
 
     public fun analyzeDeclarations(topDownAnalysisMode: TopDownAnalysisMode, declarations: Collection<PsiElement>, outerDataFlowInfo: DataFlowInfo): TopDownAnalysisContext {
+        val subtypingCache = SubtypingCache.install()
+        val substitutionCache = SubstitutionCache.install()
+        val typeInterner = TypeInterner.install()
+        try {
+            return doAnalyzeDeclarations(topDownAnalysisMode, declarations, outerDataFlowInfo)
+        }
+        finally {
+            if (typeInterner != null) {
+                TypeInterner.uninstall(typeInterner)
+                typeInterningHits.add(typeInterner.getHits())
+                typeInterningMisses.add(typeInterner.getMisses())
+            }
+            if (substitutionCache != null) {
+                SubstitutionCache.uninstall(substitutionCache)
+                substitutionCacheHits.add(substitutionCache.getHits())
+                substitutionCacheMisses.add(substitutionCache.getMisses())
+            }
+            if (subtypingCache != null) {
+                SubtypingCache.uninstall(subtypingCache)
+                subtypingCacheHits.add(subtypingCache.getHits())
+                subtypingCacheMisses.add(subtypingCache.getMisses())
+            }
+        }
+    }
+
+    private fun doAnalyzeDeclarations(topDownAnalysisMode: TopDownAnalysisMode, declarations: Collection<PsiElement>, outerDataFlowInfo: DataFlowInfo): TopDownAnalysisContext {
         val c = TopDownAnalysisContext(topDownAnalysisMode, outerDataFlowInfo, declarationScopeProvider!!)
 
+        ProfilingTrace.phase("resolve declarations") {
+            resolveDeclarations(c, declarations)
+        }
+
+        ProfilingTrace.phase("body resolve") {
+            bodyResolver!!.resolveBodies(c)
+        }
+
+        return c
+    }
+
+    private fun resolveDeclarations(c: TopDownAnalysisContext, declarations: Collection<PsiElement>) {
         val topLevelFqNames = HashMultimap.create<FqName, JetElement>()
 
         val properties = ArrayList<JetProperty>()
@@ -248,10 +300,6 @@ public class LazyTopDownAnalyzer {
         declarationResolver!!.resolveAnnotationsOnFiles(c, fileScopeProvider!!)
 
         overloadResolver!!.process(c)
-
-        bodyResolver!!.resolveBodies(c)
-
-        return c
     }
 
     private fun resolveAllHeadersInClasses(c: TopDownAnalysisContext) {
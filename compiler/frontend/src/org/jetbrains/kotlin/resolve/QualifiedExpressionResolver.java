@@ -26,6 +26,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.descriptors.*;
 import org.jetbrains.kotlin.diagnostics.Errors;
+import org.jetbrains.kotlin.incremental.IncrementalPackage;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
 import org.jetbrains.kotlin.name.Name;
 import org.jetbrains.kotlin.psi.*;
 import org.jetbrains.kotlin.resolve.scopes.AbstractScopeAdapter;
@@ -42,6 +44,7 @@ import static org.jetbrains.kotlin.diagnostics.Errors.*;
 
 public class QualifiedExpressionResolver {
     private SymbolUsageValidator symbolUsageValidator;
+    private LookupTracker lookupTracker = LookupTracker.DO_NOTHING;
     private final ImportDirectiveProcessor importDirectiveProcessor = new ImportDirectiveProcessor(this);
 
     /**
@@ -56,6 +59,11 @@ public class QualifiedExpressionResolver {
         this.symbolUsageValidator = symbolUsageValidator;
     }
 
+    @Inject
+    public void setLookupTracker(@NotNull LookupTracker lookupTracker) {
+        this.lookupTracker = lookupTracker;
+    }
+
     private static final Predicate<DeclarationDescriptor> CLASSIFIERS_AND_PACKAGE_VIEWS = new Predicate<DeclarationDescriptor>() {
         @Override
         public boolean apply(@Nullable DeclarationDescriptor descriptor) {
@@ -180,6 +188,7 @@ public class QualifiedExpressionResolver {
     ) {
         Set<LookupResult> results = Sets.newLinkedHashSet();
         for (DeclarationDescriptor declarationDescriptor : declarationDescriptors) {
+            IncrementalPackage.record(lookupTracker, selector, declarationDescriptor, selector.getReferencedNameAsName());
             if (declarationDescriptor instanceof PackageViewDescriptor) {
                 results.add(lookupSimpleNameReference(selector, ((PackageViewDescriptor) declarationDescriptor).getMemberScope(),
                                                       lookupMode, true));
@@ -207,7 +216,6 @@ public class QualifiedExpressionResolver {
 
 
     @NotNull
-    @SuppressWarnings("MethodMayBeStatic")
     public Collection<DeclarationDescriptor> lookupDescriptorsForSimpleNameReference(
             @NotNull JetSimpleNameExpression referenceExpression,
             @NotNull JetScope outerScope,
@@ -217,11 +225,27 @@ public class QualifiedExpressionResolver {
             boolean packageLevel,
             boolean storeResult
     ) {
+        recordLookupInLexicalScope(referenceExpression, outerScope);
         LookupResult lookupResult = lookupSimpleNameReference(referenceExpression, outerScope, lookupMode, packageLevel);
         return filterAndStoreResolutionResult(Collections.singletonList(lookupResult), referenceExpression, trace, shouldBeVisibleFrom,
                                               lookupMode, storeResult);
     }
 
+    // An unqualified name may refer to a nested class of any containing class or its supertypes, or to a declaration from the file scope
+    private void recordLookupInLexicalScope(@NotNull JetSimpleNameExpression referenceExpression, @NotNull JetScope outerScope) {
+        if (!lookupTracker.getRequiresTracking()) return;
+
+        Name name = referenceExpression.getReferencedNameAsName();
+        for (DeclarationDescriptor container = outerScope.getContainingDeclaration();
+             container != null;
+             container = container.getContainingDeclaration()) {
+            if (container instanceof ClassDescriptor) {
+                IncrementalPackage.recordInType(lookupTracker, referenceExpression, ((ClassDescriptor) container).getDefaultType(), name);
+            }
+        }
+        IncrementalPackage.recordInFileScope(lookupTracker, referenceExpression, name);
+    }
+
     @NotNull
     private static LookupResult lookupSimpleNameReference(
             @NotNull JetSimpleNameExpression referenceExpression,
@@ -190,7 +190,7 @@ public class TypeResolver(
                                     )
                                     return
                                 }
-                                val resultingType = JetTypeImpl(annotations, typeConstructor, false, arguments, classifierDescriptor.getMemberScope(arguments))
+                                val resultingType = internType(JetTypeImpl(annotations, typeConstructor, false, arguments, classifierDescriptor.getMemberScope(arguments)))
                                 result = type(resultingType)
                                 if (c.checkBounds) {
                                     val substitutor = TypeSubstitutor.create(resultingType)
@@ -295,12 +295,16 @@ public class TypeResolver(
                         }
                     }
                 }
-                TypeProjectionImpl(kind, type)
+                internProjection(TypeProjectionImpl(kind, type))
             }
 
         }
     }
 
+    private fun internType(type: JetType): JetType = TypeInterner.getCurrent()?.intern(type) ?: type
+
+    private fun internProjection(projection: TypeProjection): TypeProjection = TypeInterner.getCurrent()?.intern(projection) ?: projection
+
     public fun resolveClass(scope: JetScope, userType: JetUserType, trace: BindingTrace): ClassifierDescriptor? {
         val classifierDescriptor = qualifiedExpressionResolver.lookupDescriptorsForUserType(userType, scope, trace, true)
                                         .firstIsInstanceOrNull<ClassifierDescriptor>()
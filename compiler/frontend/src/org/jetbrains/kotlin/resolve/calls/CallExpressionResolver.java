@@ -131,6 +131,12 @@ public class CallExpressionResolver {
             @NotNull JetSimpleNameExpression nameExpression, @NotNull ReceiverValue receiver,
             @Nullable ASTNode callOperationNode, @NotNull ExpressionTypingContext context
     ) {
+        if (ExpressionTypingVisitorDispatcher.FAST_PATH_ENABLED && receiver == ReceiverValue.NO_RECEIVER && callOperationNode == null
+            && context.scope.getLocalVariable(nameExpression.getReferencedNameAsName()) != null) {
+            JetTypeInfo typeInfo = getLocalVariableTypeInfo(nameExpression, context);
+            if (typeInfo != null) return typeInfo;
+        }
+
         boolean[] result = new boolean[1];
 
         TemporaryTraceAndCache temporaryForVariable = TemporaryTraceAndCache.create(
@@ -165,6 +171,24 @@ public class CallExpressionResolver {
         return TypeInfoFactoryPackage.noTypeInfo(context);
     }
 
+    // A local variable always wins the resolution of a simple name, so the nested traces for a possible qualifier or function are not needed
+    @Nullable
+    private JetTypeInfo getLocalVariableTypeInfo(@NotNull JetSimpleNameExpression nameExpression, @NotNull ExpressionTypingContext context) {
+        TemporaryTraceAndCache temporaryForVariable = TemporaryTraceAndCache.create(
+                context, "trace to resolve as local variable", nameExpression);
+        Call call = CallMaker.makePropertyCall(ReceiverValue.NO_RECEIVER, null, nameExpression);
+        BasicCallResolutionContext contextForVariable = BasicCallResolutionContext.create(
+                context.replaceTraceAndCache(temporaryForVariable),
+                call, CheckValueArgumentsMode.ENABLED);
+        OverloadResolutionResults<VariableDescriptor> resolutionResult = callResolver.resolveSimpleProperty(contextForVariable);
+        if (resolutionResult.isNothing()) return null;
+
+        ExpressionTypingVisitorDispatcher.fastPathPerfCounter.increment();
+        temporaryForVariable.commit();
+        JetType type = resolutionResult.isSingleResult() ? resolutionResult.getResultingDescriptor().getReturnType() : null;
+        return TypeInfoFactoryPackage.createTypeInfo(type, context);
+    }
+
     @NotNull
     public JetTypeInfo getCallExpressionTypeInfo(
             @NotNull JetCallExpression callExpression, @NotNull ReceiverValue receiver,
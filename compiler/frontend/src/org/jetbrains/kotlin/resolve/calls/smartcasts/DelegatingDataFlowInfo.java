@@ -16,94 +16,62 @@
 
 package org.jetbrains.kotlin.resolve.calls.smartcasts;
 
-import com.google.common.collect.*;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 import org.jetbrains.kotlin.types.JetType;
 import org.jetbrains.kotlin.types.TypeUtils;
+import org.jetbrains.kotlin.util.PersistentHashMap;
 
-import java.util.HashSet;
+import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
 import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL;
 
+/**
+ * Complete nullability and type info of all values, kept in persistent maps: every operation shares the unchanged part
+ * of the maps with the original info, so neither updates nor lookups depend on the number of infos it was derived from.
+ * Types of a value are ordered from the most recently established to the oldest.
+ */
 /* package */ class DelegatingDataFlowInfo implements DataFlowInfo {
-    private static final ImmutableMap<DataFlowValue, Nullability> EMPTY_NULLABILITY_INFO = ImmutableMap.of();
-    private static final SetMultimap<DataFlowValue, JetType> EMPTY_TYPE_INFO = newTypeInfo();
-
-    @Nullable
-    private final DataFlowInfo parent;
-
     @NotNull
-    private final ImmutableMap<DataFlowValue, Nullability> nullabilityInfo;
+    private final PersistentHashMap<DataFlowValue, Nullability> nullabilityInfo;
 
-    // Also immutable
     @NotNull
-    private final SetMultimap<DataFlowValue, JetType> typeInfo;
-
-    /**
-     * Value for which type info was cleared or reassigned at this point
-     * so parent type info should not be in use
-     */
-    @Nullable
-    private final DataFlowValue valueWithGivenTypeInfo;
+    private final PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> typeInfo;
 
-    /* package */ DelegatingDataFlowInfo(
-            @Nullable DataFlowInfo parent,
-            @NotNull ImmutableMap<DataFlowValue, Nullability> nullabilityInfo,
-            @NotNull SetMultimap<DataFlowValue, JetType> typeInfo
+    private DelegatingDataFlowInfo(
+            @NotNull PersistentHashMap<DataFlowValue, Nullability> nullabilityInfo,
+            @NotNull PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> typeInfo
     ) {
-        this(parent, nullabilityInfo, typeInfo, null);
-    }
-
-    /* package */ DelegatingDataFlowInfo(
-            @Nullable DataFlowInfo parent,
-            @NotNull ImmutableMap<DataFlowValue, Nullability> nullabilityInfo,
-            @NotNull SetMultimap<DataFlowValue, JetType> typeInfo,
-            @Nullable DataFlowValue valueWithGivenTypeInfo
-    ) {
-        this.parent = parent;
         this.nullabilityInfo = nullabilityInfo;
         this.typeInfo = typeInfo;
-        this.valueWithGivenTypeInfo = valueWithGivenTypeInfo;
+    }
+
+    @NotNull
+    /* package */ static DataFlowInfo createEmpty() {
+        return new DelegatingDataFlowInfo(
+                PersistentHashMap.<DataFlowValue, Nullability>empty(),
+                PersistentHashMap.<DataFlowValue, ImmutableSet<JetType>>empty()
+        );
     }
 
     @Override
     @NotNull
     public Map<DataFlowValue, Nullability> getCompleteNullabilityInfo() {
-        Map<DataFlowValue, Nullability> result = Maps.newHashMap();
-        DelegatingDataFlowInfo info = this;
-        while (info != null) {
-            for (Map.Entry<DataFlowValue, Nullability> entry : info.nullabilityInfo.entrySet()) {
-                DataFlowValue key = entry.getKey();
-                Nullability value = entry.getValue();
-                if (!result.containsKey(key)) {
-                    result.put(key, value);
-                }
-            }
-            info = (DelegatingDataFlowInfo) info.parent;
-        }
-        return result;
+        return nullabilityInfo;
     }
 
     @Override
     @NotNull
     public SetMultimap<DataFlowValue, JetType> getCompleteTypeInfo() {
-        SetMultimap<DataFlowValue, JetType> result = newTypeInfo();
-        Set<DataFlowValue> withGivenTypeInfo = new HashSet<DataFlowValue>();
-        DelegatingDataFlowInfo info = this;
-        while (info != null) {
-            for (DataFlowValue key : info.typeInfo.keySet()) {
-                if (!withGivenTypeInfo.contains(key)) {
-                    result.putAll(key, info.typeInfo.get(key));
-                }
-            }
-            if (info.valueWithGivenTypeInfo != null) {
-                withGivenTypeInfo.add(info.valueWithGivenTypeInfo);
-            }
-            info = (DelegatingDataFlowInfo) info.parent;
+        SetMultimap<DataFlowValue, JetType> result = LinkedHashMultimap.create();
+        for (Map.Entry<DataFlowValue, ImmutableSet<JetType>> entry : typeInfo.entrySet()) {
+            result.putAll(entry.getKey(), entry.getValue());
         }
         return result;
     }
@@ -113,26 +81,40 @@ import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
     public Nullability getNullability(@NotNull DataFlowValue key) {
         if (!key.isPredictable()) return key.getImmanentNullability();
         Nullability nullability = nullabilityInfo.get(key);
-        return nullability != null ? nullability :
-               parent != null ? parent.getNullability(key) :
-               key.getImmanentNullability();
+        return nullability != null ? nullability : key.getImmanentNullability();
     }
 
-    private boolean putNullability(
-            @NotNull Map<DataFlowValue, Nullability> map,
+    @NotNull
+    private static PersistentHashMap<DataFlowValue, Nullability> putNullability(
+            @NotNull PersistentHashMap<DataFlowValue, Nullability> map,
             @NotNull DataFlowValue value,
             @NotNull Nullability nullability
     ) {
-        if (!value.isPredictable()) return false;
-        map.put(value, nullability);
-        return nullability != getNullability(value);
+        return value.isPredictable() ? map.plus(value, nullability) : map;
+    }
+
+    private boolean changesNullability(@NotNull DataFlowValue value, @NotNull Nullability nullability) {
+        return value.isPredictable() && nullability != getNullability(value);
+    }
+
+    // New types go before the known ones
+    @NotNull
+    private static PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> addTypes(
+            @NotNull PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> map,
+            @NotNull DataFlowValue value,
+            @NotNull Collection<JetType> types
+    ) {
+        if (types.isEmpty()) return map;
+        ImmutableSet<JetType> knownTypes = map.get(value);
+        if (knownTypes == null) return map.plus(value, ImmutableSet.copyOf(types));
+        return map.plus(value, ImmutableSet.<JetType>builder().addAll(types).addAll(knownTypes).build());
     }
 
     @Override
     @NotNull
     public Set<JetType> getPossibleTypes(@NotNull DataFlowValue key) {
         JetType originalType = key.getType();
-        Set<JetType> types = collectTypesFromMeAndParents(key);
+        Set<JetType> types = collectTypes(key);
         if (getNullability(key).canBeNull()) {
             return types;
         }
@@ -157,102 +139,78 @@ import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
     @Override
     @NotNull
     public DataFlowInfo clearValueInfo(@NotNull DataFlowValue value) {
-        Map<DataFlowValue, Nullability> builder = Maps.newHashMap();
-        putNullability(builder, value, Nullability.UNKNOWN);
         return new DelegatingDataFlowInfo(
-                       this,
-                       ImmutableMap.copyOf(builder),
-                       EMPTY_TYPE_INFO,
-                       value
+                       putNullability(nullabilityInfo, value, Nullability.UNKNOWN),
+                       typeInfo.minus(value)
                );
     }
 
     @Override
     @NotNull
     public DataFlowInfo assign(@NotNull DataFlowValue a, @NotNull DataFlowValue b) {
-        Map<DataFlowValue, Nullability> nullability = Maps.newHashMap();
         Nullability nullabilityOfB = getNullability(b);
-        putNullability(nullability, a, nullabilityOfB);
 
-        SetMultimap<DataFlowValue, JetType> newTypeInfo = newTypeInfo();
-        Set<JetType> typesForB = collectTypesFromMeAndParents(b);
+        Set<JetType> typesForB = collectTypes(b);
         // Own type of B must be recorded separately, e.g. for a constant
         // But if its type is the same as A or it's null, there is no reason to do it
         // because usually null type or own type are not saved in this set
         if (nullabilityOfB.canBeNonNull() && !a.getType().equals(b.getType())) {
             typesForB.add(b.getType());
         }
-        newTypeInfo.putAll(a, typesForB);
 
         return new DelegatingDataFlowInfo(
-                       this,
-                       ImmutableMap.copyOf(nullability),
-                       newTypeInfo.isEmpty() ? EMPTY_TYPE_INFO : newTypeInfo,
-                       a
+                       putNullability(nullabilityInfo, a, nullabilityOfB),
+                       addTypes(typeInfo.minus(a), a, typesForB)
                );
     }
 
     @Override
     @NotNull
     public DataFlowInfo equate(@NotNull DataFlowValue a, @NotNull DataFlowValue b) {
-        Map<DataFlowValue, Nullability> builder = Maps.newHashMap();
         Nullability nullabilityOfA = getNullability(a);
         Nullability nullabilityOfB = getNullability(b);
+        Nullability newNullabilityOfA = nullabilityOfA.refine(nullabilityOfB);
+        Nullability newNullabilityOfB = nullabilityOfB.refine(nullabilityOfA);
 
-        boolean changed = false;
-        changed |= putNullability(builder, a, nullabilityOfA.refine(nullabilityOfB));
-        changed |= putNullability(builder, b, nullabilityOfB.refine(nullabilityOfA));
+        Set<JetType> typesForA = collectTypes(a);
+        Set<JetType> typesForB = collectTypes(b);
 
-        SetMultimap<DataFlowValue, JetType> newTypeInfo = newTypeInfo();
-        newTypeInfo.putAll(a, collectTypesFromMeAndParents(b));
-        newTypeInfo.putAll(b, collectTypesFromMeAndParents(a));
-        changed |= !newTypeInfo.isEmpty();
+        boolean changed = false;
+        changed |= changesNullability(a, newNullabilityOfA);
+        changed |= changesNullability(b, newNullabilityOfB);
+        changed |= !typesForA.isEmpty() || !typesForB.isEmpty();
 
         return !changed
                     ? this
                     : new DelegatingDataFlowInfo(
-                            this,
-                            ImmutableMap.copyOf(builder),
-                            newTypeInfo.isEmpty() ? EMPTY_TYPE_INFO : newTypeInfo
+                            putNullability(putNullability(nullabilityInfo, a, newNullabilityOfA), b, newNullabilityOfB),
+                            addTypes(addTypes(typeInfo, a, typesForB), b, typesForA)
                     );
     }
 
     @NotNull
-    private Set<JetType> collectTypesFromMeAndParents(@NotNull DataFlowValue value) {
-        Set<JetType> types = new LinkedHashSet<JetType>();
-
-        DataFlowInfo current = this;
-        while (current != null) {
-            if (current instanceof DelegatingDataFlowInfo) {
-                DelegatingDataFlowInfo delegatingInfo = (DelegatingDataFlowInfo) current;
-                types.addAll(delegatingInfo.typeInfo.get(value));
-                if (value.equals(delegatingInfo.valueWithGivenTypeInfo)) {
-                    current = null;
-                }
-                else {
-                    current = delegatingInfo.parent;
-                }
-            }
-            else {
-                types.addAll(current.getPossibleTypes(value));
-                break;
-            }
-        }
-
-        return types;
+    private Set<JetType> collectTypes(@NotNull DataFlowValue value) {
+        ImmutableSet<JetType> types = typeInfo.get(value);
+        return types != null ? new LinkedHashSet<JetType>(types) : new LinkedHashSet<JetType>();
     }
 
     @Override
     @NotNull
     public DataFlowInfo disequate(@NotNull DataFlowValue a, @NotNull DataFlowValue b) {
-        Map<DataFlowValue, Nullability> builder = Maps.newHashMap();
         Nullability nullabilityOfA = getNullability(a);
         Nullability nullabilityOfB = getNullability(b);
+        Nullability newNullabilityOfA = nullabilityOfA.refine(nullabilityOfB.invert());
+        Nullability newNullabilityOfB = nullabilityOfB.refine(nullabilityOfA.invert());
 
         boolean changed = false;
-        changed |= putNullability(builder, a, nullabilityOfA.refine(nullabilityOfB.invert()));
-        changed |= putNullability(builder, b, nullabilityOfB.refine(nullabilityOfA.invert()));
-        return changed ? new DelegatingDataFlowInfo(this, ImmutableMap.copyOf(builder), EMPTY_TYPE_INFO) : this;
+        changed |= changesNullability(a, newNullabilityOfA);
+        changed |= changesNullability(b, newNullabilityOfB);
+        return changed
+               ? new DelegatingDataFlowInfo(
+                       putNullability(putNullability(nullabilityInfo, a, newNullabilityOfA), b, newNullabilityOfB),
+                       typeInfo
+               )
+               : this;
     }
 
     @Override
@@ -260,10 +218,9 @@ import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
     public DataFlowInfo establishSubtyping(@NotNull DataFlowValue value, @NotNull JetType type) {
         if (value.getType().equals(type)) return this;
         if (getPossibleTypes(value).contains(type)) return this;
-        ImmutableMap<DataFlowValue, Nullability> newNullabilityInfo =
-                type.isMarkedNullable() ? EMPTY_NULLABILITY_INFO : ImmutableMap.of(value, NOT_NULL);
-        SetMultimap<DataFlowValue, JetType> newTypeInfo = ImmutableSetMultimap.of(value, type);
-        return new DelegatingDataFlowInfo(this, newNullabilityInfo, newTypeInfo);
+        PersistentHashMap<DataFlowValue, Nullability> newNullabilityInfo =
+                type.isMarkedNullable() ? nullabilityInfo : nullabilityInfo.plus(value, NOT_NULL);
+        return new DelegatingDataFlowInfo(newNullabilityInfo, addTypes(typeInfo, value, ImmutableSet.of(type)));
     }
 
     @NotNull
@@ -276,28 +233,35 @@ import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
         assert otherInfo instanceof DelegatingDataFlowInfo : "Unknown DataFlowInfo type: " + otherInfo;
         DelegatingDataFlowInfo other = (DelegatingDataFlowInfo) otherInfo;
 
-        Map<DataFlowValue, Nullability> nullabilityMapBuilder = Maps.newHashMap();
-        for (Map.Entry<DataFlowValue, Nullability> entry : other.getCompleteNullabilityInfo().entrySet()) {
+        PersistentHashMap<DataFlowValue, Nullability> newNullabilityInfo = nullabilityInfo;
+        for (Map.Entry<DataFlowValue, Nullability> entry : other.nullabilityInfo.entrySet()) {
             DataFlowValue key = entry.getKey();
             Nullability otherFlags = entry.getValue();
             Nullability thisFlags = getNullability(key);
             Nullability flags = thisFlags.and(otherFlags);
             if (flags != thisFlags) {
-                nullabilityMapBuilder.put(key, flags);
+                newNullabilityInfo = newNullabilityInfo.plus(key, flags);
             }
         }
 
-        SetMultimap<DataFlowValue, JetType> myTypeInfo = getCompleteTypeInfo();
-        SetMultimap<DataFlowValue, JetType> otherTypeInfo = other.getCompleteTypeInfo();
-        if (nullabilityMapBuilder.isEmpty() && containsAll(myTypeInfo, otherTypeInfo)) {
+        if (newNullabilityInfo == nullabilityInfo && containsAllTypes(other)) {
             return this;
         }
 
-        return new DelegatingDataFlowInfo(this, ImmutableMap.copyOf(nullabilityMapBuilder), otherTypeInfo);
+        PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> newTypeInfo = typeInfo;
+        for (Map.Entry<DataFlowValue, ImmutableSet<JetType>> entry : other.typeInfo.entrySet()) {
+            newTypeInfo = addTypes(newTypeInfo, entry.getKey(), entry.getValue());
+        }
+
+        return new DelegatingDataFlowInfo(newNullabilityInfo, newTypeInfo);
     }
 
-    private static boolean containsAll(SetMultimap<DataFlowValue, JetType> first, SetMultimap<DataFlowValue, JetType> second) {
-        return first.entries().containsAll(second.entries());
+    private boolean containsAllTypes(@NotNull DelegatingDataFlowInfo other) {
+        for (Map.Entry<DataFlowValue, ImmutableSet<JetType>> entry : other.typeInfo.entrySet()) {
+            ImmutableSet<JetType> types = typeInfo.get(entry.getKey());
+            if (types == null || !types.containsAll(entry.getValue())) return false;
+        }
+        return true;
     }
 
     @NotNull
@@ -310,34 +274,26 @@ import static org.jetbrains.kotlin.resolve.calls.smartcasts.Nullability.NOT_NULL
         assert otherInfo instanceof DelegatingDataFlowInfo : "Unknown DataFlowInfo type: " + otherInfo;
         DelegatingDataFlowInfo other = (DelegatingDataFlowInfo) otherInfo;
 
-        Map<DataFlowValue, Nullability> nullabilityMapBuilder = Maps.newHashMap();
-        for (Map.Entry<DataFlowValue, Nullability> entry : other.getCompleteNullabilityInfo().entrySet()) {
+        PersistentHashMap<DataFlowValue, Nullability> newNullabilityInfo = PersistentHashMap.empty();
+        for (Map.Entry<DataFlowValue, Nullability> entry : other.nullabilityInfo.entrySet()) {
             DataFlowValue key = entry.getKey();
             Nullability otherFlags = entry.getValue();
             Nullability thisFlags = getNullability(key);
-            nullabilityMapBuilder.put(key, thisFlags.or(otherFlags));
+            newNullabilityInfo = newNullabilityInfo.plus(key, thisFlags.or(otherFlags));
         }
 
-        SetMultimap<DataFlowValue, JetType> myTypeInfo = getCompleteTypeInfo();
-        SetMultimap<DataFlowValue, JetType> otherTypeInfo = other.getCompleteTypeInfo();
-        SetMultimap<DataFlowValue, JetType> newTypeInfo = newTypeInfo();
-
-        for (DataFlowValue key : Sets.intersection(myTypeInfo.keySet(), otherTypeInfo.keySet())) {
-            Set<JetType> thisTypes = myTypeInfo.get(key);
-            Set<JetType> otherTypes = otherTypeInfo.get(key);
-            newTypeInfo.putAll(key, Sets.intersection(thisTypes, otherTypes));
+        PersistentHashMap<DataFlowValue, ImmutableSet<JetType>> newTypeInfo = PersistentHashMap.empty();
+        for (Map.Entry<DataFlowValue, ImmutableSet<JetType>> entry : other.typeInfo.entrySet()) {
+            ImmutableSet<JetType> thisTypes = typeInfo.get(entry.getKey());
+            if (thisTypes == null) continue;
+            newTypeInfo = addTypes(newTypeInfo, entry.getKey(), Sets.intersection(thisTypes, entry.getValue()));
         }
 
-        if (nullabilityMapBuilder.isEmpty() && newTypeInfo.isEmpty()) {
+        if (newNullabilityInfo.isEmpty() && newTypeInfo.isEmpty()) {
             return EMPTY;
         }
 
-        return new DelegatingDataFlowInfo(null, ImmutableMap.copyOf(nullabilityMapBuilder), newTypeInfo);
-    }
-
-    @NotNull
-    /* package */ static SetMultimap<DataFlowValue, JetType> newTypeInfo() {
-        return LinkedHashMultimap.create();
+        return new DelegatingDataFlowInfo(newNullabilityInfo, newTypeInfo);
     }
 
     @Override
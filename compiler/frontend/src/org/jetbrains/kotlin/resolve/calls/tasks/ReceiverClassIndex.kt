@@ -0,0 +1,81 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve.calls.tasks
+
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns
+import org.jetbrains.kotlin.descriptors.CallableDescriptor
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.resolve.calls.context.ResolutionContext
+import org.jetbrains.kotlin.resolve.calls.smartcasts.SmartCastUtils
+import org.jetbrains.kotlin.resolve.scopes.receivers.ReceiverValue
+import org.jetbrains.kotlin.types.ErrorUtils
+import org.jetbrains.kotlin.types.TypeConstructor
+import org.jetbrains.kotlin.types.flexibility
+import org.jetbrains.kotlin.types.isFlexible
+import java.util.HashSet
+
+/**
+ * Erased classes of all smart cast variants of a receiver together with all their supertypes, computed on the first request.
+ *
+ * An extension whose receiver type is a class missing from this set is rejected by CandidateResolver with RECEIVER_TYPE_ERROR,
+ * because the subtype check of the erased receiver types walks the same supertypes.
+ */
+class ReceiverClassIndex(private val receiver: ReceiverValue, private val context: ResolutionContext<*>) {
+    private var computed = false
+    // null if the receiver may be a subtype of any class: its type is an error, Nothing, a type parameter and so on
+    private var classes: Set<TypeConstructor>? = null
+
+    fun isIncompatibleExtension(descriptor: CallableDescriptor): Boolean {
+        val receiverParameter = descriptor.getExtensionReceiverParameter() ?: return false
+        val receiverType = receiverParameter.getType()
+        if (receiverType.isFlexible()) return false
+
+        val receiverClass = receiverType.getConstructor().getDeclarationDescriptor() as? ClassDescriptor ?: return false
+        if (ErrorUtils.isError(receiverClass) || KotlinBuiltIns.isAny(receiverClass)) return false
+
+        val classes = getClasses() ?: return false
+        return receiverType.getConstructor() !in classes
+    }
+
+    private fun getClasses(): Set<TypeConstructor>? {
+        if (!computed) {
+            computed = true
+            classes = computeClasses()
+        }
+        return classes
+    }
+
+    private fun computeClasses(): Set<TypeConstructor>? {
+        val result = HashSet<TypeConstructor>()
+        for (variant in SmartCastUtils.getSmartCastVariants(receiver, context)) {
+            val type = if (variant.isFlexible()) variant.flexibility().getLowerBound() else variant
+            if (type.isError() || KotlinBuiltIns.isNothingOrNullableNothing(type)) return null
+            if (type.getConstructor().getDeclarationDescriptor() !is ClassDescriptor) return null
+
+            collectSupertypeConstructors(type.getConstructor(), result)
+        }
+        return result
+    }
+
+    private fun collectSupertypeConstructors(constructor: TypeConstructor, result: MutableSet<TypeConstructor>) {
+        if (!result.add(constructor)) return
+
+        for (supertype in constructor.getSupertypes()) {
+            collectSupertypeConstructors(supertype.getConstructor(), result)
+        }
+    }
+}
@@ -20,6 +20,10 @@ import com.google.common.collect.Lists
 import com.google.common.collect.Sets
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.descriptors.*
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.record
+import org.jetbrains.kotlin.incremental.recordInFileScope
+import org.jetbrains.kotlin.incremental.recordInType
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.Call
 import org.jetbrains.kotlin.resolve.DescriptorUtils
@@ -43,9 +47,14 @@ import org.jetbrains.kotlin.storage.StorageManager
 import org.jetbrains.kotlin.types.ErrorUtils
 import org.jetbrains.kotlin.types.checker.JetTypeChecker
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingUtils
+import org.jetbrains.kotlin.types.expressions.OperatorConventions
 import org.jetbrains.kotlin.types.isDynamic
+import org.jetbrains.kotlin.util.PerformanceCounter
 
-public class TaskPrioritizer(private val storageManager: StorageManager) {
+public class TaskPrioritizer(private val storageManager: StorageManager, private val lookupTracker: LookupTracker) {
+    companion object {
+        private val incompatibleExtensionsCounter = PerformanceCounter.create("Extension candidates postponed by receiver class")
+    }
 
     public fun <D : CallableDescriptor> splitLexicallyLocalDescriptors(
             allDescriptors: Collection<ResolutionCandidate<D>>,
@@ -73,6 +82,8 @@ public class TaskPrioritizer(private val storageManager: StorageManager) {
         val result = ResolutionTaskHolder<D, F>(storageManager, context, PriorityProviderImpl<D>(context), tracing)
         val taskPrioritizerContext = TaskPrioritizerContext(name, result, context, context.scope, callableDescriptorCollectors)
 
+        recordLookups(context, explicitReceiver, name)
+
         if (explicitReceiver is QualifierReceiver) {
             val qualifierReceiver: QualifierReceiver = explicitReceiver
             doComputeTasks(NO_RECEIVER, taskPrioritizerContext.replaceScope(qualifierReceiver.getNestedClassesAndPackageMembersScope()))
@@ -85,6 +96,30 @@ public class TaskPrioritizer(private val storageManager: StorageManager) {
         return result.getTasks()
     }
 
+    // Candidates are computed lazily, so all scopes where the name may be found are recorded beforehand
+    private fun recordLookups(context: BasicCallResolutionContext, explicitReceiver: ReceiverValue, name: Name) {
+        if (!lookupTracker.requiresTracking) return
+
+        val callElement = context.call.getCallElement()
+        if (explicitReceiver is QualifierReceiver) {
+            explicitReceiver.packageView?.let { lookupTracker.record(callElement, it, name) }
+            explicitReceiver.classifier?.let { lookupTracker.record(callElement, it, name) }
+            val classObjectReceiver = explicitReceiver.getClassObjectReceiver()
+            if (classObjectReceiver.exists()) {
+                lookupTracker.recordInType(callElement, classObjectReceiver.getType(), name)
+            }
+        }
+        else if (explicitReceiver.exists()) {
+            for (type in SmartCastUtils.getSmartCastVariants(explicitReceiver, context)) {
+                lookupTracker.recordInType(callElement, type, name)
+            }
+        }
+        for (implicitReceiver in JetScopeUtils.getImplicitReceiversHierarchyValues(context.scope)) {
+            lookupTracker.recordInType(callElement, implicitReceiver.getType(), name)
+        }
+        lookupTracker.recordInFileScope(callElement, name)
+    }
+
     private fun <D : CallableDescriptor, F : D> computeTasksForClassObjectReceiver(
             qualifierReceiver: QualifierReceiver,
             taskPrioritizerContext: TaskPrioritizerContext<D, F>
@@ -160,14 +195,33 @@ public class TaskPrioritizer(private val storageManager: StorageManager) {
                 )
             }
             //extensions
+            if (c.name == OperatorConventions.INVOKE) {
+                c.result.addCandidates {
+                    convertWithImpliedThis(
+                            c.scope,
+                            explicitReceiver,
+                            callableDescriptorCollector.getExtensionsByName(c.scope, c.name, explicitReceiver.getType(), c.context.trace),
+                            createKind(EXTENSION_RECEIVER, isExplicit),
+                            c.context.call
+                    )
+                }
+                continue
+            }
+
+            // Extensions that can't be called on the receiver because of its class are resolved after the others,
+            // they are needed only to report the receiver type mismatch if no other candidate fits
+            val receiverClassIndex = ReceiverClassIndex(explicitReceiver, c.context)
+            val extensions = storageManager.createLazyValue {
+                val extensions = callableDescriptorCollector.getExtensionsByName(c.scope, c.name, explicitReceiver.getType(), c.context.trace)
+                val partition = extensions.partition { !receiverClassIndex.isIncompatibleExtension(it) }
+                incompatibleExtensionsCounter.add(partition.second.size())
+                partition
+            }
             c.result.addCandidates {
-                convertWithImpliedThis(
-                        c.scope,
-                        explicitReceiver,
-                        callableDescriptorCollector.getExtensionsByName(c.scope, c.name, explicitReceiver.getType(), c.context.trace),
-                        createKind(EXTENSION_RECEIVER, isExplicit),
-                        c.context.call
-                )
+                convertWithImpliedThis(c.scope, explicitReceiver, extensions().first, createKind(EXTENSION_RECEIVER, isExplicit), c.context.call)
+            }
+            c.result.addCandidates {
+                convertWithImpliedThis(c.scope, explicitReceiver, extensions().second, createKind(EXTENSION_RECEIVER, isExplicit), c.context.call)
             }
         }
     }
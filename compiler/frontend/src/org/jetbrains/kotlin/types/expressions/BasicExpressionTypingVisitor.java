@@ -1479,6 +1479,19 @@ public class BasicExpressionTypingVisitor extends ExpressionTypingVisitor {
 
     @Override
     public JetTypeInfo visitStringTemplateExpression(@NotNull JetStringTemplateExpression expression, ExpressionTypingContext contextWithExpectedType) {
+        if (ExpressionTypingVisitorDispatcher.FAST_PATH_ENABLED && isLiteralStringTemplate(expression)) {
+            ExpressionTypingVisitorDispatcher.fastPathPerfCounter.increment();
+            for (JetStringTemplateEntry entry : expression.getEntries()) {
+                if (entry instanceof JetEscapeStringTemplateEntry) {
+                    checkEscapeStringTemplateEntry((JetEscapeStringTemplateEntry) entry, contextWithExpectedType.trace);
+                }
+            }
+            ConstantExpressionEvaluator.evaluate(expression, contextWithExpectedType.trace, contextWithExpectedType.expectedType);
+            return DataFlowUtils.checkType(TypeInfoFactoryPackage.createTypeInfo(components.builtIns.getStringType(), contextWithExpectedType),
+                                           expression,
+                                           contextWithExpectedType);
+        }
+
         final ExpressionTypingContext context = contextWithExpectedType.replaceExpectedType(NO_EXPECTED_TYPE).replaceContextDependency(INDEPENDENT);
         class StringTemplateVisitor extends JetVisitorVoid {
             private JetTypeInfo typeInfo = TypeInfoFactoryPackage.noTypeInfo(context);
@@ -1493,11 +1506,7 @@ public class BasicExpressionTypingVisitor extends ExpressionTypingVisitor {
 
             @Override
             public void visitEscapeStringTemplateEntry(@NotNull JetEscapeStringTemplateEntry entry) {
-                CompileTimeConstantChecker.CharacterWithDiagnostic value = CompileTimeConstantChecker.escapedStringToCharacter(entry.getText(), entry);
-                Diagnostic diagnostic = value.getDiagnostic();
-                if (diagnostic != null) {
-                    context.trace.report(diagnostic);
-                }
+                checkEscapeStringTemplateEntry(entry, context.trace);
             }
         }
         StringTemplateVisitor visitor = new StringTemplateVisitor();
@@ -1510,6 +1519,21 @@ public class BasicExpressionTypingVisitor extends ExpressionTypingVisitor {
                                        contextWithExpectedType);
     }
 
+    private static boolean isLiteralStringTemplate(@NotNull JetStringTemplateExpression expression) {
+        for (JetStringTemplateEntry entry : expression.getEntries()) {
+            if (entry instanceof JetStringTemplateEntryWithExpression) return false;
+        }
+        return true;
+    }
+
+    private static void checkEscapeStringTemplateEntry(@NotNull JetEscapeStringTemplateEntry entry, @NotNull BindingTrace trace) {
+        CompileTimeConstantChecker.CharacterWithDiagnostic value = CompileTimeConstantChecker.escapedStringToCharacter(entry.getText(), entry);
+        Diagnostic diagnostic = value.getDiagnostic();
+        if (diagnostic != null) {
+            trace.report(diagnostic);
+        }
+    }
+
     @Override
     public JetTypeInfo visitAnnotatedExpression(@NotNull JetAnnotatedExpression expression, ExpressionTypingContext context) {
         return visitAnnotatedExpression(expression, context, false);
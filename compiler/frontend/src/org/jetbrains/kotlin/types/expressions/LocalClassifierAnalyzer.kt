@@ -26,6 +26,7 @@ import org.jetbrains.kotlin.descriptors.ClassDescriptor
 import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
 import org.jetbrains.kotlin.descriptors.ModuleDescriptor
 import org.jetbrains.kotlin.frontend.di.createContainerForLazyLocalClassifierAnalyzer
+import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.psi.JetClassOrObject
 import org.jetbrains.kotlin.psi.debugText.getDebugText
@@ -48,7 +49,8 @@ public class LocalClassifierAnalyzer(
         val descriptorResolver: DescriptorResolver,
         val funcionDescriptorResolver: FunctionDescriptorResolver,
         val typeResolver: TypeResolver,
-        val annotationResolver: AnnotationResolver
+        val annotationResolver: AnnotationResolver,
+        val lookupTracker: LookupTracker
 ) {
     fun processClassOrObject(
             globalContext: GlobalContext,
@@ -77,7 +79,8 @@ public class LocalClassifierAnalyzer(
                         funcionDescriptorResolver,
                         typeResolver,
                         annotationResolver
-                )
+                ),
+                lookupTracker
         )
 
         container.get<LazyTopDownAnalyzer>().analyzeDeclarations(
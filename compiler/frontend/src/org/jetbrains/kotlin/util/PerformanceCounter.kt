@@ -87,6 +87,10 @@ public abstract class PerformanceCounter protected constructor(val name: String)
         count++
     }
 
+    public final fun add(times: Int) {
+        count += times
+    }
+
     public final fun time<T>(block: () -> T): T {
         count++
         if (!enabled) return block()
@@ -0,0 +1,315 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Immutable hash array mapped trie. {@link #plus} and {@link #minus} return a new map sharing all unchanged nodes with this one,
+ * lookups and updates take O(log32 n). Null keys and values are not allowed.
+ *
+ * The map is read-only through the {@link Map} interface, its iteration order is unspecified.
+ */
+public final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("unchecked")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(BitmapNode.EMPTY, 0);
+
+    @SuppressWarnings("unchecked")
+    @NotNull
+    public static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    @NotNull
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(@NotNull Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        if (key == null) return null;
+        return (V) root.find(0, key.hashCode(), key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    // Returns this map if it already contains the equal value for the key
+    @NotNull
+    public PersistentHashMap<K, V> plus(@NotNull K key, @NotNull V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.plus(0, key.hashCode(), key, value, added);
+        if (newRoot == root) return this;
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    @NotNull
+    public PersistentHashMap<K, V> minus(@NotNull K key) {
+        Node newRoot = root.minus(0, key.hashCode(), key);
+        if (newRoot == root) return this;
+        return newRoot == null ? PersistentHashMap.<K, V>empty() : new PersistentHashMap<K, V>(newRoot, size - 1);
+    }
+
+    @NotNull
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @NotNull
+            @Override
+            @SuppressWarnings("unchecked")
+            public Iterator<Entry<K, V>> iterator() {
+                List<Entry<K, V>> entries = new ArrayList<Entry<K, V>>(size);
+                root.collect((List) entries);
+                return Collections.unmodifiableList(entries).iterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private static int index(int hash, int shift) {
+        return (hash >>> shift) & MASK;
+    }
+
+    private abstract static class Node {
+        // Returns null if there is no such key
+        @Nullable
+        abstract Object find(int shift, int hash, @NotNull Object key);
+
+        // Returns this node if nothing has changed
+        @NotNull
+        abstract Node plus(int shift, int hash, @NotNull Object key, @NotNull Object value, @NotNull boolean[] added);
+
+        // Returns this node if there is no such key, null if the node becomes empty
+        @Nullable
+        abstract Node minus(int shift, int hash, @NotNull Object key);
+
+        abstract void collect(@NotNull List<Entry<Object, Object>> result);
+    }
+
+    // Entries and child nodes of all present 5-bit hash indices, in order: a key followed by its value or null followed by a node
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+        private final Object[] array;
+
+        BitmapNode(int bitmap, @NotNull Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int position(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object find(int shift, int hash, @NotNull Object key) {
+            int bit = 1 << index(hash, shift);
+            if ((bitmap & bit) == 0) return null;
+
+            int position = position(bit);
+            Object keyOrNull = array[position];
+            Object valueOrNode = array[position + 1];
+            if (keyOrNull == null) return ((Node) valueOrNode).find(shift + BITS, hash, key);
+            return key.equals(keyOrNull) ? valueOrNode : null;
+        }
+
+        @NotNull
+        @Override
+        Node plus(int shift, int hash, @NotNull Object key, @NotNull Object value, @NotNull boolean[] added) {
+            int bit = 1 << index(hash, shift);
+            int position = position(bit);
+
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, position);
+                newArray[position] = key;
+                newArray[position + 1] = value;
+                System.arraycopy(array, position, newArray, position + 2, array.length - position);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+
+            Object keyOrNull = array[position];
+            Object valueOrNode = array[position + 1];
+            if (keyOrNull == null) {
+                Node node = (Node) valueOrNode;
+                Node newNode = node.plus(shift + BITS, hash, key, value, added);
+                return newNode == node ? this : with(position, null, newNode);
+            }
+            if (key.equals(keyOrNull)) {
+                return value.equals(valueOrNode) ? this : with(position, keyOrNull, value);
+            }
+
+            added[0] = true;
+            return with(position, null, createNode(shift + BITS, keyOrNull, valueOrNode, hash, key, value));
+        }
+
+        @Nullable
+        @Override
+        Node minus(int shift, int hash, @NotNull Object key) {
+            int bit = 1 << index(hash, shift);
+            if ((bitmap & bit) == 0) return this;
+
+            int position = position(bit);
+            Object keyOrNull = array[position];
+            Object valueOrNode = array[position + 1];
+            if (keyOrNull == null) {
+                Node node = (Node) valueOrNode;
+                Node newNode = node.minus(shift + BITS, hash, key);
+                if (newNode == node) return this;
+                if (newNode != null) return with(position, null, newNode);
+            }
+            else if (!key.equals(keyOrNull)) {
+                return this;
+            }
+
+            if (bitmap == bit) return null;
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, position);
+            System.arraycopy(array, position + 2, newArray, position, newArray.length - position);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        @NotNull
+        private BitmapNode with(int position, @Nullable Object keyOrNull, @NotNull Object valueOrNode) {
+            Object[] newArray = array.clone();
+            newArray[position] = keyOrNull;
+            newArray[position + 1] = valueOrNode;
+            return new BitmapNode(bitmap, newArray);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        void collect(@NotNull List<Entry<Object, Object>> result) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).collect(result);
+                }
+                else {
+                    result.add(new SimpleImmutableEntry<Object, Object>(array[i], array[i + 1]));
+                }
+            }
+        }
+
+        @NotNull
+        private static Node createNode(int shift, @NotNull Object key1, @NotNull Object value1, int hash2, @NotNull Object key2, @NotNull Object value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.plus(shift, hash1, key1, value1, added).plus(shift, hash2, key2, value2, added);
+        }
+    }
+
+    // Entries with keys of the same hash code, stored as key-value pairs
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Object[] array;
+
+        CollisionNode(int hash, @NotNull Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int position(@NotNull Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) return i;
+            }
+            return -1;
+        }
+
+        @Override
+        Object find(int shift, int hash, @NotNull Object key) {
+            if (hash != this.hash) return null;
+            int position = position(key);
+            return position < 0 ? null : array[position + 1];
+        }
+
+        @NotNull
+        @Override
+        Node plus(int shift, int hash, @NotNull Object key, @NotNull Object value, @NotNull boolean[] added) {
+            if (hash != this.hash) {
+                return new BitmapNode(1 << index(this.hash, shift), new Object[] {null, this}).plus(shift, hash, key, value, added);
+            }
+
+            int position = position(key);
+            if (position >= 0) {
+                if (value.equals(array[position + 1])) return this;
+                Object[] newArray = array.clone();
+                newArray[position + 1] = value;
+                return new CollisionNode(hash, newArray);
+            }
+
+            Object[] newArray = Arrays.copyOf(array, array.length + 2);
+            newArray[array.length] = key;
+            newArray[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Nullable
+        @Override
+        Node minus(int shift, int hash, @NotNull Object key) {
+            if (hash != this.hash) return this;
+            int position = position(key);
+            if (position < 0) return this;
+            if (array.length == 2) return null;
+
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, position);
+            System.arraycopy(array, position + 2, newArray, position, newArray.length - position);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        void collect(@NotNull List<Entry<Object, Object>> result) {
+            for (int i = 0; i < array.length; i += 2) {
+                result.add(new SimpleImmutableEntry<Object, Object>(array[i], array[i + 1]));
+            }
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import java.io.*
+import java.lang.management.ManagementFactory
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import kotlin.platform.platformStatic
+
+/**
+ * Timeline of nested compilation phases on each thread, with the number of bytes allocated by the thread during each phase.
+ * Phases may name the file or the class they are working on. The timeline is written in the trace event format
+ * of Chrome (chrome://tracing), the flat totals of all PerformanceCounters are added to it.
+ *
+ * Recording is off unless the trace is started, a phase then costs a check of a volatile field.
+ */
+public object ProfilingTrace {
+    public class Span internal constructor(
+            private val trace: Recording,
+            private val name: String,
+            private val detail: String?
+    ) {
+        private val thread = Thread.currentThread()
+        private val startNanos = System.nanoTime()
+        private val startAllocatedBytes = trace.allocatedBytes(thread)
+
+        public fun end() {
+            val allocated = if (startAllocatedBytes < 0) -1 else trace.allocatedBytes(thread) - startAllocatedBytes
+            trace.events.add(Event(name, detail, thread.getId(), startNanos, System.nanoTime() - startNanos, allocated))
+        }
+    }
+
+    class Event(
+            val name: String,
+            val detail: String?,
+            val threadId: Long,
+            val startNanos: Long,
+            val durationNanos: Long,
+            val allocatedBytes: Long
+    )
+
+    class Recording(private val allocationCounter: AllocationCounter?) {
+        val startNanos = System.nanoTime()
+        val events = ConcurrentLinkedQueue<Event>()
+        val threadNames = ConcurrentHashMap<Long, String>()
+
+        // -1 if allocations aren't counted
+        fun allocatedBytes(thread: Thread): Long = allocationCounter?.allocatedBytes(thread) ?: -1
+    }
+
+    // Only touched while recording, so that JVMs without com.sun.management can load ProfilingTrace
+    class AllocationCounter(private val bean: com.sun.management.ThreadMXBean) {
+        fun allocatedBytes(thread: Thread): Long {
+            if (!bean.isThreadAllocatedMemoryEnabled()) return -1
+            return bean.getThreadAllocatedBytes(thread.getId())
+        }
+    }
+
+    volatile private var recording: Recording? = null
+
+    public val isEnabled: Boolean get() = recording != null
+
+    platformStatic
+    public fun start() {
+        recording = Recording(createAllocationCounter())
+    }
+
+    private fun createAllocationCounter(): AllocationCounter? {
+        try {
+            val bean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean ?: return null
+            if (!bean.isThreadAllocatedMemorySupported()) return null
+            if (!bean.isThreadAllocatedMemoryEnabled()) {
+                bean.setThreadAllocatedMemoryEnabled(true)
+            }
+            return AllocationCounter(bean)
+        }
+        catch (e: LinkageError) {
+            // com.sun.management is not available on this JVM
+            return null
+        }
+    }
+
+    // null if the trace isn't recorded
+    platformStatic
+    public fun begin(name: String, detail: String?): Span? {
+        val current = recording ?: return null
+        val thread = Thread.currentThread()
+        if (!current.threadNames.containsKey(thread.getId())) {
+            current.threadNames[thread.getId()] = thread.getName()
+        }
+        return Span(current, name, detail)
+    }
+
+    platformStatic
+    public fun end(span: Span?) {
+        span?.end()
+    }
+
+    public inline fun phase<T>(name: String, detail: String? = null, block: () -> T): T {
+        val span = begin(name, detail)
+        try {
+            return block()
+        }
+        finally {
+            span?.end()
+        }
+    }
+
+    // Stops recording and writes the events recorded so far
+    platformStatic
+    public fun stopAndWrite(file: File) {
+        val current = recording ?: return
+        recording = null
+
+        val counters = arrayListOf<String>()
+        PerformanceCounter.report { counters.add(it) }
+
+        file.getParentFile()?.mkdirs()
+        PrintWriter(BufferedWriter(OutputStreamWriter(FileOutputStream(file), "UTF-8"))).use { writer ->
+            writer.println("{\"traceEvents\": [")
+            var first = true
+            fun separate() {
+                if (!first) writer.println(",")
+                first = false
+            }
+
+            for ((threadId, threadName) in current.threadNames) {
+                separate()
+                writer.print("{\"name\": \"thread_name\", \"ph\": \"M\", \"pid\": 1, \"tid\": $threadId, \"args\": {\"name\": ${quote(threadName)}}}")
+            }
+
+            for (event in current.events) {
+                separate()
+                val start = TimeUnit.NANOSECONDS.toMicros(event.startNanos - current.startNanos)
+                val duration = TimeUnit.NANOSECONDS.toMicros(event.durationNanos)
+                writer.print("{\"name\": ${quote(event.name)}, \"ph\": \"X\", \"pid\": 1, \"tid\": ${event.threadId}, \"ts\": $start, \"dur\": $duration")
+                writer.print(", \"args\": {")
+                if (event.allocatedBytes >= 0) {
+                    writer.print("\"allocated bytes\": ${event.allocatedBytes}")
+                }
+                if (event.detail != null) {
+                    if (event.allocatedBytes >= 0) writer.print(", ")
+                    writer.print("\"detail\": ${quote(event.detail)}")
+                }
+                writer.print("}}")
+            }
+            writer.println()
+            writer.println("],")
+
+            writer.println("\"otherData\": {\"counters\": [")
+            writer.println(counters.map { quote(it) }.joinToString(",\n"))
+            writer.println("]}}")
+        }
+    }
+
+    private fun quote(s: String): String {
+        val result = StringBuilder("\"")
+        for (c in s) {
+            when {
+                c == '"' || c == '\\' -> result.append('\\').append(c)
+                c == '\n' -> result.append("\\n")
+                c < ' ' -> result.append(String.format("\\u%04x", c.toInt()))
+                else -> result.append(c)
+            }
+        }
+        return result.append('"').toString()
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import com.intellij.openapi.util.Key;
+import gnu.trove.THashMap;
+import kotlin.jvm.functions.Function3;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Same contract as {@link SlicedMapImpl}, but values are stored in a separate open-addressing hash table for each slice
+ * instead of a holder of values for each key. A fact costs a key and a value reference in the table of its slice,
+ * values of set slices are packed into bits.
+ */
+public class ColumnarSlicedMap implements MutableSlicedMap {
+
+    public static ColumnarSlicedMap create() {
+        return new ColumnarSlicedMap();
+    }
+
+    private final Map<Key<?>, Column> columns = new THashMap<Key<?>, Column>();
+    private Multimap<WritableSlice<?, ?>, Object> collectiveSliceKeys = null;
+
+    @Override
+    public <K, V> void put(WritableSlice<K, V> slice, K key, V value) {
+        if (!slice.check(key, value)) {
+            return;
+        }
+
+        Key<V> sliceKey = slice.getKey();
+        Column column = columns.get(sliceKey);
+        if (column == null) {
+            column = new Column(slice, slice instanceof Slices.SetSlice);
+            columns.put(sliceKey, column);
+        }
+
+        RewritePolicy rewritePolicy = slice.getRewritePolicy();
+        if (rewritePolicy.rewriteProcessingNeeded(key)) {
+            //noinspection unchecked
+            V oldValue = (V) column.get(key);
+            if (oldValue != null) {
+                if (!rewritePolicy.processRewrite(slice, key, oldValue, value)) {
+                    return;
+                }
+            }
+        }
+
+        if (slice.isCollective()) {
+            if (collectiveSliceKeys == null) {
+                collectiveSliceKeys = ArrayListMultimap.create();
+            }
+
+            collectiveSliceKeys.put(slice, key);
+        }
+
+        if (value == null) {
+            column.remove(key);
+        }
+        else {
+            column.put(key, value);
+        }
+        slice.afterPut(this, key, value);
+    }
+
+    @Override
+    public void clear() {
+        columns.clear();
+        collectiveSliceKeys = null;
+    }
+
+    @Override
+    public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+        Column column = columns.get(slice.getKey());
+
+        //noinspection unchecked
+        V value = column == null ? null : (V) column.get(key);
+
+        return slice.computeValue(this, key, value, value == null);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+        assert slice.isCollective() : "Keys are not collected for slice " + slice;
+
+        if (collectiveSliceKeys == null) return Collections.emptyList();
+        return (Collection<K>) collectiveSliceKeys.get(slice);
+    }
+
+    @Override
+    public <K, V> V remove(RemovableSlice<K, V> slice, K key) {
+        Column column = columns.get(slice.getKey());
+        //noinspection unchecked
+        return column == null ? null : (V) column.remove(key);
+    }
+
+    @Override
+    public void forEach(@NotNull Function3<WritableSlice, Object, Object, Void> f) {
+        for (Column column : new ArrayList<Column>(columns.values())) {
+            Object[] keys = column.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) continue;
+
+                f.invoke(column.slice, unmaskNull(keys[i]), column.valueAt(i));
+            }
+        }
+    }
+
+    @NotNull
+    @Override
+    public <K, V> ImmutableMap<K, V> getSliceContents(@NotNull ReadOnlySlice<K, V> slice) {
+        ImmutableMap.Builder<K, V> builder = ImmutableMap.builder();
+
+        Column column = columns.get(slice.getKey());
+        if (column != null) {
+            Object[] keys = column.keys;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == null) continue;
+
+                //noinspection unchecked
+                builder.put((K) unmaskNull(keys[i]), (V) column.valueAt(i));
+            }
+        }
+        return builder.build();
+    }
+
+    private static final Object NULL_KEY = new Object();
+
+    @NotNull
+    private static Object maskNull(@Nullable Object key) {
+        return key == null ? NULL_KEY : key;
+    }
+
+    @Nullable
+    private static Object unmaskNull(@NotNull Object key) {
+        return key == NULL_KEY ? null : key;
+    }
+
+    // Open-addressing hash table with linear probing; entries are moved back on removal, so there are no tombstones
+    private static class Column {
+        private static final Object[] EMPTY = new Object[0];
+
+        final WritableSlice<?, ?> slice;
+        private final boolean packBooleans;
+
+        Object[] keys = EMPTY;
+        private Object[] values;
+        private long[] booleans;
+        private int size = 0;
+
+        Column(@NotNull WritableSlice<?, ?> slice, boolean packBooleans) {
+            this.slice = slice;
+            this.packBooleans = packBooleans;
+        }
+
+        @Nullable
+        Object get(@Nullable Object key) {
+            if (size == 0) return null;
+            int index = indexOf(maskNull(key));
+            return index < 0 ? null : valueAt(index);
+        }
+
+        void put(@Nullable Object key, @NotNull Object value) {
+            Object maskedKey = maskNull(key);
+            if ((size + 1) * 3 > keys.length * 2) {
+                resize(Math.max(8, keys.length * 2));
+            }
+
+            int mask = keys.length - 1;
+            int index = hash(maskedKey) & mask;
+            while (keys[index] != null) {
+                if (keys[index].equals(maskedKey)) {
+                    setValue(index, value);
+                    return;
+                }
+                index = (index + 1) & mask;
+            }
+            keys[index] = maskedKey;
+            setValue(index, value);
+            size++;
+        }
+
+        @Nullable
+        Object remove(@Nullable Object key) {
+            if (size == 0) return null;
+            int index = indexOf(maskNull(key));
+            if (index < 0) return null;
+
+            Object value = valueAt(index);
+            deleteAt(index);
+            size--;
+            return value;
+        }
+
+        @Nullable
+        Object valueAt(int index) {
+            if (packBooleans) {
+                return (booleans[index >>> 6] & (1L << index)) != 0;
+            }
+            return values[index];
+        }
+
+        private void setValue(int index, @NotNull Object value) {
+            if (packBooleans) {
+                if ((Boolean) value) {
+                    booleans[index >>> 6] |= 1L << index;
+                }
+                else {
+                    booleans[index >>> 6] &= ~(1L << index);
+                }
+            }
+            else {
+                values[index] = value;
+            }
+        }
+
+        private int indexOf(@NotNull Object key) {
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (keys[index] != null) {
+                if (keys[index].equals(key)) return index;
+                index = (index + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void deleteAt(int index) {
+            int mask = keys.length - 1;
+            int hole = index;
+            int current = index;
+            while (true) {
+                current = (current + 1) & mask;
+                Object key = keys[current];
+                if (key == null) break;
+
+                // an entry may fill the hole only if the hole is not before its ideal slot in the probe sequence
+                int ideal = hash(key) & mask;
+                if (((current - ideal) & mask) >= ((current - hole) & mask)) {
+                    keys[hole] = key;
+                    setValue(hole, valueAt(current));
+                    hole = current;
+                }
+            }
+            keys[hole] = null;
+            if (!packBooleans) {
+                values[hole] = null;
+            }
+        }
+
+        private void resize(int capacity) {
+            Object[] oldKeys = keys;
+            Object[] oldValues = values;
+            long[] oldBooleans = booleans;
+
+            keys = new Object[capacity];
+            if (packBooleans) {
+                booleans = new long[(capacity + 63) >>> 6];
+            }
+            else {
+                values = new Object[capacity];
+            }
+
+            int mask = capacity - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                Object key = oldKeys[i];
+                if (key == null) continue;
+
+                int index = hash(key) & mask;
+                while (keys[index] != null) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                if (packBooleans) {
+                    setValue(index, (oldBooleans[i >>> 6] & (1L << i)) != 0);
+                }
+                else {
+                    values[index] = oldValues[i];
+                }
+            }
+        }
+
+        private static int hash(@NotNull Object key) {
+            // multiplication makes upper bits depend on all bits of the hash code, the shift brings them down to the bits of the index
+            int h = key.hashCode() * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+inline fun run(f: () -> Unit) = f()
+
+fun box(): String {
+    val before = 1
+    var l = 1L
+    val between = "between"
+    var d = 0.5
+    val after = 2
+
+    run {
+        l += 1L shl 40
+        d *= 3
+    }
+
+    if (l != 1099511627777L) return "fail l: $l"
+    if (d != 1.5) return "fail d: $d"
+    if (before != 1 || between != "between" || after != 2) return "fail: $before $between $after"
+    return "OK"
+}
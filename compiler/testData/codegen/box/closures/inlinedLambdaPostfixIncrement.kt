@@ -0,0 +1,22 @@
+inline fun <T> call(f: () -> T): T = f()
+
+fun box(): String {
+    var i = 0
+    val oldI = call { i++ }
+    if (oldI != 0 || i != 1) return "fail i: $oldI $i"
+
+    var l = 10L
+    val oldL = call { l++ }
+    if (oldL != 10L || l != 11L) return "fail l: $oldL $l"
+
+    var d = 1.5
+    val oldD = call { d-- }
+    if (oldD != 1.5 || d != 0.5) return "fail d: $oldD $d"
+
+    var c = 'a'
+    var oldC = ' '
+    call { oldC = c++ }
+    if (oldC != 'a' || c != 'b') return "fail c: $oldC $c"
+
+    return "OK"
+}
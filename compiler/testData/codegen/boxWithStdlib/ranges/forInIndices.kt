@@ -0,0 +1,51 @@
+import java.util.ArrayList
+
+var evaluated = 0
+
+fun <T> evaluateOnce(value: T): T {
+    evaluated++
+    return value
+}
+
+fun box(): String {
+    val array = arrayOf("a", "b", "c")
+    var result = ""
+    for (i in array.indices) {
+        result += "$i${array[i]}"
+    }
+    if (result != "0a1b2c") return "Fail array: $result"
+
+    val intArray = intArrayOf(4, 5)
+    var sum = 0
+    for (i in intArray.indices) {
+        sum += i * intArray[i]
+    }
+    if (sum != 5) return "Fail int array: $sum"
+
+    for (i in IntArray(0).indices) {
+        return "Fail: iterating over indices of an empty array, index: $i"
+    }
+
+    val list = ArrayList<String>()
+    list.add("x")
+    list.add("y")
+    result = ""
+    for (i in list.indices) {
+        result += "$i${list[i]}"
+    }
+    if (result != "0x1y") return "Fail collection: $result"
+
+    result = ""
+    for (i in "kotlin".indices) {
+        result += i
+    }
+    if (result != "012345") return "Fail string: $result"
+
+    var count = 0
+    for (i in evaluateOnce(array).indices) {
+        count++
+    }
+    if (count != 3 || evaluated != 1) return "Fail evaluation: $count iterations, receiver evaluated $evaluated times"
+
+    return "OK"
+}
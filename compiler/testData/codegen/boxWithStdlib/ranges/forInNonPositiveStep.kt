@@ -0,0 +1,29 @@
+fun box(): String {
+    try {
+        for (i in 1..5 step 0) {
+            return "Fail: iterating with a zero step, element: $i"
+        }
+        return "Fail: no exception for a zero step"
+    }
+    catch (e: IllegalArgumentException) {
+        if (e.getMessage() != "Step must be positive, was: 0") return "Fail message: ${e.getMessage()}"
+    }
+
+    try {
+        for (i in 5L downTo 1L step -2L) {
+            return "Fail: iterating with a negative step, element: $i"
+        }
+        return "Fail: no exception for a negative step"
+    }
+    catch (e: IllegalArgumentException) {
+        if (e.getMessage() != "Step must be positive, was: -2") return "Fail message: ${e.getMessage()}"
+    }
+
+    var result = ""
+    for (c in 'f' downTo 'a' step 2) {
+        result += c
+    }
+    if (result != "fdb") return "Fail: $result"
+
+    return "OK"
+}
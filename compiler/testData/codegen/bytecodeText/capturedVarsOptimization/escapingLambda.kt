@@ -0,0 +1,10 @@
+fun run(f: () -> Unit) = f()
+
+fun count(): Int {
+    var count = 0
+    run { count++ }
+    return count
+}
+
+// 1 NEW kotlin/jvm/internal/Ref\$NonVolatileIntRef
+// 0 NEW kotlin/jvm/internal/Ref\$NonVolatileObjectRef
@@ -0,0 +1,15 @@
+inline fun <T> Array<T>.each(f: (T) -> Unit) {
+    for (e in this) f(e)
+}
+
+fun count(array: Array<String>): Int {
+    var count = 0
+    var last: String? = null
+    array.each {
+        count++
+        last = it
+    }
+    return if (last != null) count else 0
+}
+
+// 0 kotlin/jvm/internal/Ref
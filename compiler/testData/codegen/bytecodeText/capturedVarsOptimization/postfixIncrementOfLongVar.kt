@@ -0,0 +1,10 @@
+inline fun <T> call(f: () -> T): T = f()
+
+fun next(): Long {
+    var l = 10L
+    val old = call { l++ }
+    return old + l
+}
+
+// 0 kotlin/jvm/internal/Ref
+// 0 DUP2_X1
@@ -0,0 +1,25 @@
+fun marker(s: String) {}
+
+fun foo(): Int {
+    try {
+        marker("reachable try")
+    }
+    catch (e: RuntimeException) {
+        marker("reachable catch")
+    }
+    return 1
+    // the try/catch below is unreachable, so its handler is unreachable as well and the whole block is removed
+    try {
+        marker("unreachable try")
+    }
+    catch (e: IllegalStateException) {
+        marker("unreachable catch")
+    }
+}
+
+// 1 LDC "reachable try"
+// 1 LDC "reachable catch"
+// 0 LDC "unreachable try"
+// 0 LDC "unreachable catch"
+// 1 TRYCATCHBLOCK
+// 0 IllegalStateException
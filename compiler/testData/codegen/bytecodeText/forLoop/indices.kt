@@ -0,0 +1,19 @@
+fun f(a: Array<String>, b: IntArray, c: Collection<String>, s: String) {
+    for (i in a.indices) {
+    }
+    for (i in b.indices) {
+    }
+    for (i in c.indices) {
+    }
+    for (i in s.indices) {
+    }
+}
+
+// 0 iterator
+// 0 getIndices
+// 0 getStart
+// 0 getEnd
+// 0 kotlin/IntRange
+// 2 ARRAYLENGTH
+// 1 INVOKEINTERFACE java/util/Collection.size
+// 1 INVOKEVIRTUAL java/lang/String.length
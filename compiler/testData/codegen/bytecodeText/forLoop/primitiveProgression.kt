@@ -3,9 +3,14 @@ fun f() {
     }
     for (i in 5 downTo 1) {
     }
+    for (i in 5L downTo 1L step 2L) {
+    }
 }
 
 // 0 iterator
-// 2 getStart
-// 2 getEnd
-// 2 getIncrement
\ No newline at end of file
+// 0 getStart
+// 0 getEnd
+// 0 getIncrement
+// 0 kotlin/IntProgression
+// 0 kotlin/LongProgression
+// 2 getProgressionFinalElement
@@ -0,0 +1,24 @@
+package p
+
+// Extensions which can't be called on the receiver because of its class are resolved after the others
+
+interface A
+
+fun <T : A> T.c() {}
+fun String.c() {}
+
+fun Int.d() {}
+fun String.d() {}
+
+fun String.e() {}
+
+fun test(s: String) {
+    1.<!UNRESOLVED_REFERENCE_WRONG_RECEIVER!>c<!>()
+    s.c()
+
+    1.d()
+    'a'.<!UNRESOLVED_REFERENCE_WRONG_RECEIVER!>d<!>()
+    1.d(<!TOO_MANY_ARGUMENTS!>2<!>)
+
+    1.<!UNRESOLVED_REFERENCE_WRONG_RECEIVER!>e<!>()
+}
@@ -5585,6 +5585,12 @@ public class JetDiagnosticsTestGenerated extends AbstractJetDiagnosticsTest {
                 String fileName = JetTestUtils.navigationMetadata("compiler/testData/diagnostics/tests/extensions/throwOutCandidatesByReceiver2.kt");
                 doTest(fileName);
             }
+
+            @TestMetadata("wrongReceiverPostponedCandidates.kt")
+            public void testWrongReceiverPostponedCandidates() throws Exception {
+                String fileName = JetTestUtils.navigationMetadata("compiler/testData/diagnostics/tests/extensions/wrongReceiverPostponedCandidates.kt");
+                doTest(fileName);
+            }
         }
 
         @TestMetadata("compiler/testData/diagnostics/tests/functionAsExpression")
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.kotlin.cli.jvm
+package org.jetbrains.kotlin.cli.jvm
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.daemon.CompileDaemonProtocol
+import org.jetbrains.kotlin.cli.jvm.daemon.CompileDaemon
+import org.jetbrains.kotlin.load.kotlin.PackageClassUtils
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.JetTestUtils
+import java.io.*
+import java.net.InetAddress
+import java.net.Socket
+
+public class CompileDaemonTest : TestCase() {
+    public fun testCompilationsAreServed() {
+        val tmpDir = JetTestUtils.tmpDirForTest(this)
+        val runFile = File(tmpDir, "daemon.port")
+        val source = File(tmpDir, "test.kt")
+        val output = File(tmpDir, "out")
+        val arguments = array(source.getPath(), "-d", output.getPath(), "-no-stdlib")
+
+        withDaemon(runFile) {
+            source.writeText("package test\n\nfun foo() = 42\n")
+            val first = send(runFile, request(javaClass<K2JVMCompiler>().getName(), arguments))
+            TestCase.assertEquals(ExitCode.OK.toString(), first.exitCode)
+            TestCase.assertTrue(File(output, "test/" + PackageClassUtils.getPackageClassName(FqName("test")) + ".class").isFile())
+
+            source.writeText("package test\n\nfun foo(): String = 42\n")
+            val second = send(runFile, request(javaClass<K2JVMCompiler>().getName(), arguments))
+            TestCase.assertEquals(ExitCode.COMPILATION_ERROR.toString(), second.exitCode)
+            val messages = String(second.output, "UTF-8")
+            TestCase.assertTrue(messages, messages.contains("Type mismatch"))
+        }
+        TestCase.assertFalse("Run file should be deleted when the daemon stops", runFile.exists())
+    }
+
+    public fun testUnsupportedCompilerIsRejected() {
+        val runFile = File(JetTestUtils.tmpDirForTest(this), "daemon.port")
+        withDaemon(runFile) {
+            try {
+                send(runFile, request("org.jetbrains.kotlin.cli.js.K2JSCompiler", array<String>()))
+                TestCase.fail("Connection should be closed without response")
+            }
+            catch (e: EOFException) {
+                // expected
+            }
+        }
+    }
+
+    public fun testRequestWithWrongSecretIsRejected() {
+        val runFile = File(JetTestUtils.tmpDirForTest(this), "daemon.port")
+        withDaemon(runFile) {
+            try {
+                send(runFile, request(javaClass<K2JVMCompiler>().getName(), array("-version")), CompileDaemonProtocol.generateSecret())
+                TestCase.fail("Connection should be closed without response")
+            }
+            catch (e: IOException) {
+                // expected: the connection is closed or reset before the request is read completely
+            }
+        }
+    }
+
+    public fun testRequestFromOtherWorkingDirectoryIsRejected() {
+        val tmpDir = JetTestUtils.tmpDirForTest(this)
+        val runFile = File(tmpDir, "daemon.port")
+        withDaemon(runFile) {
+            try {
+                val request = CompileDaemonProtocol.Request(tmpDir.getAbsolutePath(), javaClass<K2JVMCompiler>().getName(), array("-version"))
+                send(runFile, request)
+                TestCase.fail("Connection should be closed without response")
+            }
+            catch (e: EOFException) {
+                // expected
+            }
+        }
+    }
+
+    public fun testSilentClientDoesNotBlockDaemon() {
+        val runFile = File(JetTestUtils.tmpDirForTest(this), "daemon.port")
+        withDaemon(runFile, requestTimeoutMillis = 500) {
+            val silent = Socket(InetAddress.getByName(null), CompileDaemonProtocol.readRunFile(runFile)!!.port)
+            try {
+                // served once the request of the silent client times out
+                val response = send(runFile, request(javaClass<K2JVMCompiler>().getName(), array("-version")))
+                ExitCode.valueOf(response.exitCode)
+            }
+            finally {
+                silent.close()
+            }
+        }
+    }
+
+    private fun withDaemon(runFile: File, requestTimeoutMillis: Int = CompileDaemon.DEFAULT_REQUEST_TIMEOUT_MILLIS, body: () -> Unit) {
+        val daemon = CompileDaemon(runFile, requestTimeoutMillis = requestTimeoutMillis)
+        val thread = Thread { daemon.serve() }
+        thread.start()
+        try {
+            while (CompileDaemonProtocol.readRunFile(runFile) == null) {
+                Thread.sleep(10)
+            }
+            body()
+        }
+        finally {
+            daemon.stop()
+            thread.join()
+        }
+    }
+
+    private fun request(compilerClassName: String, arguments: Array<String>) =
+            CompileDaemonProtocol.Request(System.getProperty("user.dir"), compilerClassName, arguments)
+
+    private fun send(
+            runFile: File,
+            request: CompileDaemonProtocol.Request,
+            secret: String = CompileDaemonProtocol.readRunFile(runFile)!!.secret
+    ): CompileDaemonProtocol.Response {
+        val socket = Socket(InetAddress.getByName(null), CompileDaemonProtocol.readRunFile(runFile)!!.port)
+        try {
+            CompileDaemonProtocol.writeRequest(DataOutputStream(BufferedOutputStream(socket.getOutputStream())), secret, request)
+            return CompileDaemonProtocol.readResponse(DataInputStream(BufferedInputStream(socket.getInputStream())))
+        }
+        finally {
+            socket.close()
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2000-2013 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jetbrains.kotlin.cli.jvm
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.jvm.compiler.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndex
+import org.jetbrains.kotlin.cli.jvm.compiler.JvmDependenciesIndexSnapshot
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.JetTestUtils
+import java.io.File
+import java.io.FileOutputStream
+import java.util.ArrayList
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+public class JvmDependenciesIndexTest : TestCase() {
+    private val jarFileSystem = CoreJarFileSystem()
+
+    public fun testSnapshotIsReusedForUnchangedJars() {
+        val tmpDir = JetTestUtils.tmpDirForTest(this)
+        val first = createJar(File(tmpDir, "first.jar"), "a/b/C.class")
+        val second = createJar(File(tmpDir, "second.jar"), "x/Y.class")
+        val snapshotFile = File(tmpDir, "index")
+
+        val snapshot = JvmDependenciesIndexSnapshot.load(snapshotFile)
+        val index = JvmDependenciesIndex(listOf(jarRoot(first), jarRoot(second)), snapshot)
+        TestCase.assertEquals(listOf(jarRoot(first).file.findFileByRelativePath("a/b")), findPackageDirectories(index, "a.b"))
+        snapshot.save()
+
+        val loaded = JvmDependenciesIndexSnapshot.load(snapshotFile)
+        TestCase.assertEquals(setOf("", "a", "a.b"), loaded.getPackages(first))
+        TestCase.assertEquals(setOf("", "x"), loaded.getPackages(second))
+
+        val reusingIndex = JvmDependenciesIndex(listOf(jarRoot(first), jarRoot(second)), loaded)
+        TestCase.assertEquals(listOf(jarRoot(second).file.findChild("x")), findPackageDirectories(reusingIndex, "x"))
+        TestCase.assertEquals(emptyList<VirtualFile>(), findPackageDirectories(reusingIndex, "a.c"))
+
+        createJar(first, "a/b/C.class", "a/D.class")
+        first.setLastModified(first.lastModified() + 10000)
+        TestCase.assertNull("Changed jar should be indexed again", JvmDependenciesIndexSnapshot.load(snapshotFile).getPackages(first))
+    }
+
+    public fun testConcurrentSearch() {
+        val tmpDir = JetTestUtils.tmpDirForTest(this)
+        val roots = (0..9).map { i -> jarRoot(createJar(File(tmpDir, "$i.jar"), "p${i % 3}/q/C$i.class", "common/D$i.class")) }
+        val index = JvmDependenciesIndex(roots, JvmDependenciesIndexSnapshot.load(File(tmpDir, "index")))
+
+        val executor = Executors.newFixedThreadPool(8)
+        try {
+            val futures = (0..99).map { i ->
+                executor.submit(Callable {
+                    val className = if (i % 2 == 0) "C${i % 10}" else "D${i % 10}"
+                    val packageName = if (i % 2 == 0) "p${i % 10 % 3}.q" else "common"
+                    index.findClass(ClassId(FqName(packageName), FqName(className), false)) { dir, rootType ->
+                        dir.findChild("$className.class")
+                    }
+                })
+            }
+            for (future in futures) {
+                TestCase.assertNotNull(future.get())
+            }
+        }
+        finally {
+            executor.shutdownNow()
+        }
+        TestCase.assertEquals(roots.map { it.file.findChild("common") }, findPackageDirectories(index, "common"))
+    }
+
+    private fun findPackageDirectories(index: JvmDependenciesIndex, packageName: String): List<VirtualFile> {
+        val result = ArrayList<VirtualFile>()
+        index.traverseDirectoriesInPackage(FqName(packageName)) { dir, rootType ->
+            result.add(dir)
+            true
+        }
+        return result
+    }
+
+    private fun jarRoot(jar: File) = JavaRoot(jarFileSystem.findFileByPath("${jar.getPath()}!/")!!, JavaRoot.RootType.BINARY)
+
+    private fun createJar(jar: File, vararg entries: String): File {
+        ZipOutputStream(FileOutputStream(jar)).use { output ->
+            for (entry in entries) {
+                output.putNextEntry(ZipEntry(entry))
+                output.closeEntry()
+            }
+        }
+        return jar
+    }
+}
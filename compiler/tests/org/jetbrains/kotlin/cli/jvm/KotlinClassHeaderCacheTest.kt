@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.impl.jar.CoreJarFileSystem
+import junit.framework.TestCase
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.load.kotlin.KotlinClassHeaderCache
+import org.jetbrains.kotlin.load.kotlin.KotlinJvmBinaryClass
+import org.jetbrains.kotlin.load.kotlin.VirtualFileKotlinClass
+import org.jetbrains.kotlin.resolve.lazy.KotlinTestWithEnvironment
+import org.jetbrains.kotlin.test.JetTestUtils
+import java.io.File
+import java.io.FileOutputStream
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+public class KotlinClassHeaderCacheTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment {
+        return KotlinCoreEnvironment.createForTests(getTestRootDisposable()!!, CompilerConfiguration(), EnvironmentConfigFiles.JVM_CONFIG_FILES)
+    }
+
+    public fun testHeadersAreReusedForUnchangedJar() {
+        val tmpDir = JetTestUtils.tmpDirForTest(this)
+        val jar = createJar(File(tmpDir, "lib.jar"))
+        val cacheDir = File(tmpDir, "cache")
+
+        val cache = KotlinClassHeaderCache(cacheDir)
+        val unit = readClass(cache, jar, "kotlin/Unit.class", expectRead = true)!!
+        TestCase.assertNull(readClass(cache, jar, "java/Plain.class", expectRead = true))
+        cache.save()
+
+        val loaded = KotlinClassHeaderCache(cacheDir)
+        val cachedUnit = readClass(loaded, jar, "kotlin/Unit.class", expectRead = false)!!
+        TestCase.assertEquals(unit.getClassId(), cachedUnit.getClassId())
+        TestCase.assertEquals(unit.getClassHeader().toString(), cachedUnit.getClassHeader().toString())
+        TestCase.assertNull(readClass(loaded, jar, "java/Plain.class", expectRead = false))
+
+        jar.setLastModified(jar.lastModified() + 10000)
+        readClass(KotlinClassHeaderCache(cacheDir), jar, "kotlin/Unit.class", expectRead = false)
+
+        createJar(jar, "java/Other.class")
+        jar.setLastModified(jar.lastModified() + 20000)
+        readClass(KotlinClassHeaderCache(cacheDir), jar, "kotlin/Unit.class", expectRead = true)
+    }
+
+    private fun readClass(cache: KotlinClassHeaderCache, jar: File, path: String, expectRead: Boolean): KotlinJvmBinaryClass? {
+        val file = findFile(jar, path)
+        var read = false
+        val result = cache.getKotlinBinaryClass(file) {
+            read = true
+            VirtualFileKotlinClass.create(file)
+        }
+        TestCase.assertEquals("Class file $path should ${if (expectRead) "" else "not "}be read", expectRead, read)
+        return result
+    }
+
+    private fun findFile(jar: File, path: String): VirtualFile {
+        // a new file system doesn't keep the contents of the jar which was rewritten
+        return CoreJarFileSystem().findFileByPath("${jar.getPath()}!/$path")!!
+    }
+
+    private fun createJar(jar: File, vararg otherEntries: String): File {
+        ZipOutputStream(FileOutputStream(jar)).use { output ->
+            output.putNextEntry(ZipEntry("kotlin/Unit.class"))
+            output.write(FileUtil.loadBytes(javaClass<Unit>().getResourceAsStream("/kotlin/Unit.class")))
+            output.closeEntry()
+            output.putNextEntry(ZipEntry("java/Plain.class"))
+            output.write(FileUtil.loadBytes(javaClass<KotlinClassHeaderCacheTest>().getResourceAsStream("/java/lang/Object.class")))
+            output.closeEntry()
+            for (entry in otherEntries) {
+                output.putNextEntry(ZipEntry(entry))
+                output.closeEntry()
+            }
+        }
+        return jar
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler;
+
+import com.intellij.openapi.util.io.FileUtil;
+import junit.framework.TestCase;
+import org.jetbrains.kotlin.test.JetTestUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class JarWriterTest extends TestCase {
+    public void testWrittenAndCopiedEntries() throws IOException {
+        doTest(true);
+    }
+
+    public void testUncompressedEntries() throws IOException {
+        doTest(false);
+    }
+
+    private void doTest(boolean compress) throws IOException {
+        File tmpDir = JetTestUtils.tmpDirForTest(this);
+
+        File library = new File(tmpDir, "library.jar");
+        ZipOutputStream libraryOutput = new ZipOutputStream(new FileOutputStream(library));
+        try {
+            addEntry(libraryOutput, "lib/A.class", "class A", ZipEntry.DEFLATED);
+            addEntry(libraryOutput, "lib/B.class", "class B", ZipEntry.STORED);
+            addEntry(libraryOutput, "lib/readme.txt", "not a class", ZipEntry.DEFLATED);
+        }
+        finally {
+            libraryOutput.close();
+        }
+
+        File jar = new File(tmpDir, "result.jar");
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        manifest.getMainAttributes().putValue("Main-Class", "test.MainKt");
+        FileOutputStream output = new FileOutputStream(jar);
+        try {
+            JarWriter writer = new JarWriter(output, compress);
+            writer.writeManifest(manifest);
+            writer.writeEntry("test/MainKt.class", "class MainKt".getBytes("UTF-8"));
+            writer.copyClassFiles(library);
+            writer.finish();
+        }
+        finally {
+            output.close();
+        }
+
+        Map<String, String> expected = new LinkedHashMap<String, String>();
+        expected.put("test/MainKt.class", "class MainKt");
+        expected.put("lib/A.class", "class A");
+        expected.put("lib/B.class", "class B");
+
+        // central directory is read by ZipFile, local headers by JarInputStream
+        ZipFile zipFile = new ZipFile(jar);
+        try {
+            assertEquals(expected.size() + 1, zipFile.size());
+            for (Map.Entry<String, String> entry : expected.entrySet()) {
+                ZipEntry zipEntry = zipFile.getEntry(entry.getKey());
+                assertEquals(entry.getValue(), new String(FileUtil.loadBytes(zipFile.getInputStream(zipEntry)), "UTF-8"));
+            }
+            if (!compress) {
+                assertEquals(ZipEntry.STORED, zipFile.getEntry("test/MainKt.class").getMethod());
+            }
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("lib/A.class").getMethod());
+        }
+        finally {
+            zipFile.close();
+        }
+
+        JarInputStream input = new JarInputStream(new FileInputStream(jar));
+        try {
+            assertEquals("test.MainKt", input.getManifest().getMainAttributes().getValue("Main-Class"));
+            Map<String, String> actual = new LinkedHashMap<String, String>();
+            while (true) {
+                ZipEntry entry = input.getNextEntry();
+                if (entry == null) break;
+                actual.put(entry.getName(), new String(FileUtil.loadBytes(input), "UTF-8"));
+            }
+            assertEquals(expected, actual);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    private static void addEntry(ZipOutputStream output, String name, String content, int method) throws IOException {
+        byte[] bytes = content.getBytes("UTF-8");
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(method);
+        if (method == ZipEntry.STORED) {
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            entry.setCrc(crc.getValue());
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+        }
+        output.putNextEntry(entry);
+        output.write(bytes);
+        output.closeEntry();
+    }
+}
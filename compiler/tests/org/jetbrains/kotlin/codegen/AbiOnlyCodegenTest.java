@@ -0,0 +1,130 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.backend.common.output.OutputFile;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.codegen.state.Progress;
+import org.jetbrains.kotlin.diagnostics.DiagnosticSink;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+import org.jetbrains.org.objectweb.asm.ClassReader;
+import org.jetbrains.org.objectweb.asm.tree.*;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class AbiOnlyCodegenTest extends CodegenTestCase {
+    public void testOnlyInlineFunctionsHaveBodies() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY);
+
+        JetFile file = JetTestUtils.createFile(
+                "abi.kt",
+                "package abi\n" +
+                "\n" +
+                "inline fun twice(f: () -> Int): Int = f() + f()\n" +
+                "\n" +
+                "inline fun counter(): () -> Int {\n" +
+                "    var i = 0\n" +
+                "    return { ++i }\n" +
+                "}\n" +
+                "\n" +
+                "val initialized = System.currentTimeMillis()\n" +
+                "\n" +
+                "class C(val x: Int) {\n" +
+                "    fun foo(): Int = twice { x }\n" +
+                "    fun bar(): () -> Int = { foo() }\n" +
+                "}\n",
+                myEnvironment.getProject()
+        );
+        AnalysisResult analysisResult =
+                JvmResolveUtil.analyzeFilesWithJavaIntegrationAndCheckForErrors(myEnvironment.getProject(), Collections.singletonList(file));
+
+        Map<String, ClassNode> classes = generateAbi(analysisResult, file);
+
+        ClassNode c = classes.get("abi/C");
+        assertNotNull(c);
+        assertTrue(isStub(findMethod(c, "foo")));
+        assertTrue(isStub(findMethod(c, "<init>")));
+        assertNotNull("Kotlin metadata is expected in ABI classes", c.visibleAnnotations);
+
+        boolean inlineFunctionsFound = false;
+        for (ClassNode classNode : classes.values()) {
+            MethodNode twice = findMethod(classNode, "twice");
+            MethodNode counter = findMethod(classNode, "counter");
+            if (twice != null && counter != null && twice.instructions.size() > 0) {
+                assertFalse(isStub(twice));
+                assertFalse(isStub(counter));
+                inlineFunctionsFound = true;
+            }
+            if (classNode.name.startsWith("abi/AbiPackage$")) {
+                assertNull("Top level property initializers are not expected in ABI classes", findMethod(classNode, "<clinit>"));
+            }
+
+            if (classNode.name.contains("$counter$")) {
+                assertFalse("Lambdas in inline functions are needed for inlining", isStub(findMethod(classNode, "invoke")));
+            }
+            assertFalse("Lambdas in other functions are not expected in ABI classes", classNode.name.contains("$bar$"));
+        }
+        assertTrue(inlineFunctionsFound);
+    }
+
+    @NotNull
+    private Map<String, ClassNode> generateAbi(@NotNull AnalysisResult analysisResult, @NotNull JetFile file) {
+        GenerationState state = new GenerationState(
+                myEnvironment.getProject(), ClassBuilderFactories.BINARIES, Progress.DEAF,
+                analysisResult.getModuleDescriptor(), analysisResult.getBindingContext(),
+                Collections.singletonList(file), false, false, GenerationState.GenerateClassFilter.GENERATE_ALL,
+                false, false, true, null, null, DiagnosticSink.DO_NOTHING, null
+        );
+        KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION);
+
+        Map<String, ClassNode> result = new HashMap<String, ClassNode>();
+        for (OutputFile outputFile : state.getFactory().asList()) {
+            if (!outputFile.getRelativePath().endsWith(".class")) continue;
+
+            ClassNode classNode = new ClassNode();
+            new ClassReader(outputFile.asByteArray()).accept(classNode, 0);
+            result.put(classNode.name, classNode);
+        }
+        return result;
+    }
+
+    @Nullable
+    private static MethodNode findMethod(@NotNull ClassNode classNode, @NotNull String name) {
+        for (MethodNode method : classNode.methods) {
+            if (method.name.equals(name)) return method;
+        }
+        return null;
+    }
+
+    private static boolean isStub(@Nullable MethodNode method) {
+        assertNotNull(method);
+        for (AbstractInsnNode insn : method.instructions.toArray()) {
+            if (insn instanceof TypeInsnNode && ((TypeInsnNode) insn).desc.equals("java/lang/UnsupportedOperationException")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -18,6 +18,8 @@ package org.jetbrains.kotlin.codegen
 
 import com.intellij.testFramework.UsefulTestCase
 import org.jetbrains.kotlin.test.ConfigurationKind
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
 
 public class CustomBytecodeTextTest : AbstractBytecodeTextTest() {
     fun testEnumMapping() {
@@ -47,4 +49,26 @@ public class CustomBytecodeTextTest : AbstractBytecodeTextTest() {
                 "GETSTATIC MyEnum.ENTRY1 : LMyEnum;"
         ), getstatics)
     }
-}
\ No newline at end of file
+
+    fun testDeadCodeIsEliminatedInOversizedMethod() {
+        // 4000 double locals take 8000 slots and at least 8000 instructions, so frames of the method would take more than
+        // MEMORY_LIMIT_BY_METHOD_MB and the frame based optimizations are skipped for it, but dead code is still eliminated
+        val source = StringBuilder()
+        source.append("fun marker(s: String) {}\n\n")
+        source.append("fun oversized() {\n")
+        for (i in 0..3999) {
+            source.append("    val d$i = 0.0\n")
+        }
+        source.append("    marker(\"reachable\")\n")
+        source.append("    return\n")
+        source.append("    marker(\"unreachable\")\n")
+        source.append("}\n")
+
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.ALL)
+        myFiles = CodegenTestFiles.create("oversizedMethod.kt", source.toString(), myEnvironment.project)
+
+        val text = generateToText()
+        assertTrue(text.contains("LDC \"reachable\""), "actual bytecode:\n" + text)
+        assertFalse(text.contains("LDC \"unreachable\""), "actual bytecode:\n" + text)
+    }
+}
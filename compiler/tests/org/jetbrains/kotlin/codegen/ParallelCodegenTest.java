@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.codegen;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.backend.common.output.OutputFile;
+import org.jetbrains.kotlin.codegen.state.GenerationState;
+import org.jetbrains.kotlin.codegen.state.Progress;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.diagnostics.DiagnosticSink;
+import org.jetbrains.kotlin.diagnostics.DiagnosticUtils;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ParallelCodegenTest extends CodegenTestCase {
+    private static final int PACKAGES = 8;
+
+    public void testOutputIsTheSameAsSequential() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY);
+
+        List<JetFile> files = new ArrayList<JetFile>();
+        for (int i = 0; i < PACKAGES; i++) {
+            String packageName = "p" + i;
+            String nextPackageName = "p" + ((i + 1) % PACKAGES);
+            files.add(JetTestUtils.createFile(
+                    packageName + ".kt",
+                    "package " + packageName + "\n" +
+                    "\n" +
+                    "inline fun twice(f: () -> Int): Int = f() + f()\n" +
+                    "\n" +
+                    "class C(val x: Int) {\n" +
+                    "    fun foo(): Int = twice { x } + " + nextPackageName + ".twice { x + 1 }\n" +
+                    "    fun bar(): () -> Int = { foo() }\n" +
+                    "}\n" +
+                    "\n" +
+                    "fun box(): String = if (C(1).bar()() == 6) \"OK\" else \"Fail\"\n",
+                    myEnvironment.getProject()
+            ));
+        }
+
+        assertOutputIsTheSameAsSequential(files);
+    }
+
+    public void testCapturingLambdaInInlineFunctionFromOtherPackage() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY);
+
+        // Closures of the lambda and the object are completed by every package which inlines count()
+        List<JetFile> files = new ArrayList<JetFile>();
+        files.add(JetTestUtils.createFile(
+                "lib.kt",
+                "package lib\n" +
+                "\n" +
+                "fun call(f: () -> Unit) = f()\n" +
+                "\n" +
+                "inline fun count(f: () -> Int): Int {\n" +
+                "    var counter = 0\n" +
+                "    val base = 10\n" +
+                "    call { counter += base }\n" +
+                "    val o = object { fun get() = counter + base }\n" +
+                "    return o.get() + f()\n" +
+                "}\n",
+                myEnvironment.getProject()
+        ));
+        for (int i = 0; i < PACKAGES; i++) {
+            String packageName = "p" + i;
+            files.add(JetTestUtils.createFile(
+                    packageName + ".kt",
+                    "package " + packageName + "\n" +
+                    "\n" +
+                    "fun box(): String = if (lib.count { " + i + " } == " + (20 + i) + ") \"OK\" else \"Fail\"\n",
+                    myEnvironment.getProject()
+            ));
+        }
+
+        assertOutputIsTheSameAsSequential(files);
+    }
+
+    public void testDiagnosticsAreReportedInSequentialOrder() {
+        createEnvironmentWithMockJdkAndIdeaAnnotations(ConfigurationKind.JDK_ONLY);
+
+        List<JetFile> files = new ArrayList<JetFile>();
+        for (int i = 0; i < PACKAGES; i++) {
+            String packageName = "p" + i;
+            files.add(JetTestUtils.createFile(
+                    packageName + ".kt",
+                    "package " + packageName + "\n" +
+                    "\n" +
+                    "class A {\n" +
+                    "    val x = 1\n" +
+                    "    fun getX() = 1\n" +
+                    "}\n" +
+                    "\n" +
+                    "class B {\n" +
+                    "    val y = 1\n" +
+                    "    fun getY() = 1\n" +
+                    "}\n",
+                    myEnvironment.getProject()
+            ));
+        }
+
+        AnalysisResult analysisResult = JvmResolveUtil.analyzeFilesWithJavaIntegrationAndCheckForErrors(myEnvironment.getProject(), files);
+
+        DiagnosticSink.CollectAll sequential = new DiagnosticSink.CollectAll();
+        generate(analysisResult, files, 1, sequential);
+        DiagnosticSink.CollectAll parallel = new DiagnosticSink.CollectAll();
+        generate(analysisResult, files, 4, parallel);
+
+        List<String> sequentialDiagnostics = renderDiagnostics(sequential.getDiagnostics());
+        assertEquals(PACKAGES * 4, sequentialDiagnostics.size());
+        assertEquals(sequentialDiagnostics, renderDiagnostics(parallel.getDiagnostics()));
+    }
+
+    private void assertOutputIsTheSameAsSequential(@NotNull List<JetFile> files) {
+        AnalysisResult analysisResult = JvmResolveUtil.analyzeFilesWithJavaIntegrationAndCheckForErrors(myEnvironment.getProject(), files);
+
+        List<OutputFile> sequential = generate(analysisResult, files, 1);
+        List<OutputFile> parallel = generate(analysisResult, files, 4);
+
+        assertEquals(getRelativePaths(sequential), getRelativePaths(parallel));
+        for (int i = 0; i < sequential.size(); i++) {
+            assertTrue("Different bytecode for " + sequential.get(i).getRelativePath(),
+                       Arrays.equals(sequential.get(i).asByteArray(), parallel.get(i).asByteArray()));
+        }
+    }
+
+    @NotNull
+    private List<OutputFile> generate(@NotNull AnalysisResult analysisResult, @NotNull List<JetFile> files, int codegenThreads) {
+        return generate(analysisResult, files, codegenThreads, DiagnosticSink.DO_NOTHING);
+    }
+
+    @NotNull
+    private List<OutputFile> generate(
+            @NotNull AnalysisResult analysisResult,
+            @NotNull List<JetFile> files,
+            int codegenThreads,
+            @NotNull DiagnosticSink diagnostics
+    ) {
+        GenerationState state = new GenerationState(
+                myEnvironment.getProject(), ClassBuilderFactories.BINARIES, Progress.DEAF,
+                analysisResult.getModuleDescriptor(), analysisResult.getBindingContext(),
+                files, false, false, GenerationState.GenerateClassFilter.GENERATE_ALL,
+                false, false, false, null, null, diagnostics, null
+        );
+        KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION, codegenThreads);
+        return state.getFactory().asList();
+    }
+
+    // Diagnostics are compared without sorting: their order must not depend on the number of threads
+    @NotNull
+    private static List<String> renderDiagnostics(@NotNull List<Diagnostic> diagnostics) {
+        List<String> result = new ArrayList<String>(diagnostics.size());
+        for (Diagnostic diagnostic : diagnostics) {
+            result.add(diagnostic.getFactory().getName() + " " + DiagnosticUtils.atLocation(diagnostic.getPsiElement()));
+        }
+        return result;
+    }
+
+    @NotNull
+    private static List<String> getRelativePaths(@NotNull List<OutputFile> outputFiles) {
+        List<String> result = new ArrayList<String>(outputFiles.size());
+        for (OutputFile file : outputFiles) {
+            result.add(file.getRelativePath());
+        }
+        return result;
+    }
+}
@@ -1645,6 +1645,18 @@ public class BlackBoxCodegenTestGenerated extends AbstractBlackBoxCodegenTest {
             doTest(fileName);
         }
 
+        @TestMetadata("inlinedLambdaLongAndDoubleVars.kt")
+        public void testInlinedLambdaLongAndDoubleVars() throws Exception {
+            String fileName = JetTestUtils.navigationMetadata("compiler/testData/codegen/box/closures/inlinedLambdaLongAndDoubleVars.kt");
+            doTest(fileName);
+        }
+
+        @TestMetadata("inlinedLambdaPostfixIncrement.kt")
+        public void testInlinedLambdaPostfixIncrement() throws Exception {
+            String fileName = JetTestUtils.navigationMetadata("compiler/testData/codegen/box/closures/inlinedLambdaPostfixIncrement.kt");
+            doTest(fileName);
+        }
+
         @TestMetadata("kt2151.kt")
         public void testKt2151() throws Exception {
             String fileName = JetTestUtils.navigationMetadata("compiler/testData/codegen/box/closures/kt2151.kt");
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.context.ModuleContext;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingTraceContext;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+import org.jetbrains.kotlin.test.TestJdkKind;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures analysis time of generated functions with deeply nested smart casts and long when chains,
+ * where most of the body resolution time is spent on data flow info. The best time of all runs is reported.
+ *
+ * Usage: DataFlowInfoBenchmark [nesting depth], the default is 40
+ */
+public class DataFlowInfoBenchmark {
+    private static final int ITERATIONS = 5;
+    private static final int FILES = 20;
+
+    public static void main(String[] args) throws Exception {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+        String text = generateFile(depth);
+
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            best = Math.min(best, analyze(text));
+        }
+        System.out.println("Nesting depth " + depth + ": " + TimeUnit.NANOSECONDS.toMillis(best) + " ms");
+        System.exit(0);
+    }
+
+    @NotNull
+    private static String generateFile(int depth) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            sb.append("class State").append(i).append(" { fun next").append(i).append("(): Any? = null }\n");
+        }
+
+        sb.append("\nfun nested(");
+        for (int i = 0; i < depth; i++) {
+            sb.append(i == 0 ? "" : ", ").append("s").append(i).append(": Any?");
+        }
+        sb.append(") {\n");
+        for (int i = 0; i < depth; i++) {
+            sb.append("if (s").append(i).append(" is State").append(i).append(" && s").append(i).append(" != null) {\n");
+            for (int j = 0; j <= i; j++) {
+                sb.append("s").append(j).append(".next").append(j).append("()\n");
+            }
+        }
+        for (int i = 0; i < depth; i++) {
+            sb.append("}\n");
+        }
+        sb.append("}\n");
+
+        sb.append("\nfun machine(state: Any?): Any? {\n");
+        sb.append("var current = state\n");
+        sb.append("while (current != null) {\n");
+        sb.append("current = when (current) {\n");
+        for (int i = 0; i < depth; i++) {
+            sb.append("is State").append(i).append(" -> current.next").append(i).append("()\n");
+        }
+        sb.append("else -> null\n");
+        sb.append("}\n");
+        sb.append("}\n");
+        sb.append("return current\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static long analyze(@NotNull String text) throws Exception {
+        Disposable disposable = Disposer.newDisposable();
+        try {
+            KotlinCoreEnvironment environment = KotlinCoreEnvironment.createForTests(
+                    disposable,
+                    JetTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK),
+                    EnvironmentConfigFiles.JVM_CONFIG_FILES
+            );
+
+            List<JetFile> files = new ArrayList<JetFile>();
+            for (int i = 0; i < FILES; i++) {
+                files.add(JetTestUtils.createFile("smartCasts" + i + ".kt", "package p" + i + "\n\n" + text, environment.getProject()));
+            }
+
+            long start = System.nanoTime();
+            ModuleContext moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.getProject());
+            TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                    moduleContext, files, new BindingTraceContext(), null, null);
+            return System.nanoTime() - start;
+        }
+        finally {
+            Disposer.dispose(disposable);
+        }
+    }
+}
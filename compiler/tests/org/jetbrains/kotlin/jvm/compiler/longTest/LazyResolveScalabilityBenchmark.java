@@ -0,0 +1,267 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.psi.search.GlobalSearchScope;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.builtins.KotlinBuiltIns;
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.context.ContextPackage;
+import org.jetbrains.kotlin.context.GlobalContext;
+import org.jetbrains.kotlin.context.MutableModuleContext;
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.frontend.java.di.ContainerForTopDownAnalyzerForJvm;
+import org.jetbrains.kotlin.frontend.java.di.DiPackage;
+import org.jetbrains.kotlin.incremental.components.LookupTracker;
+import org.jetbrains.kotlin.name.Name;
+import org.jetbrains.kotlin.psi.JetDeclaration;
+import org.jetbrains.kotlin.psi.JetExpression;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingContext;
+import org.jetbrains.kotlin.resolve.BindingTrace;
+import org.jetbrains.kotlin.resolve.BodyResolveSettings;
+import org.jetbrains.kotlin.resolve.DelegatingBindingTrace;
+import org.jetbrains.kotlin.resolve.TopDownAnalysisMode;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.resolve.lazy.ForceResolveUtil;
+import org.jetbrains.kotlin.resolve.lazy.ResolveSession;
+import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+import org.jetbrains.kotlin.test.TestJdkKind;
+import org.jetbrains.kotlin.types.JetType;
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
+
+/**
+ * Measures how lazy resolution of declarations scales with the number of threads, for the default storage manager
+ * and for the concurrent one. Declarations of all files are first resolved in the given number of threads,
+ * then LazyTopDownAnalyzer analyzes the files (in one thread) reusing the descriptors resolved so far.
+ *
+ * Usage: LazyResolveScalabilityBenchmark [source root], the default is the standard library sources
+ */
+public class LazyResolveScalabilityBenchmark {
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+    private static final int ITERATIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        File sourceRoot = new File(args.length > 0 ? args[0] : "libraries/stdlib/src");
+
+        System.out.println("Source root: " + sourceRoot);
+        System.out.println("storage manager, threads, lazy resolve ms, top-down analysis ms");
+        for (boolean concurrent : new boolean[] {false, true}) {
+            for (int threads : THREAD_COUNTS) {
+                long[] best = null;
+                for (int i = 0; i < ITERATIONS; i++) {
+                    long[] times = run(sourceRoot, threads, concurrent);
+                    if (best == null || times[0] + times[1] < best[0] + best[1]) {
+                        best = times;
+                    }
+                }
+                assert best != null;
+                System.out.println((concurrent ? "concurrent" : "lock-based") + ", " + threads + ", " +
+                                   TimeUnit.NANOSECONDS.toMillis(best[0]) + ", " + TimeUnit.NANOSECONDS.toMillis(best[1]));
+            }
+        }
+        System.exit(0);
+    }
+
+    @NotNull
+    private static long[] run(@NotNull File sourceRoot, int threads, boolean concurrent) throws Exception {
+        Disposable disposable = Disposer.newDisposable();
+        try {
+            KotlinCoreEnvironment environment = KotlinCoreEnvironment.createForTests(
+                    disposable,
+                    JetTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK),
+                    EnvironmentConfigFiles.JVM_CONFIG_FILES
+            );
+            Project project = environment.getProject();
+            List<JetFile> files = loadFiles(sourceRoot, project);
+
+            GlobalContext globalContext = concurrent ? ContextPackage.ConcurrentGlobalContext() : ContextPackage.GlobalContext();
+            MutableModuleContext moduleContext = ContextPackage.ContextForNewModule(
+                    ContextPackage.withProject(globalContext, project), Name.special("<benchmark>"),
+                    TopDownAnalyzerFacadeForJVM.JVM_MODULE_PARAMETERS
+            );
+            moduleContext.setDependencies(moduleContext.getModule(), KotlinBuiltIns.getInstance().getBuiltInsModule());
+
+            PerThreadBindingTrace trace = new PerThreadBindingTrace(new CliLightClassGenerationSupport.NoScopeRecordCliBindingTrace());
+            ContainerForTopDownAnalyzerForJvm container = DiPackage.createContainerForTopDownAnalyzerForJvm(
+                    moduleContext,
+                    trace,
+                    new FileBasedDeclarationProviderFactory(moduleContext.getStorageManager(), files),
+                    GlobalSearchScope.allScope(project),
+                    new BodyResolveSettings(),
+                    LookupTracker.DO_NOTHING
+            );
+            // Only initializes the module, files are analyzed below
+            container.getLazyTopDownAnalyzerForTopLevel().analyzeFiles(
+                    TopDownAnalysisMode.TopLevelDeclarations, Collections.<JetFile>emptyList(),
+                    Collections.singletonList(container.getJavaDescriptorResolver().getPackageFragmentProvider())
+            );
+
+            long start = System.nanoTime();
+            resolveDeclarations(container.getResolveSession(), trace, files, threads);
+            long lazyResolveEnd = System.nanoTime();
+            container.getLazyTopDownAnalyzerForTopLevel().analyzeDeclarations(TopDownAnalysisMode.TopLevelDeclarations, files);
+            long end = System.nanoTime();
+
+            return new long[] {lazyResolveEnd - start, end - lazyResolveEnd};
+        }
+        finally {
+            Disposer.dispose(disposable);
+        }
+    }
+
+    private static void resolveDeclarations(
+            @NotNull final ResolveSession resolveSession,
+            @NotNull PerThreadBindingTrace trace,
+            @NotNull List<JetFile> files,
+            int threads
+    ) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        trace.startRecordingPerThread();
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final JetFile file : files) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (JetDeclaration declaration : file.getDeclarations()) {
+                            DeclarationDescriptor descriptor = resolveSession.resolveToDescriptor(declaration);
+                            ForceResolveUtil.forceResolveAllContents(descriptor);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            trace.mergePerThreadTraces();
+        }
+    }
+
+    /**
+     * Binding traces are not thread-safe, so while declarations are resolved in several threads, each thread records into its own trace,
+     * which only reads the main one. The per-thread traces are merged into the main trace when all threads are done.
+     */
+    private static class PerThreadBindingTrace implements BindingTrace {
+        private final BindingTrace mainTrace;
+        private final Queue<DelegatingBindingTrace> threadTraces = new ConcurrentLinkedQueue<DelegatingBindingTrace>();
+        private volatile boolean recordingPerThread = false;
+
+        private final ThreadLocal<DelegatingBindingTrace> threadTrace = new ThreadLocal<DelegatingBindingTrace>() {
+            @Override
+            protected DelegatingBindingTrace initialValue() {
+                DelegatingBindingTrace trace = new DelegatingBindingTrace(mainTrace.getBindingContext(), "trace of a benchmark thread");
+                threadTraces.add(trace);
+                return trace;
+            }
+        };
+
+        private PerThreadBindingTrace(@NotNull BindingTrace mainTrace) {
+            this.mainTrace = mainTrace;
+        }
+
+        private void startRecordingPerThread() {
+            recordingPerThread = true;
+        }
+
+        private void mergePerThreadTraces() {
+            recordingPerThread = false;
+            for (DelegatingBindingTrace trace : threadTraces) {
+                trace.addOwnDataTo(mainTrace);
+            }
+            threadTraces.clear();
+        }
+
+        @NotNull
+        private BindingTrace current() {
+            return recordingPerThread ? threadTrace.get() : mainTrace;
+        }
+
+        @NotNull
+        @Override
+        public BindingContext getBindingContext() {
+            return current().getBindingContext();
+        }
+
+        @Override
+        public <K, V> void record(WritableSlice<K, V> slice, K key, V value) {
+            current().record(slice, key, value);
+        }
+
+        @Override
+        public <K> void record(WritableSlice<K, Boolean> slice, K key) {
+            current().record(slice, key);
+        }
+
+        @Nullable
+        @Override
+        public <K, V> V get(ReadOnlySlice<K, V> slice, K key) {
+            return current().get(slice, key);
+        }
+
+        @NotNull
+        @Override
+        public <K, V> Collection<K> getKeys(WritableSlice<K, V> slice) {
+            return current().getKeys(slice);
+        }
+
+        @Nullable
+        @Override
+        public JetType getType(@NotNull JetExpression expression) {
+            return current().getType(expression);
+        }
+
+        @Override
+        public void recordType(@NotNull JetExpression expression, @Nullable JetType type) {
+            current().recordType(expression, type);
+        }
+
+        @Override
+        public void report(@NotNull Diagnostic diagnostic) {
+            current().report(diagnostic);
+        }
+    }
+
+    @NotNull
+    private static List<JetFile> loadFiles(@NotNull File sourceRoot, @NotNull Project project) throws IOException {
+        List<JetFile> result = new ArrayList<JetFile>();
+        for (File file : FileUtil.findFilesByMask(Pattern.compile(".+\\.kt"), sourceRoot)) {
+            result.add(JetTestUtils.createFile(file.getName(), FileUtil.loadFile(file, true), project));
+        }
+        return result;
+    }
+}
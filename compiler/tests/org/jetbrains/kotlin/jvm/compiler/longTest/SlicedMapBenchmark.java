@@ -0,0 +1,162 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.context.ModuleContext;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingTraceContext;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+import org.jetbrains.kotlin.test.TestJdkKind;
+import org.jetbrains.kotlin.util.slicedMap.ColumnarSlicedMap;
+import org.jetbrains.kotlin.util.slicedMap.MutableSlicedMap;
+import org.jetbrains.kotlin.util.slicedMap.SlicedMapImpl;
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares memory footprint and speed of SlicedMapImpl and ColumnarSlicedMap on the facts recorded in the binding trace
+ * while analyzing a module. The facts are recorded once and then put into a new map of each kind and read back.
+ *
+ * Usage: SlicedMapBenchmark [source root], the default is the standard library sources
+ */
+public class SlicedMapBenchmark {
+    private static final int ITERATIONS = 5;
+
+    // keeps the map reachable until its memory is measured
+    private static volatile Object retainedMap;
+
+    private static class Fact {
+        final WritableSlice slice;
+        final Object key;
+        final Object value;
+
+        Fact(WritableSlice slice, Object key, Object value) {
+            this.slice = slice;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private interface MapFactory {
+        MutableSlicedMap create();
+    }
+
+    public static void main(String[] args) throws Exception {
+        File sourceRoot = new File(args.length > 0 ? args[0] : "libraries/stdlib/src");
+
+        Disposable disposable = Disposer.newDisposable();
+        try {
+            KotlinCoreEnvironment environment = KotlinCoreEnvironment.createForTests(
+                    disposable,
+                    JetTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK),
+                    EnvironmentConfigFiles.JVM_CONFIG_FILES
+            );
+            List<Fact> facts = recordFacts(environment, sourceRoot);
+
+            System.out.println("Source root: " + sourceRoot + ", facts: " + facts.size());
+            System.out.println("map, retained MB, put ms, get ms");
+            run("SlicedMapImpl", facts, new MapFactory() {
+                @Override
+                public MutableSlicedMap create() {
+                    return SlicedMapImpl.create();
+                }
+            });
+            run("ColumnarSlicedMap", facts, new MapFactory() {
+                @Override
+                public MutableSlicedMap create() {
+                    return ColumnarSlicedMap.create();
+                }
+            });
+        }
+        finally {
+            Disposer.dispose(disposable);
+        }
+        System.exit(0);
+    }
+
+    @NotNull
+    private static List<Fact> recordFacts(@NotNull KotlinCoreEnvironment environment, @NotNull File sourceRoot) throws Exception {
+        List<JetFile> files = new ArrayList<JetFile>();
+        for (File file : FileUtil.findFilesByMask(Pattern.compile(".+\\.kt"), sourceRoot)) {
+            files.add(JetTestUtils.createFile(file.getName(), FileUtil.loadFile(file, true), environment.getProject()));
+        }
+
+        ModuleContext moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.getProject());
+        BindingTraceContext trace = new BindingTraceContext();
+        TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(moduleContext, files, trace, null, null);
+
+        final List<Fact> facts = new ArrayList<Fact>();
+        trace.getBindingContext().addOwnDataTo(new BindingTraceContext() {
+            @Override
+            public <K, V> void record(WritableSlice<K, V> slice, K key, V value) {
+                facts.add(new Fact(slice, key, value));
+            }
+        }, false);
+        return facts;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void run(@NotNull String name, @NotNull List<Fact> facts, @NotNull MapFactory factory) {
+        long bestPut = Long.MAX_VALUE;
+        long bestGet = Long.MAX_VALUE;
+        long retained = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            long before = usedMemory();
+
+            long start = System.nanoTime();
+            MutableSlicedMap map = factory.create();
+            for (Fact fact : facts) {
+                map.put(fact.slice, fact.key, fact.value);
+            }
+            long putEnd = System.nanoTime();
+
+            for (Fact fact : facts) {
+                map.get(fact.slice, fact.key);
+            }
+            long getEnd = System.nanoTime();
+
+            retainedMap = map;
+            retained = usedMemory() - before;
+            retainedMap = null;
+            bestPut = Math.min(bestPut, putEnd - start);
+            bestGet = Math.min(bestGet, getEnd - putEnd);
+        }
+        System.out.println(name + ", " + retained / (1024 * 1024) + ", " +
+                           TimeUnit.NANOSECONDS.toMillis(bestPut) + ", " + TimeUnit.NANOSECONDS.toMillis(bestGet));
+    }
+
+    private static long usedMemory() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler.longTest;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.io.FileUtil;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.context.ModuleContext;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.BindingTraceContext;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+import org.jetbrains.kotlin.test.TestJdkKind;
+import org.jetbrains.kotlin.util.PerformanceCounter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Compares analysis time of generic-heavy sources with and without the subtyping cache.
+ * Every run analyzes the sources in a new environment, the best time of all runs is reported.
+ *
+ * Usage: SubtypingCacheBenchmark [source root], the default is the standard library sources
+ */
+public class SubtypingCacheBenchmark {
+    private static final int ITERATIONS = 5;
+    private static final String DISABLED_PROPERTY = "kotlin.subtyping.cache.disabled";
+
+    public static void main(String[] args) throws Exception {
+        File sourceRoot = new File(args.length > 0 ? args[0] : "libraries/stdlib/src");
+        System.out.println("Source root: " + sourceRoot);
+
+        System.setProperty(DISABLED_PROPERTY, "true");
+        run("no cache", sourceRoot);
+
+        System.clearProperty(DISABLED_PROPERTY);
+        run("cache", sourceRoot);
+
+        PerformanceCounter.Companion.report(new Function1<String, Unit>() {
+            @Override
+            public Unit invoke(String line) {
+                if (line.startsWith("Subtyping cache")) {
+                    System.out.println(line + " in the last run");
+                }
+                return Unit.INSTANCE$;
+            }
+        });
+        System.exit(0);
+    }
+
+    private static void run(@NotNull String name, @NotNull File sourceRoot) throws Exception {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ITERATIONS; i++) {
+            PerformanceCounter.Companion.resetAllCounters();
+            best = Math.min(best, analyze(sourceRoot));
+        }
+        System.out.println(name + ": " + TimeUnit.NANOSECONDS.toMillis(best) + " ms");
+    }
+
+    private static long analyze(@NotNull File sourceRoot) throws Exception {
+        Disposable disposable = Disposer.newDisposable();
+        try {
+            KotlinCoreEnvironment environment = KotlinCoreEnvironment.createForTests(
+                    disposable,
+                    JetTestUtils.compilerConfigurationForTests(ConfigurationKind.JDK_ONLY, TestJdkKind.FULL_JDK),
+                    EnvironmentConfigFiles.JVM_CONFIG_FILES
+            );
+
+            List<JetFile> files = new ArrayList<JetFile>();
+            for (File file : FileUtil.findFilesByMask(Pattern.compile(".+\\.kt"), sourceRoot)) {
+                files.add(JetTestUtils.createFile(file.getName(), FileUtil.loadFile(file, true), environment.getProject()));
+            }
+
+            long start = System.nanoTime();
+            ModuleContext moduleContext = TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(environment.getProject());
+            TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                    moduleContext, files, new BindingTraceContext(), null, null);
+            return System.nanoTime() - start;
+        }
+        finally {
+            Disposer.dispose(disposable);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.resolve;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.kotlin.analyzer.AnalysisResult;
+import org.jetbrains.kotlin.cli.jvm.compiler.CliLightClassGenerationSupport;
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment;
+import org.jetbrains.kotlin.diagnostics.Diagnostic;
+import org.jetbrains.kotlin.diagnostics.DiagnosticUtils;
+import org.jetbrains.kotlin.diagnostics.rendering.DefaultErrorMessages;
+import org.jetbrains.kotlin.psi.JetFile;
+import org.jetbrains.kotlin.resolve.jvm.TopDownAnalyzerFacadeForJVM;
+import org.jetbrains.kotlin.resolve.lazy.KotlinTestWithEnvironment;
+import org.jetbrains.kotlin.test.ConfigurationKind;
+import org.jetbrains.kotlin.test.JetTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ParallelBodyResolveTest extends KotlinTestWithEnvironment {
+    private static final int FILES = 8;
+
+    @Override
+    protected KotlinCoreEnvironment createEnvironment() {
+        return createEnvironmentWithMockJdk(ConfigurationKind.JDK_ONLY);
+    }
+
+    public void testDiagnosticsAreTheSameAsSequential() {
+        List<JetFile> files = new ArrayList<JetFile>();
+        for (int i = 0; i < FILES; i++) {
+            String next = "p" + ((i + 1) % FILES);
+            files.add(JetTestUtils.createFile(
+                    "p" + i + ".kt",
+                    "package p" + i + "\n" +
+                    "\n" +
+                    "val inferred = " + next + ".function(1)\n" +
+                    "val unresolved = foo()\n" +
+                    "var withAccessors: Int = 0\n" +
+                    "    get() = $withAccessors + 1\n" +
+                    "    set(value) { $withAccessors = value + \"\" }\n" +
+                    "\n" +
+                    "fun function(x: Int) = x + " + next + ".recursive()\n" +
+                    "fun recursive() = recursive()\n" +
+                    "fun typeMismatch(): String = inferred\n" +
+                    "fun controlFlow(): Int {\n" +
+                    "    val unused = 1\n" +
+                    "    val x: Int\n" +
+                    "    x = 1\n" +
+                    "    x = 2\n" +
+                    "    return x\n" +
+                    "    x + 1\n" +
+                    "}\n" +
+                    "\n" +
+                    "class C(val x: Int) {\n" +
+                    "    val y = x + z\n" +
+                    "    fun member(s: String?) = s.length\n" +
+                    "    fun local(): Int {\n" +
+                    "        fun local() = member(null) + bar\n" +
+                    "        return local()\n" +
+                    "    }\n" +
+                    "}\n",
+                    getProject()
+            ));
+        }
+
+        List<String> sequential = analyzeAndRenderDiagnostics(files, new BodyResolveSettings());
+        List<String> parallel = analyzeAndRenderDiagnostics(files, new ParallelBodyResolveSettings(4));
+
+        assertFalse(sequential.isEmpty());
+        assertEquals(sequential, parallel);
+    }
+
+    @NotNull
+    private List<String> analyzeAndRenderDiagnostics(@NotNull List<JetFile> files, @NotNull BodyResolveSettings settings) {
+        AnalysisResult result = TopDownAnalyzerFacadeForJVM.analyzeFilesWithJavaIntegrationWithCustomContext(
+                TopDownAnalyzerFacadeForJVM.createContextWithSealedModule(getProject()), files,
+                new CliLightClassGenerationSupport.CliBindingTrace(), null, null, settings
+        );
+
+        // Diagnostics are not sorted, so that the order in which they are recorded is compared as well
+        List<String> rendered = new ArrayList<String>();
+        for (Diagnostic diagnostic : result.getBindingContext().getDiagnostics().all()) {
+            rendered.add(diagnostic.getPsiFile().getName() + DiagnosticUtils.getLineAndColumn(diagnostic) + ": " +
+                         DefaultErrorMessages.render(diagnostic));
+        }
+        return rendered;
+    }
+}
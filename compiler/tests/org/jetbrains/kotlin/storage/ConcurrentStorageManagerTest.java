@@ -0,0 +1,270 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ConcurrentStorageManagerTest extends StorageManagerTest {
+    private static final int THREADS = 8;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        m = new ConcurrentStorageManager();
+    }
+
+    public void testLazyValueComputedOnceByConcurrentCallers() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final NotNullLazyValue<Integer> value = m.createLazyValue(new Function0<Integer>() {
+            @Override
+            public Integer invoke() {
+                sleep();
+                return counter.incrementAndGet();
+            }
+        });
+
+        for (Integer result : invokeConcurrently(value)) {
+            assertEquals(1, result.intValue());
+        }
+        assertEquals(1, counter.get());
+    }
+
+    public void testFunctionComputedOnceByConcurrentCallers() throws Exception {
+        final AtomicInteger counter = new AtomicInteger();
+        final MemoizedFunctionToNotNull<String, Integer> f = m.createMemoizedFunction(new Function1<String, Integer>() {
+            @Override
+            public Integer invoke(String s) {
+                sleep();
+                return counter.incrementAndGet();
+            }
+        });
+
+        List<Integer> results = invokeConcurrently(new Function0<Integer>() {
+            @Override
+            public Integer invoke() {
+                return f.invoke("key");
+            }
+        });
+        for (Integer result : results) {
+            assertEquals(1, result.intValue());
+        }
+        assertEquals(1, counter.get());
+    }
+
+    public void testIndependentValuesAreComputedConcurrently() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        Function0<String> computable = new Function0<String>() {
+            @Override
+            public String invoke() {
+                bothStarted.countDown();
+                await(bothStarted);
+                return "ok";
+            }
+        };
+        final NotNullLazyValue<String> first = m.createLazyValue(computable);
+        final NotNullLazyValue<String> second = m.createLazyValue(computable);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> firstResult = executor.submit(toCallable(first));
+            Future<String> secondResult = executor.submit(toCallable(second));
+            assertEquals("ok", firstResult.get(10, TimeUnit.SECONDS));
+            assertEquals("ok", secondResult.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDependencyCycleBetweenThreadsIsTreatedAsRecursion() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        class C {
+            NotNullLazyValue<String> a = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    bothStarted.countDown();
+                    await(bothStarted);
+                    return "a" + b.invoke();
+                }
+            }, "<a>");
+
+            NotNullLazyValue<String> b = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    bothStarted.countDown();
+                    await(bothStarted);
+                    return "b" + a.invoke();
+                }
+            }, "<b>");
+        }
+        C c = new C();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> aResult = executor.submit(toCallable(c.a));
+            Future<String> bResult = executor.submit(toCallable(c.b));
+            String a = aResult.get(10, TimeUnit.SECONDS);
+            String b = bResult.get(10, TimeUnit.SECONDS);
+            // Either thread may be the one to find the cycle, but both see a consistent result
+            assertTrue(a + " " + b, (a.equals("a<b>") && b.equals("b" + a)) || (b.equals("b<a>") && a.equals("a" + b)));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDependencyCycleThroughMemoizedFunctionIsTreatedAsRecursion() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        class C {
+            NotNullLazyValue<String> lazy = m.createRecursionTolerantLazyValue(new Function0<String>() {
+                @Override
+                public String invoke() {
+                    bothStarted.countDown();
+                    await(bothStarted);
+                    return "l" + f.invoke("key");
+                }
+            }, "<l>");
+
+            MemoizedFunctionToNotNull<String, String> f = m.createMemoizedFunction(new Function1<String, String>() {
+                @Override
+                public String invoke(String key) {
+                    // The first call is the one which owns the key, the call in the cycle is not synchronized with the latch
+                    if (bothStarted.getCount() > 0) {
+                        bothStarted.countDown();
+                        await(bothStarted);
+                    }
+                    return "f" + lazy.invoke();
+                }
+            });
+        }
+        C c = new C();
+        final MemoizedFunctionToNotNull<String, String> f = c.f;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> lazyResult = executor.submit(toCallable(c.lazy));
+            Future<String> functionResult = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return f.invoke("key");
+                }
+            });
+            String lazy = lazyResult.get(10, TimeUnit.SECONDS);
+            String function = functionResult.get(10, TimeUnit.SECONDS);
+            // Whichever thread finds the cycle, the recursion is detected on the lazy value, as it is when it's computed in one thread
+            assertEquals("lf<l>", lazy);
+            assertTrue(function, function.equals("f<l>") || function.equals("f" + lazy));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    public void testDependencyCycleThroughComputeIsBroken() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final NotNullLazyValue<String> value = m.createRecursionTolerantLazyValue(new Function0<String>() {
+            @Override
+            public String invoke() {
+                bothStarted.countDown();
+                await(bothStarted);
+                return m.compute(new Function0<String>() {
+                    @Override
+                    public String invoke() {
+                        return "value";
+                    }
+                });
+            }
+        }, "recursion");
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> valueResult = executor.submit(toCallable(value));
+            Future<String> computeResult = executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return m.compute(new Function0<String>() {
+                        @Override
+                        public String invoke() {
+                            bothStarted.countDown();
+                            await(bothStarted);
+                            return value.invoke();
+                        }
+                    });
+                }
+            });
+            assertEquals("value", valueResult.get(10, TimeUnit.SECONDS));
+            assertEquals("recursion", computeResult.get(10, TimeUnit.SECONDS));
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private static <T> List<T> invokeConcurrently(@NotNull final Function0<T> f) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<T>> futures = new ArrayList<Future<T>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(toCallable(f)));
+            }
+            List<T> results = new ArrayList<T>();
+            for (Future<T> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            return results;
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @NotNull
+    private static <T> Callable<T> toCallable(@NotNull final Function0<T> f) {
+        return new Callable<T>() {
+            @Override
+            public T call() {
+                return f.invoke();
+            }
+        };
+    }
+
+    private static void await(@NotNull CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(50);
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -44,6 +44,7 @@ import org.jetbrains.kotlin.test.JetTestUtils;
 import org.jetbrains.kotlin.tests.di.ContainerForTests;
 import org.jetbrains.kotlin.tests.di.DiPackage;
 import org.jetbrains.kotlin.types.checker.JetTypeChecker;
+import org.jetbrains.kotlin.types.checker.SubtypingCache;
 import org.jetbrains.kotlin.types.expressions.ExpressionTypingServices;
 
 import java.io.File;
@@ -313,6 +314,52 @@ public class JetTypeCheckerTest extends JetLiteFixture {
 //        assertSubtype("java.lang.Integer", "java.lang.Comparable<java.lang.Integer>?");
     }
 
+    public void testProjectionsWithSubtypingCache() throws Exception {
+        SubtypingCache cache = SubtypingCache.install();
+        assertNotNull(cache);
+        try {
+            testProjections();
+            int misses = cache.getMisses();
+            testProjections();
+            assertEquals(misses, cache.getMisses());
+            assertTrue(cache.getHits() > 0);
+        }
+        finally {
+            SubtypingCache.uninstall(cache);
+        }
+    }
+
+    public void testSubstitutionCacheSharesMemberScopes() throws Exception {
+        SubstitutionCache cache = SubstitutionCache.install();
+        assertNotNull(cache);
+        try {
+            JetType listOfString = makeType("List<String>");
+            assertSame(listOfString.getMemberScope(), makeType("List<String>").getMemberScope());
+            assertNotSame(listOfString.getMemberScope(), makeType("List<Int>").getMemberScope());
+            assertNotSame(listOfString.getMemberScope(), makeType("List<String?>").getMemberScope());
+            assertTrue(cache.getHits() > 0);
+        }
+        finally {
+            SubstitutionCache.uninstall(cache);
+        }
+    }
+
+    public void testTypeInterning() throws Exception {
+        TypeInterner interner = TypeInterner.install();
+        assertNotNull(interner);
+        try {
+            JetType mapType = makeType("Map<String, List<Int>>");
+            assertSame(mapType, makeType("Map<String, List<Int>>"));
+            assertSame(mapType.getArguments().get(1), makeType("Map<Int, List<Int>>").getArguments().get(1));
+            assertNotSame(mapType, makeType("Map<String, List<out Int>>"));
+            assertNotSame(mapType, makeType("Map<String, List<Int>?>"));
+            assertTrue(interner.getHits() > 0);
+        }
+        finally {
+            TypeInterner.uninstall(interner);
+        }
+    }
+
     public void testNullable() throws Exception {
         assertSubtype("Any?", "Any?");
         assertSubtype("Any", "Any?");
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import junit.framework.TestCase
+import java.util.HashMap
+import java.util.Random
+
+public class PersistentHashMapTest : TestCase() {
+    private class Key(val id: Int, val hash: Int) {
+        override fun hashCode() = hash
+        override fun equals(other: Any?) = other is Key && other.id == id
+        override fun toString() = "$id#$hash"
+    }
+
+    public fun testUpdatesDoNotChangeOriginal() {
+        val empty = PersistentHashMap.empty<String, Int>()
+        val one = empty.plus("a", 1)
+        val two = one.plus("b", 2)
+        val changed = two.plus("a", 3)
+
+        TestCase.assertEquals(mapOf("a" to 1), one)
+        TestCase.assertEquals(mapOf("a" to 1, "b" to 2), two)
+        TestCase.assertEquals(mapOf("a" to 3, "b" to 2), changed)
+        TestCase.assertSame(two, two.plus("b", 2))
+        TestCase.assertSame(two, two.minus("c"))
+        TestCase.assertEquals(mapOf("b" to 2), two.minus("a"))
+        TestCase.assertTrue(one.minus("a").isEmpty())
+    }
+
+    public fun testRandomOperationsWithCollidingHashes() {
+        val random = Random(42)
+        var map = PersistentHashMap.empty<Key, Int>()
+        val expected = HashMap<Key, Int>()
+
+        for (i in 0..20000) {
+            val id = random.nextInt(2000)
+            // even keys share few hash codes and produce collision nodes, odd ones produce deep tries
+            val key = Key(id, if (id % 2 == 0) id % 37 else id * -1640531527)
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key)
+                expected.remove(key)
+            }
+            else {
+                map = map.plus(key, i)
+                expected[key] = i
+            }
+        }
+
+        TestCase.assertEquals(expected.size(), map.size())
+        TestCase.assertEquals(expected, map)
+        for ((key, value) in expected) {
+            TestCase.assertEquals(value, map[key])
+        }
+    }
+}
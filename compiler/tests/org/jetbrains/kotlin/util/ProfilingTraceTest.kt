@@ -0,0 +1,54 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util
+
+import com.intellij.openapi.util.io.FileUtil
+import junit.framework.TestCase
+import org.jetbrains.kotlin.test.JetTestUtils
+import java.io.File
+
+public class ProfilingTraceTest : TestCase() {
+    public fun testNothingIsRecordedUntilStarted() {
+        TestCase.assertNull(ProfilingTrace.begin("phase", null))
+
+        val file = File(JetTestUtils.tmpDirForTest(this), "trace.json")
+        ProfilingTrace.stopAndWrite(file)
+        TestCase.assertFalse(file.exists())
+    }
+
+    public fun testNestedPhasesOnTwoThreads() {
+        ProfilingTrace.start()
+        ProfilingTrace.phase("outer") {
+            ProfilingTrace.phase("inner", "A \"quoted\" name.kt") {}
+        }
+        val thread = Thread(Runnable { ProfilingTrace.phase("worker phase") {} }, "worker")
+        thread.start()
+        thread.join()
+
+        val file = File(JetTestUtils.tmpDirForTest(this), "trace.json")
+        ProfilingTrace.stopAndWrite(file)
+        TestCase.assertNull(ProfilingTrace.begin("phase", null))
+
+        val text = FileUtil.loadFile(file)
+        TestCase.assertTrue(text, text.startsWith("{\"traceEvents\": ["))
+        TestCase.assertTrue(text, text.contains("\"name\": \"outer\", \"ph\": \"X\""))
+        TestCase.assertTrue(text, text.contains("\"detail\": \"A \\\"quoted\\\" name.kt\""))
+        TestCase.assertTrue(text, text.contains("\"name\": \"worker phase\", \"ph\": \"X\", \"pid\": 1, \"tid\": ${thread.getId()}"))
+        TestCase.assertTrue(text, text.contains("\"tid\": ${thread.getId()}, \"args\": {\"name\": \"worker\"}"))
+        TestCase.assertTrue(text, text.trim().endsWith("]}}"))
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.util.slicedMap;
+
+import junit.framework.TestCase;
+
+import java.util.*;
+
+public class ColumnarSlicedMapTest extends TestCase {
+    // All keys of the same bucket have the same hash code, so that they are placed into one probe sequence
+    private static class CollidingKey {
+        private final int bucket;
+        private final int id;
+
+        CollidingKey(int bucket, int id) {
+            this.bucket = bucket;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof CollidingKey && ((CollidingKey) o).bucket == bucket && ((CollidingKey) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return bucket;
+        }
+
+        @Override
+        public String toString() {
+            return bucket + ":" + id;
+        }
+    }
+
+    private static <K, V> RemovableSlice<K, V> createSlice() {
+        return new Slices.SliceWithOpposite<K, V>(RewritePolicy.DO_NOTHING, null);
+    }
+
+    public void testCollidingKeys() {
+        RemovableSlice<CollidingKey, Integer> slice = createSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+
+        for (int i = 0; i < 20; i++) {
+            map.put(slice, new CollidingKey(1, i), i);
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(Integer.valueOf(i), map.get(slice, new CollidingKey(1, i)));
+        }
+        assertNull(map.get(slice, new CollidingKey(1, 20)));
+
+        // removal from the middle of the probe sequence must keep the following entries reachable
+        for (int i = 0; i < 20; i += 3) {
+            assertEquals(Integer.valueOf(i), map.remove(slice, new CollidingKey(1, i)));
+        }
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i % 3 == 0 ? null : Integer.valueOf(i), map.get(slice, new CollidingKey(1, i)));
+        }
+        assertNull(map.remove(slice, new CollidingKey(1, 0)));
+
+        map.put(slice, new CollidingKey(1, 3), 33);
+        map.put(slice, new CollidingKey(1, 4), 44);
+        assertEquals(Integer.valueOf(33), map.get(slice, new CollidingKey(1, 3)));
+        assertEquals(Integer.valueOf(44), map.get(slice, new CollidingKey(1, 4)));
+    }
+
+    public void testNullKey() {
+        RemovableSlice<String, String> slice = createSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+
+        map.put(slice, null, "null");
+        map.put(slice, "a", "a");
+        assertEquals("null", map.get(slice, null));
+        assertEquals("null", map.remove(slice, null));
+        assertNull(map.get(slice, null));
+        assertEquals("a", map.get(slice, "a"));
+    }
+
+    public void testSameKeyInDifferentSlices() {
+        RemovableSlice<String, Integer> first = createSlice();
+        RemovableSlice<String, Integer> second = createSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+
+        map.put(first, "a", 1);
+        map.put(second, "a", 2);
+        assertEquals(Integer.valueOf(1), map.get(first, "a"));
+        assertEquals(Integer.valueOf(2), map.get(second, "a"));
+
+        map.remove(first, "a");
+        assertNull(map.get(first, "a"));
+        assertEquals(Integer.valueOf(2), map.get(second, "a"));
+    }
+
+    // random operations with few buckets, so that both resizes and long probe sequences happen, compared with SlicedMapImpl
+    public void testRandomOperationsWithResize() {
+        RemovableSlice<CollidingKey, Integer> slice = createSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+        MutableSlicedMap expected = SlicedMapImpl.create();
+
+        Random random = new Random(42);
+        for (int step = 0; step < 20000; step++) {
+            CollidingKey key = new CollidingKey(random.nextInt(50), random.nextInt(40));
+            if (random.nextInt(3) == 0) {
+                assertEquals(key.toString(), expected.remove(slice, key), map.remove(slice, key));
+            }
+            else {
+                map.put(slice, key, step);
+                expected.put(slice, key, step);
+            }
+            if (step % 1000 == 0) {
+                assertEquals(expected.getSliceContents(slice), map.getSliceContents(slice));
+            }
+        }
+        assertEquals(expected.getSliceContents(slice), map.getSliceContents(slice));
+        for (Map.Entry<CollidingKey, Integer> entry : expected.getSliceContents(slice).entrySet()) {
+            assertEquals(entry.getValue(), map.get(slice, entry.getKey()));
+        }
+    }
+
+    public void testSetSliceFlags() {
+        RemovableSlice<CollidingKey, Boolean> slice = Slices.createRemovableSetSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+
+        // flags are packed into bits, 200 keys span several words and resizes
+        for (int i = 0; i < 200; i++) {
+            map.put(slice, new CollidingKey(i % 7, i), i % 2 == 0);
+        }
+        for (int i = 0; i < 200; i++) {
+            assertEquals(Boolean.valueOf(i % 2 == 0), map.get(slice, new CollidingKey(i % 7, i)));
+        }
+        assertEquals(Boolean.FALSE, map.get(slice, new CollidingKey(0, 200)));
+
+        for (int i = 0; i < 200; i += 5) {
+            assertEquals(Boolean.valueOf(i % 2 == 0), map.remove(slice, new CollidingKey(i % 7, i)));
+        }
+        for (int i = 1; i < 200; i += 5) {
+            map.put(slice, new CollidingKey(i % 7, i), true);
+        }
+
+        Map<CollidingKey, Boolean> contents = map.getSliceContents(slice);
+        assertEquals(160, contents.size());
+        for (int i = 0; i < 200; i++) {
+            CollidingKey key = new CollidingKey(i % 7, i);
+            if (i % 5 == 0) {
+                assertFalse(contents.containsKey(key));
+            }
+            else {
+                assertEquals(Boolean.valueOf(i % 2 == 0 || i % 5 == 1), contents.get(key));
+                assertEquals(contents.get(key), map.get(slice, key));
+            }
+        }
+    }
+
+    public void testGetKeys() {
+        WritableSlice<String, Integer> collective = Slices.createCollectiveSlice();
+        WritableSlice<String, Boolean> collectiveSet = Slices.createCollectiveSetSlice();
+        ColumnarSlicedMap map = ColumnarSlicedMap.create();
+
+        assertTrue(map.getKeys(collective).isEmpty());
+
+        map.put(collective, "a", 1);
+        map.put(collective, "b", 2);
+        map.put(collectiveSet, "c", true);
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<String>(map.getKeys(collective)));
+        assertEquals(Collections.singletonList("c"), new ArrayList<String>(map.getKeys(collectiveSet)));
+
+        map.clear();
+        assertTrue(map.getKeys(collective).isEmpty());
+        assertNull(map.get(collective, "a"));
+    }
+}
@@ -93,6 +93,11 @@ public abstract class AbstractClassDescriptor implements ClassDescriptor {
         List<TypeParameterDescriptor> typeParameters = getTypeConstructor().getParameters();
         Map<TypeConstructor, TypeProjection> substitutionContext = TypeSubstitutor.buildSubstitutionContext(typeParameters, typeArguments);
 
+        SubstitutionCache cache = SubstitutionCache.getCurrent();
+        if (cache != null) {
+            return cache.getSubstitutingScope(getUnsubstitutedMemberScope(), substitutionContext);
+        }
+
         TypeSubstitutor substitutor = TypeSubstitutor.create(substitutionContext);
         return new SubstitutingScope(getUnsubstitutedMemberScope(), substitutor);
     }
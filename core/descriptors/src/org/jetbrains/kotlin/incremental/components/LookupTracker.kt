@@ -0,0 +1,34 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.incremental.components
+
+// Receives name lookups made while resolving source files, so that the files depending on a changed declaration can be found
+// scopeFqName is the fully qualified name of the package or the class in whose scope the name was looked up
+public trait LookupTracker {
+    public val requiresTracking: Boolean get() = true
+
+    public fun record(lookupContainingFile: String, scopeFqName: String, name: String)
+
+    companion object {
+        public val DO_NOTHING: LookupTracker = object : LookupTracker {
+            override val requiresTracking: Boolean get() = false
+
+            override fun record(lookupContainingFile: String, scopeFqName: String, name: String) {
+            }
+        }
+    }
+}
@@ -24,27 +24,32 @@ import org.jetbrains.kotlin.types.JetType
 import org.jetbrains.kotlin.types.TypeSubstitutor
 import org.jetbrains.kotlin.utils.Printer
 import org.jetbrains.kotlin.utils.newHashSetWithExpectedSize
-import java.util.HashMap
-import kotlin.properties.Delegates
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
 
 public class SubstitutingScope(private val workerScope: JetScope, private val substitutor: TypeSubstitutor) : JetScope {
 
-    private var substitutedDescriptors: MutableMap<DeclarationDescriptor, DeclarationDescriptor?>? = null
+    // Scopes of shared types are used by several threads under parallel body resolve, so each descriptor is substituted
+    // into a single descriptor, the one that is put into the map first
+    private val substitutedDescriptors: ConcurrentMap<DeclarationDescriptor, Any>? =
+            if (substitutor.isEmpty()) null else ConcurrentHashMap<DeclarationDescriptor, Any>(16, 0.75f, 1)
 
-    private val _allDescriptors by Delegates.lazy { substitute(workerScope.getDescriptors()) }
+    // Threads may compute it concurrently, but the results are the same since descriptors are substituted only once
+    private volatile var _allDescriptors: Collection<DeclarationDescriptor>? = null
 
     private fun <D : DeclarationDescriptor> substitute(descriptor: D?): D? {
         if (descriptor == null) return null
         if (substitutor.isEmpty()) return descriptor
 
-        if (substitutedDescriptors == null) {
-            substitutedDescriptors = HashMap<DeclarationDescriptor, DeclarationDescriptor?>()
+        val map = substitutedDescriptors!!
+        var substituted = map.get(descriptor)
+        if (substituted == null) {
+            val newSubstituted = descriptor.substitute(substitutor) ?: NO_SUBSTITUTION
+            substituted = map.putIfAbsent(descriptor, newSubstituted) ?: newSubstituted
         }
 
-        val substituted = substitutedDescriptors!!.getOrPut(descriptor, { descriptor.substitute(substitutor) })
-
         @suppress("UNCHECKED_CAST")
-        return substituted as D?
+        return (if (substituted === NO_SUBSTITUTION) null else substituted) as D?
     }
 
     private fun <D : DeclarationDescriptor> substitute(descriptors: Collection<D>): Collection<D> {
@@ -87,7 +92,14 @@ public class SubstitutingScope(private val workerScope: JetScope, private val su
     }
 
     override fun getDescriptors(kindFilter: DescriptorKindFilter,
-                                nameFilter: (Name) -> Boolean) = _allDescriptors
+                                nameFilter: (Name) -> Boolean): Collection<DeclarationDescriptor> {
+        var result = _allDescriptors
+        if (result == null) {
+            result = substitute(workerScope.getDescriptors())
+            _allDescriptors = result
+        }
+        return result
+    }
 
     override fun getOwnDeclaredDescriptors() = substitute(workerScope.getOwnDeclaredDescriptors())
 
@@ -107,3 +119,6 @@ public class SubstitutingScope(private val workerScope: JetScope, private val su
         p.println("}")
     }
 }
+
+// Marks descriptors that are substituted to null, since ConcurrentMap doesn't allow null values
+private val NO_SUBSTITUTION = Any()
@@ -33,7 +33,7 @@ public abstract class AbstractJetType implements JetType {
     }
 
     @Override
-    public final int hashCode() {
+    public int hashCode() {
         int result = getConstructor().hashCode();
         result = 31 * result + getArguments().hashCode();
         result = 31 * result + (isMarkedNullable() ? 1 : 0);
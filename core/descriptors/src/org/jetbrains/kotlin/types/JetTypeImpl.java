@@ -29,6 +29,8 @@ public final class JetTypeImpl extends AbstractJetType {
     private final boolean nullable;
     private final JetScope memberScope;
     private final Annotations annotations;
+    // 0 means not computed yet, as in String: a single field is either unset or holds the whole cached value in any thread
+    private int hashCode;
 
     public JetTypeImpl(
             @NotNull Annotations annotations,
@@ -83,4 +85,31 @@ public final class JetTypeImpl extends AbstractJetType {
     public boolean isError() {
         return false;
     }
+
+    @Override
+    public int hashCode() {
+        int result = hashCode;
+        if (result != 0) return result;
+
+        result = super.hashCode();
+        // Hash codes of deferred and other delegating types change while they are being computed
+        if (hasStableHashCode(this)) {
+            hashCode = result;
+        }
+        return result;
+    }
+
+    private static boolean hasStableHashCode(@NotNull JetType type) {
+        if (type instanceof JetTypeImpl) {
+            if (((JetTypeImpl) type).hashCode != 0) return true;
+        }
+        else if (!(type instanceof LazyType) || type instanceof DelegatingType) {
+            return false;
+        }
+
+        for (TypeProjection argument : type.getArguments()) {
+            if (!argument.isStarProjection() && !hasStableHashCode(argument.getType())) return false;
+        }
+        return true;
+    }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.resolve.scopes.JetScope;
+import org.jetbrains.kotlin.resolve.scopes.SubstitutingScope;
+import org.jetbrains.kotlin.types.checker.SubtypingCache;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Substituting member scopes created on the current thread while the cache is installed, shared between equal substitutions
+ * of the same scope, so that members of e.g. {@code List<String>} are substituted once and not for every occurrence of the type.
+ *
+ * A substitution is cached only if all its types are cacheable by {@link SubtypingCache} and have no annotations,
+ * because equal types with different annotations (e.g. extension function types) must not share substituted descriptors.
+ * The cache is cleared when it reaches its size limit.
+ */
+public class SubstitutionCache {
+    private static final int MAX_SIZE = 1 << 14;
+
+    private static final ThreadLocal<SubstitutionCache> CURRENT = new ThreadLocal<SubstitutionCache>();
+
+    @Nullable
+    public static SubstitutionCache getCurrent() {
+        return CURRENT.get();
+    }
+
+    // Returns null if a cache is already installed on this thread or the cache is disabled
+    @Nullable
+    public static SubstitutionCache install() {
+        if (CURRENT.get() != null || Boolean.getBoolean("kotlin.substitution.cache.disabled")) return null;
+
+        SubstitutionCache cache = new SubstitutionCache();
+        CURRENT.set(cache);
+        return cache;
+    }
+
+    public static void uninstall(@NotNull SubstitutionCache cache) {
+        assert CURRENT.get() == cache : "Another substitution cache is installed: " + CURRENT.get();
+        CURRENT.remove();
+    }
+
+    private final Map<Key, JetScope> scopes = new HashMap<Key, JetScope>();
+    private int hits = 0;
+    private int misses = 0;
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    @NotNull
+    public JetScope getSubstitutingScope(@NotNull JetScope workerScope, @NotNull Map<TypeConstructor, TypeProjection> substitutionContext) {
+        if (!isCacheable(substitutionContext.values())) {
+            return new SubstitutingScope(workerScope, TypeSubstitutor.create(substitutionContext));
+        }
+
+        Key key = new Key(workerScope, substitutionContext);
+        JetScope cached = scopes.get(key);
+        if (cached != null) {
+            hits++;
+            return cached;
+        }
+
+        misses++;
+        JetScope scope = new SubstitutingScope(workerScope, TypeSubstitutor.create(substitutionContext));
+        if (scopes.size() >= MAX_SIZE) {
+            scopes.clear();
+        }
+        scopes.put(key, scope);
+        return scope;
+    }
+
+    private static boolean isCacheable(@NotNull Collection<TypeProjection> projections) {
+        for (TypeProjection projection : projections) {
+            if (!projection.isStarProjection() && !isCacheable(projection.getType())) return false;
+        }
+        return true;
+    }
+
+    private static boolean isCacheable(@NotNull JetType type) {
+        return SubtypingCache.isCacheable(type) && hasNoAnnotations(type);
+    }
+
+    private static boolean hasNoAnnotations(@NotNull JetType type) {
+        if (!type.getAnnotations().isEmpty()) return false;
+
+        for (TypeProjection argument : type.getArguments()) {
+            if (!argument.isStarProjection() && !hasNoAnnotations(argument.getType())) return false;
+        }
+        return true;
+    }
+
+    private static class Key {
+        private final JetScope workerScope;
+        private final Map<TypeConstructor, TypeProjection> substitutionContext;
+        private final int hashCode;
+
+        Key(@NotNull JetScope workerScope, @NotNull Map<TypeConstructor, TypeProjection> substitutionContext) {
+            this.workerScope = workerScope;
+            this.substitutionContext = substitutionContext;
+            this.hashCode = 31 * System.identityHashCode(workerScope) + substitutionContext.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return hashCode == other.hashCode && workerScope == other.workerScope &&
+                   substitutionContext.equals(other.substitutionContext) &&
+                   haveSameConstructors(substitutionContext, other.substitutionContext);
+        }
+
+        // equal substitutions may still refer to different classes with the same name, see TypeUtils.haveSameConstructors
+        private static boolean haveSameConstructors(
+                @NotNull Map<TypeConstructor, TypeProjection> context1,
+                @NotNull Map<TypeConstructor, TypeProjection> context2
+        ) {
+            for (Map.Entry<TypeConstructor, TypeProjection> entry : context1.entrySet()) {
+                TypeProjection projection1 = entry.getValue();
+                TypeProjection projection2 = context2.get(entry.getKey());
+                if (projection2 == null || projection1.isStarProjection() != projection2.isStarProjection()) return false;
+                if (!projection1.isStarProjection() && !TypeUtils.haveSameConstructors(projection1.getType(), projection2.getType())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
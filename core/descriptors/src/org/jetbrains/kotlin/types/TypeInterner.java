@@ -0,0 +1,121 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.types;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.types.checker.SubtypingCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Canonical instances of equal types and type projections created on the current thread while the interner is installed.
+ *
+ * Only {@link JetTypeImpl} types without annotations whose arguments are cacheable by {@link SubtypingCache} are interned:
+ * annotations are not a part of type equality, and types of other kinds may change while they are being computed.
+ * Interned instances are kept until the interner is uninstalled or reaches its size limit, when it is cleared.
+ */
+public class TypeInterner {
+    private static final int MAX_SIZE = 1 << 16;
+
+    private static final ThreadLocal<TypeInterner> CURRENT = new ThreadLocal<TypeInterner>();
+
+    @Nullable
+    public static TypeInterner getCurrent() {
+        return CURRENT.get();
+    }
+
+    // Returns null if an interner is already installed on this thread or interning is disabled
+    @Nullable
+    public static TypeInterner install() {
+        if (CURRENT.get() != null || Boolean.getBoolean("kotlin.type.interning.disabled")) return null;
+
+        TypeInterner interner = new TypeInterner();
+        CURRENT.set(interner);
+        return interner;
+    }
+
+    public static void uninstall(@NotNull TypeInterner interner) {
+        assert CURRENT.get() == interner : "Another type interner is installed: " + CURRENT.get();
+        CURRENT.remove();
+    }
+
+    private final Map<JetType, JetType> types = new HashMap<JetType, JetType>();
+    private final Map<TypeProjection, TypeProjection> projections = new HashMap<TypeProjection, TypeProjection>();
+    private int hits = 0;
+    private int misses = 0;
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    @NotNull
+    public JetType intern(@NotNull JetType type) {
+        if (!(type instanceof JetTypeImpl) || !isInternable(type)) return type;
+
+        JetType interned = types.get(type);
+        if (interned != null && TypeUtils.haveSameConstructors(interned, type)) {
+            hits++;
+            return interned;
+        }
+
+        misses++;
+        if (types.size() >= MAX_SIZE) {
+            types.clear();
+        }
+        types.put(type, type);
+        return type;
+    }
+
+    @NotNull
+    public TypeProjection intern(@NotNull TypeProjection projection) {
+        if (!(projection instanceof TypeProjectionImpl) || !isInternable(projection.getType())) return projection;
+
+        TypeProjection interned = projections.get(projection);
+        if (interned != null && TypeUtils.haveSameConstructors(interned.getType(), projection.getType())) {
+            hits++;
+            return interned;
+        }
+
+        misses++;
+        if (projections.size() >= MAX_SIZE) {
+            projections.clear();
+        }
+        JetType type = intern(projection.getType());
+        TypeProjection result = type == projection.getType() ? projection : new TypeProjectionImpl(projection.getProjectionKind(), type);
+        projections.put(result, result);
+        return result;
+    }
+
+    private static boolean isInternable(@NotNull JetType type) {
+        return SubtypingCache.isCacheable(type) && hasNoAnnotations(type);
+    }
+
+    private static boolean hasNoAnnotations(@NotNull JetType type) {
+        if (!type.getAnnotations().isEmpty()) return false;
+
+        for (TypeProjection argument : type.getArguments()) {
+            if (!argument.isStarProjection() && !hasNoAnnotations(argument.getType())) return false;
+        }
+        return true;
+    }
+}
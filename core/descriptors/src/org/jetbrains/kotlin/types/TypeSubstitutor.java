@@ -22,6 +22,7 @@ import org.jetbrains.kotlin.builtins.KotlinBuiltIns;
 import org.jetbrains.kotlin.descriptors.TypeParameterDescriptor;
 import org.jetbrains.kotlin.descriptors.annotations.CompositeAnnotations;
 import org.jetbrains.kotlin.resolve.calls.inference.InferencePackage;
+import org.jetbrains.kotlin.resolve.scopes.JetScope;
 import org.jetbrains.kotlin.resolve.scopes.SubstitutingScope;
 import org.jetbrains.kotlin.types.typeUtil.TypeUtilPackage;
 import org.jetbrains.kotlin.types.typesApproximation.TypesApproximationPackage;
@@ -256,10 +257,9 @@ public class TypeSubstitutor {
 
         // Only type parameters of the corresponding class (or captured type parameters of outer declaration) are substituted
         // e.g. for return type Foo of 'add(..)' in 'class Foo { fun <R> add(bar: Bar<R>): Foo }' R shouldn't be substituted in the scope
+        final Collection<TypeConstructor> containedOrCapturedTypeParameters =
+                TypeUtilPackage.getContainedAndCapturedTypeParameterConstructors(type);
         TypeSubstitution substitutionFilteringTypeParameters = new TypeSubstitution() {
-            private final Collection<TypeConstructor> containedOrCapturedTypeParameters =
-                    TypeUtilPackage.getContainedAndCapturedTypeParameterConstructors(type);
-
             @Nullable
             @Override
             public TypeProjection get(TypeConstructor key) {
@@ -275,8 +275,35 @@ public class TypeSubstitutor {
                                            type.getConstructor(),   // The same constructor
                                            type.isMarkedNullable(),       // Same nullability
                                            substitutedArguments,
-                                           new SubstitutingScope(type.getMemberScope(), create(substitutionFilteringTypeParameters)));
-        return new TypeProjectionImpl(projectionKind, substitutedType);
+                                           substituteMemberScope(type, containedOrCapturedTypeParameters, substitutionFilteringTypeParameters));
+        TypeProjection result = new TypeProjectionImpl(projectionKind, substitutedType);
+        TypeInterner interner = TypeInterner.getCurrent();
+        return interner != null ? interner.intern(result) : result;
+    }
+
+    @NotNull
+    private static JetScope substituteMemberScope(
+            @NotNull JetType type,
+            @NotNull Collection<TypeConstructor> containedOrCapturedTypeParameters,
+            @NotNull TypeSubstitution substitutionFilteringTypeParameters
+    ) {
+        SubstitutionCache cache = SubstitutionCache.getCurrent();
+        if (cache == null) {
+            return new SubstitutingScope(type.getMemberScope(), create(substitutionFilteringTypeParameters));
+        }
+
+        // Equal substitutions of the contained type parameters share the substituted scope
+        Map<TypeConstructor, TypeProjection> substitutionContext = new HashMap<TypeConstructor, TypeProjection>();
+        for (TypeConstructor typeParameter : containedOrCapturedTypeParameters) {
+            TypeProjection projection = substitutionFilteringTypeParameters.get(typeParameter);
+            if (projection != null) {
+                substitutionContext.put(typeParameter, projection);
+            }
+        }
+        if (substitutionContext.isEmpty()) {
+            return new SubstitutingScope(type.getMemberScope(), create(substitutionFilteringTypeParameters));
+        }
+        return cache.getSubstitutingScope(type.getMemberScope(), substitutionContext);
     }
 
     private List<TypeProjection> substituteTypeArguments(
@@ -535,6 +535,29 @@ public class TypeUtils {
         return JetTypeChecker.DEFAULT.isSubtypeOf(a, b) && JetTypeChecker.DEFAULT.isSubtypeOf(b, a);
     }
 
+    /**
+     * Equal types may refer to different classes with the same name, e.g. from different modules: caches keyed by types
+     * have to check that equal types are made of the same type constructors
+     */
+    public static boolean haveSameConstructors(@NotNull JetType a, @NotNull JetType b) {
+        if (a == b) return true;
+        if (a.getConstructor() != b.getConstructor()) return false;
+
+        List<TypeProjection> argumentsA = a.getArguments();
+        List<TypeProjection> argumentsB = b.getArguments();
+        if (argumentsA.size() != argumentsB.size()) return false;
+        for (int i = 0; i < argumentsA.size(); i++) {
+            TypeProjection argumentA = argumentsA.get(i);
+            TypeProjection argumentB = argumentsB.get(i);
+            if (argumentA.isStarProjection() || argumentB.isStarProjection()) {
+                if (argumentA.isStarProjection() != argumentB.isStarProjection()) return false;
+                continue;
+            }
+            if (!haveSameConstructors(argumentA.getType(), argumentB.getType())) return false;
+        }
+        return true;
+    }
+
     public static boolean dependsOnTypeParameters(@NotNull JetType type, @NotNull Collection<TypeParameterDescriptor> typeParameters) {
         return dependsOnTypeConstructors(type, KotlinPackage.map(
                 typeParameters,
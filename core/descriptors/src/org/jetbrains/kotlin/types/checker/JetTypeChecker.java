@@ -26,21 +26,21 @@ public class JetTypeChecker {
         boolean equals(@NotNull TypeConstructor a, @NotNull TypeConstructor b);
     }
 
-    public static final JetTypeChecker DEFAULT = new JetTypeChecker(new TypeCheckingProcedure(new TypeCheckerProcedureCallbacksImpl()));
+    public static final JetTypeChecker DEFAULT = new JetTypeChecker(new TypeCheckingProcedure(new TypeCheckerProcedureCallbacksImpl()), true);
 
     public static final JetTypeChecker ERROR_TYPES_ARE_EQUAL_TO_ANYTHING = new JetTypeChecker(new TypeCheckingProcedure(new TypeCheckerProcedureCallbacksImpl() {
         @Override
         public boolean assertEqualTypes(@NotNull JetType a, @NotNull JetType b, @NotNull TypeCheckingProcedure typeCheckingProcedure) {
             return a.isError() || b.isError() || super.assertEqualTypes(a, b, typeCheckingProcedure);
         }
-    }));
+    }), false);
 
     public static final JetTypeChecker FLEXIBLE_UNEQUAL_TO_INFLEXIBLE = new JetTypeChecker(new TypeCheckingProcedure(new TypeCheckerProcedureCallbacksImpl()) {
         @Override
         protected boolean heterogeneousEquivalence(JetType inflexibleType, JetType flexibleType) {
             return false;
         }
-    });
+    }, false);
 
     @NotNull
     public static JetTypeChecker withAxioms(@NotNull final TypeConstructorEquality equalityAxioms) {
@@ -49,16 +49,25 @@ public class JetTypeChecker {
             public boolean assertEqualTypeConstructors(@NotNull TypeConstructor constructor1, @NotNull TypeConstructor constructor2) {
                 return constructor1.equals(constructor2) || equalityAxioms.equals(constructor1, constructor2);
             }
-        }));
+        }), false);
     }
 
     private final TypeCheckingProcedure procedure;
+    // results of the procedure depend only on the types, so they may be reused from SubtypingCache
+    private final boolean cacheable;
 
-    private JetTypeChecker(@NotNull TypeCheckingProcedure procedure) {
+    private JetTypeChecker(@NotNull TypeCheckingProcedure procedure, boolean cacheable) {
         this.procedure = procedure;
+        this.cacheable = cacheable;
     }
 
     public boolean isSubtypeOf(@NotNull JetType subtype, @NotNull JetType supertype) {
+        if (cacheable) {
+            SubtypingCache cache = SubtypingCache.getCurrent();
+            if (cache != null) {
+                return cache.isSubtypeOf(subtype, supertype, procedure);
+            }
+        }
         return procedure.isSubtypeOf(subtype, supertype);
     }
 
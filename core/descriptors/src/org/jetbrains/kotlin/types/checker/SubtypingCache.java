@@ -0,0 +1,139 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.types.checker;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.resolve.calls.inference.CapturedTypeConstructor;
+import org.jetbrains.kotlin.types.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Results of {@link JetTypeChecker#DEFAULT} subtype checks made on the current thread while the cache is installed.
+ *
+ * Only plain and deserialized types are cached: flexible, error, captured and delegating types (and types with such arguments)
+ * are checked every time, because their meaning may depend on the context of the check or change while they are being computed.
+ * The cache is cleared when it reaches its size limit.
+ */
+public class SubtypingCache {
+    private static final int MAX_SIZE = 1 << 16;
+
+    private static final ThreadLocal<SubtypingCache> CURRENT = new ThreadLocal<SubtypingCache>();
+
+    @Nullable
+    public static SubtypingCache getCurrent() {
+        return CURRENT.get();
+    }
+
+    // Returns null if a cache is already installed on this thread or the cache is disabled
+    @Nullable
+    public static SubtypingCache install() {
+        if (CURRENT.get() != null || Boolean.getBoolean("kotlin.subtyping.cache.disabled")) return null;
+
+        SubtypingCache cache = new SubtypingCache();
+        CURRENT.set(cache);
+        return cache;
+    }
+
+    public static void uninstall(@NotNull SubtypingCache cache) {
+        assert CURRENT.get() == cache : "Another subtyping cache is installed: " + CURRENT.get();
+        CURRENT.remove();
+    }
+
+    private final Map<Key, Boolean> results = new HashMap<Key, Boolean>();
+    private int hits = 0;
+    private int misses = 0;
+
+    public int getHits() {
+        return hits;
+    }
+
+    public int getMisses() {
+        return misses;
+    }
+
+    boolean isSubtypeOf(@NotNull JetType subtype, @NotNull JetType supertype, @NotNull TypeCheckingProcedure procedure) {
+        if (!isCacheable(subtype) || !isCacheable(supertype)) {
+            return procedure.isSubtypeOf(subtype, supertype);
+        }
+
+        Key key = new Key(subtype, supertype);
+        Boolean cached = results.get(key);
+        if (cached != null) {
+            hits++;
+            return cached;
+        }
+
+        misses++;
+        boolean result = procedure.isSubtypeOf(subtype, supertype);
+        if (results.size() >= MAX_SIZE) {
+            results.clear();
+        }
+        results.put(key, result);
+        return result;
+    }
+
+    public static boolean isCacheable(@NotNull JetType type) {
+        // flexible, captured and deferred types are delegating types
+        if (type instanceof DelegatingType) return false;
+        if (!(type instanceof JetTypeImpl) && !(type instanceof LazyType)) return false;
+        if (type.isError() || type.getConstructor() instanceof CapturedTypeConstructor) return false;
+
+        for (TypeProjection argument : type.getArguments()) {
+            if (!argument.isStarProjection() && !isCacheable(argument.getType())) return false;
+        }
+        return true;
+    }
+
+    private static class Key {
+        private final JetType subtype;
+        private final JetType supertype;
+        private final int hashCode;
+
+        Key(@NotNull JetType subtype, @NotNull JetType supertype) {
+            this.subtype = subtype;
+            this.supertype = supertype;
+            this.hashCode = 31 * hash(subtype) + hash(supertype);
+        }
+
+        // Types with equal but different constructors (e.g. the same class seen from different modules) get different hash codes
+        private static int hash(@NotNull JetType type) {
+            return 31 * type.hashCode() + System.identityHashCode(type.getConstructor());
+        }
+
+        // Interned types are usually the same instances, so the structural comparison is rarely needed
+        private static boolean isSame(@NotNull JetType a, @NotNull JetType b) {
+            return a == b || (a.equals(b) && TypeUtils.haveSameConstructors(a, b));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key other = (Key) o;
+            return hashCode == other.hashCode && isSame(subtype, other.subtype) && isSame(supertype, other.supertype);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
@@ -101,4 +101,86 @@ public class Ref {
             return String.valueOf(element);
         }
     }
+
+    // The Refs above with volatile elements are kept for code compiled by older compilers, shared variables now use the ones below
+    public static final class NonVolatileObjectRef<T> {
+        public T element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileByteRef {
+        public byte element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileShortRef {
+        public short element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileIntRef {
+        public int element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileLongRef {
+        public long element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileFloatRef {
+        public float element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileDoubleRef {
+        public double element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileCharRef {
+        public char element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
+
+    public static final class NonVolatileBooleanRef {
+        public boolean element;
+
+        @Override
+        public String toString() {
+            return String.valueOf(element);
+        }
+    }
 }
@@ -0,0 +1,604 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.storage;
+
+import kotlin.Pair;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function0;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.storage.LockBasedStorageManager.ExceptionHandlingStrategy;
+import org.jetbrains.kotlin.utils.WrappedValues;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A storage manager which, unlike {@link LockBasedStorageManager}, does not compute all values under one lock.
+ * Each lazy value and each key of a memoized function is owned by the thread computing it, other threads asking for it
+ * wait only for this particular computation, so independent declarations can be resolved in several threads at once.
+ *
+ * Threads waiting for computations owned by other threads form a waits-for graph. A wait that would close a cycle in it
+ * means that the computations depend on each other, i.e. the same code run in one thread would recursively call a value
+ * that is being computed. Such a wait is not performed: the value is treated as recursive, the same way
+ * {@link LockBasedStorageManager} treats recursion in one thread.
+ *
+ * {@link #compute} is reentrant and mutually exclusive for all threads, as it is in {@link LockBasedStorageManager}.
+ *
+ * There's no global lock on the common path: a value is claimed under its own monitor (or with {@code putIfAbsent} for a memoized
+ * function), and threads wait for a computation on the monitor of this computation. The waits-for graph is guarded by a separate lock,
+ * which is only taken by threads which have to wait, and by owners of computations which have waiters when they finish.
+ */
+public class ConcurrentStorageManager implements StorageManager {
+    @NotNull
+    public static ConcurrentStorageManager createWithExceptionHandling(@NotNull ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        return new ConcurrentStorageManager(getPointOfConstruction(), exceptionHandlingStrategy);
+    }
+
+    private final ExceptionHandlingStrategy exceptionHandlingStrategy;
+    private final String debugText;
+
+    // Guards the waits-for graph. Owners of computations which have waiters are changed only under this lock,
+    // so the graph doesn't change while a waiting thread looks for a cycle in it
+    private final Object graphLock = new Object();
+    private final Map<Thread, Computation> waitingFor = new HashMap<Thread, Computation>();
+    private final Set<Thread> abandonedWaits = Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    private final Computation computeLock = new Computation(null, false);
+
+    // Memoized functions and their inputs which the current thread computes without storing, because of a dependency cycle
+    private final ThreadLocal<Set<Pair<Object, Object>>> inputsComputedInCycle = new ThreadLocal<Set<Pair<Object, Object>>>() {
+        @Override
+        protected Set<Pair<Object, Object>> initialValue() {
+            return new HashSet<Pair<Object, Object>>();
+        }
+    };
+
+    private ConcurrentStorageManager(@NotNull String debugText, @NotNull ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        this.exceptionHandlingStrategy = exceptionHandlingStrategy;
+        this.debugText = debugText;
+    }
+
+    public ConcurrentStorageManager() {
+        this(getPointOfConstruction(), ExceptionHandlingStrategy.THROW);
+    }
+
+    private static String getPointOfConstruction() {
+        StackTraceElement[] trace = Thread.currentThread().getStackTrace();
+        // we need to skip frames for getStackTrace(), this method and the constructor that's calling it
+        if (trace.length <= 3) return "<unknown creating class>";
+        return trace[3].toString();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "@" + Integer.toHexString(hashCode()) + " (" + debugText + ")";
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunction(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNotNull<K, V> createMemoizedFunction(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunctionToNotNull<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(@NotNull Function1<? super K, ? extends V> compute) {
+        return createMemoizedFunctionWithNullableValues(compute, ConcurrentStorageManager.<K>createConcurrentHashMap());
+    }
+
+    @NotNull
+    @Override
+    public <K, V> MemoizedFunctionToNullable<K, V> createMemoizedFunctionWithNullableValues(
+            @NotNull Function1<? super K, ? extends V> compute,
+            @NotNull ConcurrentMap<K, Object> map
+    ) {
+        return new MapBasedMemoizedFunction<K, V>(map, compute);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentNotNullLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createRecursionTolerantLazyValue(
+            @NotNull Function0<? extends T> computable, @NotNull final T onRecursiveCall
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NotNullLazyValue<T> createLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable,
+            final Function1<? super Boolean, ? extends T> onRecursiveCall,
+            @NotNull final Function1<? super T, ? extends Unit> postCompute
+    ) {
+        return new ConcurrentNotNullLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                if (onRecursiveCall == null) {
+                    return super.recursionDetected(firstTime);
+                }
+                return onRecursiveCall.invoke(firstTime);
+            }
+
+            @Override
+            protected void postCompute(@NotNull T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValue(@NotNull Function0<? extends T> computable) {
+        return new ConcurrentLazyValue<T>(computable);
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createRecursionTolerantNullableLazyValue(@NotNull Function0<? extends T> computable, final T onRecursiveCall) {
+        return new ConcurrentLazyValue<T>(computable) {
+            @Override
+            protected T recursionDetected(boolean firstTime) {
+                return onRecursiveCall;
+            }
+        };
+    }
+
+    @NotNull
+    @Override
+    public <T> NullableLazyValue<T> createNullableLazyValueWithPostCompute(
+            @NotNull Function0<? extends T> computable, @NotNull final Function1<? super T, ? extends Unit> postCompute
+    ) {
+        return new ConcurrentLazyValue<T>(computable) {
+            @Override
+            protected void postCompute(@Nullable T value) {
+                postCompute.invoke(value);
+            }
+        };
+    }
+
+    @Override
+    public <T> T compute(@NotNull Function0<? extends T> computable) {
+        acquireComputeLock();
+        try {
+            return computable.invoke();
+        }
+        catch (Throwable throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable);
+        }
+        finally {
+            releaseComputeLock();
+        }
+    }
+
+    private void acquireComputeLock() {
+        Thread currentThread = Thread.currentThread();
+        while (true) {
+            synchronized (computeLock) {
+                if (computeLock.owner == null) {
+                    computeLock.owner = currentThread;
+                    computeLock.holdCount = 1;
+                    return;
+                }
+                if (computeLock.owner == currentThread) {
+                    computeLock.holdCount++;
+                    return;
+                }
+            }
+            boolean finished = await(computeLock);
+            assert finished : "Waits for the compute lock are never abandoned";
+        }
+    }
+
+    private void releaseComputeLock() {
+        synchronized (computeLock) {
+            assert computeLock.owner == Thread.currentThread() : "Compute lock is released by " + Thread.currentThread() +
+                                                                 ", but owned by " + computeLock.owner;
+            if (--computeLock.holdCount > 0) return;
+        }
+        finish(computeLock);
+    }
+
+    /**
+     * Blocks until the computation is finished by its owner. Should be called without holding any locks.
+     * @return {@code false} if the wait was abandoned because it depends on a computation owned by the current thread
+     */
+    private boolean await(@NotNull Computation computation) {
+        Thread currentThread = Thread.currentThread();
+
+        synchronized (graphLock) {
+            synchronized (computation) {
+                if (computation.owner == null) return true;
+                // From now on the owner finishes the computation under the graph lock
+                computation.hasWaiters = true;
+            }
+
+            if (dependsOnCurrentThread(computation)) {
+                if (computation.abandonable) return false;
+
+                // Waits for the compute lock can't be abandoned, so a thread in the cycle that waits for a value gives up instead
+                Computation awaited = computation;
+                while (true) {
+                    Thread owner = awaited.owner;
+                    assert owner != null && owner != currentThread : "Dependency cycle over " + computation + " has no abandonable waits";
+                    awaited = waitingFor.get(owner);
+                    if (awaited.abandonable) {
+                        waitingFor.remove(owner);
+                        abandonedWaits.add(owner);
+                        synchronized (awaited) {
+                            awaited.notifyAll();
+                        }
+                        break;
+                    }
+                }
+            }
+
+            waitingFor.put(currentThread, computation);
+        }
+
+        boolean interrupted = false;
+        try {
+            synchronized (computation) {
+                while (true) {
+                    if (computation.owner == null) return true;
+                    if (abandonedWaits.remove(currentThread)) return false;
+
+                    try {
+                        computation.wait();
+                    }
+                    catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            }
+        }
+        finally {
+            synchronized (graphLock) {
+                if (waitingFor.get(currentThread) == computation) {
+                    waitingFor.remove(currentThread);
+                }
+            }
+            abandonedWaits.remove(currentThread);
+            if (interrupted) {
+                currentThread.interrupt();
+            }
+        }
+    }
+
+    // Follows the chain "computation -> its owner -> the computation this owner waits for -> ...", should be called under the graph lock
+    private boolean dependsOnCurrentThread(@NotNull Computation computation) {
+        Thread currentThread = Thread.currentThread();
+        Computation awaited = computation;
+        while (awaited != null) {
+            Thread owner = awaited.owner;
+            if (owner == null) return false;
+            if (owner == currentThread) return true;
+            awaited = waitingFor.get(owner);
+        }
+        return false;
+    }
+
+    private void finish(@NotNull Computation computation) {
+        synchronized (computation) {
+            if (!computation.hasWaiters) {
+                computation.owner = null;
+                return;
+            }
+        }
+
+        synchronized (graphLock) {
+            synchronized (computation) {
+                computation.owner = null;
+                computation.notifyAll();
+            }
+        }
+    }
+
+    @NotNull
+    private static <K> ConcurrentMap<K, Object> createConcurrentHashMap() {
+        // memory optimization: fewer segments and entries stored
+        return new ConcurrentHashMap<K, Object>(3, 1, 2);
+    }
+
+    /**
+     * Marks a lazy value or a key of a memoized function which is being computed, waiters wait on its monitor.
+     * The owner is changed under this monitor (and also under the graph lock once there are waiters). The pending value is accessed
+     * only by the owner, other fields are guarded by the monitor.
+     */
+    private static final class Computation {
+        @Nullable
+        private volatile Thread owner;
+        private int holdCount;
+        private boolean hasWaiters;
+        private boolean recursionDetected;
+
+        private final boolean abandonable;
+
+        // Value which is computed, but not visible to other threads yet, see postCompute()
+        private boolean hasPendingValue;
+        private Object pendingValue;
+
+        private Computation(@Nullable Thread owner, boolean abandonable) {
+            this.owner = owner;
+            this.abandonable = abandonable;
+        }
+
+        @Override
+        public String toString() {
+            return "Computation in " + owner;
+        }
+    }
+
+    private enum NotValue {
+        NOT_COMPUTED,
+        RECURSION_WAS_DETECTED
+    }
+
+    private class ConcurrentLazyValue<T> implements NullableLazyValue<T> {
+
+        private final Function0<? extends T> computable;
+
+        // NOT_COMPUTED, RECURSION_WAS_DETECTED, Computation or the value itself (an escaped throwable if the computation failed)
+        @Nullable
+        private volatile Object value = NotValue.NOT_COMPUTED;
+
+        public ConcurrentLazyValue(@NotNull Function0<? extends T> computable) {
+            this.computable = computable;
+        }
+
+        @Override
+        public boolean isComputed() {
+            Object _value = value;
+            return _value != NotValue.NOT_COMPUTED && !(_value instanceof Computation);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T invoke() {
+            Object _value = value;
+            if (!(_value instanceof NotValue) && !(_value instanceof Computation)) return WrappedValues.unescapeThrowable(_value);
+
+            Thread currentThread = Thread.currentThread();
+            Computation computation;
+
+            while (true) {
+                Computation running;
+                synchronized (this) {
+                    _value = value;
+                    if (!(_value instanceof NotValue) && !(_value instanceof Computation)) return WrappedValues.unescapeThrowable(_value);
+
+                    if (_value == NotValue.NOT_COMPUTED) {
+                        computation = new Computation(currentThread, true);
+                        value = computation;
+                        break;
+                    }
+
+                    running = _value instanceof Computation ? (Computation) _value : null;
+                }
+
+                if (running == null) {
+                    // RECURSION_WAS_DETECTED
+                    return recursionDetected(false);
+                }
+
+                if (running.owner == currentThread && running.hasPendingValue) {
+                    return (T) running.pendingValue;
+                }
+
+                if (running.owner == currentThread || !await(running)) {
+                    boolean firstTime;
+                    synchronized (running) {
+                        firstTime = !running.recursionDetected;
+                        running.recursionDetected = true;
+                    }
+                    return recursionDetected(firstTime);
+                }
+            }
+
+            try {
+                T typedValue = computable.invoke();
+                computation.pendingValue = typedValue;
+                computation.hasPendingValue = true;
+                postCompute(typedValue);
+                publish(computation, typedValue);
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                if (computation.hasPendingValue) {
+                    publish(computation, computation.pendingValue);
+                }
+                else {
+                    boolean recursionDetected;
+                    synchronized (computation) {
+                        recursionDetected = computation.recursionDetected;
+                    }
+                    // Store only if it's a genuine result, not something thrown through recursionDetected()
+                    publish(computation, recursionDetected
+                                         ? NotValue.RECURSION_WAS_DETECTED
+                                         : WrappedValues.escapeThrowable(throwable));
+                }
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+        }
+
+        private void publish(@NotNull Computation computation, @Nullable Object newValue) {
+            // The value is written before the owner is cleared, so waiters see it when they wake up
+            value = newValue;
+            finish(computation);
+        }
+
+        /**
+         * @param firstTime {@code true} when recursion has been just detected, {@code false} otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        protected T recursionDetected(boolean firstTime) {
+            throw new IllegalStateException("Recursive call in a lazy value under " + ConcurrentStorageManager.this);
+        }
+
+        protected void postCompute(T value) {
+            // Doing something in post-compute helps prevent infinite recursion
+        }
+    }
+
+    private class ConcurrentNotNullLazyValue<T> extends ConcurrentLazyValue<T> implements NotNullLazyValue<T> {
+
+        public ConcurrentNotNullLazyValue(@NotNull Function0<? extends T> computable) {
+            super(computable);
+        }
+
+        @Override
+        @NotNull
+        public T invoke() {
+            T result = super.invoke();
+            assert result != null : "compute() returned null";
+            return result;
+        }
+    }
+
+    private class MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNullable<K, V> {
+        // Values are escaped results of compute() or Computation objects for keys being computed
+        private final ConcurrentMap<K, Object> cache;
+        private final Function1<? super K, ? extends V> compute;
+
+        public MapBasedMemoizedFunction(@NotNull ConcurrentMap<K, Object> map, @NotNull Function1<? super K, ? extends V> compute) {
+            this.cache = map;
+            this.compute = compute;
+        }
+
+        @Override
+        @Nullable
+        public V invoke(K input) {
+            Object value = cache.get(input);
+            if (value != null && !(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+            Thread currentThread = Thread.currentThread();
+            Computation computation;
+
+            while (true) {
+                value = cache.get(input);
+                if (value == null) {
+                    computation = new Computation(currentThread, true);
+                    value = cache.putIfAbsent(input, computation);
+                    if (value == null) break;
+                }
+
+                if (!(value instanceof Computation)) return WrappedValues.unescapeExceptionOrNull(value);
+
+                Computation running = (Computation) value;
+                if (running.owner == currentThread) {
+                    throw recursionDetected(input);
+                }
+                if (!await(running)) {
+                    // The owner waits for a computation of the current thread, e.g. a recursion tolerant lazy value. The same code run
+                    // in one thread would compute the value here, inside that computation, so it is computed without being stored,
+                    // and the recursion is detected where it would be detected in one thread
+                    return computeInCycle(input);
+                }
+            }
+
+            try {
+                V typedValue = compute.invoke(input);
+                publish(input, computation, WrappedValues.escapeNull(typedValue));
+                return typedValue;
+            }
+            catch (Throwable throwable) {
+                publish(input, computation, WrappedValues.escapeThrowable(throwable));
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+        }
+
+        @Nullable
+        private V computeInCycle(K input) {
+            Set<Pair<Object, Object>> computedInCycle = inputsComputedInCycle.get();
+            Pair<Object, Object> functionInput = new Pair<Object, Object>(this, input);
+            if (!computedInCycle.add(functionInput)) {
+                throw recursionDetected(input);
+            }
+            try {
+                return compute.invoke(input);
+            }
+            catch (Throwable throwable) {
+                throw exceptionHandlingStrategy.handleException(throwable);
+            }
+            finally {
+                computedInCycle.remove(functionInput);
+            }
+        }
+
+        @NotNull
+        private AssertionError recursionDetected(K input) {
+            return new AssertionError("Recursion detected on input: " + input + " under " + ConcurrentStorageManager.this);
+        }
+
+        private void publish(K input, @NotNull Computation computation, @NotNull Object newValue) {
+            boolean replaced = cache.replace(input, computation, newValue);
+            finish(computation);
+            assert replaced : "Race condition detected on input " + input + ". Old value is " + cache.get(input) +
+                              " under " + ConcurrentStorageManager.this;
+        }
+
+        @Override
+        public boolean isComputed(K key) {
+            Object value = cache.get(key);
+            return value != null && !(value instanceof Computation);
+        }
+    }
+
+    private class MapBasedMemoizedFunctionToNotNull<K, V> extends MapBasedMemoizedFunction<K, V> implements MemoizedFunctionToNotNull<K, V> {
+
+        public MapBasedMemoizedFunctionToNotNull(
+                @NotNull ConcurrentMap<K, Object> map,
+                @NotNull Function1<? super K, ? extends V> compute
+        ) {
+            super(map, compute);
+        }
+
+        @NotNull
+        @Override
+        public V invoke(K input) {
+            V result = super.invoke(input);
+            assert result != null : "compute() returned null under " + ConcurrentStorageManager.this;
+            return result;
+        }
+    }
+}
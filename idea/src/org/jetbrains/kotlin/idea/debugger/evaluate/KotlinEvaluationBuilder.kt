@@ -370,7 +370,7 @@ class KotlinEvaluator(val codeFragment: JetCodeFragment,
                         files,
                         true, true,
                         generateClassFilter,
-                        false, false,
+                        false, false, false,
                         null, null,
                         DiagnosticSink.DO_NOTHING,
                         null)
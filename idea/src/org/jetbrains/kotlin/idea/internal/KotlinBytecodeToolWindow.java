@@ -240,7 +240,7 @@ public class KotlinBytecodeToolWindow extends JPanel implements Disposable {
                                         moduleDescriptor, bindingContext,
                                         toProcess, !enableAssertions, !enableAssertions,
                                         generateClassFilter,
-                                        !enableInline, !enableOptimization, null, null,
+                                        !enableInline, !enableOptimization, false, null, null,
                                         sink, null);
             KotlinCodegenFacade.compileCorrectFiles(state, CompilationErrorHandler.THROW_EXCEPTION);
         }
@@ -0,0 +1,16 @@
+// !DIAGNOSTICS_NUMBER: 1
+// !DIAGNOSTICS: UNRESOLVED_REFERENCE_WRONG_RECEIVER
+// !MESSAGE_TYPE: TEXT
+
+package p
+
+interface A
+
+fun <T : A> T.c() {}
+fun String.c() {}
+
+fun test() {
+    // String.c() can't be called on Int because of its class and is resolved only if no other candidate is found,
+    // so it is not listed
+    1.c()
+}
@@ -185,6 +185,12 @@ public class DiagnosticMessageTestGenerated extends AbstractDiagnosticMessageTes
         doTest(fileName);
     }
 
+    @TestMetadata("unresolvedReferenceWrongReceiver.kt")
+    public void testUnresolvedReferenceWrongReceiver() throws Exception {
+        String fileName = JetTestUtils.navigationMetadata("idea/testData/diagnosticMessage/unresolvedReferenceWrongReceiver.kt");
+        doTest(fileName);
+    }
+
     @TestMetadata("unusedParameter.kt")
     public void testUnusedParameter() throws Exception {
         String fileName = JetTestUtils.navigationMetadata("idea/testData/diagnosticMessage/unusedParameter.kt");
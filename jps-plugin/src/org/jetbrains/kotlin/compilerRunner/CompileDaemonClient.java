@@ -0,0 +1,169 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.compilerRunner;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.io.FileUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.kotlin.cli.common.daemon.CompileDaemonProtocol;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends compilations to a local compile daemon, which is started on the first request and is reused by the following builds.
+ * All failures to reach the daemon are reported by returning null, so that the caller can compile in-process.
+ */
+public class CompileDaemonClient {
+    public static final String ENABLED_PROPERTY = "kotlin.daemon.enabled";
+    public static final String JVM_OPTIONS_PROPERTY = "kotlin.daemon.jvm.options";
+    public static final String RESPONSE_TIMEOUT_PROPERTY = "kotlin.daemon.response.timeout.millis";
+
+    private static final Logger LOG = Logger.getInstance(CompileDaemonClient.class);
+
+    private static final long STARTUP_TIMEOUT_MILLIS = 20000;
+    private static final long STARTUP_POLL_MILLIS = 100;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    private static final int DEFAULT_RESPONSE_TIMEOUT_MILLIS = 30 * 60 * 1000;
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    /**
+     * @return exit code of the compiler with its output written to out, or null if the daemon is unavailable
+     */
+    @Nullable
+    public static synchronized String compile(
+            @NotNull String compilerClassName,
+            @NotNull String[] arguments,
+            @NotNull File compilerJar,
+            @NotNull PrintStream out
+    ) {
+        File workingDirectory = new File(System.getProperty("user.dir")).getAbsoluteFile();
+        File runFile = CompileDaemonProtocol.getRunFile(compilerJar, workingDirectory);
+        CompileDaemonProtocol.Request request =
+                new CompileDaemonProtocol.Request(workingDirectory.getPath(), compilerClassName, arguments);
+
+        CompileDaemonProtocol.Response response;
+        try {
+            response = send(runFile, request);
+            if (response == null && startDaemon(compilerJar, workingDirectory, runFile)) {
+                response = send(runFile, request);
+            }
+        }
+        catch (SocketTimeoutException e) {
+            // the daemon hangs or is too slow, it is not restarted since it still may be working on the request
+            LOG.info("Compile daemon has not responded in time", e);
+            return null;
+        }
+        if (response == null) return null;
+
+        out.write(response.output, 0, response.output.length);
+        out.flush();
+        return response.exitCode;
+    }
+
+    /**
+     * @return the response, or null if the daemon is not running
+     * @throws SocketTimeoutException if the daemon doesn't accept the connection or doesn't respond in time
+     */
+    @Nullable
+    private static CompileDaemonProtocol.Response send(
+            @NotNull File runFile,
+            @NotNull CompileDaemonProtocol.Request request
+    ) throws SocketTimeoutException {
+        CompileDaemonProtocol.Address address = CompileDaemonProtocol.readRunFile(runFile);
+        if (address == null) return null;
+
+        try {
+            Socket socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getByName(null), address.port), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(Integer.getInteger(RESPONSE_TIMEOUT_PROPERTY, DEFAULT_RESPONSE_TIMEOUT_MILLIS));
+                CompileDaemonProtocol.writeRequest(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream())),
+                                                   address.secret, request);
+                return CompileDaemonProtocol.readResponse(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (SocketTimeoutException e) {
+            throw e;
+        }
+        catch (IOException e) {
+            LOG.debug("Compile daemon is not available at port " + address.port, e);
+            return null;
+        }
+    }
+
+    private static boolean startDaemon(@NotNull File compilerJar, @NotNull File workingDirectory, @NotNull File runFile) {
+        FileUtil.delete(runFile);
+
+        List<String> command = new ArrayList<String>();
+        command.add(new File(System.getProperty("java.home"), "bin" + File.separator + "java").getPath());
+        String jvmOptions = System.getProperty(JVM_OPTIONS_PROPERTY);
+        if (jvmOptions != null) {
+            for (String option : jvmOptions.split(" ")) {
+                if (!option.isEmpty()) command.add(option);
+            }
+        }
+        command.add("-cp");
+        command.add(compilerJar.getPath());
+        command.add(CompileDaemonProtocol.DAEMON_CLASS_NAME);
+        command.add(runFile.getPath());
+
+        try {
+            Process process = new ProcessBuilder(command).directory(workingDirectory).redirectErrorStream(true).start();
+            // the daemon outlives the build, so it writes its output to a log file itself
+            process.getInputStream().close();
+            process.getOutputStream().close();
+
+            long deadline = System.currentTimeMillis() + STARTUP_TIMEOUT_MILLIS;
+            while (System.currentTimeMillis() < deadline) {
+                if (CompileDaemonProtocol.readRunFile(runFile) != null) return true;
+                if (hasExited(process)) break;
+                Thread.sleep(STARTUP_POLL_MILLIS);
+            }
+            LOG.info("Compile daemon has not started");
+        }
+        catch (IOException e) {
+            LOG.info("Failed to start compile daemon", e);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private static boolean hasExited(@NotNull Process process) {
+        try {
+            process.exitValue();
+            return true;
+        }
+        catch (IllegalThreadStateException e) {
+            return false;
+        }
+    }
+}
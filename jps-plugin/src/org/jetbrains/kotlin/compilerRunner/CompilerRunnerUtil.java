@@ -68,6 +68,23 @@ public class CompilerRunnerUtil {
         return null;
     }
 
+    /**
+     * @return exit code of the compiler run by the compile daemon, or null if the daemon is unavailable
+     */
+    @Nullable
+    public static String execInDaemon(
+            @NotNull String compilerClassName,
+            @NotNull String[] arguments,
+            @NotNull CompilerEnvironment environment,
+            @NotNull MessageCollector messageCollector,
+            @NotNull PrintStream out
+    ) {
+        File libPath = getLibPath(environment.getKotlinPaths(), messageCollector);
+        if (libPath == null) return null;
+
+        return CompileDaemonClient.compile(compilerClassName, arguments, new File(libPath, "kotlin-compiler.jar"), out);
+    }
+
     @Nullable
     public static Object invokeExecMethod(
             @NotNull String compilerClassName,
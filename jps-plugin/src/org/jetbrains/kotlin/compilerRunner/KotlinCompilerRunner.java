@@ -30,6 +30,7 @@ import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments;
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector;
 import org.jetbrains.kotlin.cli.common.messages.MessageCollectorUtil;
 import org.jetbrains.kotlin.config.CompilerSettings;
+import org.jetbrains.kotlin.config.IncrementalCompilation;
 import org.jetbrains.kotlin.utils.UtilsPackage;
 
 import java.io.*;
@@ -115,10 +116,16 @@ public class KotlinCompilerRunner {
 
             List<String> argumentsList = ArgumentUtils.convertArgumentsToStringList(arguments);
             argumentsList.addAll(StringUtil.split(additionalArguments, " "));
+            String[] argumentsArray = ArrayUtil.toStringArray(argumentsList);
 
-            Object rc = CompilerRunnerUtil.invokeExecMethod(
-                    compilerClassName, ArrayUtil.toStringArray(argumentsList), environment, messageCollector, out
-            );
+            if (canUseDaemon(compilerClassName)) {
+                String exitCode = CompilerRunnerUtil.execInDaemon(compilerClassName, argumentsArray, environment, messageCollector, out);
+                if (exitCode != null) return exitCode;
+
+                messageCollector.report(INFO, "Compile daemon is not available, compiling in-process", NO_LOCATION);
+            }
+
+            Object rc = CompilerRunnerUtil.invokeExecMethod(compilerClassName, argumentsArray, environment, messageCollector, out);
 
             // exec() returns an ExitCode object, class of which is loaded with a different class loader,
             // so we take it's contents through reflection
@@ -130,6 +137,12 @@ public class KotlinCompilerRunner {
         }
     }
 
+    private static boolean canUseDaemon(@NotNull String compilerClassName) {
+        // Services of the environment can't be passed to another process: incremental caches are required in incremental mode,
+        // otherwise only cancellation of the build doesn't reach the daemon
+        return K2JVM_COMPILER.equals(compilerClassName) && CompileDaemonClient.isEnabled() && !IncrementalCompilation.ENABLED;
+    }
+
     @NotNull
     private static String getReturnCodeFromObject(@Nullable Object rc) throws Exception {
         if (rc == null) {
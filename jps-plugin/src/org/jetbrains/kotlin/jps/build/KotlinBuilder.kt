@@ -51,8 +51,8 @@ import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.progress.CompilationCanceledStatus
 import org.jetbrains.kotlin.progress.CompilationCanceledException
 import org.jetbrains.kotlin.jps.JpsKotlinCompilerSettings
+import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.jps.incremental.*
-import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.DO_NOTHING
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_ALL_IN_CHUNK_AND_DEPENDANTS
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_OTHER_IN_CHUNK_AND_DEPENDANTS
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_OTHER_KOTLIN_IN_CHUNK
@@ -142,7 +142,8 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
 
         val incrementalCaches = chunk.getTargets().keysToMap { dataManager.getKotlinCache(it) }
 
-        val environment = createCompileEnvironment(incrementalCaches, context)
+        val lookupTracker = LookupTrackerImpl()
+        val environment = createCompileEnvironment(incrementalCaches, lookupTracker, context)
         if (!environment.success()) {
             environment.reportErrorsTo(messageCollector)
             return ABORT
@@ -180,13 +181,14 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
 
         context.checkCanceled()
 
-        val recompilationDecision: IncrementalCacheImpl.RecompilationDecision
+        val changesInfo: IncrementalCacheImpl.ChangesInfo
         if (JpsUtils.isJsKotlinModule(chunk.representativeTarget())) {
-            recompilationDecision = DO_NOTHING
+            changesInfo = IncrementalCacheImpl.ChangesInfo.NO_CHANGES
         }
         else {
             val generatedClasses = generatedFiles as List<GeneratedJvmClass>
-            recompilationDecision = updateKotlinIncrementalCache(compilationErrors, incrementalCaches, generatedClasses)
+            changesInfo = updateKotlinIncrementalCache(compilationErrors, incrementalCaches, generatedClasses)
+            saveLookups(incrementalCaches, filesToCompile, lookupTracker)
             updateJavaMappings(chunk, compilationErrors, context, dirtyFilesHolder, filesToCompile, generatedClasses)
         }
 
@@ -199,7 +201,7 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
         }
 
         if (IncrementalCompilation.ENABLED) {
-            when (recompilationDecision) {
+            when (changesInfo.decision) {
                 RECOMPILE_ALL_IN_CHUNK_AND_DEPENDANTS -> {
                     allCompiledFiles.clear()
                     FSOperations.markDirtyRecursively(context, chunk)
@@ -217,7 +219,8 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
                 }
                 RECOMPILE_OTHER_KOTLIN_IN_CHUNK -> {
                     FSOperations.markDirty(context, chunk, { file ->
-                        KotlinSourceFileCollector.isKotlinSourceFile(file) && file !in allCompiledFiles
+                        KotlinSourceFileCollector.isKotlinSourceFile(file) && file !in allCompiledFiles &&
+                        changesInfo.mayAffect(file, incrementalCaches.values().map { it.getLookups(file) }.filterNotNull().firstOrNull())
                     })
                 }
             }
@@ -268,9 +271,14 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
         return compileToJvm(allCompiledFiles, chunk, commonArguments, context, dirtyFilesHolder, environment, filesToCompile, messageCollector)
     }
 
-    private fun createCompileEnvironment(incrementalCaches: Map<ModuleBuildTarget, IncrementalCache>, context: CompileContext): CompilerEnvironment {
+    private fun createCompileEnvironment(
+            incrementalCaches: Map<ModuleBuildTarget, IncrementalCache>,
+            lookupTracker: LookupTracker,
+            context: CompileContext
+    ): CompilerEnvironment {
         val compilerServices = Services.Builder()
                 .register(javaClass<IncrementalCacheProvider>(), IncrementalCacheProviderImpl(incrementalCaches))
+                .register(javaClass<LookupTracker>(), lookupTracker)
                 .register(javaClass<CompilationCanceledStatus>(), object: CompilationCanceledStatus {
                     override fun checkCanceled(): Unit = if (context.getCancelStatus().isCanceled()) throw CompilationCanceledException()
                     })
@@ -280,6 +288,7 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
                 PathUtil.getKotlinPathsForJpsPluginOrJpsTests(),
                 { className ->
                     className.startsWith("org.jetbrains.kotlin.load.kotlin.incremental.cache.")
+                    || className.startsWith("org.jetbrains.kotlin.incremental.components.")
                     || className == "org.jetbrains.kotlin.config.Services"
                     || className.startsWith("org.apache.log4j.") // For logging from compiler
                     || className == "org.jetbrains.kotlin.progress.CompilationCanceledStatus"
@@ -390,27 +399,41 @@ public class KotlinBuilder : ModuleLevelBuilder(BuilderCategory.SOURCE_PROCESSOR
             compilationErrors: Boolean,
             incrementalCaches: Map<ModuleBuildTarget, IncrementalCacheImpl>,
             generatedClasses: List<GeneratedJvmClass>
-    ): IncrementalCacheImpl.RecompilationDecision {
+    ): IncrementalCacheImpl.ChangesInfo {
         incrementalCaches.values().forEach { it.saveCacheFormatVersion() }
 
         if (!IncrementalCompilation.ENABLED) {
-            return DO_NOTHING
+            return IncrementalCacheImpl.ChangesInfo.NO_CHANGES
         }
 
-        var recompilationDecision = DO_NOTHING
+        var changesInfo = IncrementalCacheImpl.ChangesInfo.NO_CHANGES
         for (generatedClass in generatedClasses) {
-            val newDecision = incrementalCaches[generatedClass.target]!!.saveFileToCache(generatedClass.sourceFiles, generatedClass.outputClass)
-            recompilationDecision = recompilationDecision.merge(newDecision)
+            val newChangesInfo = incrementalCaches[generatedClass.target]!!.saveFileToCache(generatedClass.sourceFiles, generatedClass.outputClass)
+            changesInfo = changesInfo.merge(newChangesInfo)
         }
 
         if (!compilationErrors) {
             incrementalCaches.values().forEach {
-                val newDecision = it.clearCacheForRemovedClasses()
-                recompilationDecision = recompilationDecision.merge(newDecision)
+                changesInfo = changesInfo.merge(it.clearCacheForRemovedClasses())
             }
         }
 
-        return recompilationDecision
+        return changesInfo
+    }
+
+    private fun saveLookups(
+            incrementalCaches: Map<ModuleBuildTarget, IncrementalCacheImpl>,
+            filesToCompile: MultiMap<ModuleBuildTarget, File>,
+            lookupTracker: LookupTrackerImpl
+    ) {
+        if (!IncrementalCompilation.ENABLED) return
+
+        for ((target, cache) in incrementalCaches) {
+            for (file in filesToCompile[target]) {
+                val lookups = lookupTracker.getLookups(file) ?: continue
+                cache.saveLookups(file, lookups)
+            }
+        }
     }
 
     // if null is returned, nothing was done
@@ -30,6 +30,8 @@ import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDe
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_ALL_IN_CHUNK_AND_DEPENDANTS
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_OTHER_IN_CHUNK_AND_DEPENDANTS
 import org.jetbrains.kotlin.jps.incremental.IncrementalCacheImpl.RecompilationDecision.RECOMPILE_OTHER_KOTLIN_IN_CHUNK
+import org.jetbrains.kotlin.jps.incremental.storage.CacheStorage
+import org.jetbrains.kotlin.jps.incremental.storage.CacheStorageFactory
 import org.jetbrains.kotlin.load.java.JvmAbi
 import org.jetbrains.kotlin.load.java.JvmAnnotationNames
 import org.jetbrains.kotlin.load.kotlin.PackageClassUtils
@@ -46,6 +48,8 @@ import java.security.MessageDigest
 import java.util.ArrayList
 import java.util.Arrays
 import java.util.HashMap
+import java.util.HashSet
+import java.util.regex.Pattern
 
 val INLINE_ANNOTATION_DESC = "Lkotlin/inline;"
 
@@ -55,8 +59,10 @@ private val CACHE_DIRECTORY_NAME = "kotlin"
 class CacheFormatVersion(targetDataRoot: File) {
     companion object {
         // Change this when incremental cache format changes
-        private val INCREMENTAL_CACHE_OWN_VERSION = 3
-        private val CACHE_FORMAT_VERSION: Int = INCREMENTAL_CACHE_OWN_VERSION * 1000000 + JvmAbi.VERSION
+        private val INCREMENTAL_CACHE_OWN_VERSION = 5
+        // Storages of different kinds can't read each other's files
+        private val STORAGE_KIND = if (CacheStorageFactory.USE_LOG_STRUCTURED_STORAGE) 1 else 0
+        private val CACHE_FORMAT_VERSION: Int = INCREMENTAL_CACHE_OWN_VERSION * 1000000 + STORAGE_KIND * 100000 + JvmAbi.VERSION
 
         private val NON_INCREMENTAL_MODE_PSEUDO_VERSION = Int.MAX_VALUE
 
@@ -99,23 +105,27 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         val PACKAGE_PARTS = "package-parts.tab"
         val SOURCE_TO_CLASSES = "source-to-classes.tab"
         val DIRTY_OUTPUT_CLASSES = "dirty-output-classes.tab"
+        val LOOKUPS = "lookups.tab"
     }
 
     private val baseDir = File(targetDataRoot, CACHE_DIRECTORY_NAME)
+    private val storageFactory = CacheStorageFactory.create(baseDir)
     private val protoMap = ProtoMap()
     private val constantsMap = ConstantsMap()
     private val inlineFunctionsMap = InlineFunctionsMap()
     private val packagePartMap = PackagePartMap()
     private val sourceToClassesMap = SourceToClassesMap()
     private val dirtyOutputClassesMap = DirtyOutputClassesMap()
+    private val lookupMap = LookupMap()
 
-    private val maps = listOf(protoMap, constantsMap, inlineFunctionsMap, packagePartMap, sourceToClassesMap, dirtyOutputClassesMap)
+    private val maps = listOf(protoMap, constantsMap, inlineFunctionsMap, packagePartMap, sourceToClassesMap, dirtyOutputClassesMap, lookupMap)
 
     private val cacheFormatVersion = CacheFormatVersion(targetDataRoot)
 
     TestOnly
     public fun dump(): String {
-        return maps.map { it.dump() }.join("\n\n")
+        // lookups of files which weren't recompiled may differ from those made by a rebuild, e.g. in the supertypes of receivers
+        return maps.filter { it != lookupMap }.map { it.dump() }.join("\n\n")
     }
 
     public fun markOutputClassesDirty(removedAndCompiledSources: List<File>) {
@@ -124,9 +134,17 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
             classes.forEach { dirtyOutputClassesMap.markDirty(it.getInternalName()) }
 
             sourceToClassesMap.clearOutputsForSource(sourceFile)
+            lookupMap.remove(sourceFile)
         }
     }
 
+    public fun saveLookups(sourceFile: File, lookups: Collection<String>) {
+        lookupMap.put(sourceFile, lookups)
+    }
+
+    // null if the file wasn't compiled with lookup tracking
+    public fun getLookups(sourceFile: File): Collection<String>? = lookupMap[sourceFile]
+
     private fun getRecompilationDecision(protoChanged: Boolean, constantsChanged: Boolean, inlinesChanged: Boolean) =
             when {
                 inlinesChanged -> RECOMPILE_ALL_IN_CHUNK_AND_DEPENDANTS
@@ -135,11 +153,34 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
                 else -> DO_NOTHING
             }
 
+    private fun getChangesInfo(
+            className: JvmClassName,
+            protoDifference: ProtoDifference,
+            constantsChanged: Boolean,
+            inlinesChanged: Boolean,
+            isPackageFacade: Boolean
+    ): ChangesInfo {
+        val decision = getRecompilationDecision(protoDifference.isAbiChanged, constantsChanged, inlinesChanged)
+        if (decision == DO_NOTHING) return ChangesInfo.NO_CHANGES
+
+        // all files of a package have to be recompiled when its facade is changed
+        if (isPackageFacade) {
+            val packageFqName = className.getPackageFqName()
+            return ChangesInfo(decision, protoDifference.changedMemberNames, setOf(packageFqName), setOf(packageFqName))
+        }
+
+        // subclasses don't have to mention changed members (e.g. a member added to a superclass may clash with theirs),
+        // but they mention the name of the class itself in its containing scope
+        val classFqName = className.getFqNameForClassNameWithoutDollars()
+        val changedMemberNames = protoDifference.changedMemberNames?.plus(classFqName.shortName().asString())
+        return ChangesInfo(decision, changedMemberNames, setOf(classFqName, classFqName.parent()), setOf<FqName>())
+    }
+
     public fun saveCacheFormatVersion() {
         cacheFormatVersion.saveIfNeeded()
     }
 
-    public fun saveFileToCache(sourceFiles: Collection<File>, kotlinClass: LocalFileKotlinClass): RecompilationDecision {
+    public fun saveFileToCache(sourceFiles: Collection<File>, kotlinClass: LocalFileKotlinClass): ChangesInfo {
         val fileBytes = kotlinClass.getFileContents()
         val className = JvmClassName.byClassId(kotlinClass.getClassId())
         val header = kotlinClass.getClassHeader()
@@ -147,46 +188,52 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         dirtyOutputClassesMap.notDirty(className.getInternalName())
         sourceFiles.forEach { sourceToClassesMap.addSourceToClass(it, className) }
 
-        val decision = when {
+        val changesInfo = when {
             header.isCompatiblePackageFacadeKind() ->
-                getRecompilationDecision(
-                        protoChanged = protoMap.put(className, BitEncoding.decodeBytes(header.annotationData!!)),
+                getChangesInfo(
+                        className,
+                        protoDifference = protoMap.put(className, BitEncoding.decodeBytes(header.annotationData!!), isPackageFacade = true),
                         constantsChanged = false,
-                        inlinesChanged = false
+                        inlinesChanged = false,
+                        isPackageFacade = true
                 )
             header.isCompatibleClassKind() ->
                 when (header.classKind!!) {
-                    JvmAnnotationNames.KotlinClass.Kind.CLASS -> getRecompilationDecision(
-                            protoChanged = protoMap.put(className, BitEncoding.decodeBytes(header.annotationData!!)),
+                    JvmAnnotationNames.KotlinClass.Kind.CLASS -> getChangesInfo(
+                            className,
+                            protoDifference = protoMap.put(className, BitEncoding.decodeBytes(header.annotationData!!), isPackageFacade = false),
                             constantsChanged = constantsMap.process(className, fileBytes),
-                            inlinesChanged = inlineFunctionsMap.process(className, fileBytes)
+                            inlinesChanged = inlineFunctionsMap.process(className, fileBytes),
+                            isPackageFacade = false
                     )
 
-                    JvmAnnotationNames.KotlinClass.Kind.LOCAL_CLASS, JvmAnnotationNames.KotlinClass.Kind.ANONYMOUS_OBJECT -> DO_NOTHING
+                    JvmAnnotationNames.KotlinClass.Kind.LOCAL_CLASS, JvmAnnotationNames.KotlinClass.Kind.ANONYMOUS_OBJECT -> ChangesInfo.NO_CHANGES
                 }
             header.syntheticClassKind == JvmAnnotationNames.KotlinSyntheticClass.Kind.PACKAGE_PART -> {
                 assert(sourceFiles.size() == 1) { "Package part from several source files: $sourceFiles" }
 
                 packagePartMap.addPackagePart(className)
 
-                getRecompilationDecision(
-                        protoChanged = false,
+                getChangesInfo(
+                        className,
+                        protoDifference = ProtoDifference.NONE,
                         constantsChanged = constantsMap.process(className, fileBytes),
-                        inlinesChanged = inlineFunctionsMap.process(className, fileBytes)
+                        inlinesChanged = inlineFunctionsMap.process(className, fileBytes),
+                        isPackageFacade = false
                 )
             }
             else -> {
-                DO_NOTHING
+                ChangesInfo.NO_CHANGES
             }
         }
-        if (decision != DO_NOTHING) {
-            KotlinBuilder.LOG.debug("$decision because $className is changed")
+        if (changesInfo.decision != DO_NOTHING) {
+            KotlinBuilder.LOG.debug("${changesInfo.decision} because $className is changed, changed members: ${changesInfo.changedMemberNames ?: "all"}")
         }
-        return decision
+        return changesInfo
     }
 
-    public fun clearCacheForRemovedClasses(): RecompilationDecision {
-        var recompilationDecision = DO_NOTHING
+    public fun clearCacheForRemovedClasses(): ChangesInfo {
+        var changesInfo = ChangesInfo.NO_CHANGES
         for (internalClassName in dirtyOutputClassesMap.getDirtyOutputClasses()) {
             val className = JvmClassName.byInternalName(internalClassName)
 
@@ -197,17 +244,16 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
             )
             if (newDecision != DO_NOTHING) {
                 KotlinBuilder.LOG.debug("$newDecision because $internalClassName is removed")
+                changesInfo = changesInfo.merge(ChangesInfo(newDecision, null, setOf<FqName>(), setOf<FqName>()))
             }
 
-            recompilationDecision = recompilationDecision.merge(newDecision)
-
             protoMap.remove(className)
             packagePartMap.remove(className)
             constantsMap.remove(className)
             inlineFunctionsMap.remove(className)
         }
         dirtyOutputClassesMap.clear()
-        return recompilationDecision
+        return changesInfo
     }
 
     public override fun getObsoletePackageParts(): Collection<String> {
@@ -222,7 +268,7 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
     }
 
     override fun flush(memoryCachesOnly: Boolean) {
-        maps.forEach { it.flush(memoryCachesOnly) }
+        storageFactory.flush(memoryCachesOnly)
     }
 
     public override fun clean() {
@@ -231,44 +277,16 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
     }
 
     public override fun close() {
-        maps.forEach { it.close () }
+        storageFactory.close()
     }
 
-    private abstract class BasicMap<V> {
-        protected var storage: PersistentHashMap<String, V> = createMap()
+    private abstract inner class BasicMap<V>(name: String, keyDescriptor: KeyDescriptor<String>, externalizer: DataExternalizer<V>) {
+        protected val storage: CacheStorage<V> = storageFactory.create(name, keyDescriptor, externalizer)
 
-        protected abstract fun createMap(): PersistentHashMap<String, V>
-
-        public fun contains(key: String): Boolean = storage.containsMapping(key)
+        public fun contains(key: String): Boolean = storage.contains(key)
 
         public fun clean() {
-            try {
-                storage.close()
-            }
-            catch (ignored: IOException) {
-            }
-
-            PersistentHashMap.deleteFilesStartingWith(storage.getBaseFile()!!)
-            try {
-                storage = createMap()
-            }
-            catch (ignored: IOException) {
-            }
-        }
-
-        public fun flush(memoryCachesOnly: Boolean) {
-            if (memoryCachesOnly) {
-                if (storage.isDirty()) {
-                    storage.dropMemoryCaches()
-                }
-            }
-            else {
-                storage.force()
-            }
-        }
-
-        public fun close() {
-            storage.close()
+            storage.clean()
         }
 
         TestOnly
@@ -278,8 +296,8 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
                     println(this@BasicMap.javaClass.getSimpleName())
                     pushIndent()
 
-                    for (key in storage.getAllKeysWithExistingMapping().sort()) {
-                        println("$key -> ${dumpValue(storage[key])}")
+                    for (key in storage.keys.sort()) {
+                        println("$key -> ${dumpValue(storage[key]!!)}")
                     }
 
                     popIndent()
@@ -292,21 +310,15 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         protected abstract fun dumpValue(value: V): String
     }
 
-    private inner class ProtoMap : BasicMap<ByteArray>() {
-        override fun createMap(): PersistentHashMap<String, ByteArray> = PersistentHashMap(
-                File(baseDir, PROTO_MAP),
-                EnumeratorStringDescriptor(),
-                ByteArrayExternalizer
-        )
-
-        public fun put(className: JvmClassName, data: ByteArray): Boolean {
+    private inner class ProtoMap : BasicMap<ByteArray>(PROTO_MAP, EnumeratorStringDescriptor(), ByteArrayExternalizer) {
+        public fun put(className: JvmClassName, data: ByteArray, isPackageFacade: Boolean): ProtoDifference {
             val key = className.getInternalName()
             val oldData = storage[key]
             if (Arrays.equals(data, oldData)) {
-                return false
+                return ProtoDifference.NONE
             }
             storage.put(key, data)
-            return true
+            return if (oldData == null) ProtoDifference.ALL else ProtoDifference.compute(oldData, data, isPackageFacade)
         }
 
         public fun get(className: JvmClassName): ByteArray? {
@@ -322,13 +334,7 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         }
     }
 
-    private inner class ConstantsMap : BasicMap<Map<String, Any>>() {
-        override fun createMap(): PersistentHashMap<String, Map<String, Any>> = PersistentHashMap(
-                File(baseDir, CONSTANTS_MAP),
-                EnumeratorStringDescriptor(),
-                ConstantsMapExternalizer
-        )
-
+    private inner class ConstantsMap : BasicMap<Map<String, Any>>(CONSTANTS_MAP, EnumeratorStringDescriptor(), ConstantsMapExternalizer) {
         private fun getConstantsMap(bytes: ByteArray): Map<String, Any>? {
             val result = HashMap<String, Any>()
 
@@ -441,13 +447,7 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         }
     }
 
-    private inner class InlineFunctionsMap : BasicMap<Map<String, Long>>() {
-        override fun createMap(): PersistentHashMap<String, Map<String, Long>> = PersistentHashMap(
-                File(baseDir, INLINE_FUNCTIONS),
-                EnumeratorStringDescriptor(),
-                InlineFunctionsMapExternalizer
-        )
-
+    private inner class InlineFunctionsMap : BasicMap<Map<String, Long>>(INLINE_FUNCTIONS, EnumeratorStringDescriptor(), InlineFunctionsMapExternalizer) {
         private fun getInlineFunctionsMap(bytes: ByteArray): Map<String, Long>? {
             val result = HashMap<String, Long>()
 
@@ -543,13 +543,7 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
 
     }
 
-    private inner class PackagePartMap : BasicMap<Boolean>() {
-        override fun createMap(): PersistentHashMap<String, Boolean> = PersistentHashMap(
-                File(baseDir, PACKAGE_PARTS),
-                EnumeratorStringDescriptor(),
-                BooleanDataDescriptor.INSTANCE
-        )
-
+    private inner class PackagePartMap : BasicMap<Boolean>(PACKAGE_PARTS, EnumeratorStringDescriptor(), BooleanDataDescriptor.INSTANCE) {
         public fun addPackagePart(className: JvmClassName) {
             storage.put(className.getInternalName(), true)
         }
@@ -559,25 +553,19 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         }
 
         public fun isPackagePart(className: JvmClassName): Boolean {
-            return storage.containsMapping(className.getInternalName())
+            return className.getInternalName() in storage
         }
 
         override fun dumpValue(value: Boolean) = ""
     }
 
-    private inner class SourceToClassesMap : BasicMap<List<String>>() {
-        override fun createMap(): PersistentHashMap<String, List<String>> = PersistentHashMap(
-                File(baseDir, SOURCE_TO_CLASSES),
-                PathStringDescriptor.INSTANCE,
-                StringListExternalizer
-        )
-
+    private inner class SourceToClassesMap : BasicMap<List<String>>(SOURCE_TO_CLASSES, PathStringDescriptor.INSTANCE, StringListExternalizer) {
         public fun clearOutputsForSource(sourceFile: File) {
             storage.remove(sourceFile.getAbsolutePath())
         }
 
         public fun addSourceToClass(sourceFile: File, className: JvmClassName) {
-            storage.appendData(sourceFile.getAbsolutePath(), { out -> IOUtil.writeUTF(out, className.getInternalName()) })
+            storage.append(sourceFile.getAbsolutePath(), { out -> IOUtil.writeUTF(out, className.getInternalName()) })
         }
 
         public fun get(sourceFile: File): Collection<JvmClassName> {
@@ -587,13 +575,7 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         override fun dumpValue(value: List<String>) = value.toString()
     }
 
-    private inner class DirtyOutputClassesMap : BasicMap<Boolean>() {
-        override fun createMap(): PersistentHashMap<String, Boolean> = PersistentHashMap(
-                File(baseDir, DIRTY_OUTPUT_CLASSES),
-                EnumeratorStringDescriptor(),
-                BooleanDataDescriptor.INSTANCE
-        )
-
+    private inner class DirtyOutputClassesMap : BasicMap<Boolean>(DIRTY_OUTPUT_CLASSES, EnumeratorStringDescriptor(), BooleanDataDescriptor.INSTANCE) {
         public fun markDirty(className: String) {
             storage.put(className, true)
         }
@@ -603,16 +585,77 @@ public class IncrementalCacheImpl(targetDataRoot: File) : StorageOwner, Incremen
         }
 
         public fun getDirtyOutputClasses(): Collection<String> {
-            return storage.getAllKeysWithExistingMapping()
+            return storage.keys
         }
 
         public fun clear() {
-            storage.getAllKeysWithExistingMapping().forEach { storage.remove(it) }
+            storage.keys.forEach { storage.remove(it) }
         }
 
         override fun dumpValue(value: Boolean) = ""
     }
 
+    // Names looked up by a source file, see LookupTrackerImpl.lookupKey
+    private inner class LookupMap : BasicMap<List<String>>(LOOKUPS, PathStringDescriptor.INSTANCE, StringListExternalizer) {
+        public fun put(sourceFile: File, lookups: Collection<String>) {
+            storage.put(sourceFile.getAbsolutePath(), lookups.toList())
+        }
+
+        public fun get(sourceFile: File): List<String>? = storage[sourceFile.getAbsolutePath()]
+
+        public fun remove(sourceFile: File) {
+            storage.remove(sourceFile.getAbsolutePath())
+        }
+
+        override fun dumpValue(value: List<String>) = value.sort().toString()
+    }
+
+    // What has to be recompiled after saving compiled classes to the cache.
+    // When only other Kotlin files of the chunk have to be recompiled, the affected files are those which looked up changed members
+    // in changed classes or packages, and those from changed packages; changedMemberNames is null when any file may be affected
+    public class ChangesInfo(
+            public val decision: RecompilationDecision,
+            public val changedMemberNames: Set<String>?,
+            public val changedScopes: Set<FqName>,
+            public val changedPackages: Set<FqName>
+    ) {
+        public fun merge(other: ChangesInfo): ChangesInfo =
+                ChangesInfo(
+                        decision.merge(other.decision),
+                        if (changedMemberNames == null || other.changedMemberNames == null) null
+                        else changedMemberNames.union(other.changedMemberNames),
+                        changedScopes.union(other.changedScopes),
+                        changedPackages.union(other.changedPackages)
+                )
+
+        // lookups are null for files compiled without lookup tracking, then a file mentioning a changed name anywhere is considered affected
+        public fun mayAffect(sourceFile: File, lookups: Collection<String>?): Boolean {
+            if (changedMemberNames == null) return true
+
+            val lookupSet = lookups?.toSet() ?: setOf<String>()
+            val lookedUp = changedScopes.any { scope ->
+                changedMemberNames.any { LookupTrackerImpl.lookupKey(scope.asString(), it) in lookupSet }
+            }
+            if (lookedUp) return true
+
+            // a name may be used without a recorded lookup (e.g. implicit invoke or componentN calls, or lookups recorded under
+            // a different path), so the textual check is kept for changed names the file has never looked up in any scope
+            val lookedUpNames = lookupSet.mapTo(HashSet<String>()) { LookupTrackerImpl.getLookupName(it) }
+            val text = sourceFile.readText()
+            if (changedMemberNames.any { it !in lookedUpNames && text.contains(it) }) return true
+
+            val packageDirective = PACKAGE_DIRECTIVE.matcher(text)
+            val filePackage = if (packageDirective.find()) FqName(packageDirective.group(1).replace("`", "").replace(" ", "")) else FqName.ROOT
+            return filePackage in changedPackages
+        }
+
+        companion object {
+            public val NO_CHANGES: ChangesInfo = ChangesInfo(DO_NOTHING, setOf<String>(), setOf<FqName>(), setOf<FqName>())
+
+            private val PACKAGE_DIRECTIVE = Pattern.compile("^\\s*package\\s+([\\w.` ]+)", Pattern.MULTILINE)
+        }
+    }
+
     enum class RecompilationDecision {
         DO_NOTHING,
         RECOMPILE_OTHER_KOTLIN_IN_CHUNK,
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import java.io.File
+import java.util.HashMap
+import java.util.HashSet
+
+// Collects lookups made while compiling a chunk; files may be resolved in several threads
+public class LookupTrackerImpl : LookupTracker {
+    private val lookups = HashMap<String, MutableSet<String>>()
+
+    synchronized override fun record(lookupContainingFile: String, scopeFqName: String, name: String) {
+        lookups.getOrPut(lookupContainingFile) { HashSet() }.add(lookupKey(scopeFqName, name))
+    }
+
+    // null if nothing was recorded for the file, e.g. when the compiler saw it under a different path
+    synchronized public fun getLookups(sourceFile: File): Collection<String>? =
+            lookups[FileUtil.toSystemIndependentName(sourceFile.getAbsolutePath())]
+
+    companion object {
+        public fun lookupKey(scopeFqName: String, name: String): String = "$scopeFqName#$name"
+
+        // fq-names of scopes don't contain '#'
+        public fun getLookupName(lookupKey: String): String = lookupKey.substring(lookupKey.indexOf('#') + 1)
+    }
+}
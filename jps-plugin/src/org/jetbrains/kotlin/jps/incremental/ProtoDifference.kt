@@ -0,0 +1,184 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental
+
+import org.jetbrains.kotlin.serialization.ClassData
+import org.jetbrains.kotlin.serialization.Flags
+import org.jetbrains.kotlin.serialization.PackageData
+import org.jetbrains.kotlin.serialization.ProtoBuf
+import org.jetbrains.kotlin.serialization.deserialization.NameResolver
+import org.jetbrains.kotlin.serialization.jvm.JvmProtoBufUtil
+import java.util.Collections
+import java.util.HashMap
+import java.util.HashSet
+
+// Change of serialized descriptors of a class or a package between two compilations
+// changedMemberNames are names of members whose signatures visible outside of their file have changed, null if dependent files can't be
+// found by member names (e.g. supertypes of a class or an abstract member have changed)
+public class ProtoDifference private constructor(public val isAbiChanged: Boolean, public val changedMemberNames: Set<String>?) {
+    companion object {
+        public val NONE: ProtoDifference = ProtoDifference(false, setOf<String>())
+        public val ALL: ProtoDifference = ProtoDifference(true, null)
+
+        public fun compute(oldData: ByteArray, newData: ByteArray, isPackageFacade: Boolean): ProtoDifference {
+            return if (isPackageFacade) {
+                val oldPackage = PackageData.read(oldData, JvmProtoBufUtil.EXTENSION_REGISTRY)
+                val newPackage = PackageData.read(newData, JvmProtoBufUtil.EXTENSION_REGISTRY)
+                compareMembers(
+                        oldPackage.getPackageProto().getMemberList(), ProtoRenderer(oldPackage.getNameResolver()),
+                        newPackage.getPackageProto().getMemberList(), ProtoRenderer(newPackage.getNameResolver()),
+                        isPackageFacade = true
+                )
+            }
+            else {
+                val oldClass = ClassData.read(oldData, JvmProtoBufUtil.EXTENSION_REGISTRY)
+                val newClass = ClassData.read(newData, JvmProtoBufUtil.EXTENSION_REGISTRY)
+                val oldRenderer = ProtoRenderer(oldClass.getNameResolver())
+                val newRenderer = ProtoRenderer(newClass.getNameResolver())
+                if (oldRenderer.renderClassHeader(oldClass.getClassProto()) != newRenderer.renderClassHeader(newClass.getClassProto())) {
+                    ALL
+                }
+                else {
+                    compareMembers(
+                            oldClass.getClassProto().getMemberList(), oldRenderer, newClass.getClassProto().getMemberList(), newRenderer,
+                            isPackageFacade = false
+                    )
+                }
+            }
+        }
+
+        private fun compareMembers(
+                oldMembers: List<ProtoBuf.Callable>, oldRenderer: ProtoRenderer,
+                newMembers: List<ProtoBuf.Callable>, newRenderer: ProtoRenderer,
+                isPackageFacade: Boolean
+        ): ProtoDifference {
+            // private top-level declarations are visible in other files of the package, only private class members can be skipped
+            val oldSignatures = oldRenderer.renderMembers(oldMembers, skipPrivate = !isPackageFacade)
+            val newSignatures = newRenderer.renderMembers(newMembers, skipPrivate = !isPackageFacade)
+
+            val changedNames = HashSet<String>()
+            for (name in oldSignatures.keySet().plus(newSignatures.keySet())) {
+                if (oldSignatures[name] != newSignatures[name]) {
+                    changedNames.add(name)
+                }
+            }
+            if (changedNames.isEmpty()) return NONE
+
+            // an abstract member may have to be implemented in subclasses which don't mention it
+            val abstractMemberChanged = newMembers.any {
+                newRenderer.getName(it) in changedNames && Flags.MODALITY.get(it.getFlags()) == ProtoBuf.Modality.ABSTRACT
+            }
+            if (abstractMemberChanged || changedNames.any { isConventionName(it) }) return ALL
+
+            return ProtoDifference(true, changedNames)
+        }
+
+        // members which may be called without mentioning their names in the source code
+        private val CONVENTION_NAMES = setOf(
+                "get", "set", "invoke", "iterator", "next", "hasNext", "contains", "compareTo", "equals", "rangeTo",
+                "plus", "minus", "times", "div", "mod", "inc", "dec", "not",
+                "plusAssign", "minusAssign", "timesAssign", "divAssign", "modAssign", "propertyDelegated"
+        )
+
+        private fun isConventionName(name: String) = name in CONVENTION_NAMES || name.startsWith("component")
+    }
+}
+
+// Renders signatures with names resolved, so that they can be compared between compilations with different name tables
+private class ProtoRenderer(private val nameResolver: NameResolver) {
+    fun getName(callable: ProtoBuf.Callable): String = nameResolver.getString(callable.getName())
+
+    // private class members are not visible outside of the class, so their changes don't affect other files
+    fun renderMembers(members: List<ProtoBuf.Callable>, skipPrivate: Boolean): Map<String, List<String>> {
+        val result = HashMap<String, MutableList<String>>()
+        for (member in members) {
+            val visibility = Flags.VISIBILITY.get(member.getFlags())
+            if (skipPrivate && (visibility == ProtoBuf.Visibility.PRIVATE || visibility == ProtoBuf.Visibility.PRIVATE_TO_THIS)) continue
+
+            result.getOrPut(getName(member)) { arrayListOf() }.add(render(member))
+        }
+        // overloads may be serialized in different order
+        result.values().forEach { Collections.sort(it) }
+        return result
+    }
+
+    fun renderClassHeader(proto: ProtoBuf.Class): String = StringBuilder {
+        append("flags=").append(proto.getFlags())
+        append(" name=").append(nameResolver.getClassId(proto.getFqName()))
+        if (proto.hasCompanionObjectName()) {
+            append(" companion=").append(nameResolver.getString(proto.getCompanionObjectName()))
+        }
+        appendTypeParameters(proto.getTypeParameterList())
+        proto.getSupertypeList().forEach { append(" supertype=").appendType(it) }
+        proto.getNestedClassNameList().forEach { append(" nested=").append(nameResolver.getString(it)) }
+        proto.getEnumEntryList().forEach { append(" entry=").append(nameResolver.getString(it)) }
+        if (proto.hasPrimaryConstructor()) {
+            append(" primary=")
+            val primaryConstructor = proto.getPrimaryConstructor()
+            if (primaryConstructor.hasData()) append(render(primaryConstructor.getData()))
+        }
+        proto.getSecondaryConstructorList().forEach { append(" constructor=").append(render(it)) }
+    }.toString()
+
+    private fun render(callable: ProtoBuf.Callable): String = StringBuilder {
+        append("flags=").append(callable.getFlags())
+        if (callable.hasGetterFlags()) append(" getter=").append(callable.getGetterFlags())
+        if (callable.hasSetterFlags()) append(" setter=").append(callable.getSetterFlags())
+        appendTypeParameters(callable.getTypeParameterList())
+        if (callable.hasReceiverType()) append(" receiver=").appendType(callable.getReceiverType())
+        append(" name=").append(getName(callable))
+        for (parameter in callable.getValueParameterList()) {
+            append(" parameter=").append(parameter.getFlags()).append(":").append(nameResolver.getString(parameter.getName()))
+            append(":").appendType(parameter.getType())
+            if (parameter.hasVarargElementType()) append(" vararg=").appendType(parameter.getVarargElementType())
+        }
+        append(" returns=").appendType(callable.getReturnType())
+    }.toString()
+
+    private fun StringBuilder.appendTypeParameters(typeParameters: List<ProtoBuf.TypeParameter>) {
+        for (typeParameter in typeParameters) {
+            append(" typeParameter=").append(typeParameter.getId()).append(":").append(nameResolver.getString(typeParameter.getName()))
+            append(":").append(typeParameter.getReified()).append(":").append(typeParameter.getVariance())
+            typeParameter.getUpperBoundList().forEach { append(" bound=").appendType(it) }
+        }
+    }
+
+    private fun StringBuilder.appendType(type: ProtoBuf.Type): StringBuilder {
+        val constructor = type.getConstructor()
+        when (constructor.getKind()) {
+            ProtoBuf.Type.Constructor.Kind.CLASS -> append(nameResolver.getClassId(constructor.getId()))
+            else -> append("T").append(constructor.getId())
+        }
+        if (type.getArgumentCount() > 0) {
+            append("<")
+            for (argument in type.getArgumentList()) {
+                append(argument.getProjection()).append(" ")
+                if (argument.hasType()) appendType(argument.getType())
+                append(",")
+            }
+            append(">")
+        }
+        if (type.getNullable()) append("?")
+        if (type.hasFlexibleTypeCapabilitiesId()) {
+            append("!").append(nameResolver.getString(type.getFlexibleTypeCapabilitiesId()))
+        }
+        if (type.hasFlexibleUpperBound()) {
+            append("..").appendType(type.getFlexibleUpperBound())
+        }
+        return this
+    }
+}
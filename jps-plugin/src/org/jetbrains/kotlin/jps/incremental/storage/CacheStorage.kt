@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental.storage
+
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.KeyDescriptor
+import com.intellij.util.io.PersistentHashMap
+import java.io.DataOutput
+import java.io.File
+import java.io.IOException
+import java.util.ArrayList
+
+// key-value storage of one map of incremental cache
+public interface CacheStorage<V> {
+    public fun get(key: String): V?
+
+    public fun put(key: String, value: V)
+
+    // appends data written by appender to the serialized value
+    public fun append(key: String, appender: (DataOutput) -> Unit)
+
+    public fun remove(key: String)
+
+    public fun contains(key: String): Boolean
+
+    public val keys: Collection<String>
+
+    // removes all mappings
+    public fun clean()
+}
+
+// creates storages for all maps of incremental cache of a target, which are flushed and closed together
+public interface CacheStorageFactory {
+    public fun <V> create(name: String, keyDescriptor: KeyDescriptor<String>, externalizer: DataExternalizer<V>): CacheStorage<V>
+
+    public fun flush(memoryCachesOnly: Boolean)
+
+    public fun close()
+
+    companion object {
+        // "log" selects LogStructuredStorageFactory, otherwise every map is stored in its own PersistentHashMap
+        public val STORAGE_PROPERTY: String = "kotlin.incremental.cache.storage"
+
+        public val USE_LOG_STRUCTURED_STORAGE: Boolean = "log" == System.getProperty(STORAGE_PROPERTY)
+
+        public fun create(directory: File): CacheStorageFactory =
+                if (USE_LOG_STRUCTURED_STORAGE) LogStructuredStorageFactory(directory) else PersistentHashMapStorageFactory(directory)
+    }
+}
+
+public class PersistentHashMapStorageFactory(private val directory: File) : CacheStorageFactory {
+    private val storages = ArrayList<PersistentHashMapStorage<*>>()
+
+    override fun <V> create(name: String, keyDescriptor: KeyDescriptor<String>, externalizer: DataExternalizer<V>): CacheStorage<V> {
+        val storage = PersistentHashMapStorage(File(directory, name), keyDescriptor, externalizer)
+        storages.add(storage)
+        return storage
+    }
+
+    override fun flush(memoryCachesOnly: Boolean) {
+        storages.forEach { it.flush(memoryCachesOnly) }
+    }
+
+    override fun close() {
+        storages.forEach { it.close() }
+    }
+}
+
+public class PersistentHashMapStorage<V>(
+        private val file: File,
+        private val keyDescriptor: KeyDescriptor<String>,
+        private val externalizer: DataExternalizer<V>
+) : CacheStorage<V> {
+    private var storage: PersistentHashMap<String, V> = createMap()
+
+    private fun createMap(): PersistentHashMap<String, V> = PersistentHashMap(file, keyDescriptor, externalizer)
+
+    override fun get(key: String): V? = storage[key]
+
+    override fun put(key: String, value: V) {
+        storage.put(key, value)
+    }
+
+    override fun append(key: String, appender: (DataOutput) -> Unit) {
+        storage.appendData(key, { out -> appender(out) })
+    }
+
+    override fun remove(key: String) {
+        storage.remove(key)
+    }
+
+    override fun contains(key: String): Boolean = storage.containsMapping(key)
+
+    override val keys: Collection<String>
+        get() = storage.getAllKeysWithExistingMapping()
+
+    override fun clean() {
+        try {
+            storage.close()
+        }
+        catch (ignored: IOException) {
+        }
+
+        PersistentHashMap.deleteFilesStartingWith(storage.getBaseFile()!!)
+        try {
+            storage = createMap()
+        }
+        catch (ignored: IOException) {
+        }
+    }
+
+    public fun flush(memoryCachesOnly: Boolean) {
+        if (memoryCachesOnly) {
+            if (storage.isDirty()) {
+                storage.dropMemoryCaches()
+            }
+        }
+        else {
+            storage.force()
+        }
+    }
+
+    public fun close() {
+        storage.close()
+    }
+}
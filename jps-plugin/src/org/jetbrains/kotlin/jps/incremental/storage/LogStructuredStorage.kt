@@ -0,0 +1,474 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental.storage
+
+import com.intellij.openapi.util.io.BufferExposingByteArrayOutputStream
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.util.io.DataExternalizer
+import com.intellij.util.io.KeyDescriptor
+import gnu.trove.THashMap
+import gnu.trove.TObjectHashingStrategy
+import java.io.*
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.ArrayList
+import java.util.HashMap
+import java.util.regex.Pattern
+import kotlin.properties.Delegates
+
+public class LogStructuredStorageFactory(directory: File) : CacheStorageFactory {
+    private val file = LogStructuredStorageFile(directory, "caches")
+
+    override fun <V> create(name: String, keyDescriptor: KeyDescriptor<String>, externalizer: DataExternalizer<V>): CacheStorage<V> =
+            file.createMap(name, keyDescriptor, externalizer)
+
+    override fun flush(memoryCachesOnly: Boolean) {
+        file.flush(memoryCachesOnly)
+    }
+
+    override fun close() {
+        file.close()
+    }
+}
+
+// all maps of a cache stored in one append-only file, "<baseName>.<generation>.log"
+// each put, append or remove adds a record to the end of the file, while an in-memory index points to the records of live values,
+// which are read from a memory-mapped buffer
+// when most of the file is occupied by overwritten records, live records are copied to the file of the next generation
+// by a background thread, the records added meanwhile are moved to the new file once copying is finished
+public class LogStructuredStorageFile(private val directory: File, private val baseName: String) {
+    private class Record(val operation: Byte, val key: ByteArray, val location: Location)
+
+    private class Location(val recordOffset: Long, val recordLength: Int, val valueOffset: Long, val valueLength: Int) {
+        fun moveTo(newRecordOffset: Long) =
+                Location(newRecordOffset, recordLength, valueOffset - recordOffset + newRecordOffset, valueLength)
+    }
+
+    // a value is written by a put record, possibly followed by several append records
+    private class MapIndex(val keyDescriptor: KeyDescriptor<String>) {
+        val locations = THashMap<String, MutableList<Location>>(object : TObjectHashingStrategy<String> {
+            override fun computeHashCode(key: String) = keyDescriptor.getHashCode(key)
+            override fun equals(key1: String, key2: String) = keyDescriptor.isEqual(key1, key2)
+        })
+    }
+
+    private val lock = Any()
+
+    private var generation = 0
+    private var channel: FileChannel by Delegates.notNull()
+    private var mappedBuffer: MappedByteBuffer? = null
+
+    // length of the file, records which are not flushed yet are kept in pending
+    private var fileLength = 0L
+    private val pending = BufferExposingByteArrayOutputStream()
+
+    private val mapIds = HashMap<String, Int>()
+    private val indices = HashMap<Int, MapIndex>()
+    // records read from the file before the maps are created, indices of the maps are filled in later
+    private val recordsOfUnknownMaps = HashMap<Int, MutableList<Record>>()
+
+    // total length of the records the indices point to, the rest of the file is garbage
+    private var liveBytes = 0L
+
+    private var compactionThread: Thread? = null
+    private var closed = false
+
+    init {
+        open()
+    }
+
+    public fun <V> createMap(name: String, keyDescriptor: KeyDescriptor<String>, externalizer: DataExternalizer<V>): CacheStorage<V> {
+        synchronized(lock) {
+            val existingId = mapIds[name]
+            val mapId = existingId ?: mapIds.size()
+            val index = MapIndex(keyDescriptor)
+            indices[mapId] = index
+            if (existingId == null) {
+                mapIds[name] = mapId
+                writeRecord(mapId, DEFINE, name.toByteArray(Charsets.UTF_8), ByteArray(0))
+            }
+            else {
+                recordsOfUnknownMaps.remove(mapId)?.forEach { applyRecord(index, it) }
+            }
+            return LogStructuredMapStorage(mapId, index, externalizer)
+        }
+    }
+
+    private inner class LogStructuredMapStorage<V>(
+            private val mapId: Int,
+            private val index: MapIndex,
+            private val externalizer: DataExternalizer<V>
+    ) : CacheStorage<V> {
+        override fun get(key: String): V? {
+            val bytes = synchronized(lock) { readValue(index, key) } ?: return null
+            return externalizer.read(DataInputStream(ByteArrayInputStream(bytes)))
+        }
+
+        override fun put(key: String, value: V) {
+            val output = BufferExposingByteArrayOutputStream()
+            externalizer.save(DataOutputStream(output), value)
+            synchronized(lock) {
+                writeRecord(mapId, PUT, index.serializeKey(key), output.toByteArray())
+            }
+        }
+
+        override fun append(key: String, appender: (DataOutput) -> Unit) {
+            val output = BufferExposingByteArrayOutputStream()
+            appender(DataOutputStream(output))
+            synchronized(lock) {
+                writeRecord(mapId, APPEND, index.serializeKey(key), output.toByteArray())
+            }
+        }
+
+        override fun remove(key: String) {
+            synchronized(lock) {
+                if (key in index.locations) {
+                    writeRecord(mapId, REMOVE, index.serializeKey(key), ByteArray(0))
+                }
+            }
+        }
+
+        override fun contains(key: String): Boolean = synchronized(lock) { key in index.locations }
+
+        override val keys: Collection<String>
+            get() = synchronized(lock) { ArrayList(index.locations.keySet()) }
+
+        override fun clean() {
+            synchronized(lock) {
+                writeRecord(mapId, CLEAR, ByteArray(0), ByteArray(0))
+            }
+        }
+    }
+
+    public fun flush(memoryCachesOnly: Boolean) {
+        synchronized(lock) {
+            writePending()
+            if (!memoryCachesOnly) {
+                channel.force(false)
+            }
+            // records of maps which were not created are not counted in live bytes, so compaction would lose them
+            if (fileLength > MIN_COMPACTION_LENGTH && liveBytes < fileLength / 2 && compactionThread == null && recordsOfUnknownMaps.isEmpty()) {
+                startCompaction()
+            }
+        }
+    }
+
+    public fun close() {
+        // running compaction is finished before the file is closed
+        synchronized(lock) { compactionThread }?.join()
+        synchronized(lock) {
+            if (closed) return
+            closed = true
+            writePending()
+            mappedBuffer = null
+            channel.close()
+        }
+    }
+
+    private fun file(generation: Int) = File(directory, "$baseName.$generation.log")
+
+    private fun open() {
+        val files = directory.listFiles() ?: arrayOf<File>()
+        val fileNamePattern = Pattern.compile(Pattern.quote("$baseName.") + "(\\d+)\\.log")
+        generation = files.map {
+            val matcher = fileNamePattern.matcher(it.getName())
+            if (matcher.matches()) matcher.group(1).toInt() else null
+        }.filterNotNull().max() ?: 0
+
+        // files of older generations and unfinished compactions
+        for (file in files) {
+            if (file.getName().startsWith("$baseName.") && file.getName() != file(generation).getName()) {
+                FileUtil.delete(file)
+            }
+        }
+
+        FileUtil.createParentDirs(file(generation))
+        channel = RandomAccessFile(file(generation), "rw").getChannel()
+        fileLength = channel.size()
+        if (fileLength < HEADER_LENGTH || !readRecords()) {
+            // missing or incompatible file
+            channel.truncate(0)
+            fileLength = 0
+            mapIds.clear()
+            recordsOfUnknownMaps.clear()
+            pending.write(header())
+            writePending()
+        }
+    }
+
+    // returns false if the file has a wrong header, a broken record at the end of the file is dropped
+    private fun readRecords(): Boolean {
+        val buffer = map()
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) return false
+
+        var offset = HEADER_LENGTH
+        while (offset + RECORD_HEADER_LENGTH <= fileLength) {
+            val recordLength = buffer.getInt(offset.toInt())
+            if (recordLength < RECORD_HEADER_LENGTH - 4 || offset + 4 + recordLength > fileLength) break
+
+            val mapId = buffer.get(offset.toInt() + 4).toInt()
+            val operation = buffer.get(offset.toInt() + 5)
+            val keyLength = buffer.getInt(offset.toInt() + 6)
+            if (keyLength < 0 || RECORD_HEADER_LENGTH + keyLength > 4 + recordLength) break
+
+            val key = ByteArray(keyLength)
+            val duplicate = buffer.duplicate()
+            duplicate.position(offset.toInt() + RECORD_HEADER_LENGTH)
+            duplicate.get(key)
+
+            val valueOffset = offset + RECORD_HEADER_LENGTH + keyLength
+            val location = Location(offset, 4 + recordLength, valueOffset, (offset + 4 + recordLength - valueOffset).toInt())
+            when (operation) {
+                DEFINE -> mapIds[String(key, Charsets.UTF_8)] = mapId
+                // records before the last clear don't matter
+                CLEAR -> recordsOfUnknownMaps[mapId] = arrayListOf(Record(operation, key, location))
+                else -> recordsOfUnknownMaps.getOrPut(mapId) { ArrayList() }.add(Record(operation, key, location))
+            }
+            offset += 4 + recordLength
+        }
+
+        if (offset < fileLength) {
+            channel.truncate(offset)
+            fileLength = offset
+            mappedBuffer = null
+        }
+        return true
+    }
+
+    private fun applyRecord(index: MapIndex, record: Record) {
+        when (record.operation) {
+            CLEAR -> clearIndex(index)
+            REMOVE -> removeFromIndex(index, index.deserializeKey(record.key))
+            else -> addToIndex(index, index.deserializeKey(record.key), record.location, append = record.operation == APPEND)
+        }
+    }
+
+    private fun addToIndex(index: MapIndex, key: String, location: Location, append: Boolean) {
+        val locations = index.locations[key]
+        if (append && locations != null) {
+            locations.add(location)
+        }
+        else {
+            removeFromIndex(index, key)
+            index.locations[key] = arrayListOf(location)
+        }
+        liveBytes += location.recordLength
+    }
+
+    private fun removeFromIndex(index: MapIndex, key: String) {
+        index.locations.remove(key)?.forEach { liveBytes -= it.recordLength }
+    }
+
+    private fun clearIndex(index: MapIndex) {
+        index.locations.values().forEach { locations -> locations.forEach { liveBytes -= it.recordLength } }
+        index.locations.clear()
+    }
+
+    private fun writeRecord(mapId: Int, operation: Byte, key: ByteArray, value: ByteArray) {
+        check(!closed) { "Storage is already closed" }
+
+        val recordOffset = fileLength + pending.size()
+        val recordLength = RECORD_HEADER_LENGTH + key.size() + value.size()
+        with(DataOutputStream(pending)) {
+            writeInt(recordLength - 4)
+            writeByte(mapId)
+            writeByte(operation.toInt())
+            writeInt(key.size())
+            write(key)
+            write(value)
+        }
+
+        if (operation != DEFINE) {
+            val location = Location(recordOffset, recordLength, recordOffset + RECORD_HEADER_LENGTH + key.size(), value.size())
+            applyRecord(indices[mapId]!!, Record(operation, key, location))
+        }
+    }
+
+    private fun readValue(index: MapIndex, key: String): ByteArray? {
+        val locations = index.locations[key] ?: return null
+        val result = ByteArray(locations.sumBy { it.valueLength })
+        var resultOffset = 0
+        for (location in locations) {
+            read(location.valueOffset, result, resultOffset, location.valueLength)
+            resultOffset += location.valueLength
+        }
+        return result
+    }
+
+    private fun read(offset: Long, destination: ByteArray, destinationOffset: Int, length: Int) {
+        if (offset >= fileLength) {
+            System.arraycopy(pending.getInternalBuffer(), (offset - fileLength).toInt(), destination, destinationOffset, length)
+        }
+        else {
+            val buffer = map().duplicate()
+            buffer.position(offset.toInt())
+            buffer.get(destination, destinationOffset, length)
+        }
+    }
+
+    private fun map(): MappedByteBuffer {
+        val buffer = mappedBuffer
+        if (buffer != null && buffer.capacity().toLong() == fileLength) return buffer
+
+        val newBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileLength)
+        mappedBuffer = newBuffer
+        return newBuffer
+    }
+
+    private fun writePending() {
+        if (pending.size() == 0) return
+        channel.write(java.nio.ByteBuffer.wrap(pending.getInternalBuffer(), 0, pending.size()), fileLength)
+        fileLength += pending.size()
+        pending.reset()
+    }
+
+    private fun header(): ByteArray {
+        val output = ByteArrayOutputStream()
+        with(DataOutputStream(output)) {
+            writeInt(MAGIC)
+            writeInt(VERSION)
+        }
+        return output.toByteArray()
+    }
+
+    private fun startCompaction() {
+        val snapshotLength = fileLength
+        val snapshot = map()
+        val liveRecords = indices.values().flatMap { it.locations.values().flatMap { it } }.sortBy { it.recordOffset }
+        val maps = HashMap(mapIds)
+        val newFile = File(directory, "$baseName.${generation + 1}.log.tmp")
+
+        val thread = Thread({
+            val relocation = try {
+                compact(snapshot, liveRecords, maps, newFile)
+            }
+            catch (e: IOException) {
+                FileUtil.delete(newFile)
+                null
+            }
+            synchronized(lock) {
+                compactionThread = null
+                if (relocation != null) {
+                    if (closed) {
+                        FileUtil.delete(newFile)
+                    }
+                    else {
+                        finishCompaction(newFile, snapshotLength, relocation)
+                    }
+                }
+            }
+        }, "Incremental cache compaction")
+        thread.setDaemon(true)
+        compactionThread = thread
+        thread.start()
+    }
+
+    // copies live records to a new file, returns new offsets of the records
+    private fun compact(snapshot: MappedByteBuffer, liveRecords: List<Location>, maps: Map<String, Int>, newFile: File): Map<Long, Long> {
+        val relocation = HashMap<Long, Long>()
+        DataOutputStream(BufferedOutputStream(FileOutputStream(newFile))).use { output ->
+            output.write(header())
+            var offset = HEADER_LENGTH
+
+            for ((name, mapId) in maps) {
+                val nameBytes = name.toByteArray(Charsets.UTF_8)
+                output.writeInt(RECORD_HEADER_LENGTH - 4 + nameBytes.size())
+                output.writeByte(mapId)
+                output.writeByte(DEFINE.toInt())
+                output.writeInt(nameBytes.size())
+                output.write(nameBytes)
+                offset += RECORD_HEADER_LENGTH + nameBytes.size()
+            }
+
+            val buffer = snapshot.duplicate()
+            val bytes = ByteArray(liveRecords.map { it.recordLength }.max() ?: 0)
+            for (location in liveRecords) {
+                buffer.position(location.recordOffset.toInt())
+                buffer.get(bytes, 0, location.recordLength)
+                output.write(bytes, 0, location.recordLength)
+                relocation[location.recordOffset] = offset
+                offset += location.recordLength
+            }
+        }
+        return relocation
+    }
+
+    private fun finishCompaction(newFile: File, snapshotLength: Long, relocation: Map<Long, Long>) {
+        writePending()
+
+        val newChannel = RandomAccessFile(newFile, "rw").getChannel()
+        try {
+            // records written since compaction has started
+            val compactedLength = newChannel.size()
+            var transferred = 0L
+            while (transferred < fileLength - snapshotLength) {
+                transferred += channel.transferTo(snapshotLength + transferred, fileLength - snapshotLength - transferred,
+                                                  newChannel.position(compactedLength + transferred))
+            }
+            val shift = compactedLength - snapshotLength
+
+            for (index in indices.values()) {
+                for (locations in index.locations.values()) {
+                    for (i in locations.indices) {
+                        val location = locations[i]
+                        val newOffset = if (location.recordOffset < snapshotLength) relocation[location.recordOffset]!! else location.recordOffset + shift
+                        locations[i] = location.moveTo(newOffset)
+                    }
+                }
+            }
+            fileLength = newChannel.size()
+        }
+        finally {
+            newChannel.close()
+        }
+
+        val oldFile = file(generation)
+        channel.close()
+        mappedBuffer = null
+        generation++
+        FileUtil.rename(newFile, file(generation))
+        // may fail while the old file is still mapped, then it's deleted on next open
+        FileUtil.delete(oldFile)
+        channel = RandomAccessFile(file(generation), "rw").getChannel()
+    }
+
+    private fun MapIndex.serializeKey(key: String): ByteArray {
+        val output = BufferExposingByteArrayOutputStream()
+        keyDescriptor.save(DataOutputStream(output), key)
+        return output.toByteArray()
+    }
+
+    private fun MapIndex.deserializeKey(bytes: ByteArray): String =
+            keyDescriptor.read(DataInputStream(ByteArrayInputStream(bytes)))
+
+    companion object {
+        private val MAGIC = 0x4B494331 // "KIC1"
+        private val VERSION = 1
+        private val HEADER_LENGTH = 8L
+
+        // length, map id, operation and length of key
+        private val RECORD_HEADER_LENGTH = 4 + 1 + 1 + 4
+
+        private val DEFINE: Byte = 0
+        private val PUT: Byte = 1
+        private val APPEND: Byte = 2
+        private val REMOVE: Byte = 3
+        private val CLEAR: Byte = 4
+
+        private val MIN_COMPACTION_LENGTH = 1024L * 1024L
+    }
+}
@@ -155,12 +155,24 @@ public class IncrementalJpsTestGenerated extends AbstractIncrementalJpsTest {
             doTest(fileName);
         }
 
+        @TestMetadata("classMemberChangedOtherClassWithSameMember")
+        public void testClassMemberChangedOtherClassWithSameMember() throws Exception {
+            String fileName = JetTestUtils.navigationMetadata("jps-plugin/testData/incremental/pureKotlin/classMemberChangedOtherClassWithSameMember/");
+            doTest(fileName);
+        }
+
         @TestMetadata("classObjectConstantChanged")
         public void testClassObjectConstantChanged() throws Exception {
             String fileName = JetTestUtils.navigationMetadata("jps-plugin/testData/incremental/pureKotlin/classObjectConstantChanged/");
             doTest(fileName);
         }
 
+        @TestMetadata("classOperatorConventionChanged")
+        public void testClassOperatorConventionChanged() throws Exception {
+            String fileName = JetTestUtils.navigationMetadata("jps-plugin/testData/incremental/pureKotlin/classOperatorConventionChanged/");
+            doTest(fileName);
+        }
+
         @TestMetadata("classRecreated")
         public void testClassRecreated() throws Exception {
             String fileName = JetTestUtils.navigationMetadata("jps-plugin/testData/incremental/pureKotlin/classRecreated/");
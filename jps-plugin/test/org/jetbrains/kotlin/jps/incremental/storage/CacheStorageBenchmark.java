@@ -0,0 +1,124 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental.storage;
+
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.io.EnumeratorStringDescriptor;
+import com.intellij.util.io.IOUtil;
+import kotlin.Unit;
+import kotlin.jvm.functions.Function1;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares storages of incremental caches on a workload similar to a build: values are put, appended, checked and read,
+ * then the caches are flushed, closed and opened again.
+ *
+ * Usage: CacheStorageBenchmark [number of keys]
+ */
+public class CacheStorageBenchmark {
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int keys = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        System.out.println("storage, write ms, read ms, flush ms, reopen ms");
+        for (boolean logStructured : new boolean[] {false, true}) {
+            long[] best = null;
+            for (int i = 0; i < ITERATIONS; i++) {
+                long[] times = run(logStructured, keys);
+                if (best == null || sum(times) < sum(best)) {
+                    best = times;
+                }
+            }
+            assert best != null;
+            System.out.println((logStructured ? "log-structured" : "persistent hash map") + ", " +
+                               TimeUnit.NANOSECONDS.toMillis(best[0]) + ", " + TimeUnit.NANOSECONDS.toMillis(best[1]) + ", " +
+                               TimeUnit.NANOSECONDS.toMillis(best[2]) + ", " + TimeUnit.NANOSECONDS.toMillis(best[3]));
+        }
+    }
+
+    @NotNull
+    private static long[] run(boolean logStructured, int keys) throws IOException {
+        File directory = FileUtil.createTempDirectory("cacheStorageBenchmark", null);
+        try {
+            CacheStorageFactory factory = createFactory(logStructured, directory);
+            CacheStorage<String> proto = factory.create("proto", new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+            CacheStorage<String> sources = factory.create("sources", new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < keys; i++) {
+                proto.put("class" + i, "data" + i);
+                final String className = "class" + i;
+                sources.append("source" + i % 100, new Function1<DataOutput, Unit>() {
+                    @Override
+                    public Unit invoke(DataOutput out) {
+                        try {
+                            IOUtil.writeUTF(out, className);
+                        }
+                        catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                        return Unit.INSTANCE$;
+                    }
+                });
+            }
+            long writeEnd = System.nanoTime();
+
+            int found = 0;
+            for (int i = 0; i < keys; i++) {
+                if (proto.contains("class" + i) && proto.get("class" + i) != null) found++;
+            }
+            long readEnd = System.nanoTime();
+
+            factory.flush(false);
+            factory.close();
+            long flushEnd = System.nanoTime();
+
+            factory = createFactory(logStructured, directory);
+            proto = factory.create("proto", new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+            factory.create("sources", new EnumeratorStringDescriptor(), new EnumeratorStringDescriptor());
+            if (proto.get("class0") == null || found != keys) {
+                throw new AssertionError("Lost data");
+            }
+            factory.close();
+            long reopenEnd = System.nanoTime();
+
+            return new long[] {writeEnd - start, readEnd - writeEnd, flushEnd - readEnd, reopenEnd - flushEnd};
+        }
+        finally {
+            FileUtil.delete(directory);
+        }
+    }
+
+    @NotNull
+    private static CacheStorageFactory createFactory(boolean logStructured, @NotNull File directory) {
+        return logStructured ? new LogStructuredStorageFactory(directory) : new PersistentHashMapStorageFactory(directory);
+    }
+
+    private static long sum(@NotNull long[] times) {
+        long result = 0;
+        for (long time : times) {
+            result += time;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2010-2015 JetBrains s.r.o.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jetbrains.kotlin.jps.incremental.storage
+
+import com.intellij.openapi.util.io.FileUtil
+import com.intellij.openapi.util.io.FileUtilRt
+import com.intellij.util.io.EnumeratorStringDescriptor
+import com.intellij.util.io.IOUtil
+import com.intellij.util.io.DataExternalizer
+import junit.framework.TestCase
+import org.jetbrains.jps.incremental.storage.PathStringDescriptor
+import java.io.DataInput
+import java.io.DataInputStream
+import java.io.DataOutput
+import java.io.File
+import java.util.ArrayList
+
+public class LogStructuredStorageTest : TestCase() {
+    private var directory: File by kotlin.properties.Delegates.notNull()
+
+    override fun setUp() {
+        super.setUp()
+        directory = FileUtil.createTempDirectory("logStructuredStorage", null)
+    }
+
+    override fun tearDown() {
+        FileUtil.delete(directory)
+        super.tearDown()
+    }
+
+    fun testPutGetRemove() {
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            map.put("a", "1")
+            map.put("b", "2")
+            map.put("a", "3")
+            map.remove("b")
+
+            assertEquals("3", map["a"])
+            assertNull(map["b"])
+            assertTrue("a" in map)
+            assertFalse("b" in map)
+            assertEquals(listOf("a"), map.keys.toList())
+        }
+    }
+
+    fun testAppend() {
+        withStorage { file ->
+            val map = file.createListMap("map")
+            map.append("a") { IOUtil.writeUTF(it, "1") }
+            map.append("a") { IOUtil.writeUTF(it, "2") }
+            map.put("b", listOf("3"))
+            map.append("b") { IOUtil.writeUTF(it, "4") }
+
+            assertEquals(listOf("1", "2"), map["a"])
+            assertEquals(listOf("3", "4"), map["b"])
+        }
+    }
+
+    fun testClean() {
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            val other = file.createStringMap("other")
+            map.put("a", "1")
+            other.put("a", "2")
+            map.clean()
+
+            assertNull(map["a"])
+            assertTrue(map.keys.isEmpty())
+            assertEquals("2", other["a"])
+        }
+    }
+
+    fun testDataIsPersisted() {
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            val list = file.createListMap("list")
+            val other = file.createStringMap("other")
+            map.put("a", "1")
+            map.put("b", "2")
+            map.remove("a")
+            list.append("c") { IOUtil.writeUTF(it, "3") }
+            other.put("d", "4")
+            other.clean()
+            other.put("e", "5")
+        }
+
+        withStorage { file ->
+            // maps may be created in different order
+            val other = file.createStringMap("other")
+            val list = file.createListMap("list")
+            val map = file.createStringMap("map")
+            assertEquals(listOf("b"), map.keys.toList())
+            assertEquals("2", map["b"])
+            assertEquals(listOf("3"), list["c"])
+            assertEquals(listOf("e"), other.keys.toList())
+        }
+    }
+
+    fun testBrokenRecordIsDropped() {
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            map.put("a", "1")
+            map.put("b", "2")
+        }
+
+        val logFile = directory.listFiles().single()
+        val bytes = FileUtil.loadFileBytes(logFile)
+        FileUtil.writeToFile(logFile, bytes.copyOf(bytes.size() - 1))
+
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            assertEquals("1", map["a"])
+            assertNull(map["b"])
+            map.put("c", "3")
+        }
+
+        withStorage { file ->
+            assertEquals("3", file.createStringMap("map")["c"])
+        }
+    }
+
+    fun testCompaction() {
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            val value = "x".repeat(1000)
+            repeat(5) { iteration ->
+                for (i in 1..1000) {
+                    map.put("key$i", value + iteration)
+                }
+                file.flush(memoryCachesOnly = true)
+            }
+            map.put("last", "value")
+        }
+
+        val logFiles = directory.listFiles()
+        assertEquals(1, logFiles.size())
+        assertFalse(logFiles.single().getName(), logFiles.single().getName() == "caches.0.log")
+
+        withStorage { file ->
+            val map = file.createStringMap("map")
+            assertEquals(1001, map.keys.size())
+            assertEquals("x".repeat(1000) + "4", map["key1"])
+            assertEquals("value", map["last"])
+        }
+    }
+
+    fun testPathKeysUseDescriptorEquality() {
+        withStorage { file ->
+            val map = file.createMap("paths", PathStringDescriptor.INSTANCE, EnumeratorStringDescriptor())
+            map.put("/a/B.kt", "1")
+            assertEquals(FileUtilRt.pathsEqual("/a/B.kt", "/a/b.kt"), "/a/b.kt" in map)
+        }
+    }
+
+    private fun withStorage(body: (LogStructuredStorageFile) -> Unit) {
+        val file = LogStructuredStorageFile(directory, "caches")
+        try {
+            body(file)
+        }
+        finally {
+            file.close()
+        }
+    }
+
+    private fun LogStructuredStorageFile.createStringMap(name: String): CacheStorage<String> =
+            createMap(name, EnumeratorStringDescriptor(), EnumeratorStringDescriptor())
+
+    private fun LogStructuredStorageFile.createListMap(name: String): CacheStorage<List<String>> =
+            createMap(name, EnumeratorStringDescriptor(), StringListExternalizer)
+
+    private object StringListExternalizer : DataExternalizer<List<String>> {
+        override fun save(out: DataOutput, value: List<String>) {
+            value.forEach { IOUtil.writeUTF(out, it) }
+        }
+
+        override fun read(`in`: DataInput): List<String> {
+            val result = ArrayList<String>()
+            while ((`in` as DataInputStream).available() > 0) {
+                result.add(IOUtil.readUTF(`in`))
+            }
+            return result
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package test
+
+class Other {
+    fun foo() = 1
+}
+
+fun other(o: Other) {
+    o.foo()
+}
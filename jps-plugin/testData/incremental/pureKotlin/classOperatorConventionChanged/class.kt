@@ -0,0 +1,5 @@
+package test
+
+class Klass {
+    fun plus(other: Klass): Klass = this
+}
@@ -0,0 +1,3 @@
+package test
+
+fun klass() = Klass()
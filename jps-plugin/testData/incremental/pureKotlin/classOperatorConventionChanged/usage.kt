@@ -0,0 +1,5 @@
+package test
+
+fun usage() {
+    klass() + klass()
+}
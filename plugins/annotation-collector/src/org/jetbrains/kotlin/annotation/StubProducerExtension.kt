@@ -55,6 +55,7 @@ public class StubProducerExtension(val stubsOutputDir: File) : AnalysisCompleted
                 GenerationState.GenerateClassFilter.GENERATE_ALL,
                 /*disableInline =*/ false,
                 /*disableOptimization =*/ false,
+                /*abiOnly =*/ false,
                 /*packagesWithObsoleteParts =*/ null,
                 /*moduleId =*/ null,
                 forExtraDiagnostics,